@@ -0,0 +1,282 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reader decorator with a block cache and sequential read-ahead.
+ *
+ * The underlying reader is only read in whole, aligned blocks. When a block
+ * that follows the last one read is missing, the next blocks are fetched in
+ * the same underlying read. Box and marker segment parsing, which reads a
+ * few bytes at a time, then costs a few large reads instead of one per
+ * field. This helps most on network file systems and slow disks.
+ *
+ * Byte ranges larger than a block (such as tile-part data) are passed
+ * straight to the underlying reader, so they do not evict header blocks.
+ *
+ * Counters for cache hits, misses and the number of bytes read from the
+ * underlying reader are kept, to help tune the block size and read-ahead
+ * depth for each storage tier.
+ */
+public class JP2BufferedReader implements JP2Reader {
+
+    static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    static final int DEFAULT_READ_AHEAD_BLOCKS = 3;
+    static final int DEFAULT_MAX_CACHED_BLOCKS = 64;
+
+    private final JP2Reader mReader;
+    private final int mBlockSize;
+    private final int mReadAheadBlocks;
+    private final long mLength;
+    private final Map<Long, byte[]> mBlocks;
+
+    private long mPosition = 0;
+    private long mLastBlockNumber = -1;
+
+    private long mCacheHits = 0;
+    private long mCacheMisses = 0;
+    private long mBytesRead = 0;
+
+    /**
+     * Constructor using the default block size and read-ahead depth.
+     *
+     * @param reader the underlying reader
+     * @throws JP2ParsingException if the length of the underlying reader could not be determined
+     */
+    public JP2BufferedReader(final JP2Reader reader) throws JP2ParsingException {
+        this(reader, DEFAULT_BLOCK_SIZE, DEFAULT_READ_AHEAD_BLOCKS, DEFAULT_MAX_CACHED_BLOCKS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param reader the underlying reader
+     * @param blockSize the size of each block in bytes, which is also the alignment of underlying reads
+     * @param readAheadBlocks the number of additional blocks to read on a sequential cache miss
+     * @param maxCachedBlocks the maximum number of blocks to keep, least recently used blocks are dropped first
+     * @throws JP2ParsingException if the length of the underlying reader could not be determined
+     */
+    public JP2BufferedReader(final JP2Reader reader, final int blockSize, final int readAheadBlocks, final int maxCachedBlocks) throws JP2ParsingException {
+        if (blockSize <= 0 || readAheadBlocks < 0 || maxCachedBlocks <= readAheadBlocks) {
+            throw new IllegalArgumentException("Invalid block cache configuration");
+        }
+        mReader = reader;
+        mBlockSize = blockSize;
+        mReadAheadBlocks = readAheadBlocks;
+        mLength = reader.getLength();
+        mPosition = reader.getPosition();
+        mBlocks = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, byte[]> eldest) {
+                return size() > maxCachedBlocks;
+            }
+        };
+    }
+
+    @Override
+    public void skipBytes(final int numOfBytesToSkip) throws JP2ParsingException {
+        if (numOfBytesToSkip > 0) {
+            mPosition = Math.min(mPosition + numOfBytesToSkip, mLength);
+        }
+    }
+
+    @Override
+    public byte readUnsignedByte() throws JP2ParsingException {
+        checkAvailable(mPosition, PackageConstants.UNSIGNED_BYTE_LENGTH);
+        byte value = getBlock(mPosition / mBlockSize)[(int) (mPosition % mBlockSize)];
+        mPosition += PackageConstants.UNSIGNED_BYTE_LENGTH;
+        return value;
+    }
+
+    @Override
+    public int readUnsignedShort() throws JP2ParsingException {
+        return (int) readBigEndian(PackageConstants.UNSIGNED_SHORT_LENGTH);
+    }
+
+    @Override
+    public int readUnsignedInt() throws JP2ParsingException {
+        return (int) readBigEndian(PackageConstants.UNSIGNED_INT_LENGTH);
+    }
+
+    @Override
+    public byte[] getBytes(final int byteArrayLength) throws JP2ParsingException {
+        byte[] bytes = copyRange(mPosition, byteArrayLength);
+        mPosition += byteArrayLength;
+        return bytes;
+    }
+
+    @Override
+    public String getFixedLengthString(final int stringLength) throws JP2ParsingException {
+        return new String(getBytes(stringLength), StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public boolean hasDataRemaining() throws JP2ParsingException {
+        return mPosition < mLength;
+    }
+
+    @Override
+    public long getPosition() throws JP2ParsingException {
+        return mPosition;
+    }
+
+    @Override
+    public void seek(final long position) throws JP2ParsingException {
+        if (position < 0 || position > mLength) {
+            throw new JP2ParsingException("Unable to seek to " + position + ", length is " + mLength);
+        }
+        mPosition = position;
+    }
+
+    @Override
+    public long getLength() throws JP2ParsingException {
+        return mLength;
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer(final long position, final int length) throws JP2ParsingException {
+        if (length > mBlockSize) {
+            checkAvailable(position, length);
+            synchronized (this) {
+                mBytesRead += length;
+            }
+            return mReader.getByteBuffer(position, length);
+        }
+        return ByteBuffer.wrap(copyRange(position, length));
+    }
+
+    /**
+     * Get the number of block lookups satisfied from the cache.
+     *
+     * @return number of cache hits
+     */
+    public synchronized long getCacheHits() {
+        return mCacheHits;
+    }
+
+    /**
+     * Get the number of block lookups that needed an underlying read.
+     *
+     * @return number of cache misses
+     */
+    public synchronized long getCacheMisses() {
+        return mCacheMisses;
+    }
+
+    /**
+     * Get the fraction of block lookups satisfied from the cache.
+     *
+     * @return hit rate between 0 and 1, or 0 if nothing has been read
+     */
+    public synchronized double getHitRate() {
+        long lookups = mCacheHits + mCacheMisses;
+        return (lookups == 0) ? 0.0 : (double) mCacheHits / lookups;
+    }
+
+    /**
+     * Get the number of bytes read from the underlying reader.
+     *
+     * @return bytes read, including read-ahead and pass-through reads
+     */
+    public synchronized long getBytesRead() {
+        return mBytesRead;
+    }
+
+    private long readBigEndian(final int numberOfBytes) throws JP2ParsingException {
+        checkAvailable(mPosition, numberOfBytes);
+        long value = 0;
+        int offsetInBlock = (int) (mPosition % mBlockSize);
+        if (offsetInBlock + numberOfBytes <= mBlockSize) {
+            byte[] block = getBlock(mPosition / mBlockSize);
+            for (int i = 0; i < numberOfBytes; ++i) {
+                value = (value << 8) | (block[offsetInBlock + i] & 0xFF);
+            }
+        } else {
+            for (byte b : copyRange(mPosition, numberOfBytes)) {
+                value = (value << 8) | (b & 0xFF);
+            }
+        }
+        mPosition += numberOfBytes;
+        return value;
+    }
+
+    private byte[] copyRange(final long position, final int length) throws JP2ParsingException {
+        checkAvailable(position, length);
+        byte[] bytes = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            long current = position + copied;
+            int offsetInBlock = (int) (current % mBlockSize);
+            byte[] block = getBlock(current / mBlockSize);
+            int count = Math.min(length - copied, block.length - offsetInBlock);
+            System.arraycopy(block, offsetInBlock, bytes, copied, count);
+            copied += count;
+        }
+        return bytes;
+    }
+
+    private synchronized byte[] getBlock(final long blockNumber) throws JP2ParsingException {
+        byte[] block = mBlocks.get(blockNumber);
+        if (block != null) {
+            mCacheHits++;
+            mLastBlockNumber = blockNumber;
+            return block;
+        }
+        mCacheMisses++;
+        boolean sequential = (blockNumber == mLastBlockNumber + 1);
+        long lastBlockNumber = (mLength - 1) / mBlockSize;
+        long endBlockNumber = blockNumber + 1;
+        if (sequential) {
+            // Extend the read over following blocks that are not already cached.
+            while (endBlockNumber <= Math.min(blockNumber + mReadAheadBlocks, lastBlockNumber) && !mBlocks.containsKey(endBlockNumber)) {
+                endBlockNumber++;
+            }
+        }
+        long start = blockNumber * mBlockSize;
+        int length = (int) (Math.min(endBlockNumber * mBlockSize, mLength) - start);
+        ByteBuffer buffer = mReader.getByteBuffer(start, length);
+        mBytesRead += length;
+        for (long n = blockNumber; n < endBlockNumber; ++n) {
+            byte[] readBlock = new byte[Math.min(mBlockSize, buffer.remaining())];
+            buffer.get(readBlock);
+            mBlocks.put(n, readBlock);
+            if (n == blockNumber) {
+                block = readBlock;
+            }
+        }
+        mLastBlockNumber = blockNumber;
+        return block;
+    }
+
+    private void checkAvailable(final long position, final int numberOfBytes) throws JP2ParsingException {
+        if (position < 0 || numberOfBytes < 0 || position + numberOfBytes > mLength) {
+            throw new JP2ParsingException("Could not read " + numberOfBytes + " bytes at offset " + position + ", length is " + mLength);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * In-memory reader over a ByteBuffer or byte array.
+ *
+ * This allows JP2 data received from a message queue or download to be
+ * parsed without writing it to a file. The data is not copied: tile data
+ * and other ranges are returned as read-only views onto the same memory.
+ * Heap and direct buffers are both supported.
+ */
+public class JP2ByteBufferReader implements JP2Reader {
+
+    private final ByteBuffer mBuffer;
+    private int mPosition = 0;
+
+    /**
+     * Constructor for a reader over a buffer.
+     *
+     * The reader covers the bytes between the buffer's position and limit
+     * at the time of construction. The position and limit of the buffer
+     * passed in are not changed.
+     *
+     * @param buffer the buffer containing the JP2 data
+     */
+    public JP2ByteBufferReader(final ByteBuffer buffer) {
+        mBuffer = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Constructor for a reader over a byte array.
+     *
+     * @param bytes the array containing the JP2 data
+     */
+    public JP2ByteBufferReader(final byte[] bytes) {
+        this(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Constructor for a reader over part of a byte array.
+     *
+     * @param bytes the array containing the JP2 data
+     * @param offset the offset of the first byte of JP2 data within the array
+     * @param length the number of bytes of JP2 data
+     */
+    public JP2ByteBufferReader(final byte[] bytes, final int offset, final int length) {
+        this(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    @Override
+    public void skipBytes(final int numOfBytesToSkip) throws JP2ParsingException {
+        if (numOfBytesToSkip > 0) {
+            mPosition = (int) Math.min((long) mPosition + numOfBytesToSkip, mBuffer.limit());
+        }
+    }
+
+    @Override
+    public byte readUnsignedByte() throws JP2ParsingException {
+        checkAvailable(PackageConstants.UNSIGNED_BYTE_LENGTH);
+        byte value = mBuffer.get(mPosition);
+        mPosition += PackageConstants.UNSIGNED_BYTE_LENGTH;
+        return value;
+    }
+
+    @Override
+    public int readUnsignedShort() throws JP2ParsingException {
+        checkAvailable(PackageConstants.UNSIGNED_SHORT_LENGTH);
+        int value = mBuffer.getShort(mPosition) & 0x0000FFFF;
+        mPosition += PackageConstants.UNSIGNED_SHORT_LENGTH;
+        return value;
+    }
+
+    @Override
+    public int readUnsignedInt() throws JP2ParsingException {
+        checkAvailable(PackageConstants.UNSIGNED_INT_LENGTH);
+        int value = mBuffer.getInt(mPosition);
+        mPosition += PackageConstants.UNSIGNED_INT_LENGTH;
+        return value;
+    }
+
+    @Override
+    public byte[] getBytes(final int byteArrayLength) throws JP2ParsingException {
+        checkAvailable(byteArrayLength);
+        byte[] bytes = new byte[byteArrayLength];
+        ByteBuffer view = mBuffer.duplicate();
+        view.position(mPosition);
+        view.get(bytes);
+        mPosition += byteArrayLength;
+        return bytes;
+    }
+
+    @Override
+    public String getFixedLengthString(final int stringLength) throws JP2ParsingException {
+        return new String(getBytes(stringLength), StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public boolean hasDataRemaining() throws JP2ParsingException {
+        return mPosition < mBuffer.limit();
+    }
+
+    @Override
+    public long getPosition() throws JP2ParsingException {
+        return mPosition;
+    }
+
+    @Override
+    public void seek(final long position) throws JP2ParsingException {
+        if (position < 0 || position > mBuffer.limit()) {
+            throw new JP2ParsingException("Unable to seek to " + position + ", buffer length is " + mBuffer.limit());
+        }
+        mPosition = (int) position;
+    }
+
+    @Override
+    public long getLength() throws JP2ParsingException {
+        return mBuffer.limit();
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer(final long position, final int length) throws JP2ParsingException {
+        if (position < 0 || length < 0 || position + length > mBuffer.limit()) {
+            throw new JP2ParsingException("Unable to read " + length + " bytes at offset " + position + ", buffer length is " + mBuffer.limit());
+        }
+        ByteBuffer view = mBuffer.asReadOnlyBuffer();
+        view.position((int) position);
+        view.limit((int) position + length);
+        return view.slice();
+    }
+
+    private void checkAvailable(final int numberOfBytes) throws JP2ParsingException {
+        if (numberOfBytes < 0 || (long) mPosition + numberOfBytes > mBuffer.limit()) {
+            throw new JP2ParsingException("Could not read " + numberOfBytes + " bytes, only " + (mBuffer.limit() - mPosition) + " bytes remaining");
+        }
+    }
+}
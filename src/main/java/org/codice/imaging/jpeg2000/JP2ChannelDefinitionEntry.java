@@ -31,6 +31,15 @@ package org.codice.imaging.jpeg2000;
  */
 public class JP2ChannelDefinitionEntry {
 
+    /** Channel type for a colour channel. */
+    public static final int COLOUR_CHANNEL = 0;
+
+    /** Channel type for an opacity (alpha) channel. */
+    public static final int OPACITY_CHANNEL = 1;
+
+    /** Channel type for a premultiplied opacity channel. */
+    public static final int PREMULTIPLIED_OPACITY_CHANNEL = 2;
+
     static int numberOfBytesInOneEntry() {
         return 3 * PackageConstants.UNSIGNED_SHORT_LENGTH;
     }
@@ -0,0 +1,493 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.util.Arrays;
+
+/**
+ * Tier-1 decoder, which decodes the coding passes of a code-block into
+ * quantized coefficients.
+ *
+ * The code-block data is located using a JP2CodeBlockIndex from the
+ * JP2PacketDecoder. The significance propagation, magnitude refinement and
+ * cleanup passes are decoded per Annex D, including all of the code-block
+ * style options.
+ *
+ * Coefficients are written with one extra bit of precision below the least
+ * significant bit-plane (so they are twice the quantization index), and
+ * with the reconstruction point half way into the interval given by the
+ * bit-planes that were decoded. Divide by two (rounding towards zero) for
+ * the quantization index of a reversibly coded sample.
+ *
+ * The state arrays are kept between code-blocks, so decoding does not
+ * allocate once they have grown to the largest code-block size. A decoder
+ * must not be used by more than one thread at a time, so use one decoder
+ * per thread.
+ */
+public class JP2CodeBlockDecoder {
+
+    // Neighbour significance, and the signs of the horizontal and vertical neighbours
+    private static final int N = 0x0001;
+    private static final int W = 0x0002;
+    private static final int E = 0x0004;
+    private static final int S = 0x0008;
+    private static final int NW = 0x0010;
+    private static final int NE = 0x0020;
+    private static final int SW = 0x0040;
+    private static final int SE = 0x0080;
+    private static final int NEIGHBOURS = 0x00FF;
+    private static final int N_NEGATIVE = 0x0100;
+    private static final int W_NEGATIVE = 0x0200;
+    private static final int E_NEGATIVE = 0x0400;
+    private static final int S_NEGATIVE = 0x0800;
+    private static final int SIGNIFICANT = 0x1000;
+    private static final int VISITED = 0x2000;
+    private static final int REFINED = 0x4000;
+    // With vertically causal context formation, the stripe below is ignored. See Section D.7.
+    private static final int CAUSAL_MASK = ~(SW | S | SE | S_NEGATIVE);
+
+    private static final int STRIPE_HEIGHT = 4;
+    private static final int SIGN_CONTEXT = 9;
+    private static final int REFINEMENT_CONTEXT = 14;
+    // Cleanup is the first pass of a code-block, and the last pass for each bit-plane.
+    private static final int SIGNIFICANCE_PASS = 0;
+    private static final int REFINEMENT_PASS = 1;
+    private static final int CLEANUP_PASS = 2;
+    // The most bit-planes that fit in an int, allowing for the sign and the extra bit.
+    private static final int MAXIMUM_BIT_PLANES = 30;
+    private static final int SEGMENT_PADDING = 2;
+
+    // Zero coding contexts, indexed by orientation and neighbour significance. See Table D-1.
+    private static final byte[] ZERO_CODING_CONTEXTS = new byte[4 * 256];
+    // Sign coding context and XOR bit, indexed by the horizontal and vertical neighbour significance and signs. See Table D-3.
+    private static final byte[] SIGN_CONTEXTS = new byte[256];
+
+    static {
+        for (int orientation = 0; orientation < 4; ++orientation) {
+            for (int neighbours = 0; neighbours < 256; ++neighbours) {
+                ZERO_CODING_CONTEXTS[(orientation << 8) | neighbours] = (byte) getZeroCodingContext(orientation, neighbours);
+            }
+        }
+        for (int key = 0; key < 256; ++key) {
+            int horizontal = getSignContribution(key, W, W_NEGATIVE >> 4) + getSignContribution(key, E, E_NEGATIVE >> 4);
+            int vertical = getSignContribution(key, N, N_NEGATIVE >> 4) + getSignContribution(key, S, S_NEGATIVE >> 4);
+            horizontal = Math.max(-1, Math.min(1, horizontal));
+            vertical = Math.max(-1, Math.min(1, vertical));
+            if (horizontal < 0 || (horizontal == 0 && vertical < 0)) {
+                horizontal = -horizontal;
+                vertical = -vertical;
+                SIGN_CONTEXTS[key] = (byte) (((SIGN_CONTEXT + getSignContextOffset(horizontal, vertical)) << 1) | 1);
+            } else {
+                SIGN_CONTEXTS[key] = (byte) ((SIGN_CONTEXT + getSignContextOffset(horizontal, vertical)) << 1);
+            }
+        }
+    }
+
+    private final JP2MQDecoder mDecoder = new JP2MQDecoder();
+    private int[] mFlags = new int[0];
+    private int[] mCoefficients = new int[0];
+    private byte[] mSegment = new byte[0];
+    private int mFlagsWidth = 0;
+    private long mNumberOfCodeBlocksDecoded = 0;
+    private long mNumberOfPassesDecoded = 0;
+
+    /**
+     * Decode a code-block.
+     *
+     * The coefficients are written into an array covering a larger area,
+     * such as the sub-band or the tile-component. Coefficients of a
+     * code-block that has no data are set to zero.
+     *
+     * @param index the index of code-block contributions in the tile
+     * @param codeBlock the code-block number within the tile layout
+     * @param coefficients the array to write the coefficients to
+     * @param offset the position in the array for the top left coefficient of the code-block
+     * @param stride the distance in the array from one row to the next
+     * @throws JP2ParsingException if the code-block data is not consistent
+     */
+    public void decode(final JP2CodeBlockIndex index, final int codeBlock, final int[] coefficients, final int offset, final int stride) throws JP2ParsingException {
+        JP2TileLayout layout = index.getLayout();
+        int width = layout.getCodeBlockX1(codeBlock) - layout.getCodeBlockX0(codeBlock);
+        int height = layout.getCodeBlockY1(codeBlock) - layout.getCodeBlockY0(codeBlock);
+        int numberOfPasses = index.getNumberOfPassesToDecode(codeBlock);
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (numberOfPasses == 0) {
+            for (int y = 0; y < height; ++y) {
+                Arrays.fill(coefficients, offset + y * stride, offset + y * stride + width, 0);
+            }
+            return;
+        }
+        int band = layout.getCodeBlockBand(codeBlock);
+        int component = layout.getResolutionComponent(layout.getBandResolution(band));
+        int codeBlockStyle = layout.getComponentCodingStyle(component).getCodeBlockStyle();
+        int bitPlanes = layout.getBandMagnitudeBitPlanes(band) - index.getZeroBitPlanes(codeBlock);
+        if (bitPlanes <= 0 || bitPlanes > MAXIMUM_BIT_PLANES) {
+            throw new JP2ParsingException("Invalid number of bit-planes for code-block " + codeBlock + ": " + bitPlanes);
+        }
+        if (numberOfPasses > 3 * bitPlanes - 2) {
+            throw new JP2ParsingException("Too many coding passes for code-block " + codeBlock + ": " + numberOfPasses);
+        }
+        prepare(width, height);
+        decodePasses(index, codeBlock, width, height, layout.getBandOrientation(band), codeBlockStyle, bitPlanes);
+        for (int y = 0; y < height; ++y) {
+            System.arraycopy(mCoefficients, y * width, coefficients, offset + y * stride, width);
+        }
+        mNumberOfCodeBlocksDecoded++;
+        mNumberOfPassesDecoded += numberOfPasses;
+    }
+
+    /**
+     * Get the number of code-blocks that this decoder has decoded.
+     *
+     * Code-blocks without any coding passes are not counted.
+     *
+     * @return the number of code-blocks
+     */
+    public long getNumberOfCodeBlocksDecoded() {
+        return mNumberOfCodeBlocksDecoded;
+    }
+
+    /**
+     * Get the number of coding passes that this decoder has decoded.
+     *
+     * @return the number of passes, over all code-blocks
+     */
+    public long getNumberOfPassesDecoded() {
+        return mNumberOfPassesDecoded;
+    }
+
+    private void prepare(final int width, final int height) {
+        mFlagsWidth = width + 2;
+        int flagsLength = mFlagsWidth * (height + 2);
+        if (mFlags.length < flagsLength) {
+            mFlags = new int[flagsLength];
+        } else {
+            Arrays.fill(mFlags, 0, flagsLength, 0);
+        }
+        if (mCoefficients.length < width * height) {
+            mCoefficients = new int[width * height];
+        } else {
+            Arrays.fill(mCoefficients, 0, width * height, 0);
+        }
+    }
+
+    private void decodePasses(final JP2CodeBlockIndex index, final int codeBlock, final int width, final int height, final int orientation, final int codeBlockStyle, final int bitPlanes) throws JP2ParsingException {
+        boolean causal = (codeBlockStyle & JP2CodingStyle.CODE_BLOCK_VERTICALLY_CAUSAL) != 0;
+        boolean reset = (codeBlockStyle & JP2CodingStyle.CODE_BLOCK_RESET) != 0;
+        boolean segmentationSymbols = (codeBlockStyle & JP2CodingStyle.CODE_BLOCK_SEGMENTATION_SYMBOLS) != 0;
+        mDecoder.resetContexts();
+        int pass = 0;
+        int passType = CLEANUP_PASS;
+        // Bit-plane numbers count from one, because of the extra bit below the least significant bit-plane
+        int bitPlane = bitPlanes;
+        int numberOfLayers = index.getNumberOfLayersToDecode();
+        int piece = index.getFirstPiece(codeBlock);
+        while (piece != JP2CodeBlockIndex.NONE && index.getPieceLayer(piece) < numberOfLayers) {
+            // Gather the pieces of the codeword segment, which may come from several layers
+            int segmentLength = 0;
+            int segmentPasses = 0;
+            do {
+                int pieceLength = index.getPieceLength(piece);
+                ensureSegmentCapacity(segmentLength + pieceLength + SEGMENT_PADDING);
+                index.getPieceData(piece, mSegment, segmentLength);
+                segmentLength += pieceLength;
+                segmentPasses += index.getPiecePasses(piece);
+                piece = index.getNextPiece(piece);
+            } while (piece != JP2CodeBlockIndex.NONE && !index.isPieceSegmentStart(piece) && index.getPieceLayer(piece) < numberOfLayers);
+            mSegment[segmentLength] = (byte) 0xFF;
+            mSegment[segmentLength + 1] = (byte) 0xFF;
+            boolean raw = JP2PacketDecoder.isRawPass(pass, codeBlockStyle);
+            if (raw) {
+                mDecoder.startRaw(mSegment, 0);
+            } else {
+                mDecoder.start(mSegment, 0);
+            }
+            for (int i = 0; i < segmentPasses; ++i) {
+                switch (passType) {
+                    case SIGNIFICANCE_PASS:
+                        if (raw) {
+                            decodeRawSignificancePass(width, height, bitPlane, causal);
+                        } else {
+                            decodeSignificancePass(width, height, orientation << 8, bitPlane, causal);
+                        }
+                        break;
+                    case REFINEMENT_PASS:
+                        decodeRefinementPass(width, height, bitPlane, causal, raw);
+                        break;
+                    default:
+                        decodeCleanupPass(width, height, orientation << 8, bitPlane, causal);
+                        if (segmentationSymbols) {
+                            // Should be 1010, but there is nothing useful to do if it is not
+                            for (int j = 0; j < 4; ++j) {
+                                mDecoder.decode(JP2MQDecoder.UNIFORM_CONTEXT);
+                            }
+                        }
+                        break;
+                }
+                if (reset && !raw) {
+                    mDecoder.resetContexts();
+                }
+                pass++;
+                if (++passType > CLEANUP_PASS) {
+                    passType = SIGNIFICANCE_PASS;
+                    bitPlane--;
+                }
+            }
+        }
+    }
+
+    private void ensureSegmentCapacity(final int length) {
+        if (mSegment.length < length) {
+            mSegment = Arrays.copyOf(mSegment, Math.max(length, 2 * mSegment.length));
+        }
+    }
+
+    private void decodeSignificancePass(final int width, final int height, final int zeroCodingOffset, final int bitPlane, final boolean causal) {
+        int[] flags = mFlags;
+        int[] coefficients = mCoefficients;
+        int flagsWidth = mFlagsWidth;
+        int oneAndHalf = (1 << bitPlane) | (1 << (bitPlane - 1));
+        for (int stripe = 0; stripe < height; stripe += STRIPE_HEIGHT) {
+            int stripeEnd = Math.min(stripe + STRIPE_HEIGHT, height);
+            for (int x = 0; x < width; ++x) {
+                int flagIndex = (stripe + 1) * flagsWidth + x + 1;
+                for (int y = stripe; y < stripeEnd; ++y, flagIndex += flagsWidth) {
+                    int flag = flags[flagIndex];
+                    if (causal && y == stripe + STRIPE_HEIGHT - 1) {
+                        flag &= CAUSAL_MASK;
+                    }
+                    if ((flag & SIGNIFICANT) == 0 && (flag & NEIGHBOURS) != 0) {
+                        if (mDecoder.decode(ZERO_CODING_CONTEXTS[zeroCodingOffset | (flag & NEIGHBOURS)]) != 0) {
+                            int signContext = SIGN_CONTEXTS[(flag & 0x0F) | ((flag >> 4) & 0xF0)];
+                            boolean negative = (mDecoder.decode(signContext >> 1) ^ (signContext & 1)) != 0;
+                            coefficients[y * width + x] = negative ? -oneAndHalf : oneAndHalf;
+                            setSignificant(flagIndex, negative);
+                        }
+                        flags[flagIndex] |= VISITED;
+                    }
+                }
+            }
+        }
+    }
+
+    private void decodeRawSignificancePass(final int width, final int height, final int bitPlane, final boolean causal) {
+        int[] flags = mFlags;
+        int[] coefficients = mCoefficients;
+        int flagsWidth = mFlagsWidth;
+        int oneAndHalf = (1 << bitPlane) | (1 << (bitPlane - 1));
+        for (int stripe = 0; stripe < height; stripe += STRIPE_HEIGHT) {
+            int stripeEnd = Math.min(stripe + STRIPE_HEIGHT, height);
+            for (int x = 0; x < width; ++x) {
+                int flagIndex = (stripe + 1) * flagsWidth + x + 1;
+                for (int y = stripe; y < stripeEnd; ++y, flagIndex += flagsWidth) {
+                    int flag = flags[flagIndex];
+                    if (causal && y == stripe + STRIPE_HEIGHT - 1) {
+                        flag &= CAUSAL_MASK;
+                    }
+                    if ((flag & SIGNIFICANT) == 0 && (flag & NEIGHBOURS) != 0) {
+                        if (mDecoder.decodeRaw() != 0) {
+                            boolean negative = mDecoder.decodeRaw() != 0;
+                            coefficients[y * width + x] = negative ? -oneAndHalf : oneAndHalf;
+                            setSignificant(flagIndex, negative);
+                        }
+                        flags[flagIndex] |= VISITED;
+                    }
+                }
+            }
+        }
+    }
+
+    private void decodeRefinementPass(final int width, final int height, final int bitPlane, final boolean causal, final boolean raw) {
+        int[] flags = mFlags;
+        int[] coefficients = mCoefficients;
+        int flagsWidth = mFlagsWidth;
+        int half = 1 << (bitPlane - 1);
+        for (int stripe = 0; stripe < height; stripe += STRIPE_HEIGHT) {
+            int stripeEnd = Math.min(stripe + STRIPE_HEIGHT, height);
+            for (int x = 0; x < width; ++x) {
+                int flagIndex = (stripe + 1) * flagsWidth + x + 1;
+                for (int y = stripe; y < stripeEnd; ++y, flagIndex += flagsWidth) {
+                    int flag = flags[flagIndex];
+                    if ((flag & (SIGNIFICANT | VISITED)) != SIGNIFICANT) {
+                        continue;
+                    }
+                    int bit;
+                    if (raw) {
+                        bit = mDecoder.decodeRaw();
+                    } else {
+                        if (causal && y == stripe + STRIPE_HEIGHT - 1) {
+                            flag &= CAUSAL_MASK;
+                        }
+                        // See Table D-4
+                        int context;
+                        if ((flag & REFINED) != 0) {
+                            context = REFINEMENT_CONTEXT + 2;
+                        } else if ((flag & NEIGHBOURS) != 0) {
+                            context = REFINEMENT_CONTEXT + 1;
+                        } else {
+                            context = REFINEMENT_CONTEXT;
+                        }
+                        bit = mDecoder.decode(context);
+                    }
+                    // Move the reconstruction point into the upper or lower half of the interval
+                    int adjustment = (bit != 0) ? half : -half;
+                    int coefficientIndex = y * width + x;
+                    coefficients[coefficientIndex] += (coefficients[coefficientIndex] < 0) ? -adjustment : adjustment;
+                    flags[flagIndex] |= REFINED;
+                }
+            }
+        }
+    }
+
+    private void decodeCleanupPass(final int width, final int height, final int zeroCodingOffset, final int bitPlane, final boolean causal) {
+        int[] flags = mFlags;
+        int[] coefficients = mCoefficients;
+        int flagsWidth = mFlagsWidth;
+        int oneAndHalf = (1 << bitPlane) | (1 << (bitPlane - 1));
+        for (int stripe = 0; stripe < height; stripe += STRIPE_HEIGHT) {
+            int stripeEnd = Math.min(stripe + STRIPE_HEIGHT, height);
+            for (int x = 0; x < width; ++x) {
+                int flagIndex = (stripe + 1) * flagsWidth + x + 1;
+                int y = stripe;
+                if (stripeEnd - stripe == STRIPE_HEIGHT) {
+                    int lastFlag = flags[flagIndex + 3 * flagsWidth];
+                    if (causal) {
+                        lastFlag &= CAUSAL_MASK;
+                    }
+                    int mask = SIGNIFICANT | VISITED | NEIGHBOURS;
+                    if (((flags[flagIndex] | flags[flagIndex + flagsWidth] | flags[flagIndex + 2 * flagsWidth] | lastFlag) & mask) == 0) {
+                        // Run-length coding, see Section D.3.4
+                        if (mDecoder.decode(JP2MQDecoder.RUN_LENGTH_CONTEXT) == 0) {
+                            continue;
+                        }
+                        int run = mDecoder.decode(JP2MQDecoder.UNIFORM_CONTEXT) << 1;
+                        run |= mDecoder.decode(JP2MQDecoder.UNIFORM_CONTEXT);
+                        y += run;
+                        flagIndex += run * flagsWidth;
+                        int flag = flags[flagIndex];
+                        if (causal && y == stripe + STRIPE_HEIGHT - 1) {
+                            flag &= CAUSAL_MASK;
+                        }
+                        int signContext = SIGN_CONTEXTS[(flag & 0x0F) | ((flag >> 4) & 0xF0)];
+                        boolean negative = (mDecoder.decode(signContext >> 1) ^ (signContext & 1)) != 0;
+                        coefficients[y * width + x] = negative ? -oneAndHalf : oneAndHalf;
+                        setSignificant(flagIndex, negative);
+                        y++;
+                        flagIndex += flagsWidth;
+                    }
+                }
+                for (; y < stripeEnd; ++y, flagIndex += flagsWidth) {
+                    int flag = flags[flagIndex];
+                    if (causal && y == stripe + STRIPE_HEIGHT - 1) {
+                        flag &= CAUSAL_MASK;
+                    }
+                    if ((flag & (SIGNIFICANT | VISITED)) == 0) {
+                        if (mDecoder.decode(ZERO_CODING_CONTEXTS[zeroCodingOffset | (flag & NEIGHBOURS)]) != 0) {
+                            int signContext = SIGN_CONTEXTS[(flag & 0x0F) | ((flag >> 4) & 0xF0)];
+                            boolean negative = (mDecoder.decode(signContext >> 1) ^ (signContext & 1)) != 0;
+                            coefficients[y * width + x] = negative ? -oneAndHalf : oneAndHalf;
+                            setSignificant(flagIndex, negative);
+                        }
+                    }
+                    flags[flagIndex] &= ~VISITED;
+                }
+            }
+        }
+    }
+
+    private void setSignificant(final int flagIndex, final boolean negative) {
+        int[] flags = mFlags;
+        int flagsWidth = mFlagsWidth;
+        flags[flagIndex] |= SIGNIFICANT;
+        flags[flagIndex - flagsWidth - 1] |= SE;
+        flags[flagIndex - flagsWidth + 1] |= SW;
+        flags[flagIndex + flagsWidth - 1] |= NE;
+        flags[flagIndex + flagsWidth + 1] |= NW;
+        if (negative) {
+            flags[flagIndex - flagsWidth] |= S | S_NEGATIVE;
+            flags[flagIndex - 1] |= E | E_NEGATIVE;
+            flags[flagIndex + 1] |= W | W_NEGATIVE;
+            flags[flagIndex + flagsWidth] |= N | N_NEGATIVE;
+        } else {
+            flags[flagIndex - flagsWidth] |= S;
+            flags[flagIndex - 1] |= E;
+            flags[flagIndex + 1] |= W;
+            flags[flagIndex + flagsWidth] |= N;
+        }
+    }
+
+    private static int getZeroCodingContext(final int orientation, final int neighbours) {
+        int horizontal = Integer.bitCount(neighbours & (W | E));
+        int vertical = Integer.bitCount(neighbours & (N | S));
+        int diagonal = Integer.bitCount(neighbours & (NW | NE | SW | SE));
+        if (orientation == JP2TileLayout.BAND_HH) {
+            int horizontalAndVertical = horizontal + vertical;
+            if (diagonal >= 3) {
+                return 8;
+            }
+            if (diagonal == 2) {
+                return (horizontalAndVertical >= 1) ? 7 : 6;
+            }
+            if (diagonal == 1) {
+                return (horizontalAndVertical >= 2) ? 5 : 3 + horizontalAndVertical;
+            }
+            return (horizontalAndVertical >= 2) ? 2 : horizontalAndVertical;
+        }
+        if (orientation == JP2TileLayout.BAND_HL) {
+            int swap = horizontal;
+            horizontal = vertical;
+            vertical = swap;
+        }
+        if (horizontal == 2) {
+            return 8;
+        }
+        if (horizontal == 1) {
+            if (vertical >= 1) {
+                return 7;
+            }
+            return (diagonal >= 1) ? 6 : 5;
+        }
+        if (vertical >= 1) {
+            return 2 + vertical;
+        }
+        return (diagonal >= 2) ? 2 : diagonal;
+    }
+
+    private static int getSignContribution(final int key, final int significant, final int negative) {
+        if ((key & significant) == 0) {
+            return 0;
+        }
+        return ((key & negative) != 0) ? -1 : 1;
+    }
+
+    private static int getSignContextOffset(final int horizontal, final int vertical) {
+        // After flipping so that horizontal is 1, or 0 with vertical not negative. See Table D-3.
+        if (horizontal == 1) {
+            return 3 + vertical;
+        }
+        return vertical;
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.util.Arrays;
+
+/**
+ * Index of the code-block contributions in a tile.
+ *
+ * This is built by decoding the packet headers of a tile (tier-2). For each
+ * code-block it records when the code-block was first included, the number
+ * of missing most significant bit-planes and the number of coding passes.
+ * Each packet adds a contribution (a "piece") of compressed data for the
+ * code-blocks it includes, and the pieces for a code-block are linked in
+ * layer order. Everything is held in primitive arrays indexed by the
+ * code-block and piece numbers, so there is no object per code-block.
+ *
+ * A piece never crosses a codeword segment boundary, so the data for a
+ * segment is the concatenation of pieces up to the next piece that starts
+ * a new segment.
+ */
+public class JP2CodeBlockIndex {
+
+    /** Value for code-blocks that are not included in any layer, and for the end of a piece list. */
+    public static final int NONE = -1;
+
+    private static final int INITIAL_PIECE_CAPACITY = 64;
+    private static final int INITIAL_LENGTH_BITS = 3;
+
+    private final JP2TileLayout mLayout;
+    private final JP2TileWindow mWindow;
+    private final int mNumberOfLayersToDecode;
+    private final JP2TileData mData;
+
+    private final int[] mInclusionLayers;
+    private final int[] mZeroBitPlanes;
+    private final int[] mNumberOfPasses;
+    private final int[] mLengthBits;
+    private final int[] mFirstPieces;
+    private final int[] mLastPieces;
+
+    private int mNumberOfPieces = 0;
+    private int[] mPieceCodeBlocks;
+    private int[] mPieceLayers;
+    private long[] mPieceOffsets;
+    private int[] mPieceLengths;
+    private int[] mPieceFirstPasses;
+    private int[] mPiecePasses;
+    private boolean[] mPieceSegmentStarts;
+    private int[] mNextPieces;
+
+    private int mNumberOfPackets = 0;
+    private long mPacketDataLength = 0;
+    private long mBytesLoaded = 0;
+
+    JP2CodeBlockIndex(final JP2TileLayout layout, final JP2TileWindow window, final int numberOfLayersToDecode, final JP2TileData data) {
+        mLayout = layout;
+        mWindow = window;
+        mNumberOfLayersToDecode = numberOfLayersToDecode;
+        mData = data;
+        int numberOfCodeBlocks = layout.getNumberOfCodeBlocks();
+        mInclusionLayers = new int[numberOfCodeBlocks];
+        Arrays.fill(mInclusionLayers, NONE);
+        mZeroBitPlanes = new int[numberOfCodeBlocks];
+        mNumberOfPasses = new int[numberOfCodeBlocks];
+        mLengthBits = new int[numberOfCodeBlocks];
+        mFirstPieces = new int[numberOfCodeBlocks];
+        Arrays.fill(mFirstPieces, NONE);
+        mLastPieces = new int[numberOfCodeBlocks];
+        Arrays.fill(mLastPieces, NONE);
+        int pieceCapacity = Math.max(INITIAL_PIECE_CAPACITY, numberOfCodeBlocks);
+        mPieceCodeBlocks = new int[pieceCapacity];
+        mPieceLayers = new int[pieceCapacity];
+        mPieceOffsets = new long[pieceCapacity];
+        mPieceLengths = new int[pieceCapacity];
+        mPieceFirstPasses = new int[pieceCapacity];
+        mPiecePasses = new int[pieceCapacity];
+        mPieceSegmentStarts = new boolean[pieceCapacity];
+        mNextPieces = new int[pieceCapacity];
+    }
+
+    void includeCodeBlock(final int codeBlock, final int layer, final int zeroBitPlanes) {
+        mInclusionLayers[codeBlock] = layer;
+        mZeroBitPlanes[codeBlock] = zeroBitPlanes;
+        mLengthBits[codeBlock] = INITIAL_LENGTH_BITS;
+    }
+
+    int getLengthBits(final int codeBlock) {
+        return mLengthBits[codeBlock];
+    }
+
+    void setLengthBits(final int codeBlock, final int lengthBits) {
+        mLengthBits[codeBlock] = lengthBits;
+    }
+
+    int addPiece(final int codeBlock, final int layer, final int passes, final int length, final boolean segmentStart) {
+        if (mNumberOfPieces == mPieceCodeBlocks.length) {
+            int newCapacity = mPieceCodeBlocks.length * 2;
+            mPieceCodeBlocks = Arrays.copyOf(mPieceCodeBlocks, newCapacity);
+            mPieceLayers = Arrays.copyOf(mPieceLayers, newCapacity);
+            mPieceOffsets = Arrays.copyOf(mPieceOffsets, newCapacity);
+            mPieceLengths = Arrays.copyOf(mPieceLengths, newCapacity);
+            mPieceFirstPasses = Arrays.copyOf(mPieceFirstPasses, newCapacity);
+            mPiecePasses = Arrays.copyOf(mPiecePasses, newCapacity);
+            mPieceSegmentStarts = Arrays.copyOf(mPieceSegmentStarts, newCapacity);
+            mNextPieces = Arrays.copyOf(mNextPieces, newCapacity);
+        }
+        int piece = mNumberOfPieces++;
+        mPieceCodeBlocks[piece] = codeBlock;
+        mPieceLayers[piece] = layer;
+        mPieceLengths[piece] = length;
+        mPieceFirstPasses[piece] = mNumberOfPasses[codeBlock];
+        mPiecePasses[piece] = passes;
+        mPieceSegmentStarts[piece] = segmentStart;
+        mNextPieces[piece] = NONE;
+        if (mLastPieces[codeBlock] == NONE) {
+            mFirstPieces[codeBlock] = piece;
+        } else {
+            mNextPieces[mLastPieces[codeBlock]] = piece;
+        }
+        mLastPieces[codeBlock] = piece;
+        mNumberOfPasses[codeBlock] += passes;
+        return piece;
+    }
+
+    void setPieceOffset(final int piece, final long offset) {
+        mPieceOffsets[piece] = offset;
+    }
+
+    void setBytesLoaded(final long bytesLoaded) {
+        mBytesLoaded = bytesLoaded;
+    }
+
+    void addPacket(final long packetDataEnd) {
+        mNumberOfPackets++;
+        mPacketDataLength = packetDataEnd;
+    }
+
+    /**
+     * Get the layout of the tile that this index is for.
+     *
+     * @return the tile layout, which gives the code-block numbering
+     */
+    public JP2TileLayout getLayout() {
+        return mLayout;
+    }
+
+    // The part of each resolution level that the index was built for
+    JP2TileWindow getWindow() {
+        return mWindow;
+    }
+
+    /**
+     * Get the number of quality layers that the index was built to decode.
+     *
+     * Pieces of later layers are still listed, since their packet headers
+     * have to be read to find the packets that follow, but their data is not
+     * read, and they are not decoded.
+     *
+     * @return the number of layers
+     */
+    public int getNumberOfLayersToDecode() {
+        return mNumberOfLayersToDecode;
+    }
+
+    /**
+     * Get the length of the tile data.
+     *
+     * The tile data is the concatenation of the tile-part bitstreams, in
+     * tile-part order, which piece offsets refer to.
+     *
+     * @return number of bytes of tile data
+     */
+    public long getDataLength() {
+        return mData.getLength();
+    }
+
+    /**
+     * Copy the data of a piece.
+     *
+     * Only the pieces for the resolutions, precincts and layers that were
+     * asked for have been read.
+     *
+     * @param piece the piece number
+     * @param destination the array to copy to
+     * @param destinationOffset where to put the first byte in the array
+     * @throws JP2ParsingException if the piece was not read
+     */
+    public void getPieceData(final int piece, final byte[] destination, final int destinationOffset) throws JP2ParsingException {
+        mData.copy(mPieceOffsets[piece], destination, destinationOffset, mPieceLengths[piece]);
+    }
+
+    public int getNumberOfCodeBlocks() {
+        return mInclusionLayers.length;
+    }
+
+    /**
+     * Get the layer that a code-block was first included in.
+     *
+     * @param codeBlock the code-block number within the tile layout
+     * @return the layer (zero based), or NONE if the code-block has no data
+     */
+    public int getInclusionLayer(final int codeBlock) {
+        return mInclusionLayers[codeBlock];
+    }
+
+    /**
+     * Get the number of missing most significant bit-planes for a code-block.
+     *
+     * @param codeBlock the code-block number within the tile layout
+     * @return number of zero bit-planes, only valid if the code-block has been included
+     */
+    public int getZeroBitPlanes(final int codeBlock) {
+        return mZeroBitPlanes[codeBlock];
+    }
+
+    /**
+     * Get the total number of coding passes for a code-block, across all layers.
+     *
+     * @param codeBlock the code-block number within the tile layout
+     * @return number of coding passes
+     */
+    public int getNumberOfPasses(final int codeBlock) {
+        return mNumberOfPasses[codeBlock];
+    }
+
+    /**
+     * Get the number of coding passes for a code-block in the layers to decode.
+     *
+     * @param codeBlock the code-block number within the tile layout
+     * @return number of coding passes, up to getNumberOfPasses()
+     */
+    public int getNumberOfPassesToDecode(final int codeBlock) {
+        int passes = 0;
+        for (int piece = mFirstPieces[codeBlock]; piece != NONE && mPieceLayers[piece] < mNumberOfLayersToDecode; piece = mNextPieces[piece]) {
+            passes += mPiecePasses[piece];
+        }
+        return passes;
+    }
+
+    /**
+     * Get the first piece of data for a code-block.
+     *
+     * @param codeBlock the code-block number within the tile layout
+     * @return piece number, or NONE if there is no data for the code-block
+     */
+    public int getFirstPiece(final int codeBlock) {
+        return mFirstPieces[codeBlock];
+    }
+
+    /**
+     * Get the next piece of data for the same code-block.
+     *
+     * @param piece the piece number
+     * @return the following piece number, or NONE if this is the last piece
+     */
+    public int getNextPiece(final int piece) {
+        return mNextPieces[piece];
+    }
+
+    public int getNumberOfPieces() {
+        return mNumberOfPieces;
+    }
+
+    public int getPieceCodeBlock(final int piece) {
+        return mPieceCodeBlocks[piece];
+    }
+
+    /**
+     * Get the quality layer that a piece belongs to.
+     *
+     * @param piece the piece number
+     * @return the layer (zero based)
+     */
+    public int getPieceLayer(final int piece) {
+        return mPieceLayers[piece];
+    }
+
+    /**
+     * Get the offset of a piece within the tile data.
+     *
+     * @param piece the piece number
+     * @return offset within the tile data
+     */
+    public long getPieceOffset(final int piece) {
+        return mPieceOffsets[piece];
+    }
+
+    public int getPieceLength(final int piece) {
+        return mPieceLengths[piece];
+    }
+
+    /**
+     * Get the first coding pass in a piece.
+     *
+     * @param piece the piece number
+     * @return the coding pass number within the code-block, counting from 0
+     */
+    public int getPieceFirstPass(final int piece) {
+        return mPieceFirstPasses[piece];
+    }
+
+    public int getPiecePasses(final int piece) {
+        return mPiecePasses[piece];
+    }
+
+    /**
+     * Get whether a piece starts a new codeword segment.
+     *
+     * @param piece the piece number
+     * @return true if the piece is the start of a segment
+     */
+    public boolean isPieceSegmentStart(final int piece) {
+        return mPieceSegmentStarts[piece];
+    }
+
+    /**
+     * Get the number of packets that were decoded.
+     *
+     * @return number of packets, including empty packets
+     */
+    public int getNumberOfPackets() {
+        return mNumberOfPackets;
+    }
+
+    /**
+     * Get the number of bytes of tile data taken up by the decoded packets.
+     *
+     * For a complete tile this is the same as getDataLength().
+     *
+     * @return offset of the end of the last decoded packet
+     */
+    public long getPacketDataLength() {
+        return mPacketDataLength;
+    }
+
+    /**
+     * Get the number of bytes of tile data that were read to build the index.
+     *
+     * This is less than getDataLength() if some resolutions, precincts or layers were skipped.
+     *
+     * @return number of bytes read from the tile-parts
+     */
+    public long getBytesLoaded() {
+        return mBytesLoaded;
+    }
+}
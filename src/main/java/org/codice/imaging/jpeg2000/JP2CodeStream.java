@@ -23,8 +23,13 @@
  */
 package org.codice.imaging.jpeg2000;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 /**
  *
@@ -32,16 +37,29 @@ import java.util.List;
  */
 public class JP2CodeStream {
 
-    private static final int SIZ_MARKER_CODE = 0xFF51;
-    private static final int SOC_MARKER_CODE = 0xFF4F;
-    private static final int SOD_MARKER_CODE = 0xFF93;
-    private static final int SOT_MARKER_CODE = 0xFF90;
-    private static final int COD_MARKER_CODE = 0xFF52;
-    private static final int QCD_MARKER_CODE = 0xFF5C;
-    private static final int EOC_MARKER_CODE = 0xFFD9;
+    public static final int SIZ_MARKER_CODE = 0xFF51;
+    public static final int SOC_MARKER_CODE = 0xFF4F;
+    public static final int SOD_MARKER_CODE = 0xFF93;
+    public static final int SOT_MARKER_CODE = 0xFF90;
+    public static final int COD_MARKER_CODE = 0xFF52;
+    public static final int QCD_MARKER_CODE = 0xFF5C;
+    public static final int EOC_MARKER_CODE = 0xFFD9;
+    public static final int TLM_MARKER_CODE = 0xFF55;
+    public static final int COC_MARKER_CODE = 0xFF53;
+    public static final int QCC_MARKER_CODE = 0xFF5D;
+    public static final int POC_MARKER_CODE = 0xFF5F;
+    public static final int PPM_MARKER_CODE = 0xFF60;
+    public static final int PPT_MARKER_CODE = 0xFF61;
+    public static final int SOP_MARKER_CODE = 0xFF91;
+    public static final int EPH_MARKER_CODE = 0xFF92;
+    public static final int RGN_MARKER_CODE = 0xFF5E;
+
+    private static final int SOT_MARKER_SEGMENT_LENGTH = 2 * PackageConstants.UNSIGNED_SHORT_LENGTH + PackageConstants.UNSIGNED_INT_LENGTH + 2 * PackageConstants.UNSIGNED_BYTE_LENGTH;
 
     private JP2Reader mReader = null;
-    private int mRemainingCodestreamLength = 0;
+    private long mCodestreamStart = 0;
+    private long mCodestreamEnd = 0;
+    private long mFirstTilePartOffset = 0;
 
     private int mVerticalOffsetOfReferenceTile;
     private int mHorizontalOffsetOfReferenceTile;
@@ -53,70 +71,146 @@ public class JP2CodeStream {
     private int mXSize;
     private int mRequiredCapabilities;
     private int mNumberOfComponentsInImage;
+    private int[] mComponentBitDepths = new int[0];
+    private boolean[] mComponentSigned = new boolean[0];
+    private int[] mComponentHorizontalSeparations = new int[0];
+    private int[] mComponentVerticalSeparations = new int[0];
+
+    // These come from COD and COC blocks
+    private JP2CodingStyle mCodingStyleDefault = new JP2CodingStyle();
+    private JP2CodingStyle[] mComponentCodingStyles = new JP2CodingStyle[0];
+    private boolean mHasProgressionOrderChange = false;
+    private boolean mHasPackedPacketHeaders = false;
+    private boolean mHasRegionOfInterest = false;
+
+    // TLM entries, keyed by Ztlm so that segments are used in index order.
+    private final SortedMap<Integer, long[]> mTileLengthMarkerSegments = new TreeMap<>();
+    private final JP2TileIndex mTileIndex = new JP2TileIndex();
+    private JP2Tile[] mTileParts = new JP2Tile[0];
+    // These come from QCD and QCC blocks
+    private JP2Quantization mQuantizationDefault = new JP2Quantization();
+    private JP2Quantization[] mComponentQuantizations = new JP2Quantization[0];
+    private final List<Integer> mQuantizationExponents = new ArrayList<>();
+    private final List<Integer> mQuantizationMantissas = new ArrayList<>();
 
-    // These come from COD block
-    private int mCodingStyleForAllComponents = 0;
-    private int mProgressionOrder = 0;
-    private int mNumberOfLayers = 1;
-    private int mMultipleComponentsTransformation = 0;
-    private int mNumberOfDecompositionLevels = 0;
-    private int mCodeBlockWidth;
-    private int mCodeBlockHeight;
-    private int mCodeBlockStyle;
-    private int mTransformation;
-
-    private final List<JP2Tile> mTiles = new ArrayList<>();
-    private List<Integer> mQuantizationExponents = new ArrayList<>();
-
-    public JP2CodeStream(JP2Reader reader, final int codestreamLength) throws JP2ParsingException {
+    public JP2CodeStream(JP2Reader reader, final long codestreamLength) throws JP2ParsingException {
+        this(reader, codestreamLength, false);
+    }
+
+    /**
+     * Parse a code stream.
+     *
+     * The main header is parsed, and then the locations of the tile-parts are
+     * indexed. If the main header has TLM markers, the index is built from
+     * those without visiting the tile-parts. Otherwise the SOT markers are
+     * visited, using Psot to seek from one to the next without reading the
+     * tile data.
+     *
+     * @param reader the reader, positioned at the SOC marker
+     * @param codestreamLength the number of bytes in the code stream
+     * @param headerOnly true to parse only the main header and then seek to
+     * the end of the code stream, false to also index the tile-parts
+     * @throws JP2ParsingException if an error occurs during parsing
+     */
+    public JP2CodeStream(JP2Reader reader, final long codestreamLength, final boolean headerOnly) throws JP2ParsingException {
+        this(reader, codestreamLength, headerOnly, null);
+    }
+
+    /**
+     * Parse a code stream, with the tile-part locations already known.
+     *
+     * Only the main header is parsed. The tile-parts are not visited, and
+     * the TLM markers (if any) are not used.
+     *
+     * @param reader the reader, positioned at the SOC marker
+     * @param codestreamLength the number of bytes in the code stream
+     * @param tileIndex the tile-part locations, for example from a sidecar index
+     * @throws JP2ParsingException if an error occurs during parsing, or the tile-parts do not fit the code stream
+     */
+    JP2CodeStream(JP2Reader reader, final long codestreamLength, final JP2TileIndex tileIndex) throws JP2ParsingException {
+        this(reader, codestreamLength, false, tileIndex);
+    }
+
+    private JP2CodeStream(JP2Reader reader, final long codestreamLength, final boolean headerOnly, final JP2TileIndex tileIndex) throws JP2ParsingException {
         mReader = reader;
-        mRemainingCodestreamLength = codestreamLength;
+        mCodestreamStart = mReader.getPosition();
+        mCodestreamEnd = mCodestreamStart + codestreamLength;
         verifyMarkerCode(SOC_MARKER_CODE);
-        parseMainHeaderAndTiles();
+        parseMainHeader();
+        if (headerOnly) {
+            mReader.seek(mCodestreamEnd);
+            return;
+        }
+        if (tileIndex != null) {
+            copyTileIndex(tileIndex);
+        } else if (mTileLengthMarkerSegments.isEmpty()) {
+            scanTileParts();
+        } else {
+            buildTileIndexFromTileLengthMarkers();
+        }
+        mTileIndex.buildTileLookup(getNumberOfTiles());
+        mTileParts = new JP2Tile[mTileIndex.getNumberOfTileParts()];
+        mReader.seek(mCodestreamEnd - PackageConstants.UNSIGNED_SHORT_LENGTH);
         verifyMarkerCode(EOC_MARKER_CODE);
     }
 
     private void verifyMarkerCode(int expectedMarkerCode) throws JP2ParsingException {
         int actualMarkerCode = mReader.readUnsignedShort();
-        mRemainingCodestreamLength -= 2;
         if (actualMarkerCode != expectedMarkerCode) {
             throw new JP2ParsingException(String.format("Missing expected marker. Expected 0x%04x but got 0x%04x", expectedMarkerCode, actualMarkerCode));
         }
     }
 
-    private void parseMainHeaderAndTiles() throws JP2ParsingException {
+    private void parseMainHeader() throws JP2ParsingException {
         parseImageAndTileSize();
-        while (mRemainingCodestreamLength > 2) {
+        while (mReader.getPosition() < mCodestreamEnd - PackageConstants.UNSIGNED_SHORT_LENGTH) {
             int markerCode = mReader.readUnsignedShort();
-            mRemainingCodestreamLength -= 2;
             switch (markerCode) {
                 case COD_MARKER_CODE: {
                     parseCodingStyleDefault();
                     break;
                 }
-                case SOT_MARKER_CODE: {
-                    JP2Tile tile = parseTilePart();
-                    mTiles.add(tile);
+                case COC_MARKER_CODE: {
+                    parseCodingStyleComponent();
                     break;
                 }
+                case SOT_MARKER_CODE: {
+                    // First SOT marks the end of the main header.
+                    mFirstTilePartOffset = mReader.getPosition() - PackageConstants.UNSIGNED_SHORT_LENGTH;
+                    return;
+                }
                 case QCD_MARKER_CODE: {
                     parseQuantizationDefault();
                     break;
                 }
+                case QCC_MARKER_CODE: {
+                    parseQuantizationComponent();
+                    break;
+                }
+                case TLM_MARKER_CODE: {
+                    parseTileLength();
+                    break;
+                }
                 default: {
+                    if (markerCode == POC_MARKER_CODE) {
+                        mHasProgressionOrderChange = true;
+                    } else if (markerCode == PPM_MARKER_CODE) {
+                        mHasPackedPacketHeaders = true;
+                    } else if (markerCode == RGN_MARKER_CODE) {
+                        mHasRegionOfInterest = true;
+                    }
                     int markerLength = mReader.readUnsignedShort();
                     mReader.skipBytes(markerLength - 2);
-                    mRemainingCodestreamLength -=  (markerLength - 2);
                     break;
                 }
             }
         }
+        mFirstTilePartOffset = mReader.getPosition();
     }
 
     private void parseImageAndTileSize() throws JP2ParsingException {
         verifyMarkerCode(SIZ_MARKER_CODE);
         int lengthOfMarkerSegmentInBytes = mReader.readUnsignedShort();
-        mRemainingCodestreamLength -= lengthOfMarkerSegmentInBytes;
         mRequiredCapabilities = mReader.readUnsignedShort();
         mXSize = mReader.readUnsignedInt();
         mYSize = mReader.readUnsignedInt();
@@ -126,69 +220,240 @@ public class JP2CodeStream {
         mHeightOfReferenceTile = mReader.readUnsignedInt();
         mHorizontalOffsetOfReferenceTile = mReader.readUnsignedInt();
         mVerticalOffsetOfReferenceTile = mReader.readUnsignedInt();
+        if (mWidthOfReferenceTile == 0 || mHeightOfReferenceTile == 0) {
+            throw new JP2ParsingException("Invalid reference tile size " + mWidthOfReferenceTile + "x" + mHeightOfReferenceTile);
+        }
         mNumberOfComponentsInImage = mReader.readUnsignedShort();
-        // TODO: parse this properly
+        mComponentBitDepths = new int[mNumberOfComponentsInImage];
+        mComponentSigned = new boolean[mNumberOfComponentsInImage];
+        mComponentHorizontalSeparations = new int[mNumberOfComponentsInImage];
+        mComponentVerticalSeparations = new int[mNumberOfComponentsInImage];
         for (int i = 0; i < mNumberOfComponentsInImage; ++i) {
-            mReader.skipBytes(3);
+            int ssiz = mReader.readUnsignedByte() & 0xFF;
+            mComponentBitDepths[i] = (ssiz & 0x7F) + 1;
+            mComponentSigned[i] = ((ssiz & 0x80) == 0x80);
+            mComponentHorizontalSeparations[i] = mReader.readUnsignedByte() & 0xFF;
+            mComponentVerticalSeparations[i] = mReader.readUnsignedByte() & 0xFF;
         }
+        mComponentCodingStyles = new JP2CodingStyle[mNumberOfComponentsInImage];
+        mComponentQuantizations = new JP2Quantization[mNumberOfComponentsInImage];
     }
 
-    private JP2Tile parseTilePart() throws JP2ParsingException {
-        JP2Tile tile = new JP2Tile();
+    private void parseTileLength() throws JP2ParsingException {
         int markerLength = mReader.readUnsignedShort();
-        if (markerLength != (2 * PackageConstants.UNSIGNED_SHORT_LENGTH + PackageConstants.UNSIGNED_INT_LENGTH + 2 * PackageConstants.UNSIGNED_BYTE_LENGTH)) {
+        int indexOfMarkerSegment = mReader.readUnsignedByte() & 0xFF;
+        int sizeOfParameters = mReader.readUnsignedByte() & 0xFF;
+        int tileIndexSize = (sizeOfParameters >> 4) & 0x03;
+        int tilePartLengthSize = ((sizeOfParameters >> 6) & 0x01) == 0 ? PackageConstants.UNSIGNED_SHORT_LENGTH : PackageConstants.UNSIGNED_INT_LENGTH;
+        int numberOfEntries = (markerLength - 4) / (tileIndexSize + tilePartLengthSize);
+        // Stored as pairs of tile index (-1 if implicit) and tile-part length.
+        long[] entries = new long[2 * numberOfEntries];
+        for (int i = 0; i < numberOfEntries; ++i) {
+            switch (tileIndexSize) {
+                case 0:
+                    entries[2 * i] = -1;
+                    break;
+                case PackageConstants.UNSIGNED_BYTE_LENGTH:
+                    entries[2 * i] = mReader.readUnsignedByte() & 0xFF;
+                    break;
+                case PackageConstants.UNSIGNED_SHORT_LENGTH:
+                    entries[2 * i] = mReader.readUnsignedShort();
+                    break;
+                default:
+                    throw new JP2ParsingException("Invalid tile index size in TLM marker:" + tileIndexSize);
+            }
+            if (tilePartLengthSize == PackageConstants.UNSIGNED_SHORT_LENGTH) {
+                entries[2 * i + 1] = mReader.readUnsignedShort();
+            } else {
+                entries[2 * i + 1] = mReader.readUnsignedInt() & 0xFFFFFFFFL;
+            }
+        }
+        mTileLengthMarkerSegments.put(indexOfMarkerSegment, entries);
+    }
+
+    private void buildTileIndexFromTileLengthMarkers() throws JP2ParsingException {
+        long offset = mFirstTilePartOffset;
+        int tilePartNumber = 0;
+        for (long[] entries : mTileLengthMarkerSegments.values()) {
+            for (int i = 0; i < entries.length; i += 2) {
+                int tileIndex = (entries[i] < 0) ? tilePartNumber : (int) entries[i];
+                mTileIndex.addTilePart(tileIndex, offset, entries[i + 1]);
+                offset += entries[i + 1];
+                tilePartNumber++;
+            }
+        }
+        if (offset != mCodestreamEnd - PackageConstants.UNSIGNED_SHORT_LENGTH) {
+            throw new JP2ParsingException("TLM tile-part lengths do not match code stream length");
+        }
+    }
+
+    private void copyTileIndex(final JP2TileIndex tileIndex) throws JP2ParsingException {
+        long endOfTileParts = mCodestreamEnd - PackageConstants.UNSIGNED_SHORT_LENGTH;
+        for (int i = 0; i < tileIndex.getNumberOfTileParts(); ++i) {
+            long offset = tileIndex.getOffset(i);
+            if (offset < mFirstTilePartOffset || offset + tileIndex.getLength(i) > endOfTileParts) {
+                throw new JP2ParsingException("Tile-part " + i + " at offset " + offset + " is outside the code stream");
+            }
+            mTileIndex.addTilePart(tileIndex.getTileIndex(i), offset, tileIndex.getLength(i));
+        }
+    }
+
+    private void scanTileParts() throws JP2ParsingException {
+        long offset = mFirstTilePartOffset;
+        long endOfTileParts = mCodestreamEnd - PackageConstants.UNSIGNED_SHORT_LENGTH;
+        while (offset < endOfTileParts) {
+            mReader.seek(offset);
+            verifyMarkerCode(SOT_MARKER_CODE);
+            int markerLength = mReader.readUnsignedShort();
+            if (markerLength != SOT_MARKER_SEGMENT_LENGTH) {
+                throw new JP2ParsingException("Invalid length for SOT part:" + markerLength);
+            }
+            int tileIndex = mReader.readUnsignedShort();
+            long psot = mReader.readUnsignedInt() & 0xFFFFFFFFL;
+            if (psot == 0) {
+                // Last tile-part, extends to the EOC marker.
+                psot = endOfTileParts - offset;
+            }
+            mTileIndex.addTilePart(tileIndex, offset, psot);
+            offset += psot;
+        }
+    }
+
+    private JP2Tile readTilePartHeader(final int tilePartNumber) throws JP2ParsingException {
+        long offset = mTileIndex.getOffset(tilePartNumber);
+        long tilePartEnd = offset + mTileIndex.getLength(tilePartNumber);
+        ByteBuffer sot = mReader.getByteBuffer(offset, PackageConstants.UNSIGNED_SHORT_LENGTH + SOT_MARKER_SEGMENT_LENGTH);
+        if ((sot.getShort() & 0xFFFF) != SOT_MARKER_CODE) {
+            throw new JP2ParsingException(String.format("Missing expected SOT marker at offset %d", offset));
+        }
+        int markerLength = sot.getShort() & 0xFFFF;
+        if (markerLength != SOT_MARKER_SEGMENT_LENGTH) {
             throw new JP2ParsingException("Invalid length for SOT part:" + markerLength);
         }
-        tile.setTileIndex(mReader.readUnsignedShort());
-        int psot = mReader.readUnsignedInt();
-        tile.setTilePartIndex(mReader.readUnsignedByte());
-        tile.setNumberofTileParts(mReader.readUnsignedByte());
-        mRemainingCodestreamLength -= markerLength;
-        int expectedStartOfDataMarker = mReader.readUnsignedShort();
-        mRemainingCodestreamLength -= 2;
-        if (expectedStartOfDataMarker != SOD_MARKER_CODE) {
-            throw new JP2ParsingException("Missing expected SOF marker");
-        }
-        int tileBitstreamLength = psot - (PackageConstants.UNSIGNED_SHORT_LENGTH + markerLength + PackageConstants.UNSIGNED_SHORT_LENGTH);
-        tile.setData(mReader.getBytes(tileBitstreamLength));
-        mRemainingCodestreamLength -= tileBitstreamLength;
+        JP2Tile tile = new JP2Tile();
+        tile.setTileIndex(sot.getShort() & 0xFFFF);
+        sot.getInt(); // Psot, already in the index
+        tile.setTilePartIndex(sot.get());
+        tile.setNumberofTileParts(sot.get());
+        long position = offset + PackageConstants.UNSIGNED_SHORT_LENGTH + SOT_MARKER_SEGMENT_LENGTH;
+        // Read the tile-part header marker segments until the SOD.
+        while (true) {
+            if (position + PackageConstants.UNSIGNED_SHORT_LENGTH > tilePartEnd) {
+                throw new JP2ParsingException("Missing expected SOD marker");
+            }
+            int markerCode = mReader.getByteBuffer(position, PackageConstants.UNSIGNED_SHORT_LENGTH).getShort() & 0xFFFF;
+            position += PackageConstants.UNSIGNED_SHORT_LENGTH;
+            if (markerCode == SOD_MARKER_CODE) {
+                break;
+            }
+            int segmentLength = mReader.getByteBuffer(position, PackageConstants.UNSIGNED_SHORT_LENGTH).getShort() & 0xFFFF;
+            parseTilePartHeaderMarkerSegment(tile, markerCode, position + PackageConstants.UNSIGNED_SHORT_LENGTH, segmentLength - PackageConstants.UNSIGNED_SHORT_LENGTH);
+            position += segmentLength;
+        }
+        tile.setDataLocation(mReader, position, tilePartEnd - position);
         return tile;
     }
 
+    private void parseTilePartHeaderMarkerSegment(final JP2Tile tile, final int markerCode, final long position, final int length) throws JP2ParsingException {
+        switch (markerCode) {
+            case COD_MARKER_CODE: {
+                // Coding style in a tile-part header only applies from the first tile-part.
+                if (tile.getTilePartIndex() == 0) {
+                    tile.setCodingStyleDefault(JP2CodingStyle.parseCodingStyleDefault(getMarkerSegmentReader(position, length)));
+                }
+                break;
+            }
+            case COC_MARKER_CODE: {
+                if (tile.getTilePartIndex() == 0) {
+                    JP2Reader segmentReader = getMarkerSegmentReader(position, length);
+                    int componentIndex = JP2CodingStyle.readComponentIndex(segmentReader, mNumberOfComponentsInImage);
+                    tile.setComponentCodingStyle(componentIndex, JP2CodingStyle.parseCodingStyleComponent(segmentReader), mNumberOfComponentsInImage);
+                }
+                break;
+            }
+            case QCD_MARKER_CODE: {
+                if (tile.getTilePartIndex() == 0) {
+                    tile.setQuantizationDefault(JP2Quantization.parse(getMarkerSegmentReader(position, length), length));
+                }
+                break;
+            }
+            case QCC_MARKER_CODE: {
+                if (tile.getTilePartIndex() == 0) {
+                    JP2Reader segmentReader = getMarkerSegmentReader(position, length);
+                    int componentIndex = JP2CodingStyle.readComponentIndex(segmentReader, mNumberOfComponentsInImage);
+                    int remaining = (int) (length - segmentReader.getPosition());
+                    tile.setComponentQuantization(componentIndex, JP2Quantization.parse(segmentReader, remaining), mNumberOfComponentsInImage);
+                }
+                break;
+            }
+            case POC_MARKER_CODE: {
+                tile.setHasProgressionOrderChange();
+                break;
+            }
+            case RGN_MARKER_CODE: {
+                tile.setHasRegionOfInterest();
+                break;
+            }
+            case PPT_MARKER_CODE: {
+                tile.setHasPackedPacketHeaders();
+                break;
+            }
+            default: {
+                break;
+            }
+        }
+    }
+
+    private JP2Reader getMarkerSegmentReader(final long position, final int length) throws JP2ParsingException {
+        return new JP2ByteBufferReader(mReader.getByteBuffer(position, length));
+    }
+
     private void parseCodingStyleDefault() throws JP2ParsingException {
         int markerLength = mReader.readUnsignedShort();
-        mCodingStyleForAllComponents = mReader.readUnsignedByte();
-        mProgressionOrder = mReader.readUnsignedByte();
-        mNumberOfLayers = mReader.readUnsignedShort();
-        mMultipleComponentsTransformation = mReader.readUnsignedByte();
-        mNumberOfDecompositionLevels = mReader.readUnsignedByte();
-        mCodeBlockWidth = mReader.readUnsignedByte();
-        mCodeBlockHeight = mReader.readUnsignedByte();
-        mCodeBlockStyle = mReader.readUnsignedByte();
-        mTransformation = mReader.readUnsignedByte();
-        if ((mCodingStyleForAllComponents & 0x01) == 0x01) {
-            // TODO: add precinct size parsing here.
-            throw new JP2ParsingException("Need to implement Precinct parsing - see Table A-21.");
-        }
-        mRemainingCodestreamLength -= markerLength;
+        long end = mReader.getPosition() + markerLength - PackageConstants.UNSIGNED_SHORT_LENGTH;
+        mCodingStyleDefault = JP2CodingStyle.parseCodingStyleDefault(mReader);
+        skipToEndOfMarkerSegment("COD", end);
+    }
+
+    private void parseCodingStyleComponent() throws JP2ParsingException {
+        int markerLength = mReader.readUnsignedShort();
+        long end = mReader.getPosition() + markerLength - PackageConstants.UNSIGNED_SHORT_LENGTH;
+        int componentIndex = JP2CodingStyle.readComponentIndex(mReader, mNumberOfComponentsInImage);
+        if (componentIndex >= mNumberOfComponentsInImage) {
+            throw new JP2ParsingException("COC component index " + componentIndex + " out of range, image has " + mNumberOfComponentsInImage + " components");
+        }
+        mComponentCodingStyles[componentIndex] = JP2CodingStyle.parseCodingStyleComponent(mReader);
+        skipToEndOfMarkerSegment("COC", end);
+    }
+
+    private void skipToEndOfMarkerSegment(final String markerName, final long end) throws JP2ParsingException {
+        long position = mReader.getPosition();
+        if (position > end) {
+            throw new JP2ParsingException(markerName + " marker segment is " + (position - end) + " bytes longer than its length");
+        }
+        mReader.seek(end);
     }
 
     private void parseQuantizationDefault() throws JP2ParsingException {
         int markerLength = mReader.readUnsignedShort();
-        int quantizationStyleForAllComponents = mReader.readUnsignedByte();
-        if ((quantizationStyleForAllComponents & 0x1F) == 0) {
-            // No quantization
-            int numberOfQuantizationSteps = (markerLength - 3);
-            for (int i = 0; i < numberOfQuantizationSteps; ++i) {
-                int quantizationStepValue = mReader.readUnsignedByte() >> 3;
-                mQuantizationExponents.add(quantizationStepValue);
-            }
-        } else {
-            // TODO: Handle scalar derived and scalar expounded
-            byte[] bytes = mReader.getBytes(markerLength - 3);
+        mQuantizationDefault = JP2Quantization.parse(mReader, markerLength - PackageConstants.UNSIGNED_SHORT_LENGTH);
+        mQuantizationExponents.clear();
+        mQuantizationMantissas.clear();
+        for (int i = 0; i < mQuantizationDefault.getNumberOfStepSizes(); ++i) {
+            mQuantizationExponents.add(mQuantizationDefault.getExponent(i));
+            mQuantizationMantissas.add(mQuantizationDefault.getMantissa(i));
         }
-        int numberOfGuardBits = quantizationStyleForAllComponents >> 5;
-        mRemainingCodestreamLength -= markerLength;
+    }
+
+    private void parseQuantizationComponent() throws JP2ParsingException {
+        int markerLength = mReader.readUnsignedShort();
+        long start = mReader.getPosition();
+        int componentIndex = JP2CodingStyle.readComponentIndex(mReader, mNumberOfComponentsInImage);
+        if (componentIndex >= mNumberOfComponentsInImage) {
+            throw new JP2ParsingException("QCC component index " + componentIndex + " out of range, image has " + mNumberOfComponentsInImage + " components");
+        }
+        int remaining = (int) (markerLength - PackageConstants.UNSIGNED_SHORT_LENGTH - (mReader.getPosition() - start));
+        mComponentQuantizations[componentIndex] = JP2Quantization.parse(mReader, remaining);
     }
 
     public int getRequiredCapabilities() {
@@ -227,12 +492,390 @@ public class JP2CodeStream {
         return mXSize;
     }
 
-    public List<JP2Tile> getTiles() {
-        return mTiles;
+    /**
+     * Get all the tile-parts in the code stream, in code stream order.
+     *
+     * Tile-part headers are read from the reader the first time they are
+     * needed.
+     *
+     * @return read-only list of tile-parts, empty if only the header was parsed
+     * @throws JP2ParsingException if a tile-part header could not be read
+     */
+    public List<JP2Tile> getTiles() throws JP2ParsingException {
+        for (int i = 0; i < mTileParts.length; ++i) {
+            getTilePart(i);
+        }
+        return Collections.unmodifiableList(Arrays.asList(mTileParts));
+    }
+
+    /**
+     * Get the tile-parts for a single tile.
+     *
+     * Only the tile-part headers for the requested tile are read, so this is
+     * cheap even for images with many tiles.
+     *
+     * @param tileIndex the tile index, in raster order
+     * @return list of tile-parts for that tile, in code stream order
+     * @throws JP2ParsingException if a tile-part header could not be read
+     */
+    public List<JP2Tile> getTileParts(final int tileIndex) throws JP2ParsingException {
+        List<JP2Tile> tileParts = new ArrayList<>();
+        if (tileIndex < mTileIndex.getNumberOfTiles()) {
+            for (int n = 0; n < mTileIndex.getNumberOfTilePartsForTile(tileIndex); ++n) {
+                tileParts.add(getTilePart(mTileIndex.getTilePartForTile(tileIndex, n)));
+            }
+        }
+        return tileParts;
+    }
+
+    private synchronized JP2Tile getTilePart(final int tilePartNumber) throws JP2ParsingException {
+        if (mTileParts[tilePartNumber] == null) {
+            mTileParts[tilePartNumber] = readTilePartHeader(tilePartNumber);
+        }
+        return mTileParts[tilePartNumber];
+    }
+
+    /**
+     * Get the offset of the SOC marker within the reader.
+     *
+     * @return the offset of the start of the code stream
+     */
+    long getCodestreamStart() {
+        return mCodestreamStart;
+    }
+
+    long getCodestreamEnd() {
+        return mCodestreamEnd;
+    }
+
+    /**
+     * Get the offset of the first SOT marker within the reader.
+     *
+     * @return the offset of the end of the main header
+     */
+    long getFirstTilePartOffset() {
+        return mFirstTilePartOffset;
+    }
+
+    /**
+     * Get the index of tile-part locations.
+     *
+     * @return the tile index, empty if only the header was parsed
+     */
+    public JP2TileIndex getTileIndex() {
+        return mTileIndex;
+    }
+
+    /**
+     * Get whether the tile index was built from TLM marker segments.
+     *
+     * @return true if the main header had TLM markers
+     */
+    public boolean hasTileLengthMarkers() {
+        return !mTileLengthMarkerSegments.isEmpty();
+    }
+
+    /**
+     * Get the number of tiles across the image.
+     *
+     * @return number of tile columns
+     */
+    public int getNumberOfTilesX() {
+        return (int) ((((long) mXSize - mHorizontalOffsetOfReferenceTile) + mWidthOfReferenceTile - 1) / mWidthOfReferenceTile);
+    }
+
+    /**
+     * Get the number of tiles down the image.
+     *
+     * @return number of tile rows
+     */
+    public int getNumberOfTilesY() {
+        return (int) ((((long) mYSize - mVerticalOffsetOfReferenceTile) + mHeightOfReferenceTile - 1) / mHeightOfReferenceTile);
+    }
+
+    /**
+     * Get the number of tiles in the image.
+     *
+     * @return number of tiles
+     */
+    public int getNumberOfTiles() {
+        return getNumberOfTilesX() * getNumberOfTilesY();
     }
 
     public int getNumberOfComponentsInImage() {
         return mNumberOfComponentsInImage;
     }
 
+    /**
+     * Get the bit depth of a component, from the SIZ marker.
+     *
+     * @param componentIndex the component (zero based)
+     * @return the number of bits per sample
+     */
+    public int getComponentBitDepth(final int componentIndex) {
+        return mComponentBitDepths[componentIndex];
+    }
+
+    /**
+     * Get whether samples for a component are signed, from the SIZ marker.
+     *
+     * @param componentIndex the component (zero based)
+     * @return true for signed samples, false for unsigned
+     */
+    public boolean isComponentSigned(final int componentIndex) {
+        return mComponentSigned[componentIndex];
+    }
+
+    /**
+     * Get the horizontal separation (XRsiz) of a component.
+     *
+     * @param componentIndex the component (zero based)
+     * @return horizontal sub-sampling factor, 1 for full resolution
+     */
+    public int getComponentHorizontalSeparation(final int componentIndex) {
+        return mComponentHorizontalSeparations[componentIndex];
+    }
+
+    /**
+     * Get the vertical separation (YRsiz) of a component.
+     *
+     * @param componentIndex the component (zero based)
+     * @return vertical sub-sampling factor, 1 for full resolution
+     */
+    public int getComponentVerticalSeparation(final int componentIndex) {
+        return mComponentVerticalSeparations[componentIndex];
+    }
+
+    public int getCodingStyle() {
+        return mCodingStyleDefault.getCodingStyle();
+    }
+
+    public int getProgressionOrder() {
+        return mCodingStyleDefault.getProgressionOrder();
+    }
+
+    public int getNumberOfLayers() {
+        return mCodingStyleDefault.getNumberOfLayers();
+    }
+
+    public int getMultipleComponentsTransformation() {
+        return mCodingStyleDefault.getMultipleComponentTransformation();
+    }
+
+    public int getNumberOfDecompositionLevels() {
+        return mCodingStyleDefault.getNumberOfDecompositionLevels();
+    }
+
+    /**
+     * Get the nominal code-block width.
+     *
+     * @return code-block width in samples (not the exponent stored in COD)
+     */
+    public int getCodeBlockWidth() {
+        return 1 << mCodingStyleDefault.getCodeBlockWidthExponent();
+    }
+
+    /**
+     * Get the nominal code-block height.
+     *
+     * @return code-block height in samples (not the exponent stored in COD)
+     */
+    public int getCodeBlockHeight() {
+        return 1 << mCodingStyleDefault.getCodeBlockHeightExponent();
+    }
+
+    public int getCodeBlockStyle() {
+        return mCodingStyleDefault.getCodeBlockStyle();
+    }
+
+    /**
+     * Get the wavelet transformation.
+     *
+     * @return 0 for the 9-7 irreversible filter, 1 for the 5-3 reversible filter.
+     */
+    public int getTransformation() {
+        return mCodingStyleDefault.getTransformation();
+    }
+
+    /**
+     * Get the coding style from the main header COD marker.
+     *
+     * @return the default coding style for all tiles and components
+     */
+    public JP2CodingStyle getCodingStyleDefault() {
+        return mCodingStyleDefault;
+    }
+
+    /**
+     * Get the coding style that applies to a tile.
+     *
+     * This is the COD from the tile's first tile-part header if there is
+     * one, otherwise the main header COD. Only the tile parameters
+     * (progression order, layers, MCT and SOP / EPH use) should be taken
+     * from this, since a component may have its own COC.
+     *
+     * @param tileIndex the tile index, in raster order
+     * @return the coding style
+     * @throws JP2ParsingException if the tile-part header could not be read
+     */
+    public JP2CodingStyle getTileCodingStyle(final int tileIndex) throws JP2ParsingException {
+        JP2Tile firstTilePart = getFirstTilePart(tileIndex);
+        if (firstTilePart != null && firstTilePart.getCodingStyleDefault() != null) {
+            return firstTilePart.getCodingStyleDefault();
+        }
+        return mCodingStyleDefault;
+    }
+
+    /**
+     * Get the coding style that applies to a component of a tile.
+     *
+     * Per Section A.6, a tile-part COC overrides a tile-part COD, which
+     * overrides a main header COC, which overrides the main header COD.
+     *
+     * @param tileIndex the tile index, in raster order
+     * @param componentIndex the component (zero based)
+     * @return the coding style for the tile-component
+     * @throws JP2ParsingException if the tile-part header could not be read
+     */
+    public JP2CodingStyle getTileComponentCodingStyle(final int tileIndex, final int componentIndex) throws JP2ParsingException {
+        JP2Tile firstTilePart = getFirstTilePart(tileIndex);
+        if (firstTilePart != null) {
+            if (firstTilePart.getComponentCodingStyle(componentIndex) != null) {
+                return firstTilePart.getComponentCodingStyle(componentIndex);
+            }
+            if (firstTilePart.getCodingStyleDefault() != null) {
+                return firstTilePart.getCodingStyleDefault();
+            }
+        }
+        if (mComponentCodingStyles[componentIndex] != null) {
+            return mComponentCodingStyles[componentIndex];
+        }
+        return mCodingStyleDefault;
+    }
+
+    /**
+     * Get whether the packets of a tile use a progression order change.
+     *
+     * @param tileIndex the tile index, in raster order
+     * @return true if there is a POC marker segment for the tile, or in the main header
+     * @throws JP2ParsingException if the tile-part headers could not be read
+     */
+    public boolean hasProgressionOrderChange(final int tileIndex) throws JP2ParsingException {
+        boolean hasProgressionOrderChange = mHasProgressionOrderChange;
+        for (JP2Tile tilePart : getTileParts(tileIndex)) {
+            hasProgressionOrderChange |= tilePart.hasProgressionOrderChange();
+        }
+        return hasProgressionOrderChange;
+    }
+
+    /**
+     * Get whether the packet headers of a tile are packed into PPM or PPT marker segments.
+     *
+     * @param tileIndex the tile index, in raster order
+     * @return true if the packet headers are not in the tile data
+     * @throws JP2ParsingException if the tile-part headers could not be read
+     */
+    public boolean hasPackedPacketHeaders(final int tileIndex) throws JP2ParsingException {
+        boolean hasPackedPacketHeaders = mHasPackedPacketHeaders;
+        for (JP2Tile tilePart : getTileParts(tileIndex)) {
+            hasPackedPacketHeaders |= tilePart.hasPackedPacketHeaders();
+        }
+        return hasPackedPacketHeaders;
+    }
+
+    /**
+     * Get whether a tile uses region of interest coding.
+     *
+     * @param tileIndex the tile index, in raster order
+     * @return true if there is an RGN marker segment for the tile, or in the main header
+     * @throws JP2ParsingException if the tile-part headers could not be read
+     */
+    public boolean hasRegionOfInterest(final int tileIndex) throws JP2ParsingException {
+        boolean hasRegionOfInterest = mHasRegionOfInterest;
+        for (JP2Tile tilePart : getTileParts(tileIndex)) {
+            hasRegionOfInterest |= tilePart.hasRegionOfInterest();
+        }
+        return hasRegionOfInterest;
+    }
+
+    /**
+     * Get the quantization from the main header QCD marker.
+     *
+     * @return the default quantization for all tiles and components
+     */
+    public JP2Quantization getQuantizationDefault() {
+        return mQuantizationDefault;
+    }
+
+    /**
+     * Get the quantization that applies to a component of a tile.
+     *
+     * Per Section A.6, a tile-part QCC overrides a tile-part QCD, which
+     * overrides a main header QCC, which overrides the main header QCD.
+     *
+     * @param tileIndex the tile index, in raster order
+     * @param componentIndex the component (zero based)
+     * @return the quantization for the tile-component
+     * @throws JP2ParsingException if the tile-part header could not be read
+     */
+    public JP2Quantization getTileComponentQuantization(final int tileIndex, final int componentIndex) throws JP2ParsingException {
+        JP2Tile firstTilePart = getFirstTilePart(tileIndex);
+        if (firstTilePart != null) {
+            if (firstTilePart.getComponentQuantization(componentIndex) != null) {
+                return firstTilePart.getComponentQuantization(componentIndex);
+            }
+            if (firstTilePart.getQuantizationDefault() != null) {
+                return firstTilePart.getQuantizationDefault();
+            }
+        }
+        if (mComponentQuantizations[componentIndex] != null) {
+            return mComponentQuantizations[componentIndex];
+        }
+        return mQuantizationDefault;
+    }
+
+    private JP2Tile getFirstTilePart(final int tileIndex) throws JP2ParsingException {
+        if (tileIndex >= mTileIndex.getNumberOfTiles() || mTileIndex.getNumberOfTilePartsForTile(tileIndex) == 0) {
+            return null;
+        }
+        for (int n = 0; n < mTileIndex.getNumberOfTilePartsForTile(tileIndex); ++n) {
+            JP2Tile tilePart = getTilePart(mTileIndex.getTilePartForTile(tileIndex, n));
+            if (tilePart.getTilePartIndex() == 0) {
+                return tilePart;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the quantization style from the QCD marker.
+     *
+     * @return 0 for no quantization, 1 for scalar derived, 2 for scalar expounded.
+     */
+    public int getQuantizationStyle() {
+        return mQuantizationDefault.getQuantizationStyle();
+    }
+
+    public int getNumberOfGuardBits() {
+        return mQuantizationDefault.getNumberOfGuardBits();
+    }
+
+    /**
+     * Get the quantization step size exponents from the QCD marker.
+     *
+     * @return read-only list of exponents, in subband order.
+     */
+    public List<Integer> getQuantizationExponents() {
+        return Collections.unmodifiableList(mQuantizationExponents);
+    }
+
+    /**
+     * Get the quantization step size mantissas from the QCD marker.
+     *
+     * @return read-only list of mantissas, in subband order (always zero for no quantization).
+     */
+    public List<Integer> getQuantizationMantissas() {
+        return Collections.unmodifiableList(mQuantizationMantissas);
+    }
+
 }
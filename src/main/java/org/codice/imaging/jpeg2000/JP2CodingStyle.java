@@ -0,0 +1,250 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+/**
+ * Coding style parameters from a COD or COC marker segment.
+ *
+ * A COD segment gives the defaults for all components, including the
+ * parameters that only apply to the whole tile (progression order, number
+ * of layers, multiple component transformation and the use of SOP and EPH
+ * markers). A COC segment only carries the per-component parameters, so
+ * the tile parameters of a COC style are not set, and should be taken from
+ * the COD style that applies.
+ *
+ * See Section A.6.1 and A.6.2.
+ */
+public class JP2CodingStyle {
+
+    /** Scod / Scoc flag for precinct sizes given in the segment. */
+    public static final int PRECINCTS_DEFINED = 0x01;
+    /** Scod flag for SOP marker segments before each packet. */
+    public static final int SOP_MARKERS = 0x02;
+    /** Scod flag for EPH markers after each packet header. */
+    public static final int EPH_MARKERS = 0x04;
+
+    /** Code-block style flag for selective arithmetic coding bypass. */
+    public static final int CODE_BLOCK_BYPASS = 0x01;
+    /** Code-block style flag for reset of context probabilities on each pass. */
+    public static final int CODE_BLOCK_RESET = 0x02;
+    /** Code-block style flag for termination on each coding pass. */
+    public static final int CODE_BLOCK_TERMINATE_ALL = 0x04;
+    /** Code-block style flag for vertically causal context formation. */
+    public static final int CODE_BLOCK_VERTICALLY_CAUSAL = 0x08;
+    /** Code-block style flag for predictable termination. */
+    public static final int CODE_BLOCK_PREDICTABLE_TERMINATION = 0x10;
+    /** Code-block style flag for segmentation symbols. */
+    public static final int CODE_BLOCK_SEGMENTATION_SYMBOLS = 0x20;
+
+    public static final int PROGRESSION_LRCP = 0;
+    public static final int PROGRESSION_RLCP = 1;
+    public static final int PROGRESSION_RPCL = 2;
+    public static final int PROGRESSION_PCRL = 3;
+    public static final int PROGRESSION_CPRL = 4;
+
+    // Without precinct partitioning, precincts are 2^15 x 2^15 (i.e. the whole resolution)
+    private static final int MAXIMUM_PRECINCT_EXPONENT = 15;
+    private static final int COMPONENT_INDEX_BYTE_LIMIT = 257;
+
+    private int mCodingStyle = 0;
+    private int mProgressionOrder = 0;
+    private int mNumberOfLayers = 1;
+    private int mMultipleComponentTransformation = 0;
+    private int mNumberOfDecompositionLevels = 0;
+    private int mCodeBlockWidthExponent = 0;
+    private int mCodeBlockHeightExponent = 0;
+    private int mCodeBlockStyle = 0;
+    private int mTransformation = 0;
+    private int[] mPrecinctWidthExponents = new int[0];
+    private int[] mPrecinctHeightExponents = new int[0];
+
+    JP2CodingStyle() {
+    }
+
+    /**
+     * Parse a COD marker segment.
+     *
+     * @param reader the reader, positioned after the marker segment length
+     * @return the coding style
+     * @throws JP2ParsingException if the segment could not be read
+     */
+    static JP2CodingStyle parseCodingStyleDefault(final JP2Reader reader) throws JP2ParsingException {
+        JP2CodingStyle codingStyle = new JP2CodingStyle();
+        codingStyle.mCodingStyle = reader.readUnsignedByte() & 0xFF;
+        codingStyle.mProgressionOrder = reader.readUnsignedByte() & 0xFF;
+        codingStyle.mNumberOfLayers = reader.readUnsignedShort();
+        codingStyle.mMultipleComponentTransformation = reader.readUnsignedByte() & 0xFF;
+        codingStyle.parseComponentParameters(reader);
+        return codingStyle;
+    }
+
+    /**
+     * Parse a COC marker segment.
+     *
+     * @param reader the reader, positioned after the component index (Ccoc)
+     * @return the coding style for the component
+     * @throws JP2ParsingException if the segment could not be read
+     */
+    static JP2CodingStyle parseCodingStyleComponent(final JP2Reader reader) throws JP2ParsingException {
+        JP2CodingStyle codingStyle = new JP2CodingStyle();
+        codingStyle.mCodingStyle = reader.readUnsignedByte() & PRECINCTS_DEFINED;
+        codingStyle.parseComponentParameters(reader);
+        return codingStyle;
+    }
+
+    /**
+     * Read a component index, which is one byte for images with fewer than
+     * 257 components and two bytes otherwise.
+     *
+     * @param reader the reader, positioned at the component index
+     * @param numberOfComponents the number of components in the image (Csiz)
+     * @return the component index
+     * @throws JP2ParsingException if the index could not be read
+     */
+    static int readComponentIndex(final JP2Reader reader, final int numberOfComponents) throws JP2ParsingException {
+        if (numberOfComponents < COMPONENT_INDEX_BYTE_LIMIT) {
+            return reader.readUnsignedByte() & 0xFF;
+        }
+        return reader.readUnsignedShort();
+    }
+
+    private void parseComponentParameters(final JP2Reader reader) throws JP2ParsingException {
+        mNumberOfDecompositionLevels = reader.readUnsignedByte() & 0xFF;
+        mCodeBlockWidthExponent = (reader.readUnsignedByte() & 0xFF) + 2;
+        mCodeBlockHeightExponent = (reader.readUnsignedByte() & 0xFF) + 2;
+        mCodeBlockStyle = reader.readUnsignedByte() & 0xFF;
+        mTransformation = reader.readUnsignedByte() & 0xFF;
+        if (mCodeBlockWidthExponent + mCodeBlockHeightExponent > 12) {
+            throw new JP2ParsingException("Invalid code-block size: " + (1 << mCodeBlockWidthExponent) + "x" + (1 << mCodeBlockHeightExponent));
+        }
+        int numberOfResolutionLevels = mNumberOfDecompositionLevels + 1;
+        mPrecinctWidthExponents = new int[numberOfResolutionLevels];
+        mPrecinctHeightExponents = new int[numberOfResolutionLevels];
+        for (int r = 0; r < numberOfResolutionLevels; ++r) {
+            if ((mCodingStyle & PRECINCTS_DEFINED) == PRECINCTS_DEFINED) {
+                // See Table A-21
+                int precinctSize = reader.readUnsignedByte() & 0xFF;
+                mPrecinctWidthExponents[r] = precinctSize & 0x0F;
+                mPrecinctHeightExponents[r] = precinctSize >> 4;
+            } else {
+                mPrecinctWidthExponents[r] = MAXIMUM_PRECINCT_EXPONENT;
+                mPrecinctHeightExponents[r] = MAXIMUM_PRECINCT_EXPONENT;
+            }
+        }
+    }
+
+    /**
+     * Get the coding style flags (Scod, or Scoc for a COC style).
+     *
+     * @return combination of PRECINCTS_DEFINED, SOP_MARKERS and EPH_MARKERS
+     */
+    public int getCodingStyle() {
+        return mCodingStyle;
+    }
+
+    public boolean usesStartOfPacketMarkers() {
+        return (mCodingStyle & SOP_MARKERS) == SOP_MARKERS;
+    }
+
+    public boolean usesEndOfPacketHeaderMarkers() {
+        return (mCodingStyle & EPH_MARKERS) == EPH_MARKERS;
+    }
+
+    /**
+     * Get the progression order.
+     *
+     * @return one of the PROGRESSION_ values
+     */
+    public int getProgressionOrder() {
+        return mProgressionOrder;
+    }
+
+    public int getNumberOfLayers() {
+        return mNumberOfLayers;
+    }
+
+    public int getMultipleComponentTransformation() {
+        return mMultipleComponentTransformation;
+    }
+
+    public int getNumberOfDecompositionLevels() {
+        return mNumberOfDecompositionLevels;
+    }
+
+    /**
+     * Get the nominal code-block width exponent.
+     *
+     * @return code-block width exponent, so the width is 2^exponent samples
+     */
+    public int getCodeBlockWidthExponent() {
+        return mCodeBlockWidthExponent;
+    }
+
+    /**
+     * Get the nominal code-block height exponent.
+     *
+     * @return code-block height exponent, so the height is 2^exponent samples
+     */
+    public int getCodeBlockHeightExponent() {
+        return mCodeBlockHeightExponent;
+    }
+
+    /**
+     * Get the code-block style.
+     *
+     * @return combination of the CODE_BLOCK_ flags
+     */
+    public int getCodeBlockStyle() {
+        return mCodeBlockStyle;
+    }
+
+    /**
+     * Get the wavelet transformation.
+     *
+     * @return 0 for the 9-7 irreversible filter, 1 for the 5-3 reversible filter.
+     */
+    public int getTransformation() {
+        return mTransformation;
+    }
+
+    /**
+     * Get the precinct width exponent for a resolution level.
+     *
+     * @param resolutionLevel the resolution level, 0 being the lowest
+     * @return precinct width exponent (PPx)
+     */
+    public int getPrecinctWidthExponent(final int resolutionLevel) {
+        return mPrecinctWidthExponents[resolutionLevel];
+    }
+
+    /**
+     * Get the precinct height exponent for a resolution level.
+     *
+     * @param resolutionLevel the resolution level, 0 being the lowest
+     * @return precinct height exponent (PPy)
+     */
+    public int getPrecinctHeightExponent(final int resolutionLevel) {
+        return mPrecinctHeightExponents[resolutionLevel];
+    }
+}
@@ -30,8 +30,10 @@ package org.codice.imaging.jpeg2000;
 public class JP2ColourSpecificationBox extends AbstractJP2Box {
     public static final int ENUM_COLOUR_SPACE_SRGB = 16;
     public static final int ENUM_COLOUR_SPACE_GREYSCALE = 17;
+    public static final int ENUM_COLOUR_SPACE_SYCC = 18;
     
     private int mColourSpace = -1;
+    private byte[] mIccProfile = null;
 
 
     /**
@@ -64,7 +66,7 @@ public class JP2ColourSpecificationBox extends AbstractJP2Box {
     }
     
     private void parseRestrictedICCProfileColourSpecificationBox(final int bytesRemainingInBox) throws JP2ParsingException {
-        mReader.skipBytes(bytesRemainingInBox);
+        mIccProfile = mReader.getBytes(bytesRemainingInBox);
     }
 
     /**
@@ -73,11 +75,21 @@ public class JP2ColourSpecificationBox extends AbstractJP2Box {
      * This is basically an enumerated value, and is specified in Table I-10 of
      * the core specification.
      *
-     * @return -1 if not enumerated, 16 for sRGB (ENUM_COLOUR_SPACE_SRGB), 17 for greyscale (ENUM_COLOUR_SPACE_GREYSCALE)
+     * @return -1 if not enumerated, 16 for sRGB (ENUM_COLOUR_SPACE_SRGB), 17 for greyscale (ENUM_COLOUR_SPACE_GREYSCALE),
+     * 18 for sYCC (ENUM_COLOUR_SPACE_SYCC)
      */
     public int getColourSpace() {
         return mColourSpace;
     }
+
+    /**
+     * The restricted ICC profile for the image.
+     *
+     * @return a copy of the profile bytes, or null if the colour space is not given by a profile
+     */
+    public byte[] getIccProfile() {
+        return (mIccProfile == null) ? null : mIccProfile.clone();
+    }
     
     
 }
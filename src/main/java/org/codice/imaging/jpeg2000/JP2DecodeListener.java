@@ -0,0 +1,50 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+/**
+ * Callback for following the progress of an image decode.
+ *
+ * The image decoder reports each tile once it has been written. Tiles are
+ * decoded in parallel, so they complete in no particular order, but the
+ * callback is made for one tile at a time.
+ *
+ * The callback returns whether decoding should continue, so a decode can be
+ * abandoned part way. Tiles that are already being decoded are finished,
+ * but are not reported, and no further tiles are started.
+ *
+ * @see JP2ImageDecoder
+ */
+public interface JP2DecodeListener {
+
+    /**
+     * Called when a tile has been decoded and written.
+     *
+     * @param tileIndex the tile index, in raster order
+     * @param numberOfTilesDecoded the number of tiles written so far, including this one
+     * @param numberOfTiles the number of tiles to be decoded
+     * @return true to continue decoding, false to stop
+     */
+    boolean tileDecoded(final int tileIndex, final int numberOfTilesDecoded, final int numberOfTiles);
+}
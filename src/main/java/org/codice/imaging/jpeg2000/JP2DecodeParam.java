@@ -0,0 +1,335 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+/**
+ * Options for what part of an image to decode.
+ *
+ * The default is to decode everything, at full resolution.
+ */
+public class JP2DecodeParam {
+
+    private int mResolutionReduction = 0;
+    private int mNumberOfLayers = 0;
+    private boolean mHasRegion = false;
+    private int mRegionX = 0;
+    private int mRegionY = 0;
+    private int mRegionWidth = 0;
+    private int mRegionHeight = 0;
+    private int[] mComponents = null;
+
+    /**
+     * Constructor, for decoding the whole image.
+     */
+    public JP2DecodeParam() {
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param param the options to copy
+     */
+    public JP2DecodeParam(final JP2DecodeParam param) {
+        mResolutionReduction = param.mResolutionReduction;
+        mNumberOfLayers = param.mNumberOfLayers;
+        mHasRegion = param.mHasRegion;
+        mRegionX = param.mRegionX;
+        mRegionY = param.mRegionY;
+        mRegionWidth = param.mRegionWidth;
+        mRegionHeight = param.mRegionHeight;
+        mComponents = param.mComponents;
+    }
+
+    /**
+     * Get the number of resolution levels that are discarded.
+     *
+     * @return the resolution reduction, 0 for full resolution
+     */
+    public int getResolutionReduction() {
+        return mResolutionReduction;
+    }
+
+    /**
+     * Set the number of resolution levels to discard.
+     *
+     * Each level halves the width and height of the decoded image, so a
+     * reduction of 3 gives an image an eighth of the size in each direction.
+     * The highest resolution levels are not entropy decoded or inverse
+     * transformed, and where the progression order allows, their packets
+     * are not read. The reduction can not be more than the number of
+     * decomposition levels.
+     *
+     * @param resolutionReduction the number of resolution levels to discard, 0 for full resolution
+     */
+    public void setResolutionReduction(final int resolutionReduction) {
+        if (resolutionReduction < 0) {
+            throw new IllegalArgumentException("Resolution reduction can not be negative: " + resolutionReduction);
+        }
+        mResolutionReduction = resolutionReduction;
+    }
+
+    /**
+     * Get the number of quality layers to decode.
+     *
+     * @return the number of layers, or 0 for all of them
+     */
+    public int getNumberOfLayers() {
+        return mNumberOfLayers;
+    }
+
+    /**
+     * Set the number of quality layers to decode.
+     *
+     * Only the coding passes in the first layers are entropy decoded, which
+     * gives a lower quality image for less work. Where the progression order
+     * allows (LRCP, and the last resolution of RLCP), decoding stops after
+     * the last layer that is needed, and otherwise the packet headers of the
+     * later layers are read but their data is not. If a tile has fewer
+     * layers, all of them are decoded.
+     *
+     * @param numberOfLayers the number of layers, or 0 for all of them
+     */
+    public void setNumberOfLayers(final int numberOfLayers) {
+        if (numberOfLayers < 0) {
+            throw new IllegalArgumentException("Number of layers can not be negative: " + numberOfLayers);
+        }
+        mNumberOfLayers = numberOfLayers;
+    }
+
+    /**
+     * Get the number of quality layers of a tile to decode.
+     *
+     * @param numberOfLayersInTile the number of layers in the tile, from the coding style
+     * @return the number of layers to decode
+     */
+    int getNumberOfLayersToDecode(final int numberOfLayersInTile) {
+        return (mNumberOfLayers == 0) ? numberOfLayersInTile : Math.min(mNumberOfLayers, numberOfLayersInTile);
+    }
+
+    /**
+     * Get whether only a region of the image is decoded.
+     *
+     * @return true if a region has been set
+     */
+    public boolean hasRegion() {
+        return mHasRegion;
+    }
+
+    public int getRegionX() {
+        return mRegionX;
+    }
+
+    public int getRegionY() {
+        return mRegionY;
+    }
+
+    public int getRegionWidth() {
+        return mRegionWidth;
+    }
+
+    public int getRegionHeight() {
+        return mRegionHeight;
+    }
+
+    /**
+     * Set a region of the image to decode.
+     *
+     * The region is a rectangle of full resolution image pixels, with 0,0 at
+     * the top left of the image (not of the reference grid). Only the tiles,
+     * precincts and code-blocks that contribute to the region are decoded,
+     * allowing for the extent of the wavelet filters. With a resolution
+     * reduction, the decoded samples are those of the reduced resolution
+     * image that cover the region. The region is clipped to the image.
+     *
+     * @param x the left edge of the region
+     * @param y the top edge of the region
+     * @param width the width of the region
+     * @param height the height of the region
+     */
+    public void setRegion(final int x, final int y, final int width, final int height) {
+        if (x < 0 || y < 0 || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid region: " + x + "," + y + " " + width + "x" + height);
+        }
+        mHasRegion = true;
+        mRegionX = x;
+        mRegionY = y;
+        mRegionWidth = width;
+        mRegionHeight = height;
+    }
+
+    /**
+     * Clear the region, so that the whole image is decoded.
+     */
+    public void clearRegion() {
+        mHasRegion = false;
+        mRegionX = 0;
+        mRegionY = 0;
+        mRegionWidth = 0;
+        mRegionHeight = 0;
+    }
+
+    /**
+     * Get whether only some of the components are decoded.
+     *
+     * @return true if components have been picked
+     */
+    public boolean hasComponents() {
+        return mComponents != null;
+    }
+
+    /**
+     * Get the components to decode.
+     *
+     * @return the component indexes, in the order they were given, or null for all of them
+     */
+    public int[] getComponents() {
+        return (mComponents == null) ? null : mComponents.clone();
+    }
+
+    /**
+     * Set the components to decode.
+     *
+     * The packets of the other components are skipped, and their code-blocks
+     * are not entropy decoded. The exception is a tile that uses the multiple
+     * component transformation, where all of the first three components are
+     * decoded if any of them is picked, since each is made from all three.
+     * Samples are only written for the components picked. An interleaved
+     * JP2PixelRaster holds the components in the order given here.
+     *
+     * @param components the component indexes (zero based), with no repeats
+     */
+    public void setComponents(final int... components) {
+        if (components.length == 0) {
+            throw new IllegalArgumentException("No components to decode");
+        }
+        for (int i = 0; i < components.length; ++i) {
+            if (components[i] < 0) {
+                throw new IllegalArgumentException("Invalid component: " + components[i]);
+            }
+            for (int j = 0; j < i; ++j) {
+                if (components[j] == components[i]) {
+                    throw new IllegalArgumentException("Component " + components[i] + " picked twice");
+                }
+            }
+        }
+        mComponents = components.clone();
+    }
+
+    /**
+     * Clear the components, so that all of them are decoded.
+     */
+    public void clearComponents() {
+        mComponents = null;
+    }
+
+    /**
+     * Get whether the samples of a component are wanted.
+     *
+     * @param componentIndex the component (zero based)
+     * @return true if the component was picked, or no components were picked
+     */
+    boolean isComponentDecoded(final int componentIndex) {
+        if (mComponents == null) {
+            return true;
+        }
+        for (int c : mComponents) {
+            if (c == componentIndex) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of components whose samples are wanted.
+     *
+     * @param codeStream the code stream
+     * @return the number of components picked, or the number in the image
+     */
+    int getNumberOfComponentsDecoded(final JP2CodeStream codeStream) {
+        return (mComponents == null) ? codeStream.getNumberOfComponentsInImage() : mComponents.length;
+    }
+
+    /**
+     * Get the part of a component that is decoded.
+     *
+     * @param codeStream the code stream
+     * @param componentIndex the component (zero based)
+     * @return the bounds as x0, y0, x1, y1 (half open), in the component
+     * coordinate system at the decoded resolution
+     * @throws JP2ParsingException if the region does not overlap the image, or a component picked is not in the image
+     */
+    int[] getComponentBounds(final JP2CodeStream codeStream, final int componentIndex) throws JP2ParsingException {
+        if (mComponents != null) {
+            for (int c : mComponents) {
+                if (c >= codeStream.getNumberOfComponentsInImage()) {
+                    throw new JP2ParsingException("Component " + c + " is not in the image, which has " + codeStream.getNumberOfComponentsInImage());
+                }
+            }
+        }
+        long x0 = codeStream.getHorizontalOffset();
+        long y0 = codeStream.getVerticalOffset();
+        long x1 = codeStream.getXSize();
+        long y1 = codeStream.getYSize();
+        if (mHasRegion) {
+            x1 = Math.min(x1, x0 + mRegionX + mRegionWidth);
+            y1 = Math.min(y1, y0 + mRegionY + mRegionHeight);
+            x0 += mRegionX;
+            y0 += mRegionY;
+            if (x0 >= x1 || y0 >= y1) {
+                throw new JP2ParsingException("Region " + mRegionX + "," + mRegionY + " " + mRegionWidth + "x" + mRegionHeight + " is outside the image");
+            }
+        }
+        // Each resolution reduction halves the component coordinates. See Equation B-14.
+        long horizontalSeparation = (long) codeStream.getComponentHorizontalSeparation(componentIndex) << mResolutionReduction;
+        long verticalSeparation = (long) codeStream.getComponentVerticalSeparation(componentIndex) << mResolutionReduction;
+        return new int[]{
+            (int) ceilingDivide(x0, horizontalSeparation),
+            (int) ceilingDivide(y0, verticalSeparation),
+            (int) ceilingDivide(x1, horizontalSeparation),
+            (int) ceilingDivide(y1, verticalSeparation)};
+    }
+
+    private static long ceilingDivide(final long value, final long divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * Get the number of resolution levels of a tile-component to decode.
+     *
+     * @param layout the layout of the tile
+     * @param componentIndex the component (zero based)
+     * @return the number of resolution levels, at least 1
+     * @throws JP2ParsingException if the component has fewer decomposition levels than the reduction
+     */
+    int getNumberOfResolutionLevels(final JP2TileLayout layout, final int componentIndex) throws JP2ParsingException {
+        int numberOfResolutionLevels = layout.getNumberOfResolutionLevels(componentIndex) - mResolutionReduction;
+        if (numberOfResolutionLevels < 1) {
+            throw new JP2ParsingException("Resolution reduction of " + mResolutionReduction + " is more than the "
+                    + (layout.getNumberOfResolutionLevels(componentIndex) - 1) + " decomposition levels of component " + componentIndex
+                    + " in tile " + layout.getTileIndex());
+        }
+        return numberOfResolutionLevels;
+    }
+}
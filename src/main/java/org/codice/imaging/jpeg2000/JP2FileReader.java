@@ -27,10 +27,18 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * File reader using java.io.RandomAccessFile.
+ *
+ * The file has a single file pointer, so all access is synchronized. This
+ * keeps each read and seek whole when the reader is shared by several
+ * threads, but a sequence of them (such as a seek followed by reads) is
+ * only safe from one thread at a time. getByteBuffer() puts the file
+ * pointer back where it was, so it can be used from any thread.
  *
  * @author bradh
  */
@@ -83,7 +91,7 @@ public class JP2FileReader implements JP2Reader {
     }
 
     @Override
-    public void skipBytes(final int numOfBytesToSkip) throws JP2ParsingException {
+    public synchronized void skipBytes(final int numOfBytesToSkip) throws JP2ParsingException {
         try {
             mFile.skipBytes(numOfBytesToSkip);
         } catch (IOException ex) {
@@ -93,7 +101,7 @@ public class JP2FileReader implements JP2Reader {
     }
 
     @Override
-    public byte readUnsignedByte() throws JP2ParsingException {
+    public synchronized byte readUnsignedByte() throws JP2ParsingException {
         try {
             return mFile.readByte();
         } catch (IOException ex) {
@@ -103,7 +111,7 @@ public class JP2FileReader implements JP2Reader {
     }
 
     @Override
-    public int readUnsignedShort() throws JP2ParsingException {
+    public synchronized int readUnsignedShort() throws JP2ParsingException {
         try {
             return (mFile.readShort() & 0x0000FFFF);
         } catch (IOException ex) {
@@ -113,7 +121,7 @@ public class JP2FileReader implements JP2Reader {
     }
 
     @Override
-    public int readUnsignedInt() throws JP2ParsingException {
+    public synchronized int readUnsignedInt() throws JP2ParsingException {
         try {
             return mFile.readInt();
         } catch (IOException ex) {
@@ -123,7 +131,7 @@ public class JP2FileReader implements JP2Reader {
     }
 
     @Override
-    public String getFixedLengthString(int stringLength) throws JP2ParsingException {
+    public synchronized String getFixedLengthString(int stringLength) throws JP2ParsingException {
         try {
             byte[] stringAsBytes = new byte[stringLength];
             int numBytesRead = mFile.read(stringAsBytes);
@@ -138,7 +146,7 @@ public class JP2FileReader implements JP2Reader {
     }
 
     @Override
-    public byte[] getBytes(int byteArrayLength) throws JP2ParsingException {
+    public synchronized byte[] getBytes(int byteArrayLength) throws JP2ParsingException {
         try {
             byte[] bytes = new byte[byteArrayLength];
             int numBytesRead = mFile.read(bytes);
@@ -153,7 +161,7 @@ public class JP2FileReader implements JP2Reader {
     }
 
     @Override
-    public boolean hasDataRemaining() throws JP2ParsingException {
+    public synchronized boolean hasDataRemaining() throws JP2ParsingException {
         try {
             return mFile.getFilePointer() < mFile.length();
         } catch (IOException ex) {
@@ -162,5 +170,50 @@ public class JP2FileReader implements JP2Reader {
         }
     }
 
+    @Override
+    public synchronized long getPosition() throws JP2ParsingException {
+        try {
+            return mFile.getFilePointer();
+        } catch (IOException ex) {
+            LOG.warn("Unable to get file position", ex);
+            throw new JP2ParsingException("Unable to get file position, exception was:" + ex.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void seek(final long position) throws JP2ParsingException {
+        try {
+            mFile.seek(position);
+        } catch (IOException ex) {
+            LOG.warn("Unable to seek to " + position, ex);
+            throw new JP2ParsingException("Unable to seek to " + position + ", exception was:" + ex.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized long getLength() throws JP2ParsingException {
+        try {
+            return mFile.length();
+        } catch (IOException ex) {
+            LOG.warn("Unable to get file length", ex);
+            throw new JP2ParsingException("Unable to get file length, exception was:" + ex.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized ByteBuffer getByteBuffer(final long position, final int length) throws JP2ParsingException {
+        try {
+            long savedPosition = mFile.getFilePointer();
+            byte[] bytes = new byte[length];
+            mFile.seek(position);
+            mFile.readFully(bytes);
+            mFile.seek(savedPosition);
+            return ByteBuffer.wrap(bytes);
+        } catch (IOException ex) {
+            LOG.warn("Unable to read byte range", ex);
+            throw new JP2ParsingException("Unable to read " + length + " bytes at offset " + position + ", exception was:" + ex.getMessage());
+        }
+    }
+
 
 }
@@ -24,6 +24,7 @@
 package org.codice.imaging.jpeg2000;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -87,6 +88,6 @@ public class JP2FileTypeBox extends AbstractJP2Box {
     }
 
     public List<String> getCompatibilityList() {
-        return mCompatibilityList;
+        return Collections.unmodifiableList(mCompatibilityList);
     }
 }
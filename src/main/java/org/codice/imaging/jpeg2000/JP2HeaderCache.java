@@ -0,0 +1,201 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of parsed file headers, for opening the same files many times.
+ *
+ * The first time a file is asked for, it is memory mapped and parsed: the
+ * boxes (file type, image header, colour specification, channel definition
+ * and XML), the main header of the code stream (SIZ, COD, QCD and so on)
+ * and the index of tile-part locations. Later requests for the same file
+ * get the same parse results, as long as the file still has the same size
+ * and modification time. A file that has changed is parsed again.
+ *
+ * Files are identified by their canonical path. The least recently used
+ * files are dropped when the cache has more than its maximum number of
+ * entries.
+ *
+ * The parse results are shared by everything that asks for the same file.
+ * They are read-only: the lists they return can not be modified, and a
+ * parse strategy can not be used for another parse. The code stream reads tiles through the
+ * mapping made by the cache, and can be decoded from several threads at
+ * once. A tile cache keyed on the code stream therefore works across
+ * requests for the same file.
+ */
+public class JP2HeaderCache {
+
+    private final int mMaximumEntries;
+    private final LinkedHashMap<File, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param maximumEntries the most files to keep the headers of
+     */
+    public JP2HeaderCache(final int maximumEntries) {
+        if (maximumEntries < 0) {
+            throw new IllegalArgumentException("Number of entries can not be negative: " + maximumEntries);
+        }
+        mMaximumEntries = maximumEntries;
+    }
+
+    public int getMaximumEntries() {
+        return mMaximumEntries;
+    }
+
+    public synchronized int getNumberOfEntries() {
+        return mEntries.size();
+    }
+
+    /**
+     * Get the number of requests that were answered from the cache.
+     *
+     * @return the number of hits since the cache was created
+     */
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    /**
+     * Get the number of requests that needed the file to be parsed.
+     *
+     * This includes files that had changed since they were cached.
+     *
+     * @return the number of misses since the cache was created
+     */
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * Drop all of the entries.
+     *
+     * The counters are not reset.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * Get the parse results for a JP2 file.
+     *
+     * @param file the file
+     * @return the parse results, shared with other callers
+     * @throws JP2ParsingException if the file could not be read or parsed, or is a bare code stream
+     */
+    public JP2ParseStrategy getParseStrategy(final File file) throws JP2ParsingException {
+        Entry entry = getEntry(file);
+        if (entry.mParseStrategy == null) {
+            throw new JP2ParsingException(file.getPath() + " is a bare code stream, not a JP2 file");
+        }
+        return entry.mParseStrategy;
+    }
+
+    /**
+     * Get the code stream of a JP2 file or a bare code stream file.
+     *
+     * @param file the file
+     * @return the code stream, shared with other callers
+     * @throws JP2ParsingException if the file could not be read or parsed
+     */
+    public JP2CodeStream getCodeStream(final File file) throws JP2ParsingException {
+        Entry entry = getEntry(file);
+        if (entry.mCodeStream == null) {
+            throw new JP2ParsingException(file.getPath() + " does not have a code stream");
+        }
+        return entry.mCodeStream;
+    }
+
+    private Entry getEntry(final File file) throws JP2ParsingException {
+        File key;
+        try {
+            key = file.getCanonicalFile();
+        } catch (IOException ex) {
+            throw new JP2ParsingException("Could not resolve " + file.getPath(), ex);
+        }
+        if (!key.isFile()) {
+            throw new JP2ParsingException(file.getPath() + " is not a file");
+        }
+        // Checked before the file is parsed, so a change while parsing is seen next time
+        long length = key.length();
+        long lastModified = key.lastModified();
+        Entry entry = get(key);
+        if (entry != null && entry.mLength == length && entry.mLastModified == lastModified) {
+            mHits.incrementAndGet();
+            return entry;
+        }
+        mMisses.incrementAndGet();
+        entry = new Entry(key, length, lastModified);
+        put(key, entry);
+        return entry;
+    }
+
+    private synchronized Entry get(final File key) {
+        return mEntries.get(key);
+    }
+
+    private synchronized void put(final File key, final Entry entry) {
+        mEntries.put(key, entry);
+        Iterator<Entry> eldest = mEntries.values().iterator();
+        while (mEntries.size() > mMaximumEntries) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    // The parse results for one version of a file
+    private static final class Entry {
+
+        private static final int CODESTREAM_SIGNATURE_LENGTH = 2;
+
+        private final long mLength;
+        private final long mLastModified;
+        private final JP2ParseStrategy mParseStrategy;
+        private final JP2CodeStream mCodeStream;
+
+        Entry(final File file, final long length, final long lastModified) throws JP2ParsingException {
+            mLength = length;
+            mLastModified = lastModified;
+            JP2Reader reader = new JP2MappedFileReader(file);
+            if (reader.getLength() >= CODESTREAM_SIGNATURE_LENGTH
+                    && (reader.getByteBuffer(0, CODESTREAM_SIGNATURE_LENGTH).getShort() & 0xFFFF) == JP2CodeStream.SOC_MARKER_CODE) {
+                mParseStrategy = null;
+                mCodeStream = JP2Parser.parseCodestream(reader, false);
+            } else {
+                mParseStrategy = new JP2ParseStrategy();
+                JP2Parser.parse(reader, mParseStrategy);
+                mCodeStream = mParseStrategy.getCodeStream();
+            }
+        }
+    }
+}
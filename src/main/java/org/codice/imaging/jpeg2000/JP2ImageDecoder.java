@@ -0,0 +1,331 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Decodes whole images, with the tiles decoded in parallel.
+ *
+ * Tiles are independent of each other, so they are split up as fork/join
+ * tasks, and each tile is decoded straight into its part of a shared
+ * JP2Raster. Tile decoders are pooled and handed to one task at a time, so
+ * their working storage is reused across tiles. No more idle tile decoders
+ * are kept than there are threads in the pool, so a burst of concurrent
+ * decodes does not leave its working storage behind.
+ *
+ * When there are fewer tiles than threads in the pool (most commonly, an
+ * untiled image) the tile decoders also split the work within each tile
+ * across the pool.
+ *
+ * If only a region is decoded, only the tiles that overlap it are read.
+ * Decoded tiles can be kept in a JP2TileCache, for viewers that go back
+ * over the same part of an image.
+ *
+ * An image decoder can be used by several threads at once, but the same
+ * raster should only be decoded into by one of them.
+ */
+public class JP2ImageDecoder {
+
+    private final JP2CodeStream mCodeStream;
+    private final ForkJoinPool mPool;
+    private final Queue<JP2TileDecoder> mTileDecoders = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mNumberOfIdleTileDecoders = new AtomicInteger();
+    private volatile JP2TileCache mTileCache = null;
+
+    /**
+     * Constructor, using a pool shared by all image decoders.
+     *
+     * The shared pool has one thread per available processor.
+     *
+     * @param codeStream the code stream to decode
+     */
+    public JP2ImageDecoder(final JP2CodeStream codeStream) {
+        this(codeStream, SharedPool.POOL);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param codeStream the code stream to decode
+     * @param pool the pool to decode tiles on
+     */
+    public JP2ImageDecoder(final JP2CodeStream codeStream, final ForkJoinPool pool) {
+        mCodeStream = codeStream;
+        mPool = pool;
+    }
+
+    /**
+     * Get the cache of decoded tiles.
+     *
+     * @return the cache, or null if tiles are not cached
+     */
+    public JP2TileCache getTileCache() {
+        return mTileCache;
+    }
+
+    /**
+     * Set a cache of decoded tiles.
+     *
+     * With a cache, the whole of each tile that overlaps the region is
+     * decoded, and is kept for the next time that tile is decoded with the
+     * same options. The cache can be shared with other image decoders.
+     *
+     * @param tileCache the cache, or null to not cache tiles
+     */
+    public void setTileCache(final JP2TileCache tileCache) {
+        mTileCache = tileCache;
+    }
+
+    /**
+     * Decode the whole image.
+     *
+     * @return the decoded samples
+     * @throws JP2ParsingException if any tile could not be decoded
+     */
+    public JP2Raster decode() throws JP2ParsingException {
+        return decode(new JP2DecodeParam());
+    }
+
+    /**
+     * Decode part of the image.
+     *
+     * @param param the part of the image to decode
+     * @return the decoded samples
+     * @throws JP2ParsingException if any tile could not be decoded
+     */
+    public JP2Raster decode(final JP2DecodeParam param) throws JP2ParsingException {
+        JP2Raster raster = new JP2Raster(mCodeStream, param);
+        decode(raster);
+        return raster;
+    }
+
+    /**
+     * Decode into an existing raster.
+     *
+     * @param raster the raster to write the samples into, which must have
+     * been created for this code stream, and gives the part of the image to decode
+     * @throws JP2ParsingException if any tile could not be decoded
+     */
+    public void decode(final JP2Raster raster) throws JP2ParsingException {
+        decode(raster.getDecodeParam(), raster.getWriter(), null);
+    }
+
+    /**
+     * Decode into a byte or short raster.
+     *
+     * The component transformation, level shift and conversion to the
+     * raster's data type are done as each tile is written, so there is no
+     * intermediate copy of the image.
+     *
+     * @param raster the raster to write the samples into, which must have
+     * been created for this code stream, and gives the part of the image to decode
+     * @throws JP2ParsingException if any tile could not be decoded
+     */
+    public void decode(final JP2PixelRaster raster) throws JP2ParsingException {
+        decode(raster.getDecodeParam(), raster.getWriter(), null);
+    }
+
+    /**
+     * Decode into storage supplied by the caller, such as the raster of a BufferedImage.
+     *
+     * As for a JP2PixelRaster, each tile is converted and written straight
+     * into the storage, so there is no intermediate copy of the image.
+     *
+     * @param output the storage to write the samples into, which must have
+     * been created for this code stream, and gives the part of the image to decode
+     * @throws JP2ParsingException if any tile could not be decoded
+     */
+    public void decode(final JP2RasterOutput output) throws JP2ParsingException {
+        decode(output.getDecodeParam(), output.getWriter(), null);
+    }
+
+    /**
+     * Decode into storage supplied by the caller, reporting each tile as it is written.
+     *
+     * The listener can stop the decode, in which case the tiles that were
+     * not reported may not have been written.
+     *
+     * @param output the storage to write the samples into, which must have
+     * been created for this code stream, and gives the part of the image to decode
+     * @param listener the listener to report each tile to
+     * @return true if all of the tiles were decoded, false if the listener stopped the decode
+     * @throws JP2ParsingException if any tile could not be decoded
+     */
+    public boolean decode(final JP2RasterOutput output, final JP2DecodeListener listener) throws JP2ParsingException {
+        return decode(output.getDecodeParam(), output.getWriter(), listener);
+    }
+
+    private boolean decode(final JP2DecodeParam param, final JP2SampleWriter writer, final JP2DecodeListener listener) throws JP2ParsingException {
+        int[] tiles = getTilesInRegion(param);
+        AtomicReference<JP2ParsingException> error = new AtomicReference<>();
+        Progress progress = new Progress(listener, tiles.length);
+        mPool.invoke(new TileTask(param, writer, mTileCache, tiles, 0, tiles.length, error, progress));
+        if (error.get() != null) {
+            throw error.get();
+        }
+        return !progress.isStopped();
+    }
+
+    // The tiles that overlap the region, in raster order. See Equation B-5.
+    private int[] getTilesInRegion(final JP2DecodeParam param) {
+        long x0 = mCodeStream.getHorizontalOffset();
+        long y0 = mCodeStream.getVerticalOffset();
+        long x1 = mCodeStream.getXSize();
+        long y1 = mCodeStream.getYSize();
+        if (param.hasRegion()) {
+            x1 = Math.min(x1, x0 + param.getRegionX() + param.getRegionWidth());
+            y1 = Math.min(y1, y0 + param.getRegionY() + param.getRegionHeight());
+            x0 += param.getRegionX();
+            y0 += param.getRegionY();
+        }
+        int tileWidth = mCodeStream.getWidthOfReferenceTile();
+        int tileHeight = mCodeStream.getHeightOfReferenceTile();
+        int firstColumn = (int) ((x0 - mCodeStream.getHorizontalOffsetOfReferenceTile()) / tileWidth);
+        int endColumn = (int) ((x1 - 1 - mCodeStream.getHorizontalOffsetOfReferenceTile()) / tileWidth) + 1;
+        int firstRow = (int) ((y0 - mCodeStream.getVerticalOffsetOfReferenceTile()) / tileHeight);
+        int endRow = (int) ((y1 - 1 - mCodeStream.getVerticalOffsetOfReferenceTile()) / tileHeight) + 1;
+        int[] tiles = new int[(endColumn - firstColumn) * (endRow - firstRow)];
+        int i = 0;
+        for (int row = firstRow; row < endRow; ++row) {
+            for (int column = firstColumn; column < endColumn; ++column) {
+                tiles[i++] = row * mCodeStream.getNumberOfTilesX() + column;
+            }
+        }
+        return tiles;
+    }
+
+    private JP2TileDecoder acquireTileDecoder() {
+        JP2TileDecoder tileDecoder = mTileDecoders.poll();
+        if (tileDecoder != null) {
+            mNumberOfIdleTileDecoders.decrementAndGet();
+        } else {
+            boolean splitTiles = mCodeStream.getNumberOfTiles() < mPool.getParallelism();
+            tileDecoder = new JP2TileDecoder(mCodeStream, splitTiles ? mPool : null);
+        }
+        return tileDecoder;
+    }
+
+    // Extra tile decoders are dropped, along with their sample planes
+    private void releaseTileDecoder(final JP2TileDecoder tileDecoder) {
+        if (mNumberOfIdleTileDecoders.incrementAndGet() <= mPool.getParallelism()) {
+            mTileDecoders.add(tileDecoder);
+        } else {
+            mNumberOfIdleTileDecoders.decrementAndGet();
+        }
+    }
+
+    int getNumberOfIdleTileDecoders() {
+        return mNumberOfIdleTileDecoders.get();
+    }
+
+    // Decodes a range of tiles, splitting in half until there is a single tile.
+    private final class TileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final JP2DecodeParam mParam;
+        private final JP2SampleWriter mWriter;
+        private final JP2TileCache mCache;
+        private final int[] mTiles;
+        private final int mFirstTile;
+        private final int mEndTile;
+        private final AtomicReference<JP2ParsingException> mError;
+        private final Progress mProgress;
+
+        TileTask(final JP2DecodeParam param, final JP2SampleWriter writer, final JP2TileCache cache, final int[] tiles, final int firstTile, final int endTile,
+                final AtomicReference<JP2ParsingException> error, final Progress progress) {
+            mParam = param;
+            mWriter = writer;
+            mCache = cache;
+            mTiles = tiles;
+            mFirstTile = firstTile;
+            mEndTile = endTile;
+            mError = error;
+            mProgress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEndTile - mFirstTile > 1) {
+                int middle = (mFirstTile + mEndTile) >>> 1;
+                invokeAll(new TileTask(mParam, mWriter, mCache, mTiles, mFirstTile, middle, mError, mProgress),
+                        new TileTask(mParam, mWriter, mCache, mTiles, middle, mEndTile, mError, mProgress));
+                return;
+            }
+            if (mFirstTile == mEndTile || mError.get() != null || mProgress.isStopped()) {
+                return;
+            }
+            JP2TileDecoder tileDecoder = acquireTileDecoder();
+            try {
+                if (mCache == null) {
+                    tileDecoder.decodeTile(mTiles[mFirstTile], mParam, mWriter);
+                } else {
+                    mCache.decodeTile(tileDecoder, mTiles[mFirstTile], mParam, mWriter);
+                }
+                mProgress.tileDecoded(mTiles[mFirstTile]);
+            } catch (JP2ParsingException e) {
+                mError.compareAndSet(null, e);
+            } finally {
+                releaseTileDecoder(tileDecoder);
+            }
+        }
+    }
+
+    // Reports tiles to the listener one at a time, until it asks to stop
+    private static final class Progress {
+
+        private final JP2DecodeListener mListener;
+        private final int mNumberOfTiles;
+        private int mNumberOfTilesDecoded = 0;
+        private volatile boolean mStopped = false;
+
+        Progress(final JP2DecodeListener listener, final int numberOfTiles) {
+            mListener = listener;
+            mNumberOfTiles = numberOfTiles;
+        }
+
+        synchronized void tileDecoded(final int tileIndex) {
+            mNumberOfTilesDecoded++;
+            if (mListener != null && !mStopped && !mListener.tileDecoded(tileIndex, mNumberOfTilesDecoded, mNumberOfTiles)) {
+                mStopped = true;
+            }
+        }
+
+        boolean isStopped() {
+            return mStopped;
+        }
+    }
+
+    // Created on first use, so there are no threads unless something is decoded.
+    private static final class SharedPool {
+
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+}
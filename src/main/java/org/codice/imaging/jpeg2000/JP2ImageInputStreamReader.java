@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Reader over an image I/O stream of known length.
+ *
+ * The stream has a single position, so all access is synchronized. The
+ * sequential reads used for the headers are served from a block that is
+ * read ahead, so parsing does not go back to the stream for each field.
+ * Ranges asked for with getByteBuffer() are copied into new buffers, and
+ * can be asked for by several threads at once.
+ */
+class JP2ImageInputStreamReader implements JP2Reader {
+
+    private static final int BLOCK_SIZE = 1 << 13;
+
+    private final ImageInputStream mStream;
+    private final long mStart;
+    private final long mLength;
+    private long mPosition = 0;
+    private final byte[] mBlock = new byte[BLOCK_SIZE];
+    private long mBlockStart = 0;
+    private int mBlockLength = 0;
+
+    /**
+     * Constructor.
+     *
+     * The reader covers the stream from its current position to the end.
+     *
+     * @param stream the stream, which must know its length
+     * @throws JP2ParsingException if the length of the stream is not known
+     */
+    JP2ImageInputStreamReader(final ImageInputStream stream) throws JP2ParsingException {
+        mStream = stream;
+        try {
+            mStart = stream.getStreamPosition();
+            long streamLength = stream.length();
+            if (streamLength < 0) {
+                throw new JP2ParsingException("Stream length is not known");
+            }
+            mLength = streamLength - mStart;
+        } catch (IOException ex) {
+            throw new JP2ParsingException("Could not get stream length", ex);
+        }
+    }
+
+    @Override
+    public synchronized void skipBytes(final int numOfBytesToSkip) throws JP2ParsingException {
+        if (numOfBytesToSkip > 0) {
+            mPosition = Math.min(mPosition + numOfBytesToSkip, mLength);
+        }
+    }
+
+    @Override
+    public synchronized byte readUnsignedByte() throws JP2ParsingException {
+        int offset = fill(mPosition, PackageConstants.UNSIGNED_BYTE_LENGTH);
+        mPosition += PackageConstants.UNSIGNED_BYTE_LENGTH;
+        return mBlock[offset];
+    }
+
+    @Override
+    public synchronized int readUnsignedShort() throws JP2ParsingException {
+        int offset = fill(mPosition, PackageConstants.UNSIGNED_SHORT_LENGTH);
+        mPosition += PackageConstants.UNSIGNED_SHORT_LENGTH;
+        return ((mBlock[offset] & 0xFF) << 8) | (mBlock[offset + 1] & 0xFF);
+    }
+
+    @Override
+    public synchronized int readUnsignedInt() throws JP2ParsingException {
+        int offset = fill(mPosition, PackageConstants.UNSIGNED_INT_LENGTH);
+        mPosition += PackageConstants.UNSIGNED_INT_LENGTH;
+        return ((mBlock[offset] & 0xFF) << 24) | ((mBlock[offset + 1] & 0xFF) << 16)
+                | ((mBlock[offset + 2] & 0xFF) << 8) | (mBlock[offset + 3] & 0xFF);
+    }
+
+    @Override
+    public synchronized byte[] getBytes(final int byteArrayLength) throws JP2ParsingException {
+        byte[] bytes = read(mPosition, byteArrayLength);
+        mPosition += byteArrayLength;
+        return bytes;
+    }
+
+    @Override
+    public String getFixedLengthString(final int stringLength) throws JP2ParsingException {
+        return new String(getBytes(stringLength), StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public synchronized boolean hasDataRemaining() throws JP2ParsingException {
+        return mPosition < mLength;
+    }
+
+    @Override
+    public synchronized long getPosition() throws JP2ParsingException {
+        return mPosition;
+    }
+
+    @Override
+    public synchronized void seek(final long position) throws JP2ParsingException {
+        if (position < 0 || position > mLength) {
+            throw new JP2ParsingException("Unable to seek to " + position + ", stream length is " + mLength);
+        }
+        mPosition = position;
+    }
+
+    @Override
+    public long getLength() throws JP2ParsingException {
+        return mLength;
+    }
+
+    @Override
+    public synchronized ByteBuffer getByteBuffer(final long position, final int length) throws JP2ParsingException {
+        return ByteBuffer.wrap(read(position, length));
+    }
+
+    private void checkRange(final long position, final int length) throws JP2ParsingException {
+        if (position < 0 || length < 0 || position + length > mLength) {
+            throw new JP2ParsingException("Unable to read " + length + " bytes at offset " + position + ", stream length is " + mLength);
+        }
+    }
+
+    // Small reads come from the block, and large ones go straight to the stream
+    private byte[] read(final long position, final int length) throws JP2ParsingException {
+        if (length <= BLOCK_SIZE) {
+            int offset = fill(position, length);
+            return Arrays.copyOfRange(mBlock, offset, offset + length);
+        }
+        checkRange(position, length);
+        byte[] bytes = new byte[length];
+        readFromStream(position, bytes, length);
+        return bytes;
+    }
+
+    // Make sure the block holds a range, reading the block from the start of the range if not
+    private int fill(final long position, final int length) throws JP2ParsingException {
+        checkRange(position, length);
+        if (position < mBlockStart || position + length > mBlockStart + mBlockLength) {
+            mBlockLength = 0;
+            int blockLength = (int) Math.min(BLOCK_SIZE, mLength - position);
+            readFromStream(position, mBlock, blockLength);
+            mBlockStart = position;
+            mBlockLength = blockLength;
+        }
+        return (int) (position - mBlockStart);
+    }
+
+    private void readFromStream(final long position, final byte[] bytes, final int length) throws JP2ParsingException {
+        try {
+            mStream.seek(mStart + position);
+            mStream.readFully(bytes, 0, length);
+        } catch (IOException ex) {
+            throw new JP2ParsingException("Could not read " + length + " bytes at offset " + position, ex);
+        }
+    }
+}
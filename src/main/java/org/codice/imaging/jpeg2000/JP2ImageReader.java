@@ -0,0 +1,574 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import javax.imageio.IIOException;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Image I/O reader for JPEG 2000.
+ *
+ * The parts of the read parameters that select less of the image are
+ * passed on to the decoder, so that only that part is decoded:
+ * <ul>
+ * <li>the source region becomes the decoding region, so only the tiles,
+ * precincts and code-blocks under it are decoded,</li>
+ * <li>subsampling by 2, 4, 8 and so on becomes a resolution reduction,
+ * so the higher resolution levels are not decoded at all (other factors
+ * use the largest reduction that fits, then pick from those samples),</li>
+ * <li>the source bands become the components to decode.</li>
+ * </ul>
+ *
+ * When the decoded samples line up with the destination pixels, as they do
+ * without subsampling or with subsampling by a power of two, each tile is
+ * written straight into the destination image. Otherwise the samples are
+ * picked from the decoded components.
+ *
+ * Samples are 8 bits (unsigned) or 16 bits. The last band is alpha if the
+ * channel definition box says it is an opacity channel or, without a
+ * channel definition box, if there are two or four bands. By default the
+ * bands are the colours in the order given by the channel definition box,
+ * then any other components.
+ *
+ * One colour band is grey. Otherwise the colour space is the one in the
+ * colour specification box (sRGB, greyscale, or a restricted ICC profile),
+ * as long as the colour bands are all of its colours in order, and sYCC is
+ * converted to sRGB as it is read. A bare code stream with three colour
+ * bands is taken to be sRGB. Anything else (up to fifteen bands in all)
+ * uses a generic colour space, with no colour interpretation. There is no
+ * metadata.
+ */
+public class JP2ImageReader extends ImageReader {
+
+    private static final int MAXIMUM_COMPONENTS = 15;
+    private static final int BYTE_BIT_DEPTH = 8;
+    private static final int SHORT_BIT_DEPTH = 16;
+    private static final int MAXIMUM_INTERLEAVED_COMPONENTS = 4;
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+    private static final int RGB_COLOURS = 3;
+    private static final int YCC_COLOURS = 3;
+    // Sorts after any colour association
+    private static final int NOT_A_COLOUR = 1 << 16;
+
+    private JP2CodeStream mCodeStream = null;
+    private JP2ChannelDefinitionBox mChannelDefinition = null;
+    private JP2ColourSpecificationBox mColourSpecification = null;
+
+    /**
+     * Constructor.
+     *
+     * @param originatingProvider the service provider creating the reader
+     */
+    public JP2ImageReader(final ImageReaderSpi originatingProvider) {
+        super(originatingProvider);
+    }
+
+    @Override
+    public void setInput(final Object input, final boolean seekForwardOnly, final boolean ignoreMetadata) {
+        super.setInput(input, seekForwardOnly, ignoreMetadata);
+        mCodeStream = null;
+        mChannelDefinition = null;
+        mColourSpecification = null;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        mCodeStream = null;
+        mChannelDefinition = null;
+        mColourSpecification = null;
+    }
+
+    // Parsed the first time it is needed
+    private JP2CodeStream getCodeStream() throws IOException {
+        if (input == null) {
+            throw new IllegalStateException("Input not set");
+        }
+        if (mCodeStream == null) {
+            try {
+                JP2Reader reader = createReader();
+                if (reader.getLength() >= PackageConstants.UNSIGNED_SHORT_LENGTH
+                        && (reader.getByteBuffer(0, PackageConstants.UNSIGNED_SHORT_LENGTH).getShort() & 0xFFFF) == JP2CodeStream.SOC_MARKER_CODE) {
+                    mCodeStream = JP2Parser.parseCodestream(reader, false);
+                } else {
+                    JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+                    JP2Parser.parse(reader, parseStrategy);
+                    mCodeStream = parseStrategy.getCodeStream();
+                    mChannelDefinition = parseStrategy.getChannelDefinitionBox();
+                    mColourSpecification = parseStrategy.getColourSpecification();
+                }
+            } catch (JP2ParsingException ex) {
+                throw new IIOException("Could not parse JPEG 2000 image", ex);
+            }
+            if (mCodeStream == null) {
+                throw new IIOException("No code stream in JPEG 2000 image");
+            }
+        }
+        return mCodeStream;
+    }
+
+    private JP2Reader createReader() throws IOException, JP2ParsingException {
+        if (input instanceof File) {
+            return new JP2MappedFileReader((File) input);
+        }
+        ImageInputStream stream = (ImageInputStream) input;
+        if (stream.length() >= 0) {
+            return new JP2ImageInputStreamReader(stream);
+        }
+        // Length not known, so read the rest of the stream into memory
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        int count;
+        while ((count = stream.read(buffer)) > 0) {
+            bytes.write(buffer, 0, count);
+        }
+        return new JP2ByteBufferReader(bytes.toByteArray());
+    }
+
+    private void checkIndex(final int imageIndex) {
+        if (imageIndex != 0) {
+            throw new IndexOutOfBoundsException("JPEG 2000 images have one image, not " + imageIndex);
+        }
+    }
+
+    @Override
+    public int getNumImages(final boolean allowSearch) throws IOException {
+        getCodeStream();
+        return 1;
+    }
+
+    @Override
+    public int getWidth(final int imageIndex) throws IOException {
+        checkIndex(imageIndex);
+        JP2CodeStream codeStream = getCodeStream();
+        return codeStream.getXSize() - codeStream.getHorizontalOffset();
+    }
+
+    @Override
+    public int getHeight(final int imageIndex) throws IOException {
+        checkIndex(imageIndex);
+        JP2CodeStream codeStream = getCodeStream();
+        return codeStream.getYSize() - codeStream.getVerticalOffset();
+    }
+
+    @Override
+    public Iterator<ImageTypeSpecifier> getImageTypes(final int imageIndex) throws IOException {
+        checkIndex(imageIndex);
+        return Collections.singletonList(getImageType(getDefaultSourceBands())).iterator();
+    }
+
+    @Override
+    public IIOMetadata getStreamMetadata() throws IOException {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata getImageMetadata(final int imageIndex) throws IOException {
+        checkIndex(imageIndex);
+        return null;
+    }
+
+    // The colours in association order, then the other components in component order
+    private int[] getDefaultSourceBands() throws IOException {
+        int numberOfComponents = getCodeStream().getNumberOfComponentsInImage();
+        long[] keys = new long[numberOfComponents];
+        for (int c = 0; c < numberOfComponents; ++c) {
+            int association = getColourAssociation(c);
+            keys[c] = ((long) (association > 0 ? association : NOT_A_COLOUR) << Integer.SIZE) | c;
+        }
+        Arrays.sort(keys);
+        int[] components = new int[numberOfComponents];
+        for (int band = 0; band < numberOfComponents; ++band) {
+            components[band] = (int) keys[band];
+        }
+        return components;
+    }
+
+    /*
+     * Which colour of the colour space a component is, from 1, or 0 if it
+     * is not a colour. Without a channel definition box the components are
+     * the colours in order.
+     */
+    private int getColourAssociation(final int component) {
+        if (mChannelDefinition == null) {
+            return component + 1;
+        }
+        for (int i = 0; i < mChannelDefinition.getNumberOfEntries(); ++i) {
+            JP2ChannelDefinitionEntry entry = mChannelDefinition.getEntry(i);
+            if (entry.getChannelIndex() == component) {
+                return (entry.getChannelType() == JP2ChannelDefinitionEntry.COLOUR_CHANNEL) ? entry.getChannelAssociation() : 0;
+            }
+        }
+        return 0;
+    }
+
+    private int getNumberOfColours(final int[] components) {
+        boolean hasAlpha = (getOpacityType(components) != JP2ChannelDefinitionEntry.COLOUR_CHANNEL);
+        return hasAlpha ? components.length - 1 : components.length;
+    }
+
+    // Whether the colour bands are all of the colours of the colour space, in order
+    private boolean hasColoursInOrder(final int[] components, final int numberOfColours) {
+        for (int band = 0; band < numberOfColours; ++band) {
+            if (getColourAssociation(components[band]) != band + 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Whether the colour bands are sYCC, to be converted to sRGB
+    private boolean isConvertedFromYCC(final int[] components) throws IOException {
+        int numberOfColours = getNumberOfColours(components);
+        if (mColourSpecification == null || mColourSpecification.getColourSpace() != JP2ColourSpecificationBox.ENUM_COLOUR_SPACE_SYCC
+                || numberOfColours != YCC_COLOURS || !hasColoursInOrder(components, numberOfColours)) {
+            return false;
+        }
+        JP2CodeStream codeStream = getCodeStream();
+        for (int band = 0; band < numberOfColours; ++band) {
+            if (codeStream.isComponentSigned(components[band]) || codeStream.getComponentBitDepth(components[band]) != codeStream.getComponentBitDepth(components[0])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The colour space of the colour bands
+    private ColorSpace getColorSpace(final int[] components, final int numberOfColours) throws IOException {
+        if (numberOfColours == 1) {
+            return ColorSpace.getInstance(ColorSpace.CS_GRAY);
+        }
+        if (!hasColoursInOrder(components, numberOfColours)) {
+            return new GenericColorSpace(numberOfColours);
+        }
+        if (mColourSpecification == null) {
+            // A bare code stream says nothing about colour
+            return (numberOfColours == RGB_COLOURS) ? ColorSpace.getInstance(ColorSpace.CS_sRGB) : new GenericColorSpace(numberOfColours);
+        }
+        byte[] iccProfile = mColourSpecification.getIccProfile();
+        if (iccProfile != null) {
+            try {
+                ColorSpace colorSpace = new ICC_ColorSpace(ICC_Profile.getInstance(iccProfile));
+                if (colorSpace.getNumComponents() == numberOfColours) {
+                    return colorSpace;
+                }
+            } catch (IllegalArgumentException ex) {
+                // Not a profile that can be used, so no colour interpretation
+            }
+        } else if (mColourSpecification.getColourSpace() == JP2ColourSpecificationBox.ENUM_COLOUR_SPACE_SRGB && numberOfColours == RGB_COLOURS) {
+            return ColorSpace.getInstance(ColorSpace.CS_sRGB);
+        } else if (isConvertedFromYCC(components)) {
+            return ColorSpace.getInstance(ColorSpace.CS_sRGB);
+        }
+        return new GenericColorSpace(numberOfColours);
+    }
+
+    // The image type for some of the components, in the order given
+    private ImageTypeSpecifier getImageType(final int[] components) throws IOException {
+        JP2CodeStream codeStream = getCodeStream();
+        int numberOfBands = components.length;
+        if (numberOfBands > MAXIMUM_COMPONENTS) {
+            throw new IIOException("Too many components for an image type: " + numberOfBands);
+        }
+        int[] bits = new int[numberOfBands];
+        boolean signed = false;
+        int maximumBits = 0;
+        for (int band = 0; band < numberOfBands; ++band) {
+            bits[band] = codeStream.getComponentBitDepth(components[band]);
+            signed |= codeStream.isComponentSigned(components[band]);
+            maximumBits = Math.max(maximumBits, bits[band]);
+        }
+        int dataType;
+        if (maximumBits <= BYTE_BIT_DEPTH && !signed) {
+            dataType = DataBuffer.TYPE_BYTE;
+        } else if (maximumBits <= SHORT_BIT_DEPTH) {
+            dataType = signed ? DataBuffer.TYPE_SHORT : DataBuffer.TYPE_USHORT;
+        } else {
+            throw new IIOException("Components of more than 16 bits are not supported: " + maximumBits);
+        }
+        int opacityType = getOpacityType(components);
+        boolean hasAlpha = (opacityType != JP2ChannelDefinitionEntry.COLOUR_CHANNEL);
+        int numberOfColours = hasAlpha ? numberOfBands - 1 : numberOfBands;
+        ColorSpace colorSpace = getColorSpace(components, numberOfColours);
+        boolean premultiplied = (opacityType == JP2ChannelDefinitionEntry.PREMULTIPLIED_OPACITY_CHANNEL);
+        ColorModel colorModel = new ComponentColorModel(colorSpace, bits, hasAlpha, premultiplied,
+                hasAlpha ? Transparency.TRANSLUCENT : Transparency.OPAQUE, dataType);
+        SampleModel sampleModel;
+        if (numberOfBands <= MAXIMUM_INTERLEAVED_COMPONENTS) {
+            int[] bandOffsets = new int[numberOfBands];
+            for (int band = 0; band < numberOfBands; ++band) {
+                bandOffsets[band] = band;
+            }
+            sampleModel = new PixelInterleavedSampleModel(dataType, 1, 1, numberOfBands, numberOfBands, bandOffsets);
+        } else {
+            sampleModel = new BandedSampleModel(dataType, 1, 1, numberOfBands);
+        }
+        return new ImageTypeSpecifier(colorModel, sampleModel);
+    }
+
+    /*
+     * Whether the last of the bands is alpha, as the channel type of its
+     * component. Only the last band can be alpha in a component colour model.
+     */
+    private int getOpacityType(final int[] components) {
+        int numberOfBands = components.length;
+        if (numberOfBands < 2) {
+            return JP2ChannelDefinitionEntry.COLOUR_CHANNEL;
+        }
+        if (mChannelDefinition == null) {
+            return (numberOfBands == 2 || numberOfBands == MAXIMUM_INTERLEAVED_COMPONENTS)
+                    ? JP2ChannelDefinitionEntry.OPACITY_CHANNEL : JP2ChannelDefinitionEntry.COLOUR_CHANNEL;
+        }
+        for (int i = 0; i < mChannelDefinition.getNumberOfEntries(); ++i) {
+            JP2ChannelDefinitionEntry entry = mChannelDefinition.getEntry(i);
+            if (entry.getChannelIndex() == components[numberOfBands - 1]) {
+                int type = entry.getChannelType();
+                if (type == JP2ChannelDefinitionEntry.OPACITY_CHANNEL || type == JP2ChannelDefinitionEntry.PREMULTIPLIED_OPACITY_CHANNEL) {
+                    return type;
+                }
+            }
+        }
+        return JP2ChannelDefinitionEntry.COLOUR_CHANNEL;
+    }
+
+    @Override
+    public BufferedImage read(final int imageIndex, final ImageReadParam readParam) throws IOException {
+        checkIndex(imageIndex);
+        JP2CodeStream codeStream = getCodeStream();
+        ImageReadParam param = (readParam == null) ? getDefaultReadParam() : readParam;
+        int numberOfComponents = codeStream.getNumberOfComponentsInImage();
+        int[] sourceBands = (param.getSourceBands() == null) ? getDefaultSourceBands() : param.getSourceBands();
+        Iterator<ImageTypeSpecifier> imageTypes = Collections.singletonList(getImageType(sourceBands)).iterator();
+        BufferedImage image = getDestination(param, imageTypes, getWidth(0), getHeight(0));
+        checkReadParamBandSettings(param, numberOfComponents, image.getSampleModel().getNumBands());
+        Rectangle sourceRegion = new Rectangle();
+        Rectangle destinationRegion = new Rectangle();
+        computeRegions(param, getWidth(0), getHeight(0), image, sourceRegion, destinationRegion);
+        int[] destinationBands = param.getDestinationBands();
+        if (destinationBands == null) {
+            destinationBands = new int[sourceBands.length];
+            for (int band = 0; band < sourceBands.length; ++band) {
+                destinationBands[band] = band;
+            }
+        }
+
+        processImageStarted(imageIndex);
+        JP2DecodeParam decodeParam = new JP2DecodeParam();
+        decodeParam.setRegion(sourceRegion.x, sourceRegion.y, sourceRegion.width, sourceRegion.height);
+        decodeParam.setComponents(sourceBands);
+        int reduction = getResolutionReduction(codeStream, param.getSourceXSubsampling(), param.getSourceYSubsampling());
+        decodeParam.setResolutionReduction(reduction);
+        boolean convertedFromYCC = isConvertedFromYCC(sourceBands);
+        JP2Raster raster;
+        try {
+            if (!convertedFromYCC && isDecodedInPlace(codeStream, decodeParam, param, image.getRaster(), destinationRegion)) {
+                // Each tile is written straight into the image
+                boolean complete = new JP2ImageDecoder(codeStream).decode(new JP2RasterOutput(codeStream, decodeParam, image.getRaster(),
+                        destinationRegion.x, destinationRegion.y, destinationBands), new JP2DecodeListener() {
+                    @Override
+                    public boolean tileDecoded(final int tileIndex, final int numberOfTilesDecoded, final int numberOfTiles) {
+                        processImageProgress(100.0f * numberOfTilesDecoded / numberOfTiles);
+                        return !abortRequested();
+                    }
+                });
+                if (complete) {
+                    processImageComplete();
+                } else {
+                    processReadAborted();
+                }
+                return image;
+            }
+            raster = new JP2ImageDecoder(codeStream).decode(decodeParam);
+        } catch (JP2ParsingException ex) {
+            throw new IIOException("Could not decode JPEG 2000 image", ex);
+        }
+        if (abortRequested()) {
+            processReadAborted();
+            return image;
+        }
+        WritableRaster destination = image.getRaster();
+        // Pick the decoded sample that each subsampled pixel falls on
+        int[][] columns = new int[sourceBands.length][destinationRegion.width];
+        for (int band = 0; band < sourceBands.length; ++band) {
+            int c = sourceBands[band];
+            for (int i = 0; i < destinationRegion.width; ++i) {
+                long x = codeStream.getHorizontalOffset() + sourceRegion.x + (long) i * param.getSourceXSubsampling();
+                columns[band][i] = getSampleIndex(x, codeStream.getComponentHorizontalSeparation(c), reduction, raster.getX0(c), raster.getWidth(c));
+            }
+        }
+        int[][] rows = new int[sourceBands.length][destinationRegion.width];
+        for (int j = 0; j < destinationRegion.height; ++j) {
+            long y = codeStream.getVerticalOffset() + sourceRegion.y + (long) j * param.getSourceYSubsampling();
+            for (int band = 0; band < sourceBands.length; ++band) {
+                int c = sourceBands[band];
+                int[] samples = raster.getSamples(c);
+                int offset = getSampleIndex(y, codeStream.getComponentVerticalSeparation(c), reduction, raster.getY0(c), raster.getHeight(c)) * raster.getWidth(c);
+                for (int i = 0; i < destinationRegion.width; ++i) {
+                    rows[band][i] = samples[offset + columns[band][i]];
+                }
+            }
+            if (convertedFromYCC) {
+                convertYCCToRGB(rows, codeStream.getComponentBitDepth(sourceBands[0]));
+            }
+            for (int band = 0; band < sourceBands.length; ++band) {
+                destination.setSamples(destinationRegion.x, destinationRegion.y + j, destinationRegion.width, 1, destinationBands[band], rows[band]);
+            }
+            if (abortRequested()) {
+                processReadAborted();
+                return image;
+            }
+            processImageProgress(100.0f * (j + 1) / destinationRegion.height);
+        }
+        processImageComplete();
+        return image;
+    }
+
+    // Convert the first three rows from sYCC to sRGB in place. See IEC 61966-2-1 Amendment 1.
+    private static void convertYCCToRGB(final int[][] rows, final int bitDepth) {
+        int offset = 1 << (bitDepth - 1);
+        int maximum = (1 << bitDepth) - 1;
+        for (int i = 0; i < rows[0].length; ++i) {
+            double y = rows[0][i];
+            double cb = rows[1][i] - offset;
+            double cr = rows[2][i] - offset;
+            rows[0][i] = clamp(Math.round(y + 1.402 * cr), maximum);
+            rows[1][i] = clamp(Math.round(y - 0.344136 * cb - 0.714136 * cr), maximum);
+            rows[2][i] = clamp(Math.round(y + 1.772 * cb), maximum);
+        }
+    }
+
+    private static int clamp(final long value, final int maximum) {
+        return (int) Math.max(0, Math.min(maximum, value));
+    }
+
+    /*
+     * The decoded samples are exactly the destination pixels when the
+     * subsampling is the resolution reduction, the components are not
+     * subsampled, and the decoded region is the same size as the destination.
+     */
+    private static boolean isDecodedInPlace(final JP2CodeStream codeStream, final JP2DecodeParam decodeParam, final ImageReadParam param,
+            final WritableRaster destination, final Rectangle destinationRegion) throws JP2ParsingException {
+        int subsampling = 1 << decodeParam.getResolutionReduction();
+        if (param.getSourceXSubsampling() != subsampling || param.getSourceYSubsampling() != subsampling) {
+            return false;
+        }
+        if (!(destination.getSampleModel() instanceof ComponentSampleModel)) {
+            return false;
+        }
+        switch (destination.getDataBuffer().getDataType()) {
+            case DataBuffer.TYPE_BYTE:
+            case DataBuffer.TYPE_SHORT:
+            case DataBuffer.TYPE_USHORT:
+            case DataBuffer.TYPE_INT:
+                break;
+            default:
+                return false;
+        }
+        for (int c : decodeParam.getComponents()) {
+            if (codeStream.getComponentHorizontalSeparation(c) != 1 || codeStream.getComponentVerticalSeparation(c) != 1) {
+                return false;
+            }
+            int[] bounds = decodeParam.getComponentBounds(codeStream, c);
+            if (bounds[2] - bounds[0] != destinationRegion.width || bounds[3] - bounds[1] != destinationRegion.height) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The largest reduction that is no more than the subsampling in either direction
+    private static int getResolutionReduction(final JP2CodeStream codeStream, final int xSubsampling, final int ySubsampling) {
+        int subsampling = Math.min(xSubsampling, ySubsampling);
+        int reduction = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(subsampling);
+        return Math.min(reduction, codeStream.getNumberOfDecompositionLevels());
+    }
+
+    // Where a reference grid coordinate falls in the decoded samples of a component. See Equation B-14.
+    private static int getSampleIndex(final long coordinate, final int separation, final int reduction, final int origin, final int size) {
+        long divisor = (long) separation << reduction;
+        long index = (coordinate + divisor - 1) / divisor - origin;
+        return (int) Math.max(0, Math.min(size - 1, index));
+    }
+
+    // A colour space for components with no colour interpretation, shown as grey from the first
+    private static final class GenericColorSpace extends ColorSpace {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final ColorSpace GRAY = ColorSpace.getInstance(ColorSpace.CS_GRAY);
+
+        GenericColorSpace(final int numberOfComponents) {
+            super(ColorSpace.TYPE_2CLR + numberOfComponents - 2, numberOfComponents);
+        }
+
+        @Override
+        public float[] toRGB(final float[] colorvalue) {
+            return new float[]{colorvalue[0], colorvalue[0], colorvalue[0]};
+        }
+
+        @Override
+        public float[] fromRGB(final float[] rgbvalue) {
+            float[] colorvalue = new float[getNumComponents()];
+            colorvalue[0] = (rgbvalue[0] + rgbvalue[1] + rgbvalue[2]) / 3;
+            return colorvalue;
+        }
+
+        @Override
+        public float[] toCIEXYZ(final float[] colorvalue) {
+            return GRAY.toCIEXYZ(new float[]{colorvalue[0]});
+        }
+
+        @Override
+        public float[] fromCIEXYZ(final float[] colorvalue) {
+            float[] result = new float[getNumComponents()];
+            result[0] = GRAY.fromCIEXYZ(colorvalue)[0];
+            return result;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Locale;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Service provider for the JPEG 2000 image reader.
+ *
+ * This is registered in META-INF/services, so ImageIO.read() and the
+ * other image I/O lookups find the reader once this library is on the
+ * class path. Both JP2 files and bare code streams are recognised.
+ */
+public class JP2ImageReaderSpi extends ImageReaderSpi {
+
+    private static final String VENDOR_NAME = "Codice";
+    private static final String VERSION = "0.1";
+    private static final String[] NAMES = {"jpeg2000", "JPEG2000", "jpeg 2000", "JPEG 2000", "jp2", "JP2"};
+    private static final String[] SUFFIXES = {"jp2", "j2k", "j2c", "jpc"};
+    private static final String[] MIME_TYPES = {"image/jp2", "image/jpeg2000", "image/j2k"};
+
+    // The JPEG 2000 signature box, which starts every JP2 file
+    private static final byte[] JP2_SIGNATURE = {0x00, 0x00, 0x00, 0x0C, 'j', 'P', ' ', ' ', 0x0D, 0x0A, (byte) 0x87, 0x0A};
+    // SOC followed by SIZ, which starts every code stream
+    private static final byte[] CODESTREAM_SIGNATURE = {(byte) 0xFF, 0x4F, (byte) 0xFF, 0x51};
+
+    /**
+     * Constructor.
+     */
+    public JP2ImageReaderSpi() {
+        super(VENDOR_NAME, VERSION, NAMES, SUFFIXES, MIME_TYPES, JP2ImageReader.class.getName(),
+                new Class<?>[]{ImageInputStream.class, File.class}, null,
+                false, null, null, null, null,
+                false, null, null, null, null);
+    }
+
+    @Override
+    public boolean canDecodeInput(final Object source) throws IOException {
+        byte[] signature = new byte[JP2_SIGNATURE.length];
+        int length;
+        if (source instanceof ImageInputStream) {
+            ImageInputStream stream = (ImageInputStream) source;
+            stream.mark();
+            try {
+                length = 0;
+                int count = 0;
+                while (length < signature.length && count >= 0) {
+                    count = stream.read(signature, length, signature.length - length);
+                    length += Math.max(0, count);
+                }
+            } finally {
+                stream.reset();
+            }
+        } else if (source instanceof File) {
+            if (!((File) source).isFile()) {
+                return false;
+            }
+            try (RandomAccessFile file = new RandomAccessFile((File) source, JP2FileReader.READ_MODE)) {
+                length = file.read(signature);
+            }
+        } else {
+            return false;
+        }
+        return startsWith(signature, length, JP2_SIGNATURE) || startsWith(signature, length, CODESTREAM_SIGNATURE);
+    }
+
+    private static boolean startsWith(final byte[] bytes, final int length, final byte[] prefix) {
+        return length >= prefix.length && Arrays.equals(Arrays.copyOf(bytes, prefix.length), prefix);
+    }
+
+    @Override
+    public ImageReader createReaderInstance(final Object extension) throws IOException {
+        return new JP2ImageReader(this);
+    }
+
+    @Override
+    public String getDescription(final Locale locale) {
+        return "JPEG 2000 image reader";
+    }
+}
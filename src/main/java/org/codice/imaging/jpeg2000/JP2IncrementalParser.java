@@ -0,0 +1,428 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Incremental (resumable) parser for data that arrives over time.
+ *
+ * Bytes are passed in with feed() as they arrive. Each box, marker segment
+ * and tile-part is reported to a JP2ParseListener once all of its bytes have
+ * arrived, and parsing then suspends until more data is fed in. Running out
+ * of data part way through an item is not an error, so downstream work can
+ * start on the first tile-parts before the rest of the file has arrived.
+ *
+ * Leaf boxes are reported once complete. Super boxes and the contiguous code
+ * stream box are reported as soon as their header has arrived, with contents
+ * covering only the part of the box received at that point, and their
+ * children (boxes, or marker segments and tile-parts) are then reported as
+ * each completes. A tile-part with Psot of zero, or a box with a length of
+ * zero, runs to the end of the file and so is only reported by endOfData().
+ *
+ * All of the received data is held in memory, in a single array, so that
+ * the readers given to the listener and getReader() can use any of it. The
+ * most data that can be held is MAXIMUM_SIZE bytes (just under 2GB), or a
+ * smaller limit given to the constructor, and feeding more than that is a
+ * JP2ParsingException rather than an attempt to allocate it. Larger files
+ * should be parsed from a JP2Reader over the file instead.
+ */
+public class JP2IncrementalParser {
+
+    /**
+     * The most data that can be held, which is the largest array that can be allocated.
+     */
+    public static final int MAXIMUM_SIZE = Integer.MAX_VALUE - 8;
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private static final int BOX_HEADER_LENGTH = PackageConstants.UNSIGNED_INT_LENGTH + PackageConstants.BOX_SIGNATURE_LENGTH;
+    private static final int SOT_SEGMENT_LENGTH = 12;
+
+    private enum State {
+        BOX, CODESTREAM_START, CODESTREAM_MARKER, DONE, STOPPED
+    }
+
+    private static final class OpenBox {
+        // Offset of the end of the box, or -1 if the box runs to end of file.
+        private final long mEnd;
+        private final String mBoxType;
+
+        OpenBox(final long end, final String boxType) {
+            mEnd = end;
+            mBoxType = boxType;
+        }
+    }
+
+    private final JP2ParseListener mListener;
+    private final boolean mBareCodestream;
+    private final int mMaximumSize;
+
+    private byte[] mData = new byte[INITIAL_CAPACITY];
+    private int mAvailable = 0;
+    private boolean mEndOfData = false;
+    private JP2Reader mSnapshot = null;
+
+    private State mState;
+    private int mPosition = 0;
+    private final Deque<OpenBox> mOpenBoxes = new ArrayDeque<>();
+
+    private boolean mMainHeaderComplete = false;
+    private boolean mCodestreamComplete = false;
+    private int mNumberOfCompleteTileParts = 0;
+
+    /**
+     * Constructor for an incremental parser of a JP2 file.
+     *
+     * @param listener the listener to report events to
+     */
+    public JP2IncrementalParser(final JP2ParseListener listener) {
+        this(listener, false);
+    }
+
+    /**
+     * Constructor for an incremental parser.
+     *
+     * @param listener the listener to report events to
+     * @param bareCodestream true if the data is a bare code stream, false if it is a JP2 file
+     */
+    public JP2IncrementalParser(final JP2ParseListener listener, final boolean bareCodestream) {
+        this(listener, bareCodestream, MAXIMUM_SIZE);
+    }
+
+    /**
+     * Constructor for an incremental parser, with a limit on the data held.
+     *
+     * @param listener the listener to report events to
+     * @param bareCodestream true if the data is a bare code stream, false if it is a JP2 file
+     * @param maximumSize the most bytes that can be fed in, up to MAXIMUM_SIZE
+     */
+    public JP2IncrementalParser(final JP2ParseListener listener, final boolean bareCodestream, final int maximumSize) {
+        if (maximumSize < 0 || maximumSize > MAXIMUM_SIZE) {
+            throw new IllegalArgumentException("Maximum size must be between 0 and " + MAXIMUM_SIZE + ": " + maximumSize);
+        }
+        mListener = listener;
+        mBareCodestream = bareCodestream;
+        mMaximumSize = maximumSize;
+        mState = bareCodestream ? State.CODESTREAM_START : State.BOX;
+    }
+
+    /**
+     * Add more data, and report anything that it completes.
+     *
+     * @param bytes array containing the new data
+     * @param offset offset of the new data in the array
+     * @param length number of bytes of new data
+     * @return false if the listener has stopped parsing, true otherwise
+     * @throws JP2ParsingException if the data received so far is not valid, or
+     * would be more than the maximum size
+     */
+    public boolean feed(final byte[] bytes, final int offset, final int length) throws JP2ParsingException {
+        if (mEndOfData) {
+            throw new JP2ParsingException("Data fed after end of data");
+        }
+        long required = (long) mAvailable + length;
+        if (required > mMaximumSize) {
+            throw new JP2ParsingException("Unable to hold " + required + " bytes of data, the maximum is " + mMaximumSize);
+        }
+        if (required > mData.length) {
+            mData = Arrays.copyOf(mData, (int) Math.min(Math.max(required, 2L * mData.length), mMaximumSize));
+        }
+        System.arraycopy(bytes, offset, mData, mAvailable, length);
+        mAvailable += length;
+        return advance();
+    }
+
+    /**
+     * Indicate that no more data will arrive, and report anything left.
+     *
+     * @return true if the data was complete, false if parsing stopped part way
+     * through a box or the code stream
+     * @throws JP2ParsingException if the data received is not valid
+     */
+    public boolean endOfData() throws JP2ParsingException {
+        mEndOfData = true;
+        if (!advance()) {
+            return false;
+        }
+        boolean complete = (mPosition == mAvailable) && (mBareCodestream ? mCodestreamComplete : mState == State.BOX);
+        while (complete && !mOpenBoxes.isEmpty()) {
+            if (!mListener.boxEnd(mOpenBoxes.pop().mBoxType)) {
+                return false;
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * Get whether the main header of the code stream has been received.
+     *
+     * @return true once the first tile-part has been reached
+     */
+    public boolean isMainHeaderComplete() {
+        return mMainHeaderComplete;
+    }
+
+    /**
+     * Get whether the whole code stream, up to the EOC marker, has been received.
+     *
+     * @return true if the code stream is complete
+     */
+    public boolean isCodestreamComplete() {
+        return mCodestreamComplete;
+    }
+
+    /**
+     * Get the number of tile-parts that have been completely received.
+     *
+     * @return number of tile-parts reported so far
+     */
+    public int getNumberOfCompleteTileParts() {
+        return mNumberOfCompleteTileParts;
+    }
+
+    /**
+     * Get the number of bytes received so far.
+     *
+     * @return number of bytes
+     */
+    public int getNumberOfBytesReceived() {
+        return mAvailable;
+    }
+
+    /**
+     * Get a reader over all of the data received so far.
+     *
+     * Once the data is complete, this can be used with JP2Parser.
+     *
+     * @return reader over the received data
+     */
+    public JP2Reader getReader() {
+        return new JP2ByteBufferReader(mData, 0, mAvailable);
+    }
+
+    private boolean advance() throws JP2ParsingException {
+        mSnapshot = getReader();
+        boolean progressing = true;
+        while (progressing) {
+            switch (mState) {
+                case BOX:
+                    progressing = parseBox();
+                    break;
+                case CODESTREAM_START:
+                    progressing = parseStartOfCodestream();
+                    break;
+                case CODESTREAM_MARKER:
+                    progressing = parseCodestreamMarker();
+                    break;
+                default:
+                    progressing = false;
+                    break;
+            }
+        }
+        return mState != State.STOPPED;
+    }
+
+    private boolean parseBox() throws JP2ParsingException {
+        while (!mOpenBoxes.isEmpty()) {
+            long end = mOpenBoxes.peek().mEnd;
+            if (end < 0 || mPosition < end) {
+                break;
+            }
+            if (!mListener.boxEnd(mOpenBoxes.pop().mBoxType)) {
+                return stop();
+            }
+        }
+        if (!isAvailable(BOX_HEADER_LENGTH)) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.wrap(mData, mPosition, mAvailable - mPosition);
+        long boxLength = header.getInt() & 0xFFFFFFFFL;
+        byte[] boxTypeBytes = new byte[PackageConstants.BOX_SIGNATURE_LENGTH];
+        header.get(boxTypeBytes);
+        String boxType = new String(boxTypeBytes, StandardCharsets.US_ASCII);
+        int headerLength = BOX_HEADER_LENGTH;
+        if (boxLength == PackageConstants.BOX_LENGTH_EXTENDED) {
+            if (!isAvailable(BOX_HEADER_LENGTH + PackageConstants.UNSIGNED_LONG_LENGTH)) {
+                return false;
+            }
+            boxLength = header.getLong();
+            headerLength += PackageConstants.UNSIGNED_LONG_LENGTH;
+        }
+        long boxEnd = (boxLength == PackageConstants.BOX_LENGTH_TO_END_OF_FILE) ? -1 : mPosition + boxLength;
+        int contentsStart = mPosition + headerLength;
+        boolean isCodestream = "jp2c".equals(boxType);
+        if (JP2StreamingParser.SUPER_BOX_TYPES.contains(boxType) || isCodestream) {
+            int receivedEnd = (boxEnd < 0) ? mAvailable : (int) Math.min(boxEnd, mAvailable);
+            if (!mListener.boxStart(boxType, mPosition, new JP2WindowReader(mSnapshot, contentsStart, receivedEnd - contentsStart))) {
+                return stop();
+            }
+            mOpenBoxes.push(new OpenBox(boxEnd, boxType));
+            mPosition = contentsStart;
+            if (isCodestream) {
+                mState = State.CODESTREAM_START;
+            }
+            return true;
+        }
+        if (boxEnd < 0) {
+            if (!mEndOfData) {
+                return false;
+            }
+            boxEnd = mAvailable;
+        }
+        if (boxEnd > mAvailable) {
+            return false;
+        }
+        if (!mListener.boxStart(boxType, mPosition, new JP2WindowReader(mSnapshot, contentsStart, boxEnd - contentsStart))) {
+            return stop();
+        }
+        if (!mListener.boxEnd(boxType)) {
+            return stop();
+        }
+        mPosition = (int) boxEnd;
+        return true;
+    }
+
+    private boolean parseStartOfCodestream() throws JP2ParsingException {
+        if (!isAvailable(PackageConstants.UNSIGNED_SHORT_LENGTH)) {
+            return false;
+        }
+        int markerCode = readUnsignedShort(mPosition);
+        if (markerCode != JP2CodeStream.SOC_MARKER_CODE) {
+            throw new JP2ParsingException(String.format("Missing expected marker. Expected 0x%04x but got 0x%04x", JP2CodeStream.SOC_MARKER_CODE, markerCode));
+        }
+        mPosition += PackageConstants.UNSIGNED_SHORT_LENGTH;
+        mState = State.CODESTREAM_MARKER;
+        return true;
+    }
+
+    private boolean parseCodestreamMarker() throws JP2ParsingException {
+        if (!isAvailable(PackageConstants.UNSIGNED_SHORT_LENGTH)) {
+            return false;
+        }
+        int markerCode = readUnsignedShort(mPosition);
+        if (markerCode == JP2CodeStream.EOC_MARKER_CODE) {
+            mPosition += PackageConstants.UNSIGNED_SHORT_LENGTH;
+            mCodestreamComplete = true;
+            if (mBareCodestream) {
+                mState = State.DONE;
+                return false;
+            }
+            mState = State.BOX;
+            if (!mListener.boxEnd(mOpenBoxes.pop().mBoxType)) {
+                return stop();
+            }
+            return true;
+        }
+        if (markerCode == JP2CodeStream.SOT_MARKER_CODE) {
+            return parseTilePart();
+        }
+        if (!isAvailable(2 * PackageConstants.UNSIGNED_SHORT_LENGTH)) {
+            return false;
+        }
+        int markerLength = readUnsignedShort(mPosition + PackageConstants.UNSIGNED_SHORT_LENGTH);
+        if (!isAvailable(PackageConstants.UNSIGNED_SHORT_LENGTH + markerLength)) {
+            return false;
+        }
+        if (!reportMarkerSegment(markerCode, mPosition, markerLength)) {
+            return stop();
+        }
+        mPosition += PackageConstants.UNSIGNED_SHORT_LENGTH + markerLength;
+        return true;
+    }
+
+    private boolean parseTilePart() throws JP2ParsingException {
+        mMainHeaderComplete = true;
+        if (!isAvailable(SOT_SEGMENT_LENGTH)) {
+            return false;
+        }
+        ByteBuffer sot = ByteBuffer.wrap(mData, mPosition + PackageConstants.UNSIGNED_SHORT_LENGTH, SOT_SEGMENT_LENGTH - PackageConstants.UNSIGNED_SHORT_LENGTH);
+        int markerLength = sot.getShort() & 0xFFFF;
+        int tileIndex = sot.getShort() & 0xFFFF;
+        long psot = sot.getInt() & 0xFFFFFFFFL;
+        int tilePartIndex = sot.get() & 0xFF;
+        int numberOfTileParts = sot.get() & 0xFF;
+        long tilePartEnd;
+        if (psot == 0) {
+            // Runs to the EOC marker, which must be the last thing in the code stream.
+            if (!mEndOfData) {
+                return false;
+            }
+            long codestreamEnd = (mBareCodestream || mOpenBoxes.peek().mEnd < 0) ? mAvailable : mOpenBoxes.peek().mEnd;
+            tilePartEnd = codestreamEnd - PackageConstants.UNSIGNED_SHORT_LENGTH;
+        } else {
+            tilePartEnd = mPosition + psot;
+        }
+        if (tilePartEnd > mAvailable) {
+            return false;
+        }
+        if (!reportMarkerSegment(JP2CodeStream.SOT_MARKER_CODE, mPosition, markerLength)) {
+            return stop();
+        }
+        int position = mPosition + PackageConstants.UNSIGNED_SHORT_LENGTH + markerLength;
+        while (true) {
+            if (position + PackageConstants.UNSIGNED_SHORT_LENGTH > tilePartEnd) {
+                throw new JP2ParsingException("Missing expected SOD marker");
+            }
+            int markerCode = readUnsignedShort(position);
+            if (markerCode == JP2CodeStream.SOD_MARKER_CODE) {
+                position += PackageConstants.UNSIGNED_SHORT_LENGTH;
+                break;
+            }
+            int length = readUnsignedShort(position + PackageConstants.UNSIGNED_SHORT_LENGTH);
+            if (!reportMarkerSegment(markerCode, position, length)) {
+                return stop();
+            }
+            position += PackageConstants.UNSIGNED_SHORT_LENGTH + length;
+        }
+        mNumberOfCompleteTileParts++;
+        mPosition = (int) tilePartEnd;
+        if (!mListener.tilePart(tileIndex, tilePartIndex, numberOfTileParts, new JP2WindowReader(mSnapshot, position, tilePartEnd - position))) {
+            return stop();
+        }
+        return true;
+    }
+
+    private boolean reportMarkerSegment(final int markerCode, final int offset, final int markerLength) throws JP2ParsingException {
+        long parametersStart = offset + 2 * PackageConstants.UNSIGNED_SHORT_LENGTH;
+        long parametersLength = markerLength - PackageConstants.UNSIGNED_SHORT_LENGTH;
+        return mListener.markerSegment(markerCode, offset, new JP2WindowReader(mSnapshot, parametersStart, parametersLength));
+    }
+
+    private boolean isAvailable(final int numberOfBytes) {
+        return (long) mPosition + numberOfBytes <= mAvailable;
+    }
+
+    private int readUnsignedShort(final int position) {
+        return ((mData[position] & 0xFF) << 8) | (mData[position + 1] & 0xFF);
+    }
+
+    private boolean stop() {
+        mState = State.STOPPED;
+        return false;
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+/**
+ * Inverse discrete wavelet transform, using the lifting steps of Annex F.
+ *
+ * The coefficients of a tile-component are held in a single array, with
+ * each decomposition level in the usual layout: the LL band in the top
+ * left, the HL band to its right, the LH band below it and the HH band in
+ * the bottom right. The transform works in place, one resolution level at
+ * a time, so the result is the reconstructed tile-component (or a reduced
+ * resolution of it) in the top left of the same array.
+ *
+ * Each row is filtered on its own, but the columns are filtered in strips
+ * of adjacent columns, so that every lifting step runs along contiguous
+ * memory. This keeps the vertical pass in cache, and gives inner loops
+ * that the JIT compiler can vectorise.
+ *
+ * The working storage is kept between calls, so a transform should be
+ * reused, and must not be used by more than one thread at a time.
+ */
+public class JP2InverseWaveletTransform {
+
+    // Columns per vertical strip: a 64 byte cache line of int or float values.
+    static final int STRIP_WIDTH = 16;
+
+    // Lifting constants for the 9-7 irreversible filter. See Table F-4.
+    private static final float ALPHA = -1.586134342059924f;
+    private static final float BETA = -0.052980118572961f;
+    private static final float GAMMA = 0.882911075530934f;
+    private static final float DELTA = 0.443506852043971f;
+    private static final float K = 1.230174104914001f;
+    private static final float INVERSE_K = 1.0f / K;
+
+    private int[] mIntegerScratch = new int[0];
+    private float[] mFloatScratch = new float[0];
+
+    /**
+     * Apply the inverse 5-3 reversible transform to a tile-component.
+     *
+     * @param layout the layout of the tile
+     * @param componentIndex the component (zero based)
+     * @param numberOfResolutionLevels the number of resolution levels to reconstruct, from 1 (just the LL band) to all of them
+     * @param data the coefficients, replaced by the samples
+     * @param offset the position in the array of the top left coefficient
+     * @param stride the distance in the array from one row to the next
+     */
+    public void inverseReversible(final JP2TileLayout layout, final int componentIndex, final int numberOfResolutionLevels, final int[] data, final int offset, final int stride) {
+        JP2TileWindow window = new JP2TileWindow(layout, componentIndex, numberOfResolutionLevels);
+        for (int r = 1; r < numberOfResolutionLevels; ++r) {
+            int res = layout.getResolution(componentIndex, r);
+            inverseReversibleRows(window, res, data, offset, stride, 0, getNumberOfRows(window, res));
+            inverseReversibleColumns(window, res, data, offset, stride, 0, getNumberOfStrips(window, res));
+        }
+    }
+
+    /**
+     * Apply the inverse 9-7 irreversible transform to a tile-component.
+     *
+     * @param layout the layout of the tile
+     * @param componentIndex the component (zero based)
+     * @param numberOfResolutionLevels the number of resolution levels to reconstruct, from 1 (just the LL band) to all of them
+     * @param data the coefficients, replaced by the samples
+     * @param offset the position in the array of the top left coefficient
+     * @param stride the distance in the array from one row to the next
+     */
+    public void inverseIrreversible(final JP2TileLayout layout, final int componentIndex, final int numberOfResolutionLevels, final float[] data, final int offset, final int stride) {
+        JP2TileWindow window = new JP2TileWindow(layout, componentIndex, numberOfResolutionLevels);
+        for (int r = 1; r < numberOfResolutionLevels; ++r) {
+            int res = layout.getResolution(componentIndex, r);
+            inverseIrreversibleRows(window, res, data, offset, stride, 0, getNumberOfRows(window, res));
+            inverseIrreversibleColumns(window, res, data, offset, stride, 0, getNumberOfStrips(window, res));
+        }
+    }
+
+    /*
+     * A resolution level is reconstructed by filtering all of its rows, and
+     * then all of its column strips. Rows are independent of each other, as
+     * are strips, so these methods take a range of them, which lets the work
+     * for one level be shared between several transforms.
+     *
+     * Only the window of each level is reconstructed (see JP2TileWindow).
+     * The rows are those of the coefficients under the stored window: the
+     * low pass rows, then the high pass rows. Only the strips of needed
+     * columns are filtered, since the rest of the stored window is margin.
+     * The result is written from stored position 0, ready for the next level.
+     */
+
+    static int getNumberOfRows(final JP2TileWindow window, final int res) {
+        return window.getNeededEnd(res - 1, JP2TileWindow.Y) - window.getNeededStart(res - 1, JP2TileWindow.Y)
+                + window.getHighEnd(res, JP2TileWindow.Y) - window.getHighStart(res, JP2TileWindow.Y);
+    }
+
+    static int getNumberOfStrips(final JP2TileWindow window, final int res) {
+        int width = window.getNeededEnd(res, JP2TileWindow.X) - window.getNeededStart(res, JP2TileWindow.X);
+        return (width + STRIP_WIDTH - 1) / STRIP_WIDTH;
+    }
+
+    void inverseReversibleRows(final JP2TileWindow window, final int res, final int[] data, final int offset, final int stride, final int firstRow, final int endRow) {
+        Lines columns = new Lines(window, res, JP2TileWindow.X);
+        Lines rows = new Lines(window, res, JP2TileWindow.Y);
+        ensureIntegerScratch(columns.mLength);
+        for (int i = firstRow; i < endRow; ++i) {
+            inverseReversibleRow(data, offset + rows.getStoredPosition(i) * stride, columns);
+        }
+    }
+
+    void inverseReversibleColumns(final JP2TileWindow window, final int res, final int[] data, final int offset, final int stride, final int firstStrip, final int endStrip) {
+        Lines rows = new Lines(window, res, JP2TileWindow.Y);
+        int firstColumn = window.getNeededStart(res, JP2TileWindow.X) - window.getStoredStart(res, JP2TileWindow.X);
+        int width = window.getNeededEnd(res, JP2TileWindow.X) - window.getNeededStart(res, JP2TileWindow.X);
+        ensureIntegerScratch(STRIP_WIDTH * rows.mLength);
+        for (int x = firstStrip * STRIP_WIDTH; x < endStrip * STRIP_WIDTH; x += STRIP_WIDTH) {
+            inverseReversibleStrip(data, offset + firstColumn + x, stride, Math.min(STRIP_WIDTH, width - x), rows);
+        }
+    }
+
+    void inverseIrreversibleRows(final JP2TileWindow window, final int res, final float[] data, final int offset, final int stride, final int firstRow, final int endRow) {
+        Lines columns = new Lines(window, res, JP2TileWindow.X);
+        Lines rows = new Lines(window, res, JP2TileWindow.Y);
+        ensureFloatScratch(columns.mLength);
+        for (int i = firstRow; i < endRow; ++i) {
+            inverseIrreversibleRow(data, offset + rows.getStoredPosition(i) * stride, columns);
+        }
+    }
+
+    void inverseIrreversibleColumns(final JP2TileWindow window, final int res, final float[] data, final int offset, final int stride, final int firstStrip, final int endStrip) {
+        Lines rows = new Lines(window, res, JP2TileWindow.Y);
+        int firstColumn = window.getNeededStart(res, JP2TileWindow.X) - window.getStoredStart(res, JP2TileWindow.X);
+        int width = window.getNeededEnd(res, JP2TileWindow.X) - window.getNeededStart(res, JP2TileWindow.X);
+        ensureFloatScratch(STRIP_WIDTH * rows.mLength);
+        for (int x = firstStrip * STRIP_WIDTH; x < endStrip * STRIP_WIDTH; x += STRIP_WIDTH) {
+            inverseIrreversibleStrip(data, offset + firstColumn + x, stride, Math.min(STRIP_WIDTH, width - x), rows);
+        }
+    }
+
+    private void ensureIntegerScratch(final int length) {
+        if (mIntegerScratch.length < length) {
+            mIntegerScratch = new int[length];
+        }
+    }
+
+    private void ensureFloatScratch(final int length) {
+        if (mFloatScratch.length < length) {
+            mFloatScratch = new float[length];
+        }
+    }
+
+    /*
+     * In all of the filters, parity is that of the first sample's coordinate.
+     * Samples at even coordinates are low pass, and those at odd coordinates
+     * are high pass. The low pass and high pass samples are gathered from
+     * where they are stored, and interleaved into the scratch array for
+     * lifting. Symmetric extension mirrors about the first and last samples.
+     */
+
+    private void inverseReversibleRow(final int[] data, final int offset, final Lines lines) {
+        int length = lines.mLength;
+        int parity = lines.mParity;
+        if (length <= 1) {
+            if (length == 1) {
+                data[offset] = (parity == 1) ? data[offset + lines.mHighOffset] / 2 : data[offset + lines.mLowOffset];
+            }
+            return;
+        }
+        int[] line = mIntegerScratch;
+        for (int i = offset + lines.mLowOffset, k = parity; k < length; ++i, k += 2) {
+            line[k] = data[i];
+        }
+        for (int i = offset + lines.mHighOffset, k = 1 - parity; k < length; ++i, k += 2) {
+            line[k] = data[i];
+        }
+        int last = length - 1;
+        // Step 1: even samples from the neighbouring odd samples. See Equation F-5.
+        int k = parity;
+        if (k == 0) {
+            line[0] -= (line[1] + line[1] + 2) >> 2;
+            k = 2;
+        }
+        for (; k < last; k += 2) {
+            line[k] -= (line[k - 1] + line[k + 1] + 2) >> 2;
+        }
+        if (k == last) {
+            line[last] -= (line[last - 1] + line[last - 1] + 2) >> 2;
+        }
+        // Step 2: odd samples from the neighbouring even samples. See Equation F-6.
+        k = 1 - parity;
+        if (k == 0) {
+            line[0] += (line[1] + line[1]) >> 1;
+            k = 2;
+        }
+        for (; k < last; k += 2) {
+            line[k] += (line[k - 1] + line[k + 1]) >> 1;
+        }
+        if (k == last) {
+            line[last] += (line[last - 1] + line[last - 1]) >> 1;
+        }
+        System.arraycopy(line, 0, data, offset, length);
+    }
+
+    private void inverseReversibleStrip(final int[] data, final int offset, final int stride, final int width, final Lines lines) {
+        int height = lines.mLength;
+        int parity = lines.mParity;
+        if (height <= 1) {
+            if (height == 1) {
+                int source = offset + ((parity == 1) ? lines.mHighOffset : lines.mLowOffset) * stride;
+                for (int j = 0; j < width; ++j) {
+                    data[offset + j] = (parity == 1) ? data[source + j] / 2 : data[source + j];
+                }
+            }
+            return;
+        }
+        int[] strip = mIntegerScratch;
+        for (int i = lines.mLowOffset, k = parity; k < height; ++i, k += 2) {
+            System.arraycopy(data, offset + i * stride, strip, k * STRIP_WIDTH, width);
+        }
+        for (int i = lines.mHighOffset, k = 1 - parity; k < height; ++i, k += 2) {
+            System.arraycopy(data, offset + i * stride, strip, k * STRIP_WIDTH, width);
+        }
+        int last = height - 1;
+        for (int k = parity; k < height; k += 2) {
+            int row = k * STRIP_WIDTH;
+            int previous = ((k == 0) ? 1 : k - 1) * STRIP_WIDTH;
+            int next = ((k == last) ? last - 1 : k + 1) * STRIP_WIDTH;
+            for (int j = 0; j < width; ++j) {
+                strip[row + j] -= (strip[previous + j] + strip[next + j] + 2) >> 2;
+            }
+        }
+        for (int k = 1 - parity; k < height; k += 2) {
+            int row = k * STRIP_WIDTH;
+            int previous = ((k == 0) ? 1 : k - 1) * STRIP_WIDTH;
+            int next = ((k == last) ? last - 1 : k + 1) * STRIP_WIDTH;
+            for (int j = 0; j < width; ++j) {
+                strip[row + j] += (strip[previous + j] + strip[next + j]) >> 1;
+            }
+        }
+        for (int k = 0; k < height; ++k) {
+            System.arraycopy(strip, k * STRIP_WIDTH, data, offset + k * stride, width);
+        }
+    }
+
+    private void inverseIrreversibleRow(final float[] data, final int offset, final Lines lines) {
+        int length = lines.mLength;
+        int parity = lines.mParity;
+        if (length <= 1) {
+            if (length == 1) {
+                data[offset] = (parity == 1) ? data[offset + lines.mHighOffset] / 2 : data[offset + lines.mLowOffset];
+            }
+            return;
+        }
+        float[] line = mFloatScratch;
+        // Steps 1 and 2 scale the low and high pass samples. See Equations F-7 and F-8.
+        for (int i = offset + lines.mLowOffset, k = parity; k < length; ++i, k += 2) {
+            line[k] = data[i] * K;
+        }
+        for (int i = offset + lines.mHighOffset, k = 1 - parity; k < length; ++i, k += 2) {
+            line[k] = data[i] * INVERSE_K;
+        }
+        liftLine(line, length, parity, DELTA);
+        liftLine(line, length, 1 - parity, GAMMA);
+        liftLine(line, length, parity, BETA);
+        liftLine(line, length, 1 - parity, ALPHA);
+        System.arraycopy(line, 0, data, offset, length);
+    }
+
+    // Subtract the weighted sum of the neighbours from every second sample, starting at first.
+    private static void liftLine(final float[] line, final int length, final int first, final float weight) {
+        int last = length - 1;
+        int k = first;
+        if (k == 0) {
+            line[0] -= weight * (line[1] + line[1]);
+            k = 2;
+        }
+        for (; k < last; k += 2) {
+            line[k] -= weight * (line[k - 1] + line[k + 1]);
+        }
+        if (k == last) {
+            line[last] -= weight * (line[last - 1] + line[last - 1]);
+        }
+    }
+
+    private void inverseIrreversibleStrip(final float[] data, final int offset, final int stride, final int width, final Lines lines) {
+        int height = lines.mLength;
+        int parity = lines.mParity;
+        if (height <= 1) {
+            if (height == 1) {
+                int source = offset + ((parity == 1) ? lines.mHighOffset : lines.mLowOffset) * stride;
+                for (int j = 0; j < width; ++j) {
+                    data[offset + j] = (parity == 1) ? data[source + j] / 2 : data[source + j];
+                }
+            }
+            return;
+        }
+        float[] strip = mFloatScratch;
+        for (int i = lines.mLowOffset, k = parity; k < height; ++i, k += 2) {
+            int source = offset + i * stride;
+            int row = k * STRIP_WIDTH;
+            for (int j = 0; j < width; ++j) {
+                strip[row + j] = data[source + j] * K;
+            }
+        }
+        for (int i = lines.mHighOffset, k = 1 - parity; k < height; ++i, k += 2) {
+            int source = offset + i * stride;
+            int row = k * STRIP_WIDTH;
+            for (int j = 0; j < width; ++j) {
+                strip[row + j] = data[source + j] * INVERSE_K;
+            }
+        }
+        liftStrip(strip, width, height, parity, DELTA);
+        liftStrip(strip, width, height, 1 - parity, GAMMA);
+        liftStrip(strip, width, height, parity, BETA);
+        liftStrip(strip, width, height, 1 - parity, ALPHA);
+        for (int k = 0; k < height; ++k) {
+            System.arraycopy(strip, k * STRIP_WIDTH, data, offset + k * stride, width);
+        }
+    }
+
+    private static void liftStrip(final float[] strip, final int width, final int height, final int first, final float weight) {
+        int last = height - 1;
+        for (int k = first; k < height; k += 2) {
+            int row = k * STRIP_WIDTH;
+            int previous = ((k == 0) ? 1 : k - 1) * STRIP_WIDTH;
+            int next = ((k == last) ? last - 1 : k + 1) * STRIP_WIDTH;
+            for (int j = 0; j < width; ++j) {
+                strip[row + j] -= weight * (strip[previous + j] + strip[next + j]);
+            }
+        }
+    }
+
+    // Where the samples of a window are stored, along one dimension of a resolution level.
+    private static final class Lines {
+
+        private final int mLength;
+        private final int mParity;
+        private final int mNumberOfLow;
+        private final int mLowOffset;
+        private final int mHighOffset;
+
+        Lines(final JP2TileWindow window, final int res, final int d) {
+            int start = window.getStoredStart(res, d);
+            int origin = (d == JP2TileWindow.X) ? window.getLayout().getResolutionX0(res) : window.getLayout().getResolutionY0(res);
+            int lower = res - 1;
+            mLength = window.getStoredEnd(res, d) - start;
+            mParity = (origin + start) & 1;
+            mNumberOfLow = window.getNeededEnd(lower, d) - window.getNeededStart(lower, d);
+            mLowOffset = window.getNeededStart(lower, d) - window.getStoredStart(lower, d);
+            mHighOffset = window.getHighOffset(res, d);
+        }
+
+        // Map a line number (low pass lines first) to its stored position
+        int getStoredPosition(final int line) {
+            return (line < mNumberOfLow) ? mLowOffset + line : mHighOffset + line - mNumberOfLow;
+        }
+    }
+}
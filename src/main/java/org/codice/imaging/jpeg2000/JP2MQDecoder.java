@@ -0,0 +1,223 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+/**
+ * MQ arithmetic decoder, with the raw (bypass) bit reader used by selective
+ * arithmetic coding bypass.
+ *
+ * The data to decode must be followed by two 0xFF bytes, so that reading
+ * past the end of a codeword segment behaves as though a marker had been
+ * reached. See Annex C and Section D.6.
+ */
+final class JP2MQDecoder {
+
+    static final int NUMBER_OF_CONTEXTS = 19;
+    static final int RUN_LENGTH_CONTEXT = 17;
+    static final int UNIFORM_CONTEXT = 18;
+
+    // Qe, NMPS, NLPS and SWITCH for each state. See Table C-2.
+    private static final int[] QE_VALUES = {
+        0x5601, 0x3401, 0x1801, 0x0AC1, 0x0521, 0x0221, 0x5601, 0x5401, 0x4801, 0x3801,
+        0x3001, 0x2401, 0x1C01, 0x1601, 0x5601, 0x5401, 0x5101, 0x4801, 0x3801, 0x3401,
+        0x3001, 0x2801, 0x2401, 0x2201, 0x1C01, 0x1801, 0x1601, 0x1401, 0x1201, 0x1101,
+        0x0AC1, 0x09C1, 0x08A1, 0x0521, 0x0441, 0x02A1, 0x0221, 0x0141, 0x0111, 0x0085,
+        0x0049, 0x0025, 0x0015, 0x0009, 0x0005, 0x0001, 0x5601
+    };
+    private static final int[] NEXT_MPS_INDEX = {
+        1, 2, 3, 4, 5, 38, 7, 8, 9, 10, 11, 12, 13, 29, 15, 16, 17, 18, 19, 20,
+        21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35, 36, 37, 38, 39, 40,
+        41, 42, 43, 44, 45, 45, 46
+    };
+    private static final int[] NEXT_LPS_INDEX = {
+        1, 6, 9, 12, 29, 33, 6, 14, 14, 14, 17, 18, 20, 21, 14, 14, 15, 16, 17, 18,
+        19, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35, 36, 37,
+        38, 39, 40, 41, 42, 43, 46
+    };
+    private static final int[] SWITCH_MPS = {
+        1, 0, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0
+    };
+
+    // The tables are expanded so that each entry is a (state, MPS) pair, stored as 2 * state + MPS.
+    private static final int[] QE = new int[2 * QE_VALUES.length];
+    private static final int[] NEXT_MPS = new int[2 * QE_VALUES.length];
+    private static final int[] NEXT_LPS = new int[2 * QE_VALUES.length];
+
+    static {
+        for (int state = 0; state < QE_VALUES.length; ++state) {
+            for (int mps = 0; mps < 2; ++mps) {
+                int entry = 2 * state + mps;
+                QE[entry] = QE_VALUES[state];
+                NEXT_MPS[entry] = 2 * NEXT_MPS_INDEX[state] + mps;
+                NEXT_LPS[entry] = 2 * NEXT_LPS_INDEX[state] + (mps ^ SWITCH_MPS[state]);
+            }
+        }
+    }
+
+    private final int[] mContexts = new int[NUMBER_OF_CONTEXTS];
+    private byte[] mData = new byte[0];
+    private int mPosition = 0;
+    private int mC = 0;
+    private int mA = 0;
+    private int mCT = 0;
+
+    /**
+     * Set all contexts to their initial states. See Table D-7.
+     */
+    void resetContexts() {
+        for (int i = 0; i < NUMBER_OF_CONTEXTS; ++i) {
+            mContexts[i] = 0;
+        }
+        mContexts[0] = 2 * 4;
+        mContexts[RUN_LENGTH_CONTEXT] = 2 * 3;
+        mContexts[UNIFORM_CONTEXT] = 2 * 46;
+    }
+
+    /**
+     * Start decoding an arithmetic coded segment. See Section C.3.5.
+     *
+     * The contexts are not changed.
+     *
+     * @param data the segment data, followed by two 0xFF bytes
+     * @param offset the offset of the segment within the data
+     */
+    void start(final byte[] data, final int offset) {
+        mData = data;
+        mPosition = offset;
+        mC = (mData[mPosition] & 0xFF) << 16;
+        readByte();
+        mC <<= 7;
+        mCT -= 7;
+        mA = 0x8000;
+    }
+
+    /**
+     * Start reading a raw (bypass) segment.
+     *
+     * @param data the segment data, followed by two 0xFF bytes
+     * @param offset the offset of the segment within the data
+     */
+    void startRaw(final byte[] data, final int offset) {
+        mData = data;
+        mPosition = offset;
+        mC = 0;
+        mCT = 0;
+    }
+
+    /**
+     * Decode a decision. See Section C.3.2.
+     *
+     * @param context the context number
+     * @return the decision, 0 or 1
+     */
+    int decode(final int context) {
+        int entry = mContexts[context];
+        int qe = QE[entry];
+        int decision;
+        mA -= qe;
+        if ((mC >>> 16) < qe) {
+            // LPS exchange
+            if (mA < qe) {
+                decision = entry & 1;
+                mContexts[context] = NEXT_MPS[entry];
+            } else {
+                decision = 1 - (entry & 1);
+                mContexts[context] = NEXT_LPS[entry];
+            }
+            mA = qe;
+            renormalise();
+        } else {
+            mC -= qe << 16;
+            if ((mA & 0x8000) == 0) {
+                // MPS exchange
+                if (mA < qe) {
+                    decision = 1 - (entry & 1);
+                    mContexts[context] = NEXT_LPS[entry];
+                } else {
+                    decision = entry & 1;
+                    mContexts[context] = NEXT_MPS[entry];
+                }
+                renormalise();
+            } else {
+                decision = entry & 1;
+            }
+        }
+        return decision;
+    }
+
+    /**
+     * Read a bit from a raw segment, skipping the stuffed bit after 0xFF.
+     *
+     * @return the bit, 0 or 1
+     */
+    int decodeRaw() {
+        if (mCT == 0) {
+            if (mC == 0xFF) {
+                if ((mData[mPosition] & 0xFF) > 0x8F) {
+                    mC = 0xFF;
+                    mCT = 8;
+                } else {
+                    mC = mData[mPosition++] & 0xFF;
+                    mCT = 7;
+                }
+            } else {
+                mC = mData[mPosition++] & 0xFF;
+                mCT = 8;
+            }
+        }
+        mCT--;
+        return (mC >> mCT) & 1;
+    }
+
+    private void renormalise() {
+        do {
+            if (mCT == 0) {
+                readByte();
+            }
+            mA <<= 1;
+            mC <<= 1;
+            mCT--;
+        } while (mA < 0x8000);
+    }
+
+    // See Section C.3.4. A marker (0xFF followed by more than 0x8F) is not consumed, so 1 bits are fed in.
+    private void readByte() {
+        if ((mData[mPosition] & 0xFF) == 0xFF) {
+            if ((mData[mPosition + 1] & 0xFF) > 0x8F) {
+                mC += 0xFF00;
+                mCT = 8;
+            } else {
+                mPosition++;
+                mC += (mData[mPosition] & 0xFF) << 9;
+                mCT = 7;
+            }
+        } else {
+            mPosition++;
+            mC += (mData[mPosition] & 0xFF) << 8;
+            mCT = 8;
+        }
+    }
+}
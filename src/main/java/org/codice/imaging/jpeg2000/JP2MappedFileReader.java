@@ -0,0 +1,225 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Memory mapped file reader.
+ *
+ * The file is mapped as a series of fixed size windows, so files larger than
+ * a single mapping (2GB) can be read. Field reads are plain memory loads
+ * rather than a system call per value.
+ */
+public class JP2MappedFileReader implements JP2Reader {
+
+    static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+    private static final Logger LOG = LoggerFactory.getLogger(JP2MappedFileReader.class);
+
+    private final MappedByteBuffer[] mWindows;
+    private final int mWindowSize;
+    private final long mLength;
+    private long mPosition = 0;
+
+    /**
+        Constructor for memory mapped reader.
+
+        @param file the File to read the JP2 file contents from.
+        @throws JP2ParsingException if file does not exist as a regular file, or some other error occurs during mapping of the file.
+    */
+    public JP2MappedFileReader(final File file) throws JP2ParsingException {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+        Constructor for memory mapped reader.
+
+        @param filename the String specifying the JP2 file name to read contents from.
+        @throws JP2ParsingException if file does not exist as a regular file, or some other error occurs during mapping of the file.
+    */
+    public JP2MappedFileReader(final String filename) throws JP2ParsingException {
+        this(new File(filename), DEFAULT_WINDOW_SIZE);
+    }
+
+    JP2MappedFileReader(final File file, final int windowSize) throws JP2ParsingException {
+        mWindowSize = windowSize;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, JP2FileReader.READ_MODE);
+                FileChannel channel = randomAccessFile.getChannel()) {
+            mLength = channel.size();
+            int numberOfWindows = (int) ((mLength + mWindowSize - 1) / mWindowSize);
+            mWindows = new MappedByteBuffer[numberOfWindows];
+            for (int i = 0; i < numberOfWindows; ++i) {
+                long windowStart = (long) i * mWindowSize;
+                long windowLength = Math.min(mWindowSize, mLength - windowStart);
+                mWindows[i] = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+            }
+        } catch (IOException ex) {
+            LOG.warn("Could not map file:" + file.getPath(), ex);
+            throw new JP2ParsingException("Could not map " + file.getPath() + ", " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public void skipBytes(final int numOfBytesToSkip) throws JP2ParsingException {
+        if (numOfBytesToSkip > 0) {
+            mPosition = Math.min(mPosition + numOfBytesToSkip, mLength);
+        }
+    }
+
+    @Override
+    public byte readUnsignedByte() throws JP2ParsingException {
+        checkAvailable(PackageConstants.UNSIGNED_BYTE_LENGTH, "byte");
+        byte value = byteAt(mPosition);
+        mPosition += PackageConstants.UNSIGNED_BYTE_LENGTH;
+        return value;
+    }
+
+    @Override
+    public int readUnsignedShort() throws JP2ParsingException {
+        checkAvailable(PackageConstants.UNSIGNED_SHORT_LENGTH, "short");
+        int offsetInWindow = (int) (mPosition % mWindowSize);
+        int value;
+        if (offsetInWindow + PackageConstants.UNSIGNED_SHORT_LENGTH <= mWindowSize) {
+            value = mWindows[(int) (mPosition / mWindowSize)].getShort(offsetInWindow) & 0x0000FFFF;
+        } else {
+            value = ((byteAt(mPosition) & 0xFF) << 8) | (byteAt(mPosition + 1) & 0xFF);
+        }
+        mPosition += PackageConstants.UNSIGNED_SHORT_LENGTH;
+        return value;
+    }
+
+    @Override
+    public int readUnsignedInt() throws JP2ParsingException {
+        checkAvailable(PackageConstants.UNSIGNED_INT_LENGTH, "integer");
+        int offsetInWindow = (int) (mPosition % mWindowSize);
+        int value;
+        if (offsetInWindow + PackageConstants.UNSIGNED_INT_LENGTH <= mWindowSize) {
+            value = mWindows[(int) (mPosition / mWindowSize)].getInt(offsetInWindow);
+        } else {
+            value = 0;
+            for (int i = 0; i < PackageConstants.UNSIGNED_INT_LENGTH; ++i) {
+                value = (value << 8) | (byteAt(mPosition + i) & 0xFF);
+            }
+        }
+        mPosition += PackageConstants.UNSIGNED_INT_LENGTH;
+        return value;
+    }
+
+    @Override
+    public byte[] getBytes(final int byteArrayLength) throws JP2ParsingException {
+        checkAvailable(byteArrayLength, "fixed length byte array");
+        byte[] bytes = new byte[byteArrayLength];
+        copyBytes(mPosition, bytes);
+        mPosition += byteArrayLength;
+        return bytes;
+    }
+
+    @Override
+    public String getFixedLengthString(final int stringLength) throws JP2ParsingException {
+        checkAvailable(stringLength, "fixed length string");
+        byte[] stringAsBytes = new byte[stringLength];
+        copyBytes(mPosition, stringAsBytes);
+        mPosition += stringLength;
+        return new String(stringAsBytes, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public boolean hasDataRemaining() throws JP2ParsingException {
+        return mPosition < mLength;
+    }
+
+    @Override
+    public long getPosition() throws JP2ParsingException {
+        return mPosition;
+    }
+
+    @Override
+    public void seek(final long position) throws JP2ParsingException {
+        if (position < 0 || position > mLength) {
+            throw new JP2ParsingException("Unable to seek to " + position + ", file length is " + mLength);
+        }
+        mPosition = position;
+    }
+
+    @Override
+    public long getLength() throws JP2ParsingException {
+        return mLength;
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer(final long position, final int length) throws JP2ParsingException {
+        if (position < 0 || length < 0 || position + length > mLength) {
+            throw new JP2ParsingException("Unable to read " + length + " bytes at offset " + position + ", file length is " + mLength);
+        }
+        if (length == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        int offsetInWindow = (int) (position % mWindowSize);
+        MappedByteBuffer window = mWindows[(int) (position / mWindowSize)];
+        if (offsetInWindow + length <= window.capacity()) {
+            ByteBuffer view = window.duplicate();
+            view.position(offsetInWindow);
+            view.limit(offsetInWindow + length);
+            return view.slice();
+        }
+        byte[] bytes = new byte[length];
+        copyBytes(position, bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private void checkAvailable(final int numberOfBytes, final String description) throws JP2ParsingException {
+        if (numberOfBytes < 0 || mPosition + numberOfBytes > mLength) {
+            LOG.warn("Could not read " + description + " at offset " + mPosition);
+            throw new JP2ParsingException("Could not read " + description + ", only " + (mLength - mPosition) + " bytes remaining");
+        }
+    }
+
+    private byte byteAt(final long position) {
+        return mWindows[(int) (position / mWindowSize)].get((int) (position % mWindowSize));
+    }
+
+    private void copyBytes(final long position, final byte[] destination) {
+        int copied = 0;
+        while (copied < destination.length) {
+            long current = position + copied;
+            int offsetInWindow = (int) (current % mWindowSize);
+            MappedByteBuffer window = mWindows[(int) (current / mWindowSize)];
+            int count = Math.min(destination.length - copied, window.capacity() - offsetInWindow);
+            // Work on a duplicate so the shared window position is never modified.
+            ByteBuffer view = window.duplicate();
+            view.position(offsetInWindow);
+            view.get(destination, copied, count);
+            copied += count;
+        }
+    }
+}
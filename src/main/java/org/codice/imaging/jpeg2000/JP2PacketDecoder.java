@@ -0,0 +1,521 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tier-2 decoder, which reads the packet headers of a tile.
+ *
+ * The result is a JP2CodeBlockIndex, giving the location of every
+ * code-block contribution within the tile data. The packet bodies are not
+ * decoded, so this is much cheaper than decoding the tile, and the index can
+ * be used to pick out just the code-blocks for a resolution, layer or
+ * region.
+ *
+ * The tag trees and other working storage are kept between tiles, so a
+ * decoder should be reused for many tiles. A decoder must not be used by
+ * more than one thread at a time.
+ *
+ * Packed packet headers (PPM and PPT), progression order changes (POC) and
+ * region of interest coding (RGN) are not supported.
+ */
+public class JP2PacketDecoder {
+
+    private static final int SOP_MARKER_SEGMENT_LENGTH = 6;
+    private static final int EPH_MARKER_LENGTH = 2;
+    // Passes in the first codeword segment when using selective arithmetic coding bypass. See Table D-9.
+    private static final int BYPASS_FIRST_SEGMENT_PASSES = 10;
+
+    private final JP2CodeStream mCodeStream;
+    private final JP2PacketHeaderReader mHeaderReader = new JP2PacketHeaderReader();
+    private final JP2TagTree mInclusionTrees = new JP2TagTree();
+    private final JP2TagTree mZeroBitPlaneTrees = new JP2TagTree();
+    private int[] mFirstLeaves = new int[0];
+    private boolean[] mVisitedPrecincts = new boolean[0];
+
+    private JP2TileLayout mLayout = null;
+    private JP2CodeBlockIndex mIndex = null;
+    private JP2TileData mTileData = null;
+    private long mDataLength = 0;
+    private int[] mResolutionLevelsToDecode = new int[0];
+    private int mNumberOfLayersToDecode = 0;
+    private JP2TileWindow mWindow = null;
+    private long mPosition = 0;
+    private boolean mStartOfPacketMarkers = false;
+    private boolean mEndOfPacketHeaderMarkers = false;
+
+    /**
+     * Constructor.
+     *
+     * @param codeStream the code stream to decode packets from
+     */
+    public JP2PacketDecoder(final JP2CodeStream codeStream) {
+        mCodeStream = codeStream;
+    }
+
+    /**
+     * Decode the packet headers of a tile.
+     *
+     * If the tile data ends part way through the packets (for example, a
+     * truncated code stream), the index covers the packets that are present.
+     *
+     * @param tileIndex the tile index, in raster order
+     * @return the index of code-block contributions in the tile
+     * @throws JP2ParsingException if the tile could not be read, or the packet headers are invalid
+     */
+    public JP2CodeBlockIndex decodeTile(final int tileIndex) throws JP2ParsingException {
+        return decodeTile(tileIndex, new JP2DecodeParam());
+    }
+
+    /**
+     * Decode the packet headers of a tile, for part of the image.
+     *
+     * With a resolution reduction, the data for the discarded resolutions is
+     * not read. Their packet headers still have to be read if they come
+     * before packets that are needed, but for resolution major progressions
+     * (RLCP and RPCL) decoding stops after the last resolution that is
+     * needed. Similarly, with a region only the data for precincts that
+     * contribute to the region is read, though every packet header has to
+     * be read to find where the following packets start. Likewise for
+     * quality layers, where decoding stops after the last layer that is
+     * needed for LRCP, and after the last layer of the last resolution that
+     * is needed for RLCP.
+     *
+     * @param tileIndex the tile index, in raster order
+     * @param param the part of the image that will be decoded
+     * @return the index of code-block contributions in the tile
+     * @throws JP2ParsingException if the tile could not be read, or the packet headers are invalid
+     */
+    public JP2CodeBlockIndex decodeTile(final int tileIndex, final JP2DecodeParam param) throws JP2ParsingException {
+        if (mCodeStream.hasPackedPacketHeaders(tileIndex)) {
+            throw new JP2ParsingException("Packed packet headers (PPM / PPT) are not supported");
+        }
+        if (mCodeStream.hasProgressionOrderChange(tileIndex)) {
+            throw new JP2ParsingException("Progression order change (POC) is not supported");
+        }
+        if (mCodeStream.hasRegionOfInterest(tileIndex)) {
+            throw new JP2ParsingException("Region of interest (RGN) is not supported");
+        }
+        JP2CodingStyle codingStyle = mCodeStream.getTileCodingStyle(tileIndex);
+        mStartOfPacketMarkers = codingStyle.usesStartOfPacketMarkers();
+        mEndOfPacketHeaderMarkers = codingStyle.usesEndOfPacketHeaderMarkers();
+        mLayout = new JP2TileLayout(mCodeStream, tileIndex);
+        setResolutionLevelsToDecode(param);
+        mWindow = new JP2TileWindow(mLayout, param, mCodeStream);
+        mNumberOfLayersToDecode = param.getNumberOfLayersToDecode(codingStyle.getNumberOfLayers());
+        mTileData = new JP2TileData(mCodeStream.getTileParts(tileIndex));
+        mDataLength = mTileData.getLength();
+        mIndex = new JP2CodeBlockIndex(mLayout, mWindow, mNumberOfLayersToDecode, mTileData);
+        mHeaderReader.setData(mTileData);
+        mPosition = 0;
+        buildTagTrees();
+        try {
+            switch (codingStyle.getProgressionOrder()) {
+                case JP2CodingStyle.PROGRESSION_LRCP:
+                    decodeLayerResolutionComponentPosition(codingStyle.getNumberOfLayers());
+                    break;
+                case JP2CodingStyle.PROGRESSION_RLCP:
+                    decodeResolutionLayerComponentPosition(codingStyle.getNumberOfLayers());
+                    break;
+                case JP2CodingStyle.PROGRESSION_RPCL:
+                case JP2CodingStyle.PROGRESSION_PCRL:
+                case JP2CodingStyle.PROGRESSION_CPRL:
+                    decodePositionProgression(codingStyle.getProgressionOrder(), codingStyle.getNumberOfLayers());
+                    break;
+                default:
+                    throw new JP2ParsingException("Unknown progression order: " + codingStyle.getProgressionOrder());
+            }
+            mIndex.setBytesLoaded(mTileData.getBytesLoaded());
+            return mIndex;
+        } finally {
+            mLayout = null;
+            mWindow = null;
+            mIndex = null;
+            mTileData = null;
+        }
+    }
+
+    private void setResolutionLevelsToDecode(final JP2DecodeParam param) throws JP2ParsingException {
+        int numberOfComponents = mLayout.getNumberOfComponents();
+        if (mResolutionLevelsToDecode.length < numberOfComponents) {
+            mResolutionLevelsToDecode = new int[numberOfComponents];
+        }
+        for (int c = 0; c < numberOfComponents; ++c) {
+            mResolutionLevelsToDecode[c] = param.getNumberOfResolutionLevels(mLayout, c);
+        }
+    }
+
+    // Resolution levels after this have no packets that are needed
+    private int getMaximumNumberOfResolutionLevelsToDecode() {
+        int maximum = 0;
+        for (int c = 0; c < mLayout.getNumberOfComponents(); ++c) {
+            maximum = Math.max(maximum, mResolutionLevelsToDecode[c]);
+        }
+        return maximum;
+    }
+
+    private void buildTagTrees() {
+        mInclusionTrees.reset();
+        mZeroBitPlaneTrees.reset();
+        int numberOfPrecinctBands = mLayout.getNumberOfPrecinctBands();
+        if (mFirstLeaves.length < numberOfPrecinctBands) {
+            mFirstLeaves = new int[numberOfPrecinctBands];
+        }
+        // Both trees have the same shape, so have the same leaf numbers
+        for (int precinctBand = 0; precinctBand < numberOfPrecinctBands; ++precinctBand) {
+            int width = mLayout.getNumberOfCodeBlocksWide(precinctBand);
+            int height = mLayout.getNumberOfCodeBlocksHigh(precinctBand);
+            mFirstLeaves[precinctBand] = mInclusionTrees.addTree(width, height);
+            mZeroBitPlaneTrees.addTree(width, height);
+        }
+    }
+
+    private int getMaximumNumberOfResolutionLevels() {
+        int maximum = 0;
+        for (int c = 0; c < mLayout.getNumberOfComponents(); ++c) {
+            maximum = Math.max(maximum, mLayout.getNumberOfResolutionLevels(c));
+        }
+        return maximum;
+    }
+
+    private void decodeLayerResolutionComponentPosition(final int numberOfLayers) throws JP2ParsingException {
+        int numberOfResolutionLevels = getMaximumNumberOfResolutionLevels();
+        for (int layer = 0; layer < Math.min(numberOfLayers, mNumberOfLayersToDecode); ++layer) {
+            for (int r = 0; r < numberOfResolutionLevels; ++r) {
+                if (!decodeComponentPositionPackets(layer, r)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void decodeResolutionLayerComponentPosition(final int numberOfLayers) throws JP2ParsingException {
+        int numberOfResolutionLevels = getMaximumNumberOfResolutionLevelsToDecode();
+        for (int r = 0; r < numberOfResolutionLevels; ++r) {
+            int layers = (r == numberOfResolutionLevels - 1) ? Math.min(numberOfLayers, mNumberOfLayersToDecode) : numberOfLayers;
+            for (int layer = 0; layer < layers; ++layer) {
+                if (!decodeComponentPositionPackets(layer, r)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean decodeComponentPositionPackets(final int layer, final int resolutionLevel) throws JP2ParsingException {
+        for (int c = 0; c < mLayout.getNumberOfComponents(); ++c) {
+            if (resolutionLevel >= mLayout.getNumberOfResolutionLevels(c)) {
+                continue;
+            }
+            int resolution = mLayout.getResolution(c, resolutionLevel);
+            for (int precinct = 0; precinct < mLayout.getNumberOfPrecincts(resolution); ++precinct) {
+                if (!decodePacket(layer, resolution, mLayout.getPrecinct(resolution, precinct))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /*
+     * The position driven progressions step over the reference grid, in steps
+     * of the smallest precinct, and visit each precinct at the position of its
+     * top left corner. See Section B.12.1.3 to B.12.1.5.
+     */
+    private void decodePositionProgression(final int progressionOrder, final int numberOfLayers) throws JP2ParsingException {
+        int numberOfPrecincts = mLayout.getNumberOfPrecincts();
+        if (mVisitedPrecincts.length < numberOfPrecincts) {
+            mVisitedPrecincts = new boolean[numberOfPrecincts];
+        } else {
+            Arrays.fill(mVisitedPrecincts, 0, numberOfPrecincts, false);
+        }
+        int numberOfComponents = mLayout.getNumberOfComponents();
+        int numberOfResolutionLevels = getMaximumNumberOfResolutionLevels();
+        switch (progressionOrder) {
+            case JP2CodingStyle.PROGRESSION_RPCL: {
+                for (int r = 0; r < getMaximumNumberOfResolutionLevelsToDecode(); ++r) {
+                    if (!decodePositions(numberOfLayers, 0, numberOfComponents, r, r + 1, progressionOrder)) {
+                        return;
+                    }
+                }
+                break;
+            }
+            case JP2CodingStyle.PROGRESSION_PCRL: {
+                decodePositions(numberOfLayers, 0, numberOfComponents, 0, numberOfResolutionLevels, progressionOrder);
+                break;
+            }
+            default: {
+                for (int c = 0; c < numberOfComponents; ++c) {
+                    if (!decodePositions(numberOfLayers, c, c + 1, 0, numberOfResolutionLevels, progressionOrder)) {
+                        return;
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    private boolean decodePositions(final int numberOfLayers, final int firstComponent, final int endComponent, final int firstResolutionLevel, final int endResolutionLevel, final int progressionOrder) throws JP2ParsingException {
+        long stepX = Long.MAX_VALUE;
+        long stepY = Long.MAX_VALUE;
+        for (int c = firstComponent; c < endComponent; ++c) {
+            for (int r = firstResolutionLevel; r < Math.min(endResolutionLevel, mLayout.getNumberOfResolutionLevels(c)); ++r) {
+                int resolution = mLayout.getResolution(c, r);
+                int scale = mLayout.getNumberOfResolutionLevels(c) - 1 - r;
+                stepX = Math.min(stepX, (long) mLayout.getComponentHorizontalSeparation(c) << (mLayout.getPrecinctWidthExponent(resolution) + scale));
+                stepY = Math.min(stepY, (long) mLayout.getComponentVerticalSeparation(c) << (mLayout.getPrecinctHeightExponent(resolution) + scale));
+            }
+        }
+        if (stepX == Long.MAX_VALUE) {
+            return true;
+        }
+        long tileX0 = mLayout.getTileX0();
+        long tileY0 = mLayout.getTileY0();
+        for (long y = tileY0; y < mLayout.getTileY1(); y += stepY - (y % stepY)) {
+            for (long x = tileX0; x < mLayout.getTileX1(); x += stepX - (x % stepX)) {
+                if (progressionOrder == JP2CodingStyle.PROGRESSION_PCRL) {
+                    // Component, then resolution level
+                    for (int c = firstComponent; c < endComponent; ++c) {
+                        for (int r = firstResolutionLevel; r < endResolutionLevel; ++r) {
+                            if (!decodePrecinctAt(numberOfLayers, c, r, x, y)) {
+                                return false;
+                            }
+                        }
+                    }
+                } else {
+                    // Resolution level, then component
+                    for (int r = firstResolutionLevel; r < endResolutionLevel; ++r) {
+                        for (int c = firstComponent; c < endComponent; ++c) {
+                            if (!decodePrecinctAt(numberOfLayers, c, r, x, y)) {
+                                return false;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean decodePrecinctAt(final int numberOfLayers, final int component, final int resolutionLevel, final long x, final long y) throws JP2ParsingException {
+        if (resolutionLevel >= mLayout.getNumberOfResolutionLevels(component)) {
+            return true;
+        }
+        int resolution = mLayout.getResolution(component, resolutionLevel);
+        long resolutionX0 = mLayout.getResolutionX0(resolution);
+        long resolutionY0 = mLayout.getResolutionY0(resolution);
+        if (resolutionX0 == mLayout.getResolutionX1(resolution) || resolutionY0 == mLayout.getResolutionY1(resolution)) {
+            return true;
+        }
+        int scale = mLayout.getNumberOfResolutionLevels(component) - 1 - resolutionLevel;
+        int precinctWidthExponent = mLayout.getPrecinctWidthExponent(resolution);
+        int precinctHeightExponent = mLayout.getPrecinctHeightExponent(resolution);
+        long horizontalSeparation = mLayout.getComponentHorizontalSeparation(component);
+        long verticalSeparation = mLayout.getComponentVerticalSeparation(component);
+        boolean precinctStartsInRow = (y % (verticalSeparation << (precinctHeightExponent + scale)) == 0)
+                || ((y == mLayout.getTileY0()) && (((resolutionY0 << scale) % (1L << (precinctHeightExponent + scale))) != 0));
+        boolean precinctStartsInColumn = (x % (horizontalSeparation << (precinctWidthExponent + scale)) == 0)
+                || ((x == mLayout.getTileX0()) && (((resolutionX0 << scale) % (1L << (precinctWidthExponent + scale))) != 0));
+        if (!precinctStartsInRow || !precinctStartsInColumn) {
+            return true;
+        }
+        long precinctColumn = (ceilingDivide(x, horizontalSeparation << scale) >> precinctWidthExponent) - (resolutionX0 >> precinctWidthExponent);
+        long precinctRow = (ceilingDivide(y, verticalSeparation << scale) >> precinctHeightExponent) - (resolutionY0 >> precinctHeightExponent);
+        if (precinctColumn >= mLayout.getNumberOfPrecinctsWide(resolution) || precinctRow >= mLayout.getNumberOfPrecinctsHigh(resolution)) {
+            return true;
+        }
+        int precinct = mLayout.getPrecinct(resolution, (int) (precinctRow * mLayout.getNumberOfPrecinctsWide(resolution) + precinctColumn));
+        if (mVisitedPrecincts[precinct]) {
+            return true;
+        }
+        mVisitedPrecincts[precinct] = true;
+        for (int layer = 0; layer < numberOfLayers; ++layer) {
+            if (!decodePacket(layer, resolution, precinct)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long ceilingDivide(final long value, final long divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /*
+     * Decode one packet header, and record where the code-block data is in the
+     * packet body. Returns false if there is no more tile data.
+     */
+    private boolean decodePacket(final int layer, final int resolution, final int precinct) throws JP2ParsingException {
+        if (mPosition >= mDataLength) {
+            return false;
+        }
+        if (mStartOfPacketMarkers && isMarkerAt(mPosition, JP2CodeStream.SOP_MARKER_CODE)) {
+            mPosition += SOP_MARKER_SEGMENT_LENGTH;
+        }
+        int firstPiece = mIndex.getNumberOfPieces();
+        mHeaderReader.start(mPosition);
+        if (mHeaderReader.readBit() == 1) {
+            int codeBlockStyle = mLayout.getComponentCodingStyle(mLayout.getResolutionComponent(resolution)).getCodeBlockStyle();
+            for (int bandIndex = 0; bandIndex < mLayout.getNumberOfBands(resolution); ++bandIndex) {
+                int precinctBand = mLayout.getPrecinctBand(precinct, bandIndex);
+                int firstCodeBlock = mLayout.getFirstCodeBlock(precinctBand);
+                int endCodeBlock = mLayout.getFirstCodeBlock(precinctBand + 1);
+                for (int codeBlock = firstCodeBlock; codeBlock < endCodeBlock; ++codeBlock) {
+                    decodeCodeBlockHeader(layer, codeBlock, mFirstLeaves[precinctBand] + codeBlock - firstCodeBlock, codeBlockStyle);
+                }
+            }
+        }
+        mPosition = mHeaderReader.finish();
+        if (mEndOfPacketHeaderMarkers && isMarkerAt(mPosition, JP2CodeStream.EPH_MARKER_CODE)) {
+            mPosition += EPH_MARKER_LENGTH;
+        }
+        long bodyStart = mPosition;
+        for (int piece = firstPiece; piece < mIndex.getNumberOfPieces(); ++piece) {
+            mIndex.setPieceOffset(piece, mPosition);
+            mPosition += mIndex.getPieceLength(piece);
+        }
+        if (mPosition > mDataLength) {
+            throw new JP2ParsingException("Packet data extends past end of tile data, at offset " + mPosition + " of " + mDataLength);
+        }
+        if (layer < mNumberOfLayersToDecode && mWindow.isPrecinctNeeded(resolution, precinct)) {
+            mTileData.load(bodyStart, mPosition);
+        }
+        mIndex.addPacket(mPosition);
+        return true;
+    }
+
+    private void decodeCodeBlockHeader(final int layer, final int codeBlock, final int leaf, final int codeBlockStyle) throws JP2ParsingException {
+        boolean firstInclusion = (mIndex.getInclusionLayer(codeBlock) == JP2CodeBlockIndex.NONE);
+        boolean included;
+        if (firstInclusion) {
+            included = mInclusionTrees.decode(mHeaderReader, leaf, layer + 1);
+        } else {
+            included = (mHeaderReader.readBit() == 1);
+        }
+        if (!included) {
+            return;
+        }
+        if (firstInclusion) {
+            mIndex.includeCodeBlock(codeBlock, layer, mZeroBitPlaneTrees.decodeValue(mHeaderReader, leaf));
+        }
+        int newPasses = readNumberOfCodingPasses();
+        int lengthBits = mIndex.getLengthBits(codeBlock);
+        while (mHeaderReader.readBit() == 1) {
+            lengthBits++;
+        }
+        mIndex.setLengthBits(codeBlock, lengthBits);
+        // Split the new passes into codeword segments. See Section B.10.7.
+        int pass = mIndex.getNumberOfPasses(codeBlock);
+        while (newPasses > 0) {
+            int passesInSegment = Math.min(newPasses, getSegmentEnd(pass, codeBlockStyle) - pass);
+            int length = mHeaderReader.readBits(lengthBits + floorLog2(passesInSegment));
+            mIndex.addPiece(codeBlock, layer, passesInSegment, length, isSegmentStart(pass, codeBlockStyle));
+            pass += passesInSegment;
+            newPasses -= passesInSegment;
+        }
+    }
+
+    // See Table B-4
+    private int readNumberOfCodingPasses() throws JP2ParsingException {
+        if (mHeaderReader.readBit() == 0) {
+            return 1;
+        }
+        if (mHeaderReader.readBit() == 0) {
+            return 2;
+        }
+        int value = mHeaderReader.readBits(2);
+        if (value != 0x03) {
+            return 3 + value;
+        }
+        value = mHeaderReader.readBits(5);
+        if (value != 0x1F) {
+            return 6 + value;
+        }
+        return 37 + mHeaderReader.readBits(7);
+    }
+
+    /**
+     * Get the pass after the end of the codeword segment containing a pass.
+     *
+     * @param pass the coding pass number within the code-block
+     * @param codeBlockStyle the code-block style flags
+     * @return the first pass of the next segment
+     */
+    static int getSegmentEnd(final int pass, final int codeBlockStyle) {
+        if ((codeBlockStyle & JP2CodingStyle.CODE_BLOCK_TERMINATE_ALL) != 0) {
+            return pass + 1;
+        }
+        if ((codeBlockStyle & JP2CodingStyle.CODE_BLOCK_BYPASS) != 0) {
+            if (pass < BYPASS_FIRST_SEGMENT_PASSES) {
+                return BYPASS_FIRST_SEGMENT_PASSES;
+            }
+            // Then alternating raw segments (significance and refinement) and arithmetic coded segments (cleanup)
+            int group = (pass - BYPASS_FIRST_SEGMENT_PASSES) / 3;
+            int passInGroup = (pass - BYPASS_FIRST_SEGMENT_PASSES) % 3;
+            return BYPASS_FIRST_SEGMENT_PASSES + group * 3 + ((passInGroup < 2) ? 2 : 3);
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Get whether a pass is the first in a codeword segment.
+     *
+     * @param pass the coding pass number within the code-block
+     * @param codeBlockStyle the code-block style flags
+     * @return true if the pass starts a new segment
+     */
+    static boolean isSegmentStart(final int pass, final int codeBlockStyle) {
+        if (pass == 0 || (codeBlockStyle & JP2CodingStyle.CODE_BLOCK_TERMINATE_ALL) != 0) {
+            return true;
+        }
+        if ((codeBlockStyle & JP2CodingStyle.CODE_BLOCK_BYPASS) != 0 && pass >= BYPASS_FIRST_SEGMENT_PASSES) {
+            return ((pass - BYPASS_FIRST_SEGMENT_PASSES) % 3) != 1;
+        }
+        return false;
+    }
+
+    /**
+     * Get whether the segment containing a pass is raw (not arithmetic coded).
+     *
+     * @param pass the coding pass number within the code-block
+     * @param codeBlockStyle the code-block style flags
+     * @return true for the significance propagation and refinement passes after the first ten, when using bypass
+     */
+    static boolean isRawPass(final int pass, final int codeBlockStyle) {
+        return ((codeBlockStyle & JP2CodingStyle.CODE_BLOCK_BYPASS) != 0) && (pass >= BYPASS_FIRST_SEGMENT_PASSES) && (((pass - BYPASS_FIRST_SEGMENT_PASSES) % 3) != 2);
+    }
+
+    private static int floorLog2(final int value) {
+        return 31 - Integer.numberOfLeadingZeros(value);
+    }
+
+    private boolean isMarkerAt(final long position, final int markerCode) throws JP2ParsingException {
+        if (position + 1 >= mDataLength) {
+            return false;
+        }
+        mTileData.load(position, position + 2);
+        return ((mTileData.get(position) & 0xFF) == (markerCode >> 8)) && ((mTileData.get(position + 1) & 0xFF) == (markerCode & 0xFF));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+/**
+ * Bit reader for packet headers.
+ *
+ * Packet headers are bit packed, most significant bit first, with a zero
+ * bit stuffed after any 0xFF byte so that a marker can not be emulated. See
+ * Section B.10.1.
+ */
+final class JP2PacketHeaderReader {
+
+    private JP2TileData mTileData = null;
+    private byte[] mChunk = null;
+    private long mLength = 0;
+    private long mLoadedEnd = 0;
+    private long mPosition = 0;
+    private int mBuffer = 0;
+    private int mBitsRemaining = 0;
+
+    /**
+     * Set the data to read from.
+     *
+     * @param tileData the tile data, which is loaded as the headers are read
+     */
+    void setData(final JP2TileData tileData) {
+        mTileData = tileData;
+        mChunk = null;
+        mLength = tileData.getLength();
+        mLoadedEnd = 0;
+        mPosition = 0;
+        mBuffer = 0;
+        mBitsRemaining = 0;
+    }
+
+    /**
+     * Start reading a packet header.
+     *
+     * @param position the offset of the packet header in the data
+     */
+    void start(final long position) {
+        mPosition = position;
+        mLoadedEnd = 0;
+        mBuffer = 0;
+        mBitsRemaining = 0;
+    }
+
+    int readBit() throws JP2ParsingException {
+        if (mBitsRemaining == 0) {
+            readByte();
+        }
+        mBitsRemaining--;
+        return (mBuffer >> mBitsRemaining) & 0x01;
+    }
+
+    int readBits(final int numberOfBits) throws JP2ParsingException {
+        int value = 0;
+        for (int i = 0; i < numberOfBits; ++i) {
+            value = (value << 1) | readBit();
+        }
+        return value;
+    }
+
+    /**
+     * Finish reading a packet header, skipping any padding bits.
+     *
+     * @return the offset of the first byte after the packet header
+     * @throws JP2ParsingException if the stuffed byte after a final 0xFF is missing
+     */
+    long finish() throws JP2ParsingException {
+        if ((mBuffer & 0xFF) == 0xFF) {
+            readByte();
+        }
+        mBitsRemaining = 0;
+        return mPosition;
+    }
+
+    private void readByte() throws JP2ParsingException {
+        if (mPosition >= mLength) {
+            throw new JP2ParsingException("Packet header extends past end of tile data at offset " + mPosition);
+        }
+        if (mPosition >= mLoadedEnd) {
+            mLoadedEnd = ((mPosition >> JP2TileData.CHUNK_SHIFT) + 1) << JP2TileData.CHUNK_SHIFT;
+            mTileData.load(mPosition, mLoadedEnd);
+            mChunk = mTileData.getChunk(mPosition);
+        }
+        // Only 7 bits are used in the byte after 0xFF
+        mBuffer = (mBuffer << 8) & 0xFFFF;
+        mBitsRemaining = (mBuffer == 0xFF00) ? 7 : 8;
+        mBuffer |= mChunk[(int) (mPosition++ & (JP2TileData.CHUNK_SIZE - 1))] & 0xFF;
+    }
+}
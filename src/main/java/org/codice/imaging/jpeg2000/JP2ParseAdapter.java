@@ -0,0 +1,52 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+/**
+ * Listener that ignores all events and never stops parsing.
+ *
+ * Extend this to handle only the events of interest.
+ */
+public class JP2ParseAdapter implements JP2ParseListener {
+
+    @Override
+    public boolean boxStart(final String boxType, final long offset, final JP2Reader contents) throws JP2ParsingException {
+        return true;
+    }
+
+    @Override
+    public boolean boxEnd(final String boxType) throws JP2ParsingException {
+        return true;
+    }
+
+    @Override
+    public boolean markerSegment(final int markerCode, final long offset, final JP2Reader contents) throws JP2ParsingException {
+        return true;
+    }
+
+    @Override
+    public boolean tilePart(final int tileIndex, final int tilePartIndex, final int numberOfTileParts, final JP2Reader data) throws JP2ParsingException {
+        return true;
+    }
+}
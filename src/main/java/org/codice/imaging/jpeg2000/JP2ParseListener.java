@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+/**
+ * Callbacks for streaming (event driven) parsing.
+ *
+ * The streaming parser does not keep any of the parsed structure. Instead it
+ * reports each box, marker segment and tile-part as it is reached, with the
+ * contents available through a reader window. Data that the listener does
+ * not read is never read from the underlying reader.
+ *
+ * Each callback returns whether parsing should continue, so a listener can
+ * stop as soon as it has what it needs.
+ *
+ * @see JP2StreamingParser
+ * @see JP2ParseAdapter
+ */
+public interface JP2ParseListener {
+
+    /**
+     * Called at the start of a box.
+     *
+     * For super boxes (e.g. jp2h), the child boxes are reported after this
+     * call and before the matching boxEnd call.
+     *
+     * @param boxType the four character box type
+     * @param offset the offset of the box header within the reader
+     * @param contents window over the box contents, excluding the box header
+     * @return true to continue parsing, false to stop
+     * @throws JP2ParsingException if the listener cannot handle the box
+     */
+    boolean boxStart(final String boxType, final long offset, final JP2Reader contents) throws JP2ParsingException;
+
+    /**
+     * Called at the end of a box.
+     *
+     * @param boxType the four character box type
+     * @return true to continue parsing, false to stop
+     * @throws JP2ParsingException if the listener cannot handle the box
+     */
+    boolean boxEnd(final String boxType) throws JP2ParsingException;
+
+    /**
+     * Called for each marker segment in the code stream.
+     *
+     * This covers main header and tile-part header marker segments, including
+     * SOT. Markers without a segment (SOC, SOD, EOC) are not reported.
+     *
+     * @param markerCode the marker code (e.g. 0xFF51 for SIZ)
+     * @param offset the offset of the marker within the reader
+     * @param contents window over the marker segment parameters, after the length field
+     * @return true to continue parsing, false to stop
+     * @throws JP2ParsingException if the listener cannot handle the marker segment
+     */
+    boolean markerSegment(final int markerCode, final long offset, final JP2Reader contents) throws JP2ParsingException;
+
+    /**
+     * Called for each tile-part bitstream.
+     *
+     * @param tileIndex the tile index (Isot)
+     * @param tilePartIndex the tile-part index (TPsot)
+     * @param numberOfTileParts the number of tile-parts for the tile (TNsot), or zero if not specified
+     * @param data window over the tile-part bitstream, after the SOD marker
+     * @return true to continue parsing, false to stop
+     * @throws JP2ParsingException if the listener cannot handle the tile-part
+     */
+    boolean tilePart(final int tileIndex, final int tilePartIndex, final int numberOfTileParts, final JP2Reader data) throws JP2ParsingException;
+}
@@ -24,6 +24,7 @@
 package org.codice.imaging.jpeg2000;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -50,36 +51,102 @@ public class JP2ParseStrategy {
     private JP2CodeStream mCodeStream = null;
     private JP2ChannelDefinitionBox mChannelDefinitionBox = null;
 
+    private boolean mHeaderOnly = false;
+    private JP2TileIndex mTileIndex = null;
 
+    // Top level boxes, in file order
+    private final List<String> mBoxTypes = new ArrayList<>();
+    private final List<Long> mBoxOffsets = new ArrayList<>();
+    private final List<Long> mBoxLengths = new ArrayList<>();
+
+    /**
+     * Set whether only the headers should be parsed.
+     *
+     * In header only mode, the codestream main header (SIZ, COD, QCD and so
+     * on) is parsed, but the reader then seeks over the tile-parts instead of
+     * walking them. The cost of parsing is then independent of the file size.
+     * The code stream will not have any tiles.
+     *
+     * @param headerOnly true to skip the tile-parts, false (the default) to parse them.
+     */
+    public void setHeaderOnly(final boolean headerOnly) {
+        mHeaderOnly = headerOnly;
+    }
+
+
+    /**
+     * Set the tile-part locations, so that the code stream does not have to be scanned for them.
+     *
+     * @param tileIndex the tile-part locations, or null to find them from the code stream
+     */
+    void setTileIndex(final JP2TileIndex tileIndex) {
+        mTileIndex = tileIndex;
+    }
+
+    /**
+     * Parse a JP2 file into this strategy.
+     *
+     * A strategy holds the results of one parse, and can not be used again.
+     *
+     * @param reader the reader, positioned after the signature box
+     * @throws JP2ParsingException if the file could not be parsed
+     * @throws IllegalStateException if this strategy has already been used
+     */
     public void parse(final JP2Reader reader) throws JP2ParsingException {
+        if (mReader != null) {
+            throw new IllegalStateException("Parse strategy has already been used");
+        }
         mReader = reader;
+        long fileBoxStart = mReader.getPosition();
         int fileBoxLength = mReader.readUnsignedInt();
         mFileTypeBox = new JP2FileTypeBox(mReader, fileBoxLength);
+        addBox("ftyp", fileBoxStart, fileBoxLength);
         while (mReader.hasDataRemaining()) {
-            int boxLength = mReader.readUnsignedInt();
-            // TODO: there is a "0" and "1" case we aren't handling. See Table I-1 and Section I.4
+            long boxStart = mReader.getPosition();
+            long boxLength = mReader.readUnsignedInt() & 0xFFFFFFFFL;
             String boxType = mReader.getFixedLengthString(PackageConstants.BOX_SIGNATURE_LENGTH);
-            int remainingBytesInBox = boxLength - (PackageConstants.UNSIGNED_INT_LENGTH + PackageConstants.BOX_SIGNATURE_LENGTH);
+            if (boxLength == PackageConstants.BOX_LENGTH_EXTENDED) {
+                boxLength = readExtendedBoxLength();
+            } else if (boxLength == PackageConstants.BOX_LENGTH_TO_END_OF_FILE) {
+                boxLength = mReader.getLength() - boxStart;
+            }
+            long remainingBytesInBox = boxLength - (mReader.getPosition() - boxStart);
+            addBox(boxType, boxStart, boxLength);
             switch (boxType) {
                 case "xml ":
-                    parseXMLBox(remainingBytesInBox);
+                    parseXMLBox((int) remainingBytesInBox);
                     break;
                 case "jp2h":
-                    parseJP2HeaderSuperBox(remainingBytesInBox);
+                    parseJP2HeaderSuperBox((int) remainingBytesInBox);
                     break;
                 case "jp2c":
                     parseContiguousCodestreamBox(remainingBytesInBox);
                     break;
                 default:
-                    mReader.skipBytes(remainingBytesInBox);
                     break;
             }
-            
+            mReader.seek(boxStart + boxLength);
         }
     }
 
-    private void parseContiguousCodestreamBox(int codestreamLength) throws JP2ParsingException {
-        mCodeStream = new JP2CodeStream(mReader, codestreamLength);
+    private void addBox(final String boxType, final long offset, final long length) {
+        mBoxTypes.add(boxType);
+        mBoxOffsets.add(offset);
+        mBoxLengths.add(length);
+    }
+
+    private long readExtendedBoxLength() throws JP2ParsingException {
+        long upper = mReader.readUnsignedInt() & 0xFFFFFFFFL;
+        long lower = mReader.readUnsignedInt() & 0xFFFFFFFFL;
+        return (upper << 32) | lower;
+    }
+
+    private void parseContiguousCodestreamBox(long codestreamLength) throws JP2ParsingException {
+        if (mTileIndex != null && !mHeaderOnly) {
+            mCodeStream = new JP2CodeStream(mReader, codestreamLength, mTileIndex);
+        } else {
+            mCodeStream = new JP2CodeStream(mReader, codestreamLength, mHeaderOnly);
+        }
     }
 
     private void parseJP2HeaderSuperBox(int superBoxLength) throws JP2ParsingException {
@@ -143,10 +210,10 @@ public class JP2ParseStrategy {
     /**
      * Get the XML Boxes for this file.
      *
-     * @return a list of XML boxes, possibly empty.
+     * @return a read-only list of XML boxes, possibly empty.
      */
     public List<JP2XmlBox> getXmlList() {
-        return mXmlList;
+        return Collections.unmodifiableList(mXmlList);
     }
 
     /**
@@ -191,4 +258,25 @@ public class JP2ParseStrategy {
     public JP2CodeStream getCodeStream() {
         return mCodeStream;
     }
+
+    /**
+     * Get the number of top level boxes after the signature box.
+     *
+     * @return the number of boxes parsed
+     */
+    int getNumberOfBoxes() {
+        return mBoxTypes.size();
+    }
+
+    String getBoxType(final int boxNumber) {
+        return mBoxTypes.get(boxNumber);
+    }
+
+    long getBoxOffset(final int boxNumber) {
+        return mBoxOffsets.get(boxNumber);
+    }
+
+    long getBoxLength(final int boxNumber) {
+        return mBoxLengths.get(boxNumber);
+    }
 }
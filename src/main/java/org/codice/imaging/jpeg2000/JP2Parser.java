@@ -43,6 +43,22 @@ public class JP2Parser {
         parseStrategy.parse(reader);
     }
 
+    /**
+     * Parse a bare JPEG 2000 code stream, without the JP2 box structure.
+     *
+     * The code stream is taken to run from the current position to the end
+     * of the reader. To parse a code stream embedded in another file, use a
+     * JP2WindowReader covering the code stream.
+     *
+     * @param reader the reader to use, positioned at the SOC marker
+     * @param headerOnly true to parse only the main header, false to also index the tile-parts
+     * @return the parsed code stream
+     * @throws JP2ParsingException if an error occurs during parsing
+     */
+    public static JP2CodeStream parseCodestream(final JP2Reader reader, final boolean headerOnly) throws JP2ParsingException {
+        return new JP2CodeStream(reader, reader.getLength() - reader.getPosition(), headerOnly);
+    }
+
     private static void readJPEG2000SignatureBox(final JP2Reader reader) throws JP2ParsingException {
         // TODO: make this verify validity
         reader.skipBytes(12);
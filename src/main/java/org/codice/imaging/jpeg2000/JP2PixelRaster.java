@@ -0,0 +1,253 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+/**
+ * Decoded samples for a whole image, packed as bytes or shorts.
+ *
+ * This is the form that display and image I/O code usually wants. The
+ * samples can be interleaved (all components of a pixel together, as for
+ * RGB) or planar (one plane per component, one after the other in the same
+ * array). The position of a sample is given by a band offset, a pixel stride
+ * and a line stride, in the same way as java.awt.image.ComponentSampleModel.
+ *
+ * Samples keep the signedness of their component. Components with more
+ * bits than the data type are shifted down to fit, so a 12 bit component
+ * decoded to bytes keeps its 8 most significant bits. As with JP2Raster,
+ * tiles are decoded straight into the array, and the coordinates are those
+ * of the decoded resolution and region.
+ *
+ * If only some components are decoded, the array holds just those, in the
+ * order they were picked, and the other components are empty.
+ */
+public class JP2PixelRaster {
+
+    /** Samples are held in a byte array, 8 bits each. */
+    public static final int TYPE_BYTE = 0;
+
+    /** Samples are held in a short array, 16 bits each. */
+    public static final int TYPE_SHORT = 1;
+
+    private static final int BYTE_BIT_DEPTH = 8;
+    private static final int SHORT_BIT_DEPTH = 16;
+
+    private final JP2DecodeParam mDecodeParam;
+    private final int mDataType;
+    private final boolean mInterleaved;
+    private final int mNumberOfComponents;
+    private final int[] mComponentX0;
+    private final int[] mComponentY0;
+    private final int[] mComponentWidths;
+    private final int[] mComponentHeights;
+    private final int[] mBandOffsets;
+    private final int[] mLineStrides;
+    private final int mPixelStride;
+    private final byte[] mByteData;
+    private final short[] mShortData;
+
+    /**
+     * Create a raster for decoding part of an image.
+     *
+     * @param codeStream the code stream that will be decoded into the raster
+     * @param param the part of the image to decode, which is copied
+     * @param dataType TYPE_BYTE or TYPE_SHORT
+     * @param interleaved true to interleave the components, false for a plane per component
+     * @throws JP2ParsingException if the raster would be too large, the region is outside
+     * the image, or the components are not all the same size and interleaving was asked for
+     */
+    public JP2PixelRaster(final JP2CodeStream codeStream, final JP2DecodeParam param, final int dataType, final boolean interleaved) throws JP2ParsingException {
+        if (dataType != TYPE_BYTE && dataType != TYPE_SHORT) {
+            throw new IllegalArgumentException("Unknown data type: " + dataType);
+        }
+        mDecodeParam = new JP2DecodeParam(param);
+        mDataType = dataType;
+        mInterleaved = interleaved;
+        mNumberOfComponents = codeStream.getNumberOfComponentsInImage();
+        mComponentX0 = new int[mNumberOfComponents];
+        mComponentY0 = new int[mNumberOfComponents];
+        mComponentWidths = new int[mNumberOfComponents];
+        mComponentHeights = new int[mNumberOfComponents];
+        mBandOffsets = new int[mNumberOfComponents];
+        mLineStrides = new int[mNumberOfComponents];
+        int numberOfBands = param.getNumberOfComponentsDecoded(codeStream);
+        int[] components = param.getComponents();
+        int first = -1;
+        long length = 0;
+        // Bands are in the order the components were picked
+        for (int band = 0; band < numberOfBands; ++band) {
+            int c = (components == null) ? band : components[band];
+            int[] bounds = param.getComponentBounds(codeStream, c);
+            mComponentX0[c] = bounds[0];
+            mComponentY0[c] = bounds[1];
+            mComponentWidths[c] = bounds[2] - bounds[0];
+            mComponentHeights[c] = bounds[3] - bounds[1];
+            if (interleaved) {
+                if (first < 0) {
+                    first = c;
+                } else if (mComponentX0[c] != mComponentX0[first] || mComponentY0[c] != mComponentY0[first]
+                        || mComponentWidths[c] != mComponentWidths[first] || mComponentHeights[c] != mComponentHeights[first]) {
+                    throw new JP2ParsingException("Interleaved samples need components of the same size");
+                }
+                mBandOffsets[c] = band;
+                mLineStrides[c] = mComponentWidths[c] * numberOfBands;
+            } else {
+                mBandOffsets[c] = (int) Math.min(length, Integer.MAX_VALUE);
+                mLineStrides[c] = mComponentWidths[c];
+            }
+            length += (long) mComponentWidths[c] * mComponentHeights[c];
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new JP2ParsingException("Image too large for a raster: " + length + " samples");
+        }
+        mPixelStride = interleaved ? numberOfBands : 1;
+        mByteData = (dataType == TYPE_BYTE) ? new byte[(int) length] : null;
+        mShortData = (dataType == TYPE_SHORT) ? new short[(int) length] : null;
+    }
+
+    /**
+     * Get the options that the raster was created for.
+     *
+     * @return the part of the image that is decoded into this raster
+     */
+    public JP2DecodeParam getDecodeParam() {
+        return mDecodeParam;
+    }
+
+    /**
+     * Get the type of the sample array.
+     *
+     * @return TYPE_BYTE or TYPE_SHORT
+     */
+    public int getDataType() {
+        return mDataType;
+    }
+
+    public boolean isInterleaved() {
+        return mInterleaved;
+    }
+
+    public int getNumberOfComponents() {
+        return mNumberOfComponents;
+    }
+
+    /**
+     * Get the horizontal position of the first sample of a component.
+     *
+     * @param componentIndex the component (zero based)
+     * @return the x coordinate, in the component coordinate system
+     */
+    public int getX0(final int componentIndex) {
+        return mComponentX0[componentIndex];
+    }
+
+    /**
+     * Get the vertical position of the first sample of a component.
+     *
+     * @param componentIndex the component (zero based)
+     * @return the y coordinate, in the component coordinate system
+     */
+    public int getY0(final int componentIndex) {
+        return mComponentY0[componentIndex];
+    }
+
+    public int getWidth(final int componentIndex) {
+        return mComponentWidths[componentIndex];
+    }
+
+    public int getHeight(final int componentIndex) {
+        return mComponentHeights[componentIndex];
+    }
+
+    /**
+     * Get the position in the array of the first sample of a component.
+     *
+     * @param componentIndex the component (zero based)
+     * @return the offset of the top left sample
+     */
+    public int getBandOffset(final int componentIndex) {
+        return mBandOffsets[componentIndex];
+    }
+
+    /**
+     * Get the distance in the array from one sample of a component to the next in the same row.
+     *
+     * @return the number of array elements, which is the number of components decoded if interleaved, and 1 if not
+     */
+    public int getPixelStride() {
+        return mPixelStride;
+    }
+
+    /**
+     * Get the distance in the array from one row of a component to the next.
+     *
+     * @param componentIndex the component (zero based)
+     * @return the number of array elements
+     */
+    public int getLineStride(final int componentIndex) {
+        return mLineStrides[componentIndex];
+    }
+
+    /**
+     * Get the samples, if the data type is TYPE_BYTE.
+     *
+     * @return the samples, or null for another data type
+     */
+    public byte[] getByteData() {
+        return mByteData;
+    }
+
+    /**
+     * Get the samples, if the data type is TYPE_SHORT.
+     *
+     * @return the samples, or null for another data type
+     */
+    public short[] getShortData() {
+        return mShortData;
+    }
+
+    // Decoded tiles are narrowed as they are copied into the array
+    JP2SampleWriter getWriter() {
+        return new JP2SampleWriter() {
+            @Override
+            public int getBitDepth(final int componentIndex) {
+                return (mDataType == TYPE_BYTE) ? BYTE_BIT_DEPTH : SHORT_BIT_DEPTH;
+            }
+
+            @Override
+            public void writeRow(final int componentIndex, final int x, final int y, final int[] samples, final int length) {
+                int offset = mBandOffsets[componentIndex] + (y - mComponentY0[componentIndex]) * mLineStrides[componentIndex]
+                        + (x - mComponentX0[componentIndex]) * mPixelStride;
+                if (mByteData != null) {
+                    for (int i = 0; i < length; ++i, offset += mPixelStride) {
+                        mByteData[offset] = (byte) samples[i];
+                    }
+                } else {
+                    for (int i = 0; i < length; ++i, offset += mPixelStride) {
+                        mShortData[offset] = (short) samples[i];
+                    }
+                }
+            }
+        };
+    }
+}
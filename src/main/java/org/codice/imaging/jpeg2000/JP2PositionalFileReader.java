@@ -0,0 +1,246 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * File reader using positional reads, for concurrent access.
+ *
+ * All reads are made with FileChannel.read(ByteBuffer, long), which does not
+ * use or change a shared file pointer. The read position used by the
+ * sequential JP2Reader methods belongs to this reader object only, and
+ * newCursor() provides further readers over the same open file, each with
+ * their own position. getByteBuffer() can be called from any number of
+ * threads at once without locking, so one open file can serve many tile
+ * requests in parallel.
+ *
+ * FileChannel closes itself when a thread reading from it is interrupted,
+ * which would break every other cursor. The interrupted read still fails,
+ * but the file is opened again for the next read, so cancelling one task
+ * does not affect the others.
+ *
+ * Closing any cursor closes the shared file.
+ */
+public class JP2PositionalFileReader implements JP2Reader, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JP2PositionalFileReader.class);
+
+    private static final int MAXIMUM_REOPEN_ATTEMPTS = 3;
+
+    private final SharedChannel mChannel;
+    private final long mLength;
+    private long mPosition = 0;
+
+    /**
+        Constructor for positional file reader.
+
+        @param file the File to read the JP2 file contents from.
+        @throws JP2ParsingException if file does not exist as a regular file, or some other error occurs during opening of the file.
+    */
+    public JP2PositionalFileReader(final File file) throws JP2ParsingException {
+        try {
+            mChannel = new SharedChannel(file.toPath());
+            mLength = mChannel.get().size();
+        } catch (IOException ex) {
+            LOG.warn(JP2FileReader.FILE_NOT_FOUND_EXCEPTION_MESSAGE + file.getPath(), ex);
+            throw new JP2ParsingException(file.getPath() + JP2FileReader.NOT_FOUND_MESSAGE_JOINER + ex.getMessage());
+        }
+    }
+
+    /**
+        Constructor for positional file reader.
+
+        @param filename the String specifying the JP2 file name to read contents from.
+        @throws JP2ParsingException if file does not exist as a regular file, or some other error occurs during opening of the file.
+    */
+    public JP2PositionalFileReader(final String filename) throws JP2ParsingException {
+        this(new File(filename));
+    }
+
+    private JP2PositionalFileReader(final SharedChannel channel, final long length) {
+        mChannel = channel;
+        mLength = length;
+    }
+
+    /**
+     * Create another reader over the same open file.
+     *
+     * The new reader starts at position zero, and its position is independent
+     * of this reader.
+     *
+     * @return new reader sharing this reader's file
+     */
+    public JP2PositionalFileReader newCursor() {
+        return new JP2PositionalFileReader(mChannel, mLength);
+    }
+
+    @Override
+    public void skipBytes(final int numOfBytesToSkip) throws JP2ParsingException {
+        if (numOfBytesToSkip > 0) {
+            mPosition = Math.min(mPosition + numOfBytesToSkip, mLength);
+        }
+    }
+
+    @Override
+    public byte readUnsignedByte() throws JP2ParsingException {
+        byte value = readAt(mPosition, PackageConstants.UNSIGNED_BYTE_LENGTH).get();
+        mPosition += PackageConstants.UNSIGNED_BYTE_LENGTH;
+        return value;
+    }
+
+    @Override
+    public int readUnsignedShort() throws JP2ParsingException {
+        int value = readAt(mPosition, PackageConstants.UNSIGNED_SHORT_LENGTH).getShort() & 0x0000FFFF;
+        mPosition += PackageConstants.UNSIGNED_SHORT_LENGTH;
+        return value;
+    }
+
+    @Override
+    public int readUnsignedInt() throws JP2ParsingException {
+        int value = readAt(mPosition, PackageConstants.UNSIGNED_INT_LENGTH).getInt();
+        mPosition += PackageConstants.UNSIGNED_INT_LENGTH;
+        return value;
+    }
+
+    @Override
+    public byte[] getBytes(final int byteArrayLength) throws JP2ParsingException {
+        byte[] bytes = readAt(mPosition, byteArrayLength).array();
+        mPosition += byteArrayLength;
+        return bytes;
+    }
+
+    @Override
+    public String getFixedLengthString(final int stringLength) throws JP2ParsingException {
+        return new String(getBytes(stringLength), StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public boolean hasDataRemaining() throws JP2ParsingException {
+        return mPosition < mLength;
+    }
+
+    @Override
+    public long getPosition() throws JP2ParsingException {
+        return mPosition;
+    }
+
+    @Override
+    public void seek(final long position) throws JP2ParsingException {
+        if (position < 0 || position > mLength) {
+            throw new JP2ParsingException("Unable to seek to " + position + ", file length is " + mLength);
+        }
+        mPosition = position;
+    }
+
+    @Override
+    public long getLength() throws JP2ParsingException {
+        return mLength;
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer(final long position, final int length) throws JP2ParsingException {
+        return readAt(position, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    private ByteBuffer readAt(final long position, final int length) throws JP2ParsingException {
+        if (position < 0 || length < 0 || position + length > mLength) {
+            LOG.warn("Could not read " + length + " bytes at offset " + position);
+            throw new JP2ParsingException("Unable to read " + length + " bytes at offset " + position + ", file length is " + mLength);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            FileChannel channel = mChannel.get();
+            int attempts = 0;
+            while (buffer.hasRemaining()) {
+                try {
+                    int numBytesRead = channel.read(buffer, position + buffer.position());
+                    if (numBytesRead < 0) {
+                        throw new IOException("Unexpected end of file - expected " + length + ", but only got " + buffer.position());
+                    }
+                } catch (ClosedChannelException ex) {
+                    // Closed by an interrupt, either of this thread (which should stop) or of another one
+                    if (Thread.currentThread().isInterrupted() || ++attempts > MAXIMUM_REOPEN_ATTEMPTS) {
+                        throw ex;
+                    }
+                    channel = mChannel.reopen(channel);
+                }
+            }
+        } catch (IOException ex) {
+            LOG.warn("Unable to read byte range", ex);
+            throw new JP2ParsingException("Unable to read " + length + " bytes at offset " + position + ", exception was:" + ex.getMessage());
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // The open file shared by all cursors, which is opened again if an interrupt closes it
+    private static final class SharedChannel {
+
+        private final Path mPath;
+        private volatile FileChannel mChannel;
+        private boolean mClosed = false;
+
+        SharedChannel(final Path path) throws IOException {
+            mPath = path;
+            mChannel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+
+        FileChannel get() {
+            return mChannel;
+        }
+
+        synchronized FileChannel reopen(final FileChannel failed) throws IOException {
+            if (mClosed) {
+                throw new ClosedChannelException();
+            }
+            // Another thread may already have opened it again
+            if (mChannel == failed) {
+                LOG.debug("Reopening " + mPath + " after an interrupted read");
+                mChannel = FileChannel.open(mPath, StandardOpenOption.READ);
+            }
+            return mChannel;
+        }
+
+        synchronized void close() throws IOException {
+            mClosed = true;
+            mChannel.close();
+        }
+    }
+}
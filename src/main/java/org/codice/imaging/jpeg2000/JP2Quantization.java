@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+/**
+ * Quantization parameters from a QCD or QCC marker segment.
+ *
+ * See Section A.6.4 and A.6.5, and Annex E.
+ */
+public class JP2Quantization {
+
+    public static final int NO_QUANTIZATION = 0;
+    public static final int SCALAR_DERIVED = 1;
+    public static final int SCALAR_EXPOUNDED = 2;
+
+    private static final int STYLE_MASK = 0x1F;
+    private static final int GUARD_BITS_SHIFT = 5;
+    private static final int EXPONENT_SHIFT = 11;
+    private static final int MANTISSA_MASK = 0x07FF;
+    private static final int NO_QUANTIZATION_EXPONENT_SHIFT = 3;
+
+    private int mQuantizationStyle = NO_QUANTIZATION;
+    private int mNumberOfGuardBits = 0;
+    private int[] mExponents = new int[0];
+    private int[] mMantissas = new int[0];
+
+    JP2Quantization() {
+    }
+
+    /**
+     * Parse the quantization style and step sizes of a QCD or QCC marker segment.
+     *
+     * @param reader the reader, positioned at Sqcd or Sqcc
+     * @param length the number of bytes from Sqcd or Sqcc to the end of the marker segment
+     * @return the quantization parameters
+     * @throws JP2ParsingException if the segment could not be read
+     */
+    static JP2Quantization parse(final JP2Reader reader, final int length) throws JP2ParsingException {
+        JP2Quantization quantization = new JP2Quantization();
+        int quantizationStyle = reader.readUnsignedByte() & 0xFF;
+        quantization.mQuantizationStyle = quantizationStyle & STYLE_MASK;
+        quantization.mNumberOfGuardBits = quantizationStyle >> GUARD_BITS_SHIFT;
+        if (quantization.mQuantizationStyle == NO_QUANTIZATION) {
+            int numberOfSteps = length - PackageConstants.UNSIGNED_BYTE_LENGTH;
+            quantization.mExponents = new int[numberOfSteps];
+            quantization.mMantissas = new int[numberOfSteps];
+            for (int i = 0; i < numberOfSteps; ++i) {
+                quantization.mExponents[i] = (reader.readUnsignedByte() & 0xFF) >> NO_QUANTIZATION_EXPONENT_SHIFT;
+            }
+        } else {
+            // Scalar derived (one value) or scalar expounded (one per subband)
+            int numberOfSteps = (length - PackageConstants.UNSIGNED_BYTE_LENGTH) / PackageConstants.UNSIGNED_SHORT_LENGTH;
+            quantization.mExponents = new int[numberOfSteps];
+            quantization.mMantissas = new int[numberOfSteps];
+            for (int i = 0; i < numberOfSteps; ++i) {
+                int stepSize = reader.readUnsignedShort();
+                quantization.mExponents[i] = stepSize >> EXPONENT_SHIFT;
+                quantization.mMantissas[i] = stepSize & MANTISSA_MASK;
+            }
+        }
+        if (quantization.mExponents.length == 0) {
+            throw new JP2ParsingException("Quantization marker segment has no step sizes");
+        }
+        return quantization;
+    }
+
+    /**
+     * Get the quantization style.
+     *
+     * @return NO_QUANTIZATION, SCALAR_DERIVED or SCALAR_EXPOUNDED
+     */
+    public int getQuantizationStyle() {
+        return mQuantizationStyle;
+    }
+
+    public int getNumberOfGuardBits() {
+        return mNumberOfGuardBits;
+    }
+
+    /**
+     * Get the number of step sizes given in the marker segment.
+     *
+     * @return number of step sizes, which is 1 for scalar derived quantization
+     */
+    public int getNumberOfStepSizes() {
+        return mExponents.length;
+    }
+
+    /**
+     * Get a step size exponent as given in the marker segment.
+     *
+     * @param stepSizeIndex the index in subband order
+     * @return the exponent
+     */
+    public int getExponent(final int stepSizeIndex) {
+        return mExponents[stepSizeIndex];
+    }
+
+    /**
+     * Get a step size mantissa as given in the marker segment.
+     *
+     * @param stepSizeIndex the index in subband order
+     * @return the mantissa, which is always zero for no quantization
+     */
+    public int getMantissa(final int stepSizeIndex) {
+        return mMantissas[stepSizeIndex];
+    }
+
+    /**
+     * Get the step size exponent for a sub-band.
+     *
+     * For scalar derived quantization, this is worked out from the LL value
+     * using Equation E-5.
+     *
+     * @param resolutionLevel the resolution level of the sub-band, 0 being the lowest
+     * @param bandIndex the sub-band within the resolution (0 for LL, or 0, 1, 2 for HL, LH, HH)
+     * @return the exponent (epsilon b)
+     * @throws JP2ParsingException if there is no step size for the sub-band
+     */
+    public int getBandExponent(final int resolutionLevel, final int bandIndex) throws JP2ParsingException {
+        if (mQuantizationStyle == SCALAR_DERIVED) {
+            // nb is NL for resolution level 0 and 1, then decreases by one per level.
+            return mExponents[0] - Math.max(resolutionLevel - 1, 0);
+        }
+        return mExponents[getStepSizeIndex(resolutionLevel, bandIndex)];
+    }
+
+    /**
+     * Get the step size mantissa for a sub-band.
+     *
+     * @param resolutionLevel the resolution level of the sub-band, 0 being the lowest
+     * @param bandIndex the sub-band within the resolution (0 for LL, or 0, 1, 2 for HL, LH, HH)
+     * @return the mantissa (mu b)
+     * @throws JP2ParsingException if there is no step size for the sub-band
+     */
+    public int getBandMantissa(final int resolutionLevel, final int bandIndex) throws JP2ParsingException {
+        if (mQuantizationStyle == SCALAR_DERIVED) {
+            return mMantissas[0];
+        }
+        return mMantissas[getStepSizeIndex(resolutionLevel, bandIndex)];
+    }
+
+    /**
+     * Get the number of magnitude bit-planes for a sub-band.
+     *
+     * @param resolutionLevel the resolution level of the sub-band, 0 being the lowest
+     * @param bandIndex the sub-band within the resolution (0 for LL, or 0, 1, 2 for HL, LH, HH)
+     * @return Mb from Equation E-2
+     * @throws JP2ParsingException if there is no step size for the sub-band
+     */
+    public int getMagnitudeBitPlanes(final int resolutionLevel, final int bandIndex) throws JP2ParsingException {
+        return mNumberOfGuardBits + getBandExponent(resolutionLevel, bandIndex) - 1;
+    }
+
+    private int getStepSizeIndex(final int resolutionLevel, final int bandIndex) throws JP2ParsingException {
+        int stepSizeIndex = (resolutionLevel == 0) ? 0 : 3 * (resolutionLevel - 1) + 1 + bandIndex;
+        if (stepSizeIndex >= mExponents.length) {
+            throw new JP2ParsingException("No quantization step size for resolution level " + resolutionLevel + ", sub-band " + bandIndex);
+        }
+        return stepSizeIndex;
+    }
+}
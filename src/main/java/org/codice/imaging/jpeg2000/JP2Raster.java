@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+/**
+ * Decoded samples for a whole image.
+ *
+ * There is one plane of samples per component, in raster order, covering
+ * the component in its own (possibly sub-sampled) coordinate system. See
+ * Equation B-12. If the resolution is reduced, the coordinates are those
+ * of the reduced resolution, and if only a region is decoded, the planes
+ * cover just that region. Components that are not decoded have empty
+ * planes. Tiles are decoded straight into the planes, so
+ * a raster can be shared by decoders working on different tiles at the same
+ * time.
+ */
+public class JP2Raster {
+
+    private final JP2DecodeParam mDecodeParam;
+    private final int mNumberOfComponents;
+    private final int[] mComponentX0;
+    private final int[] mComponentY0;
+    private final int[] mComponentWidths;
+    private final int[] mComponentHeights;
+    private final int[][] mSamples;
+
+    /**
+     * Create a raster big enough for a whole image.
+     *
+     * @param codeStream the code stream that will be decoded into the raster
+     * @throws JP2ParsingException if a component plane would be too large
+     */
+    public JP2Raster(final JP2CodeStream codeStream) throws JP2ParsingException {
+        this(codeStream, new JP2DecodeParam());
+    }
+
+    /**
+     * Create a raster for decoding part of an image.
+     *
+     * @param codeStream the code stream that will be decoded into the raster
+     * @param param the part of the image to decode, which is copied
+     * @throws JP2ParsingException if a component plane would be too large, or the region is outside the image
+     */
+    public JP2Raster(final JP2CodeStream codeStream, final JP2DecodeParam param) throws JP2ParsingException {
+        mDecodeParam = new JP2DecodeParam(param);
+        mNumberOfComponents = codeStream.getNumberOfComponentsInImage();
+        mComponentX0 = new int[mNumberOfComponents];
+        mComponentY0 = new int[mNumberOfComponents];
+        mComponentWidths = new int[mNumberOfComponents];
+        mComponentHeights = new int[mNumberOfComponents];
+        mSamples = new int[mNumberOfComponents][];
+        for (int c = 0; c < mNumberOfComponents; ++c) {
+            int[] bounds = param.getComponentBounds(codeStream, c);
+            mComponentX0[c] = bounds[0];
+            mComponentY0[c] = bounds[1];
+            if (param.isComponentDecoded(c)) {
+                mComponentWidths[c] = bounds[2] - bounds[0];
+                mComponentHeights[c] = bounds[3] - bounds[1];
+            }
+            long length = (long) mComponentWidths[c] * mComponentHeights[c];
+            if (length > Integer.MAX_VALUE) {
+                throw new JP2ParsingException("Component " + c + " too large for a raster: " + mComponentWidths[c] + "x" + mComponentHeights[c]);
+            }
+            mSamples[c] = new int[(int) length];
+        }
+    }
+
+    /**
+     * Get the options that the raster was created for.
+     *
+     * @return the decoding options
+     */
+    public JP2DecodeParam getDecodeParam() {
+        return mDecodeParam;
+    }
+
+    public int getNumberOfComponents() {
+        return mNumberOfComponents;
+    }
+
+    /**
+     * Get the horizontal position of the first sample of a component.
+     *
+     * @param componentIndex the component (zero based)
+     * @return the x coordinate, in the component coordinate system
+     */
+    public int getX0(final int componentIndex) {
+        return mComponentX0[componentIndex];
+    }
+
+    /**
+     * Get the vertical position of the first sample of a component.
+     *
+     * @param componentIndex the component (zero based)
+     * @return the y coordinate, in the component coordinate system
+     */
+    public int getY0(final int componentIndex) {
+        return mComponentY0[componentIndex];
+    }
+
+    /**
+     * Get the width of a component, which is also the row stride of the samples.
+     *
+     * @param componentIndex the component (zero based)
+     * @return the width in samples
+     */
+    public int getWidth(final int componentIndex) {
+        return mComponentWidths[componentIndex];
+    }
+
+    public int getHeight(final int componentIndex) {
+        return mComponentHeights[componentIndex];
+    }
+
+    /**
+     * Get the samples of a component.
+     *
+     * @param componentIndex the component (zero based)
+     * @return the samples, in raster order
+     */
+    public int[] getSamples(final int componentIndex) {
+        return mSamples[componentIndex];
+    }
+
+    // Decoded tiles are copied straight into the planes
+    JP2SampleWriter getWriter() {
+        return new JP2SampleWriter() {
+            @Override
+            public int getBitDepth(final int componentIndex) {
+                return Integer.SIZE;
+            }
+
+            @Override
+            public void writeRow(final int componentIndex, final int x, final int y, final int[] samples, final int length) {
+                int offset = (y - mComponentY0[componentIndex]) * mComponentWidths[componentIndex] + x - mComponentX0[componentIndex];
+                System.arraycopy(samples, 0, mSamples[componentIndex], offset, length);
+            }
+        };
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.awt.Point;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+
+/**
+ * Decoded samples written straight into storage that belongs to the caller.
+ *
+ * The storage can be a java.awt.image.WritableRaster with a component
+ * sample model (so that a BufferedImage can be decoded into in place), a
+ * java.awt.image.DataBuffer, or a ByteBuffer (which can be direct, for
+ * handing to native code). Tiles are written as they are decoded, with the
+ * component transformation, level shift and conversion to the storage data
+ * type done on the way, so the image is never held as int planes as well.
+ *
+ * The position of a sample is given by a band offset, a pixel stride and a
+ * line stride, as for java.awt.image.ComponentSampleModel. Bands are the
+ * decoded components in the order they were picked. Components with more
+ * bits than the storage are shifted down to fit, as for JP2PixelRaster.
+ */
+public class JP2RasterOutput {
+
+    private static final int BYTE_BIT_DEPTH = 8;
+    private static final int SHORT_BIT_DEPTH = 16;
+    private static final int MAXIMUM_INTERLEAVED_COMPONENTS = 4;
+    private static final int BITS_PER_COMPONENT_VARY = 0xFF;
+    private static final int BITS_PER_COMPONENT_SIGNED = 0x80;
+    private static final int BITS_PER_COMPONENT_MASK = 0x7F;
+
+    private final JP2DecodeParam mDecodeParam;
+    private final int mBitDepth;
+    private final int[] mComponentX0;
+    private final int[] mComponentY0;
+    private final int[] mWidths;
+    private final int[] mHeights;
+    private final int[] mOrigins;
+    private final int[] mLineStrides;
+    private final int[] mPixelStrides;
+    // Only one of these is used, indexed by component
+    private final byte[][] mByteData;
+    private final short[][] mShortData;
+    private final int[][] mIntData;
+    private final ByteBuffer mByteBuffer;
+
+    /**
+     * Create an output that fills a raster with the decoded samples, from its top left corner.
+     *
+     * @param codeStream the code stream that will be decoded
+     * @param param the part of the image to decode, which is copied
+     * @param raster the raster to write into, with one band for each component decoded
+     * @throws JP2ParsingException if the region is outside the image
+     */
+    public JP2RasterOutput(final JP2CodeStream codeStream, final JP2DecodeParam param, final WritableRaster raster) throws JP2ParsingException {
+        this(codeStream, param, raster, raster.getMinX(), raster.getMinY(), null);
+    }
+
+    /**
+     * Create an output that writes the decoded samples into part of a raster.
+     *
+     * Samples that fall outside the raster are not written.
+     *
+     * @param codeStream the code stream that will be decoded
+     * @param param the part of the image to decode, which is copied
+     * @param raster the raster to write into, which must have a
+     * java.awt.image.ComponentSampleModel and a byte, short, unsigned short or int data buffer
+     * @param x where the first sample of each component goes in the raster
+     * @param y where the first row of each component goes in the raster
+     * @param bands the raster band for each component decoded, or null for the first bands in order
+     * @throws JP2ParsingException if the region is outside the image
+     */
+    public JP2RasterOutput(final JP2CodeStream codeStream, final JP2DecodeParam param, final WritableRaster raster,
+            final int x, final int y, final int[] bands) throws JP2ParsingException {
+        this(codeStream, param, getBitDepth(raster.getDataBuffer()), raster.getDataBuffer(), null);
+        if (!(raster.getSampleModel() instanceof ComponentSampleModel)) {
+            throw new IllegalArgumentException("Raster does not have a component sample model");
+        }
+        if (x < raster.getMinX() || y < raster.getMinY()) {
+            throw new IllegalArgumentException("Position is outside the raster: " + x + ", " + y);
+        }
+        ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        int[] components = getComponents(codeStream, param);
+        if (bands != null && bands.length != components.length) {
+            throw new IllegalArgumentException("Need a band for each of the " + components.length + " components decoded");
+        }
+        for (int i = 0; i < components.length; ++i) {
+            int c = components[i];
+            int band = (bands == null) ? i : bands[i];
+            if (band < 0 || band >= raster.getNumBands()) {
+                throw new IllegalArgumentException("No band " + band + " in raster");
+            }
+            // Clip to the raster
+            mWidths[c] = Math.max(0, Math.min(mWidths[c], raster.getMinX() + raster.getWidth() - x));
+            mHeights[c] = Math.max(0, Math.min(mHeights[c], raster.getMinY() + raster.getHeight() - y));
+            int bank = sampleModel.getBankIndices()[band];
+            mOrigins[c] = raster.getDataBuffer().getOffsets()[bank]
+                    + sampleModel.getOffset(x - raster.getSampleModelTranslateX(), y - raster.getSampleModelTranslateY(), band);
+            mLineStrides[c] = sampleModel.getScanlineStride();
+            mPixelStrides[c] = sampleModel.getPixelStride();
+            setBank(raster.getDataBuffer(), c, bank);
+        }
+    }
+
+    /**
+     * Create an output that writes the decoded samples into a data buffer.
+     *
+     * @param codeStream the code stream that will be decoded
+     * @param param the part of the image to decode, which is copied
+     * @param dataBuffer the buffer to write into, of byte, short, unsigned short or int type
+     * @param bankIndices the bank for each component decoded, or null for bank 0
+     * @param bandOffsets the position of the first sample of each component decoded, relative to the start of its bank
+     * @param pixelStride the number of elements from one sample of a component to the next
+     * @param lineStride the number of elements from one row of a component to the next
+     * @throws JP2ParsingException if the region is outside the image
+     */
+    public JP2RasterOutput(final JP2CodeStream codeStream, final JP2DecodeParam param, final DataBuffer dataBuffer, final int[] bankIndices,
+            final int[] bandOffsets, final int pixelStride, final int lineStride) throws JP2ParsingException {
+        this(codeStream, param, getBitDepth(dataBuffer), dataBuffer, null);
+        int[] components = getComponents(codeStream, param);
+        if (bandOffsets.length != components.length || (bankIndices != null && bankIndices.length != components.length)) {
+            throw new IllegalArgumentException("Need a band offset for each of the " + components.length + " components decoded");
+        }
+        for (int i = 0; i < components.length; ++i) {
+            int c = components[i];
+            int bank = (bankIndices == null) ? 0 : bankIndices[i];
+            if (bank < 0 || bank >= dataBuffer.getNumBanks()) {
+                throw new IllegalArgumentException("No bank " + bank + " in data buffer");
+            }
+            mOrigins[c] = dataBuffer.getOffsets()[bank] + bandOffsets[i];
+            mLineStrides[c] = lineStride;
+            mPixelStrides[c] = pixelStride;
+            setBank(dataBuffer, c, bank);
+            // Offsets are relative to the bank offset, so the samples run from there
+            checkStorage(c, dataBuffer.getOffsets()[bank], dataBuffer.getOffsets()[bank] + dataBuffer.getSize());
+        }
+    }
+
+    /**
+     * Create an output that writes the decoded samples into a byte buffer.
+     *
+     * Samples are written at absolute positions, so the position and limit
+     * of the buffer are not changed. 16 bit samples use the buffer's byte order.
+     *
+     * @param codeStream the code stream that will be decoded
+     * @param param the part of the image to decode, which is copied
+     * @param buffer the buffer to write into
+     * @param bitDepth 8 or 16 bits for each sample
+     * @param bandOffsets the position of the first sample of each component decoded, in samples
+     * @param pixelStride the number of samples from one sample of a component to the next
+     * @param lineStride the number of samples from one row of a component to the next
+     * @throws JP2ParsingException if the region is outside the image
+     */
+    public JP2RasterOutput(final JP2CodeStream codeStream, final JP2DecodeParam param, final ByteBuffer buffer, final int bitDepth,
+            final int[] bandOffsets, final int pixelStride, final int lineStride) throws JP2ParsingException {
+        this(codeStream, param, bitDepth, null, buffer);
+        if (bitDepth != BYTE_BIT_DEPTH && bitDepth != SHORT_BIT_DEPTH) {
+            throw new IllegalArgumentException("Byte buffers hold 8 or 16 bit samples, not " + bitDepth);
+        }
+        if (buffer.isReadOnly()) {
+            throw new IllegalArgumentException("Buffer is read only");
+        }
+        int[] components = getComponents(codeStream, param);
+        if (bandOffsets.length != components.length) {
+            throw new IllegalArgumentException("Need a band offset for each of the " + components.length + " components decoded");
+        }
+        for (int i = 0; i < components.length; ++i) {
+            int c = components[i];
+            mOrigins[c] = bandOffsets[i];
+            mLineStrides[c] = lineStride;
+            mPixelStrides[c] = pixelStride;
+            checkStorage(c, 0, buffer.capacity() / (bitDepth / BYTE_BIT_DEPTH));
+        }
+    }
+
+    // Sets up the component bounds, leaving the layout to the public constructors
+    private JP2RasterOutput(final JP2CodeStream codeStream, final JP2DecodeParam param, final int bitDepth,
+            final DataBuffer dataBuffer, final ByteBuffer byteBuffer) throws JP2ParsingException {
+        mDecodeParam = new JP2DecodeParam(param);
+        mBitDepth = bitDepth;
+        int numberOfComponents = codeStream.getNumberOfComponentsInImage();
+        mComponentX0 = new int[numberOfComponents];
+        mComponentY0 = new int[numberOfComponents];
+        mWidths = new int[numberOfComponents];
+        mHeights = new int[numberOfComponents];
+        mOrigins = new int[numberOfComponents];
+        mLineStrides = new int[numberOfComponents];
+        mPixelStrides = new int[numberOfComponents];
+        for (int c : getComponents(codeStream, param)) {
+            int[] bounds = param.getComponentBounds(codeStream, c);
+            mComponentX0[c] = bounds[0];
+            mComponentY0[c] = bounds[1];
+            mWidths[c] = bounds[2] - bounds[0];
+            mHeights[c] = bounds[3] - bounds[1];
+        }
+        mByteData = (dataBuffer instanceof DataBufferByte) ? new byte[numberOfComponents][] : null;
+        mShortData = (dataBuffer instanceof DataBufferShort || dataBuffer instanceof DataBufferUShort) ? new short[numberOfComponents][] : null;
+        mIntData = (dataBuffer instanceof DataBufferInt) ? new int[numberOfComponents][] : null;
+        mByteBuffer = byteBuffer;
+    }
+
+    /**
+     * Create a raster to decode part of an image into.
+     *
+     * The layout follows the image header. Up to four components (such as
+     * grey, RGB or RGB with alpha) that are all the same size are
+     * interleaved, so the raster suits a java.awt.image.BufferedImage.
+     * Otherwise each component has its own bank, as large as the largest
+     * component. Components of up to 8 bits are held as bytes, up to 16
+     * bits as shorts (signed or unsigned as the components are) and any
+     * more as ints.
+     *
+     * @param parseStrategy the parsed image
+     * @param param the part of the image to decode
+     * @return a raster with a band for each component decoded, and its top left corner at 0, 0
+     * @throws JP2ParsingException if the region is outside the image
+     */
+    public static WritableRaster createRaster(final JP2ParseStrategy parseStrategy, final JP2DecodeParam param) throws JP2ParsingException {
+        JP2CodeStream codeStream = parseStrategy.getCodeStream();
+        if (codeStream == null) {
+            throw new JP2ParsingException("No code stream in image");
+        }
+        int[] components = getComponents(codeStream, param);
+        int bitsPerComponent = parseStrategy.getBitsPerComponent();
+        int bitDepth = 0;
+        boolean signed = false;
+        if (bitsPerComponent == BITS_PER_COMPONENT_VARY) {
+            for (int c : components) {
+                bitDepth = Math.max(bitDepth, codeStream.getComponentBitDepth(c));
+                signed |= codeStream.isComponentSigned(c);
+            }
+        } else {
+            bitDepth = (bitsPerComponent & BITS_PER_COMPONENT_MASK) + 1;
+            signed = (bitsPerComponent & BITS_PER_COMPONENT_SIGNED) != 0;
+        }
+        int dataType;
+        if (bitDepth <= BYTE_BIT_DEPTH && !signed) {
+            dataType = DataBuffer.TYPE_BYTE;
+        } else if (bitDepth <= SHORT_BIT_DEPTH) {
+            dataType = signed ? DataBuffer.TYPE_SHORT : DataBuffer.TYPE_USHORT;
+        } else {
+            dataType = DataBuffer.TYPE_INT;
+        }
+        int width = 0;
+        int height = 0;
+        boolean sameSize = true;
+        for (int c : components) {
+            int[] bounds = param.getComponentBounds(codeStream, c);
+            int componentWidth = bounds[2] - bounds[0];
+            int componentHeight = bounds[3] - bounds[1];
+            if (c != components[0] && (componentWidth != width || componentHeight != height)) {
+                sameSize = false;
+            }
+            width = Math.max(width, componentWidth);
+            height = Math.max(height, componentHeight);
+        }
+        SampleModel sampleModel;
+        if (sameSize && parseStrategy.getNumberOfComponents() <= MAXIMUM_INTERLEAVED_COMPONENTS) {
+            int[] bandOffsets = new int[components.length];
+            for (int band = 0; band < bandOffsets.length; ++band) {
+                bandOffsets[band] = band;
+            }
+            sampleModel = new PixelInterleavedSampleModel(dataType, Math.max(1, width), Math.max(1, height),
+                    components.length, Math.max(1, width) * components.length, bandOffsets);
+        } else {
+            sampleModel = new BandedSampleModel(dataType, Math.max(1, width), Math.max(1, height), components.length);
+        }
+        return Raster.createWritableRaster(sampleModel, new Point());
+    }
+
+    /**
+     * Get the options that the output was created for.
+     *
+     * @return the part of the image that is decoded into this output
+     */
+    public JP2DecodeParam getDecodeParam() {
+        return mDecodeParam;
+    }
+
+    // The decoded components, in the order they were picked
+    private static int[] getComponents(final JP2CodeStream codeStream, final JP2DecodeParam param) {
+        int[] components = param.getComponents();
+        if (components == null) {
+            components = new int[codeStream.getNumberOfComponentsInImage()];
+            for (int c = 0; c < components.length; ++c) {
+                components[c] = c;
+            }
+        }
+        return components;
+    }
+
+    private static int getBitDepth(final DataBuffer dataBuffer) {
+        switch (dataBuffer.getDataType()) {
+            case DataBuffer.TYPE_BYTE:
+                return BYTE_BIT_DEPTH;
+            case DataBuffer.TYPE_SHORT:
+            case DataBuffer.TYPE_USHORT:
+                return SHORT_BIT_DEPTH;
+            case DataBuffer.TYPE_INT:
+                return Integer.SIZE;
+            default:
+                throw new IllegalArgumentException("Unsupported data buffer type: " + dataBuffer.getDataType());
+        }
+    }
+
+    private void setBank(final DataBuffer dataBuffer, final int componentIndex, final int bank) {
+        if (dataBuffer instanceof DataBufferByte) {
+            mByteData[componentIndex] = ((DataBufferByte) dataBuffer).getData(bank);
+        } else if (dataBuffer instanceof DataBufferUShort) {
+            mShortData[componentIndex] = ((DataBufferUShort) dataBuffer).getData(bank);
+        } else if (dataBuffer instanceof DataBufferShort) {
+            mShortData[componentIndex] = ((DataBufferShort) dataBuffer).getData(bank);
+        } else if (dataBuffer instanceof DataBufferInt) {
+            mIntData[componentIndex] = ((DataBufferInt) dataBuffer).getData(bank);
+        } else {
+            throw new IllegalArgumentException("Unsupported data buffer: " + dataBuffer.getClass().getName());
+        }
+    }
+
+    // Every sample must land inside the storage, which may be shared with other bands
+    private void checkStorage(final int componentIndex, final int start, final int end) {
+        if (mWidths[componentIndex] == 0 || mHeights[componentIndex] == 0) {
+            return;
+        }
+        long last = mOrigins[componentIndex] + (long) (mHeights[componentIndex] - 1) * mLineStrides[componentIndex]
+                + (long) (mWidths[componentIndex] - 1) * mPixelStrides[componentIndex];
+        if (mOrigins[componentIndex] < start || last >= end) {
+            throw new IllegalArgumentException("Component " + componentIndex + " does not fit in samples " + start + " to " + end);
+        }
+    }
+
+    JP2SampleWriter getWriter() {
+        return new JP2SampleWriter() {
+            @Override
+            public int getBitDepth(final int componentIndex) {
+                return mBitDepth;
+            }
+
+            @Override
+            public void writeRow(final int componentIndex, final int x, final int y, final int[] samples, final int length) {
+                int column = x - mComponentX0[componentIndex];
+                int row = y - mComponentY0[componentIndex];
+                int count = Math.min(length, mWidths[componentIndex] - column);
+                if (row >= mHeights[componentIndex] || count <= 0) {
+                    return;
+                }
+                int stride = mPixelStrides[componentIndex];
+                int offset = mOrigins[componentIndex] + row * mLineStrides[componentIndex] + column * stride;
+                if (mByteData != null) {
+                    byte[] data = mByteData[componentIndex];
+                    for (int i = 0; i < count; ++i, offset += stride) {
+                        data[offset] = (byte) samples[i];
+                    }
+                } else if (mShortData != null) {
+                    short[] data = mShortData[componentIndex];
+                    for (int i = 0; i < count; ++i, offset += stride) {
+                        data[offset] = (short) samples[i];
+                    }
+                } else if (mIntData != null) {
+                    int[] data = mIntData[componentIndex];
+                    for (int i = 0; i < count; ++i, offset += stride) {
+                        data[offset] = samples[i];
+                    }
+                } else if (mBitDepth == BYTE_BIT_DEPTH) {
+                    for (int i = 0; i < count; ++i, offset += stride) {
+                        mByteBuffer.put(offset, (byte) samples[i]);
+                    }
+                } else {
+                    for (int i = 0; i < count; ++i, offset += stride) {
+                        mByteBuffer.putShort(offset * 2, (short) samples[i]);
+                    }
+                }
+            }
+        };
+    }
+}
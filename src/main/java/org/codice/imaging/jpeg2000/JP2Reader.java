@@ -23,6 +23,8 @@
  */
 package org.codice.imaging.jpeg2000;
 
+import java.nio.ByteBuffer;
+
 /**
  *
  * @author bradh
@@ -42,4 +44,42 @@ public interface JP2Reader {
     public String getFixedLengthString(final int stringLength) throws JP2ParsingException;
 
     public boolean hasDataRemaining() throws JP2ParsingException;
+
+    /**
+     * Get the current read position, as an offset from the start of the data.
+     *
+     * @return the offset of the next byte to be read
+     * @throws JP2ParsingException if the position cannot be determined
+     */
+    public long getPosition() throws JP2ParsingException;
+
+    /**
+     * Move the read position.
+     *
+     * @param position the offset of the next byte to be read, from the start of the data
+     * @throws JP2ParsingException if the position is not valid for this reader
+     */
+    public void seek(final long position) throws JP2ParsingException;
+
+    /**
+     * Get the total number of bytes available to this reader.
+     *
+     * @return the length of the data in bytes
+     * @throws JP2ParsingException if the length cannot be determined
+     */
+    public long getLength() throws JP2ParsingException;
+
+    /**
+     * Get a range of bytes without changing the current read position.
+     *
+     * Implementations may return a read-only view onto their underlying
+     * storage rather than a copy, so callers must not assume the buffer is
+     * writable.
+     *
+     * @param position the offset of the first byte, from the start of the data
+     * @param length the number of bytes
+     * @return buffer positioned at zero, with the requested number of bytes remaining
+     * @throws JP2ParsingException if the range could not be read
+     */
+    public ByteBuffer getByteBuffer(final long position, final int length) throws JP2ParsingException;
 }
@@ -0,0 +1,56 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+/**
+ * Where the last stage of tile decoding writes its samples.
+ *
+ * Samples arrive a row of one component at a time, already level shifted,
+ * clipped to the component bit depth and converted to the output bit depth.
+ * Rows from different tiles, and from different rows of the same tile, may
+ * be written at the same time by different threads, but never overlap.
+ */
+interface JP2SampleWriter {
+
+    /**
+     * Get the bit depth of the output samples.
+     *
+     * Components with more bits are shifted down to this depth.
+     *
+     * @param componentIndex the component (zero based)
+     * @return the number of bits per output sample
+     */
+    int getBitDepth(int componentIndex);
+
+    /**
+     * Write a row of samples.
+     *
+     * @param componentIndex the component (zero based)
+     * @param x the horizontal position of the first sample, in the component coordinate system at the decoded resolution
+     * @param y the vertical position of the row, in the same coordinate system
+     * @param samples the samples, from index 0
+     * @param length the number of samples
+     */
+    void writeRow(int componentIndex, int x, int y, int[] samples, int length);
+}
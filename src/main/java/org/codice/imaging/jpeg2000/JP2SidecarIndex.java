@@ -0,0 +1,424 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A sidecar file holding the results of indexing an image.
+ *
+ * Finding the tile-parts of a code stream without TLM markers means
+ * visiting every SOT marker, which for an image with many tiles is a lot of
+ * small reads spread over the whole file. The sidecar, written next to the
+ * image as image.jp2.idx, records the top level box directory, where the
+ * code stream and its main header are, and the location of every
+ * tile-part. Reopening the image then reads the sidecar in one go and
+ * parses just the boxes and the main header.
+ *
+ * The sidecar records the size and modification time of the image, and a
+ * CRC-32 of everything up to the first tile-part (the boxes before the code
+ * stream, and the main header). If any of these do not match, the sidecar
+ * is stale and is ignored, and the image is indexed again. Sidecars are
+ * only written when asked for, so reading an image does not change its
+ * directory unless the caller wants it to.
+ *
+ * The tile-parts of a code stream follow each other, so only their tile
+ * indexes and lengths are stored, six bytes per tile-part.
+ */
+public class JP2SidecarIndex {
+
+    /** Added to the image file name to give the sidecar file name. */
+    public static final String SUFFIX = ".idx";
+
+    private static final Logger LOG = LoggerFactory.getLogger(JP2SidecarIndex.class);
+
+    private static final int MAGIC = 0x4A503249; // "JP2I"
+    private static final int VERSION = 1;
+    private static final int MAXIMUM_TILE_INDEX = 0xFFFF;
+    private static final long MAXIMUM_TILE_PART_LENGTH = 0xFFFFFFFFL;
+    private static final int BOX_RECORD_LENGTH = PackageConstants.BOX_SIGNATURE_LENGTH + 2 * Long.SIZE / Byte.SIZE;
+    private static final int TILE_PART_RECORD_LENGTH = (Short.SIZE + Integer.SIZE) / Byte.SIZE;
+
+    private long mFileLength;
+    private long mLastModified;
+    private long mChecksum;
+    private long mCodestreamOffset;
+    private long mCodestreamLength;
+    private long mFirstTilePartOffset;
+    private String[] mBoxTypes;
+    private long[] mBoxOffsets;
+    private long[] mBoxLengths;
+    private final JP2TileIndex mTileIndex = new JP2TileIndex();
+
+    private JP2SidecarIndex() {
+    }
+
+    /**
+     * Get the sidecar file for an image.
+     *
+     * @param image the image file
+     * @return the sidecar file, which may not exist
+     */
+    public static File getIndexFile(final File image) {
+        return new File(image.getPath() + SUFFIX);
+    }
+
+    /**
+     * Parse a JP2 file, using its sidecar index if there is a valid one.
+     *
+     * If there is no valid sidecar, the file is parsed in full. No sidecar is written.
+     *
+     * @param image the JP2 file
+     * @return the parse results
+     * @throws JP2ParsingException if the file could not be read or parsed
+     */
+    public static JP2ParseStrategy parse(final File image) throws JP2ParsingException {
+        return parse(image, false);
+    }
+
+    /**
+     * Parse a JP2 file, using its sidecar index if there is a valid one.
+     *
+     * If there is no valid sidecar, the file is parsed in full, and a new
+     * sidecar can be written for next time. Failing to write the sidecar
+     * (for example, to a read only directory) is not an error.
+     *
+     * @param image the JP2 file
+     * @param writeIndex true to write a sidecar if there is no valid one
+     * @return the parse results
+     * @throws JP2ParsingException if the file could not be read or parsed
+     */
+    public static JP2ParseStrategy parse(final File image, final boolean writeIndex) throws JP2ParsingException {
+        JP2Reader reader = new JP2MappedFileReader(image);
+        JP2SidecarIndex index = read(image, reader);
+        if (index != null) {
+            try {
+                JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+                parseStrategy.setTileIndex(index.mTileIndex);
+                JP2Parser.parse(reader, parseStrategy);
+                return parseStrategy;
+            } catch (JP2ParsingException ex) {
+                LOG.debug("Ignoring sidecar index for " + image.getPath(), ex);
+                reader.seek(0);
+            }
+        }
+        JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(reader, parseStrategy);
+        if (writeIndex) {
+            tryWrite(image, reader, parseStrategy, parseStrategy.getCodeStream());
+        }
+        return parseStrategy;
+    }
+
+    /**
+     * Parse a bare code stream file, using its sidecar index if there is a valid one.
+     *
+     * As for parse(), no sidecar is written.
+     *
+     * @param image the code stream file
+     * @return the code stream
+     * @throws JP2ParsingException if the file could not be read or parsed
+     */
+    public static JP2CodeStream parseCodestream(final File image) throws JP2ParsingException {
+        return parseCodestream(image, false);
+    }
+
+    /**
+     * Parse a bare code stream file, using its sidecar index if there is a valid one.
+     *
+     * @param image the code stream file
+     * @param writeIndex true to write a sidecar if there is no valid one
+     * @return the code stream
+     * @throws JP2ParsingException if the file could not be read or parsed
+     */
+    public static JP2CodeStream parseCodestream(final File image, final boolean writeIndex) throws JP2ParsingException {
+        JP2Reader reader = new JP2MappedFileReader(image);
+        JP2SidecarIndex index = read(image, reader);
+        if (index != null) {
+            try {
+                return new JP2CodeStream(reader, reader.getLength(), index.mTileIndex);
+            } catch (JP2ParsingException ex) {
+                LOG.debug("Ignoring sidecar index for " + image.getPath(), ex);
+                reader.seek(0);
+            }
+        }
+        JP2CodeStream codeStream = JP2Parser.parseCodestream(reader, false);
+        if (writeIndex) {
+            tryWrite(image, reader, null, codeStream);
+        }
+        return codeStream;
+    }
+
+    /**
+     * Write the sidecar for a JP2 file.
+     *
+     * @param image the JP2 file
+     * @param parseStrategy the results of parsing the file, with the tile-parts indexed
+     * @throws JP2ParsingException if the sidecar could not be written
+     */
+    public static void write(final File image, final JP2ParseStrategy parseStrategy) throws JP2ParsingException {
+        write(image, new JP2MappedFileReader(image), parseStrategy, parseStrategy.getCodeStream());
+    }
+
+    /**
+     * Write the sidecar for a bare code stream file.
+     *
+     * @param image the code stream file
+     * @param codeStream the results of parsing the file, with the tile-parts indexed
+     * @throws JP2ParsingException if the sidecar could not be written
+     */
+    public static void write(final File image, final JP2CodeStream codeStream) throws JP2ParsingException {
+        write(image, new JP2MappedFileReader(image), null, codeStream);
+    }
+
+    /**
+     * Read the sidecar for an image.
+     *
+     * @param image the image file
+     * @return the index, or null if there is no sidecar or it does not match the image
+     * @throws JP2ParsingException if the image could not be read
+     */
+    public static JP2SidecarIndex read(final File image) throws JP2ParsingException {
+        return read(image, new JP2MappedFileReader(image));
+    }
+
+    private static JP2SidecarIndex read(final File image, final JP2Reader reader) throws JP2ParsingException {
+        File indexFile = getIndexFile(image);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        JP2SidecarIndex index = new JP2SidecarIndex();
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(indexFile.toPath())))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                LOG.debug("Not a sidecar index: " + indexFile.getPath());
+                return null;
+            }
+            index.readFields(input);
+        } catch (IOException | JP2ParsingException ex) {
+            LOG.debug("Could not read sidecar index " + indexFile.getPath(), ex);
+            return null;
+        }
+        if (index.mFileLength != reader.getLength() || index.mLastModified != image.lastModified()
+                || index.mFirstTilePartOffset > reader.getLength()
+                || index.mChecksum != getChecksum(reader, index.mFirstTilePartOffset)) {
+            LOG.debug("Sidecar index is stale: " + indexFile.getPath());
+            return null;
+        }
+        return index;
+    }
+
+    // Counts are checked against what is left, so a corrupt sidecar can not ask for huge arrays
+    private void readFields(final DataInputStream input) throws IOException, JP2ParsingException {
+        mFileLength = input.readLong();
+        mLastModified = input.readLong();
+        mChecksum = input.readLong();
+        mCodestreamOffset = input.readLong();
+        mCodestreamLength = input.readLong();
+        mFirstTilePartOffset = input.readLong();
+        int numberOfBoxes = input.readInt();
+        if (numberOfBoxes < 0 || (long) numberOfBoxes * BOX_RECORD_LENGTH > input.available()) {
+            throw new IOException("Invalid number of boxes: " + numberOfBoxes);
+        }
+        mBoxTypes = new String[numberOfBoxes];
+        mBoxOffsets = new long[numberOfBoxes];
+        mBoxLengths = new long[numberOfBoxes];
+        byte[] boxType = new byte[PackageConstants.BOX_SIGNATURE_LENGTH];
+        for (int i = 0; i < numberOfBoxes; ++i) {
+            input.readFully(boxType);
+            mBoxTypes[i] = new String(boxType, StandardCharsets.US_ASCII);
+            mBoxOffsets[i] = input.readLong();
+            mBoxLengths[i] = input.readLong();
+        }
+        int numberOfTileParts = input.readInt();
+        if (numberOfTileParts < 0 || (long) numberOfTileParts * TILE_PART_RECORD_LENGTH > input.available()) {
+            throw new IOException("Invalid number of tile-parts: " + numberOfTileParts);
+        }
+        long offset = mFirstTilePartOffset;
+        for (int i = 0; i < numberOfTileParts; ++i) {
+            int tileIndex = input.readUnsignedShort();
+            long length = input.readInt() & MAXIMUM_TILE_PART_LENGTH;
+            mTileIndex.addTilePart(tileIndex, offset, length);
+            offset += length;
+        }
+        int numberOfTiles = input.readInt();
+        if (numberOfTiles < 0 || numberOfTiles > MAXIMUM_TILE_INDEX + 1) {
+            throw new IOException("Invalid number of tiles: " + numberOfTiles);
+        }
+        mTileIndex.buildTileLookup(numberOfTiles);
+    }
+
+    private static void tryWrite(final File image, final JP2Reader reader, final JP2ParseStrategy parseStrategy, final JP2CodeStream codeStream) {
+        try {
+            write(image, reader, parseStrategy, codeStream);
+        } catch (JP2ParsingException ex) {
+            LOG.debug("Could not write sidecar index for " + image.getPath(), ex);
+        }
+    }
+
+    private static void write(final File image, final JP2Reader reader, final JP2ParseStrategy parseStrategy, final JP2CodeStream codeStream) throws JP2ParsingException {
+        if (codeStream == null) {
+            throw new JP2ParsingException("No code stream to index in " + image.getPath());
+        }
+        JP2TileIndex tileIndex = codeStream.getTileIndex();
+        if (tileIndex.getNumberOfTiles() != codeStream.getNumberOfTiles()) {
+            throw new JP2ParsingException("Tile-parts of " + image.getPath() + " have not been indexed");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(reader.getLength());
+            output.writeLong(image.lastModified());
+            output.writeLong(getChecksum(reader, codeStream.getFirstTilePartOffset()));
+            output.writeLong(codeStream.getCodestreamStart());
+            output.writeLong(codeStream.getCodestreamEnd() - codeStream.getCodestreamStart());
+            output.writeLong(codeStream.getFirstTilePartOffset());
+            int numberOfBoxes = (parseStrategy == null) ? 0 : parseStrategy.getNumberOfBoxes();
+            output.writeInt(numberOfBoxes);
+            for (int i = 0; i < numberOfBoxes; ++i) {
+                output.write(parseStrategy.getBoxType(i).getBytes(StandardCharsets.US_ASCII));
+                output.writeLong(parseStrategy.getBoxOffset(i));
+                output.writeLong(parseStrategy.getBoxLength(i));
+            }
+            output.writeInt(tileIndex.getNumberOfTileParts());
+            long offset = codeStream.getFirstTilePartOffset();
+            for (int i = 0; i < tileIndex.getNumberOfTileParts(); ++i) {
+                if (tileIndex.getOffset(i) != offset || tileIndex.getTileIndex(i) > MAXIMUM_TILE_INDEX || tileIndex.getLength(i) > MAXIMUM_TILE_PART_LENGTH) {
+                    throw new JP2ParsingException("Tile-part " + i + " can not be indexed");
+                }
+                output.writeShort(tileIndex.getTileIndex(i));
+                output.writeInt((int) tileIndex.getLength(i));
+                offset += tileIndex.getLength(i);
+            }
+            output.writeInt(tileIndex.getNumberOfTiles());
+        } catch (IOException ex) {
+            throw new JP2ParsingException("Could not build sidecar index", ex);
+        }
+        // Written to a temporary file and moved into place, so a reader never sees part of it
+        Path indexPath = getIndexFile(image).toPath();
+        try {
+            Path temporary = Files.createTempFile(indexPath.toAbsolutePath().getParent(), indexPath.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temporary, bytes.toByteArray());
+                try {
+                    Files.move(temporary, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(temporary, indexPath, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException ex) {
+            throw new JP2ParsingException("Could not write sidecar index " + indexPath, ex);
+        }
+    }
+
+    // CRC-32 of the start of the image, up to the first tile-part
+    private static long getChecksum(final JP2Reader reader, final long length) throws JP2ParsingException {
+        if (length > Integer.MAX_VALUE) {
+            throw new JP2ParsingException("Headers too large to index: " + length + " bytes");
+        }
+        byte[] header = new byte[(int) length];
+        reader.getByteBuffer(0, header.length).get(header);
+        CRC32 crc = new CRC32();
+        crc.update(header, 0, header.length);
+        return crc.getValue();
+    }
+
+    /**
+     * Get the number of top level boxes in the directory.
+     *
+     * The signature box is not included, and a bare code stream has no boxes.
+     *
+     * @return the number of boxes
+     */
+    public int getNumberOfBoxes() {
+        return mBoxTypes.length;
+    }
+
+    /**
+     * Get the type of a top level box.
+     *
+     * @param boxNumber the box, in file order
+     * @return the four character box type, for example "jp2c"
+     */
+    public String getBoxType(final int boxNumber) {
+        return mBoxTypes[boxNumber];
+    }
+
+    /**
+     * Get the offset of a top level box.
+     *
+     * @param boxNumber the box, in file order
+     * @return the offset of the box header within the file
+     */
+    public long getBoxOffset(final int boxNumber) {
+        return mBoxOffsets[boxNumber];
+    }
+
+    /**
+     * Get the length of a top level box.
+     *
+     * @param boxNumber the box, in file order
+     * @return the length in bytes, including the box header
+     */
+    public long getBoxLength(final int boxNumber) {
+        return mBoxLengths[boxNumber];
+    }
+
+    /**
+     * Get the offset of the code stream.
+     *
+     * @return the offset of the SOC marker within the file
+     */
+    public long getCodestreamOffset() {
+        return mCodestreamOffset;
+    }
+
+    public long getCodestreamLength() {
+        return mCodestreamLength;
+    }
+
+    /**
+     * Get the locations of the tile-parts.
+     *
+     * @return the tile-part index, with offsets within the file
+     */
+    public JP2TileIndex getTileIndex() {
+        return mTileIndex;
+    }
+}
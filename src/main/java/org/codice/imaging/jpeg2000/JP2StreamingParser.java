@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Streaming (event driven) parser.
+ *
+ * Unlike JP2ParseStrategy, this does not keep any of the parsed structure.
+ * Each box, marker segment and tile-part is reported to a JP2ParseListener
+ * as it is reached, and the parser seeks past anything the listener did not
+ * read. Memory use is constant regardless of the size of the file.
+ */
+public class JP2StreamingParser {
+
+    static final Set<String> SUPER_BOX_TYPES = new HashSet<>(Arrays.asList(
+            "jp2h", "res ", "uinf", "jpch", "jplh", "cgrp", "ftbl", "comp", "asoc", "drep"));
+
+    private static final String CODESTREAM_BOX_TYPE = "jp2c";
+
+    private final JP2Reader mReader;
+    private final JP2ParseListener mListener;
+
+    private JP2StreamingParser(final JP2Reader reader, final JP2ParseListener listener) {
+        mReader = reader;
+        mListener = listener;
+    }
+
+    /**
+     * Parse a JP2 file, reporting events to a listener.
+     *
+     * All boxes are reported, including the signature box. The contents of
+     * super boxes are reported as child boxes, and the contents of contiguous
+     * codestream boxes are reported as marker segments and tile-parts.
+     *
+     * @param reader the reader, positioned at the start of the file
+     * @param listener the listener to report events to
+     * @return true if the whole file was parsed, false if the listener stopped parsing
+     * @throws JP2ParsingException if an error occurs during parsing
+     */
+    public static boolean parse(final JP2Reader reader, final JP2ParseListener listener) throws JP2ParsingException {
+        JP2StreamingParser parser = new JP2StreamingParser(reader, listener);
+        return parser.parseBoxes(reader.getPosition(), reader.getLength());
+    }
+
+    /**
+     * Parse a bare JPEG 2000 code stream, reporting events to a listener.
+     *
+     * No box events are reported, only marker segments and tile-parts. The
+     * code stream is taken to run from the current position to the end of
+     * the reader.
+     *
+     * @param reader the reader, positioned at the SOC marker
+     * @param listener the listener to report events to
+     * @return true if the whole code stream was parsed, false if the listener stopped parsing
+     * @throws JP2ParsingException if an error occurs during parsing
+     */
+    public static boolean parseCodestream(final JP2Reader reader, final JP2ParseListener listener) throws JP2ParsingException {
+        JP2StreamingParser parser = new JP2StreamingParser(reader, listener);
+        return parser.parseCodestream(reader.getPosition(), reader.getLength());
+    }
+
+    private boolean parseBoxes(final long start, final long end) throws JP2ParsingException {
+        long boxStart = start;
+        while (boxStart < end) {
+            mReader.seek(boxStart);
+            long boxLength = mReader.readUnsignedInt() & 0xFFFFFFFFL;
+            String boxType = mReader.getFixedLengthString(PackageConstants.BOX_SIGNATURE_LENGTH);
+            if (boxLength == PackageConstants.BOX_LENGTH_EXTENDED) {
+                long upper = mReader.readUnsignedInt() & 0xFFFFFFFFL;
+                long lower = mReader.readUnsignedInt() & 0xFFFFFFFFL;
+                boxLength = (upper << 32) | lower;
+            } else if (boxLength == PackageConstants.BOX_LENGTH_TO_END_OF_FILE) {
+                boxLength = end - boxStart;
+            }
+            long contentsStart = mReader.getPosition();
+            long boxEnd = boxStart + boxLength;
+            if (!mListener.boxStart(boxType, boxStart, new JP2WindowReader(mReader, contentsStart, boxEnd - contentsStart))) {
+                return false;
+            }
+            if (SUPER_BOX_TYPES.contains(boxType)) {
+                if (!parseBoxes(contentsStart, boxEnd)) {
+                    return false;
+                }
+            } else if (CODESTREAM_BOX_TYPE.equals(boxType)) {
+                if (!parseCodestream(contentsStart, boxEnd)) {
+                    return false;
+                }
+            }
+            if (!mListener.boxEnd(boxType)) {
+                return false;
+            }
+            boxStart = boxEnd;
+        }
+        return true;
+    }
+
+    private boolean parseCodestream(final long start, final long end) throws JP2ParsingException {
+        mReader.seek(start);
+        verifyMarkerCode(JP2CodeStream.SOC_MARKER_CODE);
+        long position = mReader.getPosition();
+        while (position < end) {
+            mReader.seek(position);
+            int markerCode = mReader.readUnsignedShort();
+            if (markerCode == JP2CodeStream.EOC_MARKER_CODE) {
+                break;
+            } else if (markerCode == JP2CodeStream.SOT_MARKER_CODE) {
+                position = parseTilePart(position, end);
+                if (position < 0) {
+                    return false;
+                }
+            } else {
+                int markerLength = mReader.readUnsignedShort();
+                if (!reportMarkerSegment(markerCode, position, markerLength)) {
+                    return false;
+                }
+                position += PackageConstants.UNSIGNED_SHORT_LENGTH + markerLength;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Report a tile-part, with its header marker segments.
+     *
+     * @return the offset of the end of the tile-part, or -1 if the listener stopped parsing.
+     */
+    private long parseTilePart(final long offset, final long codestreamEnd) throws JP2ParsingException {
+        int markerLength = mReader.readUnsignedShort();
+        int tileIndex = mReader.readUnsignedShort();
+        long psot = mReader.readUnsignedInt() & 0xFFFFFFFFL;
+        int tilePartIndex = mReader.readUnsignedByte() & 0xFF;
+        int numberOfTileParts = mReader.readUnsignedByte() & 0xFF;
+        long tilePartEnd = (psot == 0) ? codestreamEnd - PackageConstants.UNSIGNED_SHORT_LENGTH : offset + psot;
+        if (!reportMarkerSegment(JP2CodeStream.SOT_MARKER_CODE, offset, markerLength)) {
+            return -1;
+        }
+        long position = offset + PackageConstants.UNSIGNED_SHORT_LENGTH + markerLength;
+        while (true) {
+            mReader.seek(position);
+            int markerCode = mReader.readUnsignedShort();
+            if (markerCode == JP2CodeStream.SOD_MARKER_CODE) {
+                position += PackageConstants.UNSIGNED_SHORT_LENGTH;
+                break;
+            }
+            int length = mReader.readUnsignedShort();
+            if (!reportMarkerSegment(markerCode, position, length)) {
+                return -1;
+            }
+            position += PackageConstants.UNSIGNED_SHORT_LENGTH + length;
+            if (position >= tilePartEnd) {
+                throw new JP2ParsingException("Missing expected SOD marker");
+            }
+        }
+        if (!mListener.tilePart(tileIndex, tilePartIndex, numberOfTileParts, new JP2WindowReader(mReader, position, tilePartEnd - position))) {
+            return -1;
+        }
+        return tilePartEnd;
+    }
+
+    private boolean reportMarkerSegment(final int markerCode, final long offset, final int markerLength) throws JP2ParsingException {
+        long parametersStart = offset + 2 * PackageConstants.UNSIGNED_SHORT_LENGTH;
+        long parametersLength = markerLength - PackageConstants.UNSIGNED_SHORT_LENGTH;
+        return mListener.markerSegment(markerCode, offset, new JP2WindowReader(mReader, parametersStart, parametersLength));
+    }
+
+    private void verifyMarkerCode(final int expectedMarkerCode) throws JP2ParsingException {
+        int actualMarkerCode = mReader.readUnsignedShort();
+        if (actualMarkerCode != expectedMarkerCode) {
+            throw new JP2ParsingException(String.format("Missing expected marker. Expected 0x%04x but got 0x%04x", expectedMarkerCode, actualMarkerCode));
+        }
+    }
+}
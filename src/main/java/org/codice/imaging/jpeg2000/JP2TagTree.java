@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.util.Arrays;
+
+/**
+ * Tag trees for packet header decoding.
+ *
+ * Any number of trees can be held, with the nodes of all of them in the
+ * same primitive arrays, so that the trees for every precinct-band of a
+ * tile can be built without an object per node or per tree. Storage is
+ * kept across reset(), so a decoder can reuse the same instance for each
+ * tile. See Section B.10.2.
+ */
+final class JP2TagTree {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int NO_PARENT = -1;
+    private static final int UNKNOWN_VALUE = Integer.MAX_VALUE;
+    // Enough levels for a 2^31 x 2^31 tree
+    private static final int MAXIMUM_DEPTH = 33;
+
+    private int mNumberOfNodes = 0;
+    private int[] mParents = new int[INITIAL_CAPACITY];
+    private int[] mValues = new int[INITIAL_CAPACITY];
+    private int[] mLowerBounds = new int[INITIAL_CAPACITY];
+    private final int[] mPath = new int[MAXIMUM_DEPTH];
+
+    /**
+     * Remove all trees, keeping the storage.
+     */
+    void reset() {
+        mNumberOfNodes = 0;
+    }
+
+    /**
+     * Add a tree.
+     *
+     * @param width the number of leaves across
+     * @param height the number of leaves down
+     * @return the node number of the first leaf. Leaves are numbered in raster order from this.
+     */
+    int addTree(final int width, final int height) {
+        int firstLeaf = mNumberOfNodes;
+        if (width == 0 || height == 0) {
+            return firstLeaf;
+        }
+        int numberOfNodes = 0;
+        for (int w = width, h = height;; w = (w + 1) / 2, h = (h + 1) / 2) {
+            numberOfNodes += w * h;
+            if (w == 1 && h == 1) {
+                break;
+            }
+        }
+        ensureCapacity(firstLeaf + numberOfNodes);
+        int levelStart = firstLeaf;
+        int w = width;
+        int h = height;
+        while (true) {
+            boolean isRoot = (w == 1 && h == 1);
+            int parentLevelStart = levelStart + w * h;
+            int parentWidth = (w + 1) / 2;
+            for (int j = 0; j < h; ++j) {
+                for (int i = 0; i < w; ++i) {
+                    int node = levelStart + j * w + i;
+                    mParents[node] = isRoot ? NO_PARENT : parentLevelStart + (j / 2) * parentWidth + (i / 2);
+                    mValues[node] = UNKNOWN_VALUE;
+                    mLowerBounds[node] = 0;
+                }
+            }
+            if (isRoot) {
+                break;
+            }
+            levelStart = parentLevelStart;
+            w = parentWidth;
+            h = (h + 1) / 2;
+        }
+        mNumberOfNodes = firstLeaf + numberOfNodes;
+        return firstLeaf;
+    }
+
+    /**
+     * Decode the value of a leaf, as far as a threshold.
+     *
+     * @param reader the packet header bits
+     * @param leaf the node number of the leaf
+     * @param threshold the value to decode up to
+     * @return true if the value of the leaf is less than the threshold
+     * @throws JP2ParsingException if the packet header runs out of data
+     */
+    boolean decode(final JP2PacketHeaderReader reader, final int leaf, final int threshold) throws JP2ParsingException {
+        int depth = 0;
+        for (int node = leaf; node != NO_PARENT; node = mParents[node]) {
+            mPath[depth++] = node;
+        }
+        int low = 0;
+        while (depth > 0) {
+            int node = mPath[--depth];
+            if (low > mLowerBounds[node]) {
+                mLowerBounds[node] = low;
+            } else {
+                low = mLowerBounds[node];
+            }
+            while (low < threshold && low < mValues[node]) {
+                if (reader.readBit() == 1) {
+                    mValues[node] = low;
+                } else {
+                    ++low;
+                }
+            }
+            mLowerBounds[node] = low;
+        }
+        return mValues[leaf] < threshold;
+    }
+
+    /**
+     * Decode the value of a leaf completely.
+     *
+     * @param reader the packet header bits
+     * @param leaf the node number of the leaf
+     * @return the value of the leaf
+     * @throws JP2ParsingException if the packet header runs out of data
+     */
+    int decodeValue(final JP2PacketHeaderReader reader, final int leaf) throws JP2ParsingException {
+        int threshold = 1;
+        while (!decode(reader, leaf, threshold)) {
+            ++threshold;
+        }
+        return mValues[leaf];
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity > mParents.length) {
+            int newCapacity = Math.max(capacity, mParents.length * 2);
+            mParents = Arrays.copyOf(mParents, newCapacity);
+            mValues = Arrays.copyOf(mValues, newCapacity);
+            mLowerBounds = Arrays.copyOf(mLowerBounds, newCapacity);
+        }
+    }
+}
@@ -23,7 +23,14 @@
  */
 package org.codice.imaging.jpeg2000;
 
+import java.nio.ByteBuffer;
+
 /**
+ * A tile-part within the codestream.
+ *
+ * Only the location of the tile-part bitstream is recorded during parsing.
+ * The data is read from the reader when it is asked for, so holding a tile
+ * does not hold its bitstream in memory.
  *
  * @author bradh
  */
@@ -32,7 +39,18 @@ public class JP2Tile {
     private int mTileIndex = 0;
     private short mTilePartIndex = 0;
     private short mNumberOfTileParts = 0;
-    private byte[] mData = null;
+    private JP2Reader mReader = null;
+    private long mDataOffset = 0;
+    private long mDataLength = 0;
+    // Coding style overrides from the tile-part header, null where the main header applies
+    private JP2CodingStyle mCodingStyleDefault = null;
+    private JP2CodingStyle[] mComponentCodingStyles = null;
+    private boolean mHasProgressionOrderChange = false;
+    private boolean mHasPackedPacketHeaders = false;
+    private boolean mHasRegionOfInterest = false;
+    // Quantization overrides from the tile-part header, null where the main header applies
+    private JP2Quantization mQuantizationDefault = null;
+    private JP2Quantization[] mComponentQuantizations = null;
 
     public int getTileIndex() {
         return mTileIndex;
@@ -46,8 +64,133 @@ public class JP2Tile {
         return mNumberOfTileParts;
     }
 
-    public byte[] getData() {
-        return mData;
+    /**
+     * Get a copy of the tile-part bitstream.
+     *
+     * @return the bitstream bytes, read from the underlying reader
+     * @throws JP2ParsingException if the data could not be read, or is too long for an array
+     */
+    public byte[] getData() throws JP2ParsingException {
+        byte[] bytes = new byte[checkArrayLength(mDataLength)];
+        getDataBuffer().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Get the tile-part bitstream as a buffer.
+     *
+     * Depending on the reader, this may be a read-only view onto the
+     * underlying storage rather than a copy.
+     *
+     * @return buffer containing the bitstream, positioned at zero
+     * @throws JP2ParsingException if the data could not be read, or is too long for a buffer
+     */
+    public ByteBuffer getDataBuffer() throws JP2ParsingException {
+        return mReader.getByteBuffer(mDataOffset, checkArrayLength(mDataLength));
+    }
+
+    /**
+     * Get part of the tile-part bitstream as a buffer.
+     *
+     * @param offset the offset of the first byte, from the start of the bitstream
+     * @param length the number of bytes
+     * @return buffer containing the bytes, positioned at zero
+     * @throws JP2ParsingException if the range is not within the bitstream, or the data could not be read
+     */
+    public ByteBuffer getDataBuffer(final long offset, final int length) throws JP2ParsingException {
+        if (offset < 0 || length < 0 || offset + length > mDataLength) {
+            throw new JP2ParsingException("Unable to read " + length + " bytes at offset " + offset + " of tile-part data, length is " + mDataLength);
+        }
+        return mReader.getByteBuffer(mDataOffset + offset, length);
+    }
+
+    /**
+     * Get the offset of the tile-part bitstream within the reader.
+     *
+     * @return offset of the first byte after the SOD marker
+     */
+    public long getDataOffset() {
+        return mDataOffset;
+    }
+
+    /**
+     * Get the length of the tile-part bitstream.
+     *
+     * @return length in bytes
+     */
+    public long getDataLength() {
+        return mDataLength;
+    }
+
+    /**
+     * Get the COD from this tile-part header.
+     *
+     * @return the coding style, or null if this tile-part header does not have a COD
+     */
+    public JP2CodingStyle getCodingStyleDefault() {
+        return mCodingStyleDefault;
+    }
+
+    /**
+     * Get a COC from this tile-part header.
+     *
+     * @param componentIndex the component (zero based)
+     * @return the coding style, or null if this tile-part header does not have a COC for the component
+     */
+    public JP2CodingStyle getComponentCodingStyle(final int componentIndex) {
+        if (mComponentCodingStyles == null || componentIndex >= mComponentCodingStyles.length) {
+            return null;
+        }
+        return mComponentCodingStyles[componentIndex];
+    }
+
+    /**
+     * Get the QCD from this tile-part header.
+     *
+     * @return the quantization, or null if this tile-part header does not have a QCD
+     */
+    public JP2Quantization getQuantizationDefault() {
+        return mQuantizationDefault;
+    }
+
+    /**
+     * Get a QCC from this tile-part header.
+     *
+     * @param componentIndex the component (zero based)
+     * @return the quantization, or null if this tile-part header does not have a QCC for the component
+     */
+    public JP2Quantization getComponentQuantization(final int componentIndex) {
+        if (mComponentQuantizations == null || componentIndex >= mComponentQuantizations.length) {
+            return null;
+        }
+        return mComponentQuantizations[componentIndex];
+    }
+
+    /**
+     * Get whether this tile-part header has a POC marker segment.
+     *
+     * @return true if there is a progression order change
+     */
+    public boolean hasProgressionOrderChange() {
+        return mHasProgressionOrderChange;
+    }
+
+    /**
+     * Get whether this tile-part header has a PPT marker segment.
+     *
+     * @return true if the packet headers are packed into the tile-part header
+     */
+    public boolean hasPackedPacketHeaders() {
+        return mHasPackedPacketHeaders;
+    }
+
+    /**
+     * Get whether this tile-part header has an RGN marker segment.
+     *
+     * @return true if region of interest coding is used
+     */
+    public boolean hasRegionOfInterest() {
+        return mHasRegionOfInterest;
     }
 
     void setTileIndex(int tileIndex) {
@@ -62,8 +205,57 @@ public class JP2Tile {
         mNumberOfTileParts = numberOfTileParts;
     }
 
-    void setData(byte[] bytes) {
-        mData = bytes;
+    void setCodingStyleDefault(final JP2CodingStyle codingStyle) {
+        mCodingStyleDefault = codingStyle;
+    }
+
+    void setComponentCodingStyle(final int componentIndex, final JP2CodingStyle codingStyle, final int numberOfComponents) throws JP2ParsingException {
+        if (componentIndex >= numberOfComponents) {
+            throw new JP2ParsingException("COC component index " + componentIndex + " out of range, image has " + numberOfComponents + " components");
+        }
+        if (mComponentCodingStyles == null) {
+            mComponentCodingStyles = new JP2CodingStyle[numberOfComponents];
+        }
+        mComponentCodingStyles[componentIndex] = codingStyle;
+    }
+
+    void setQuantizationDefault(final JP2Quantization quantization) {
+        mQuantizationDefault = quantization;
+    }
+
+    void setComponentQuantization(final int componentIndex, final JP2Quantization quantization, final int numberOfComponents) throws JP2ParsingException {
+        if (componentIndex >= numberOfComponents) {
+            throw new JP2ParsingException("QCC component index " + componentIndex + " out of range, image has " + numberOfComponents + " components");
+        }
+        if (mComponentQuantizations == null) {
+            mComponentQuantizations = new JP2Quantization[numberOfComponents];
+        }
+        mComponentQuantizations[componentIndex] = quantization;
+    }
+
+    void setHasProgressionOrderChange() {
+        mHasProgressionOrderChange = true;
+    }
+
+    void setHasPackedPacketHeaders() {
+        mHasPackedPacketHeaders = true;
+    }
+
+    void setHasRegionOfInterest() {
+        mHasRegionOfInterest = true;
+    }
+
+    void setDataLocation(final JP2Reader reader, final long offset, final long length) {
+        mReader = reader;
+        mDataOffset = offset;
+        mDataLength = length;
+    }
+
+    private static int checkArrayLength(final long length) throws JP2ParsingException {
+        if (length > Integer.MAX_VALUE) {
+            throw new JP2ParsingException("Tile-part data length " + length + " is too long to read in one piece");
+        }
+        return (int) length;
     }
 
 }
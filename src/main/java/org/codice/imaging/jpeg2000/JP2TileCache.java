@@ -0,0 +1,415 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of decoded tiles, with a limit on the memory it uses.
+ *
+ * Tiles are looked up by the image (the code stream object), the tile
+ * index, the resolution reduction, the number of quality layers and the
+ * components decoded. When a region is decoded, the whole of each tile
+ * that overlaps it is decoded and cached, so panning over an image reuses
+ * the tiles it has already seen. The least recently used tiles are evicted
+ * when the cache is over its size. Tiles too large to ever fit are not
+ * cached, and are decoded for just the region, as without a cache. The
+ * cache does not keep code streams alive, and drops the tiles of code
+ * streams that are no longer used.
+ *
+ * Samples are held as bytes, shorts or ints, whichever is the smallest
+ * that fits the component bit depth. They can be held in direct buffers,
+ * outside the Java heap, so that a large cache does not add to the work of
+ * the garbage collector.
+ *
+ * A cache can be shared by several image decoders, and used from several
+ * threads at once.
+ */
+public class JP2TileCache {
+
+    private static final int BYTE_BIT_DEPTH = 8;
+    private static final int SHORT_BIT_DEPTH = 16;
+
+    private final long mMaximumSize;
+    private final boolean mDirect;
+    private final LinkedHashMap<Key, Tile> mTiles = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReferenceQueue<JP2CodeStream> mReleasedCodeStreams = new ReferenceQueue<>();
+    private long mSize = 0;
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+
+    /**
+     * Constructor, for a cache on the Java heap.
+     *
+     * @param maximumSize the most bytes of samples to hold
+     */
+    public JP2TileCache(final long maximumSize) {
+        this(maximumSize, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maximumSize the most bytes of samples to hold
+     * @param direct true to hold the samples in direct buffers, outside the Java heap
+     */
+    public JP2TileCache(final long maximumSize, final boolean direct) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("Cache size can not be negative: " + maximumSize);
+        }
+        mMaximumSize = maximumSize;
+        mDirect = direct;
+    }
+
+    public long getMaximumSize() {
+        return mMaximumSize;
+    }
+
+    public boolean isDirect() {
+        return mDirect;
+    }
+
+    /**
+     * Get the memory used by the tiles in the cache.
+     *
+     * @return the number of bytes of samples held
+     */
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public synchronized int getNumberOfTiles() {
+        return mTiles.size();
+    }
+
+    /**
+     * Get the number of tiles that were found in the cache.
+     *
+     * @return the number of hits since the cache was created
+     */
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    /**
+     * Get the number of tiles that had to be decoded.
+     *
+     * @return the number of misses since the cache was created
+     */
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * Get the number of tiles that were dropped to keep within the size.
+     *
+     * @return the number of evictions since the cache was created
+     */
+    public long getEvictionCount() {
+        return mEvictions.get();
+    }
+
+    /**
+     * Drop all of the tiles.
+     *
+     * The counters are not reset.
+     */
+    public synchronized void clear() {
+        mTiles.clear();
+        mSize = 0;
+    }
+
+    /**
+     * Decode a tile through the cache.
+     *
+     * The part of the tile in the region is written, just as if the tile
+     * decoder had been used directly.
+     *
+     * @param tileDecoder the decoder to use if the tile is not in the cache
+     * @param tileIndex the tile index, in raster order
+     * @param param the part of the image to decode
+     * @param writer where to write the samples
+     * @throws JP2ParsingException if the tile could not be decoded
+     */
+    void decodeTile(final JP2TileDecoder tileDecoder, final int tileIndex, final JP2DecodeParam param, final JP2SampleWriter writer) throws JP2ParsingException {
+        JP2CodeStream codeStream = tileDecoder.getCodeStream();
+        if (getMinimumTileSize(codeStream, tileIndex, param) > mMaximumSize) {
+            // Decoding the whole tile would be wasted, since it can not be kept
+            mMisses.incrementAndGet();
+            tileDecoder.decodeTile(tileIndex, param, writer);
+            return;
+        }
+        Key key = new Key(codeStream, tileIndex, param, mReleasedCodeStreams);
+        Tile tile = get(key);
+        if (tile == null) {
+            mMisses.incrementAndGet();
+            JP2DecodeParam tileParam = new JP2DecodeParam(param);
+            tileParam.clearRegion();
+            tileDecoder.decodeTile(tileIndex, tileParam);
+            tile = new Tile(tileDecoder, tileParam, mDirect);
+            put(key, tile);
+        } else {
+            mHits.incrementAndGet();
+        }
+        tile.write(codeStream, param, writer);
+    }
+
+    /*
+     * The least memory that the decoded tile could take, from the tile
+     * bounds on the reference grid reduced to the decoded resolution. See
+     * Equations B-7, B-12 and B-15. A tile with a component too large for
+     * one buffer can never be cached, whatever the cache size.
+     */
+    private static long getMinimumTileSize(final JP2CodeStream codeStream, final int tileIndex, final JP2DecodeParam param) {
+        int p = tileIndex % codeStream.getNumberOfTilesX();
+        int q = tileIndex / codeStream.getNumberOfTilesX();
+        long tx0 = Math.max((long) codeStream.getHorizontalOffsetOfReferenceTile() + (long) p * codeStream.getWidthOfReferenceTile(), codeStream.getHorizontalOffset());
+        long tx1 = Math.min((long) codeStream.getHorizontalOffsetOfReferenceTile() + (long) (p + 1) * codeStream.getWidthOfReferenceTile(), codeStream.getXSize());
+        long ty0 = Math.max((long) codeStream.getVerticalOffsetOfReferenceTile() + (long) q * codeStream.getHeightOfReferenceTile(), codeStream.getVerticalOffset());
+        long ty1 = Math.min((long) codeStream.getVerticalOffsetOfReferenceTile() + (long) (q + 1) * codeStream.getHeightOfReferenceTile(), codeStream.getYSize());
+        long size = 0;
+        for (int c = 0; c < codeStream.getNumberOfComponentsInImage(); ++c) {
+            if (!param.isComponentDecoded(c)) {
+                continue;
+            }
+            long xDivisor = (long) codeStream.getComponentHorizontalSeparation(c) << param.getResolutionReduction();
+            long yDivisor = (long) codeStream.getComponentVerticalSeparation(c) << param.getResolutionReduction();
+            long width = ceilingDivide(tx1, xDivisor) - ceilingDivide(tx0, xDivisor);
+            long height = ceilingDivide(ty1, yDivisor) - ceilingDivide(ty0, yDivisor);
+            long componentSize = width * height * getSampleSize(codeStream.getComponentBitDepth(c));
+            if (componentSize > Integer.MAX_VALUE) {
+                return Long.MAX_VALUE;
+            }
+            size += componentSize;
+        }
+        return size;
+    }
+
+    private static long ceilingDivide(final long value, final long divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    private static int getSampleSize(final int bitDepth) {
+        return (bitDepth <= BYTE_BIT_DEPTH) ? 1 : (bitDepth <= SHORT_BIT_DEPTH) ? 2 : 4;
+    }
+
+    private synchronized Tile get(final Key key) {
+        removeReleasedCodeStreams();
+        return mTiles.get(key);
+    }
+
+    // Drop the tiles of code streams that have been garbage collected
+    private void removeReleasedCodeStreams() {
+        boolean released = false;
+        while (mReleasedCodeStreams.poll() != null) {
+            released = true;
+        }
+        if (!released) {
+            return;
+        }
+        Iterator<Map.Entry<Key, Tile>> entries = mTiles.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Key, Tile> entry = entries.next();
+            if (entry.getKey().isReleased()) {
+                mSize -= entry.getValue().getSize();
+                entries.remove();
+            }
+        }
+    }
+
+    private synchronized void put(final Key key, final Tile tile) {
+        removeReleasedCodeStreams();
+        if (tile.getSize() > mMaximumSize) {
+            return;
+        }
+        Tile previous = mTiles.put(key, tile);
+        if (previous != null) {
+            mSize -= previous.getSize();
+        }
+        mSize += tile.getSize();
+        Iterator<Tile> eldest = mTiles.values().iterator();
+        while (mSize > mMaximumSize) {
+            mSize -= eldest.next().getSize();
+            eldest.remove();
+            mEvictions.incrementAndGet();
+        }
+    }
+
+    // What a decoded tile depends on, holding the code stream weakly
+    private static final class Key {
+
+        private final WeakReference<JP2CodeStream> mCodeStream;
+        private final int mCodeStreamHash;
+        private final int mTileIndex;
+        private final int mResolutionReduction;
+        private final int mNumberOfLayers;
+        private final int[] mComponents;
+
+        Key(final JP2CodeStream codeStream, final int tileIndex, final JP2DecodeParam param, final ReferenceQueue<JP2CodeStream> queue)
+                throws JP2ParsingException {
+            mCodeStream = new WeakReference<>(codeStream, queue);
+            mCodeStreamHash = System.identityHashCode(codeStream);
+            mTileIndex = tileIndex;
+            mResolutionReduction = param.getResolutionReduction();
+            // Asking for more layers than the tile has is the same as asking for all of them
+            mNumberOfLayers = param.getNumberOfLayersToDecode(codeStream.getTileCodingStyle(tileIndex).getNumberOfLayers());
+            mComponents = param.getComponents();
+            if (mComponents != null) {
+                Arrays.sort(mComponents);
+            }
+        }
+
+        @Override
+        public boolean equals(final Object object) {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) object;
+            JP2CodeStream codeStream = mCodeStream.get();
+            return codeStream != null && codeStream == key.mCodeStream.get() && mTileIndex == key.mTileIndex && mResolutionReduction == key.mResolutionReduction
+                    && mNumberOfLayers == key.mNumberOfLayers && Arrays.equals(mComponents, key.mComponents);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = mCodeStreamHash;
+            hash = 31 * hash + mTileIndex;
+            hash = 31 * hash + mResolutionReduction;
+            hash = 31 * hash + mNumberOfLayers;
+            return 31 * hash + Arrays.hashCode(mComponents);
+        }
+
+        boolean isReleased() {
+            return mCodeStream.get() == null;
+        }
+    }
+
+    // The samples of the decoded components of a whole tile, after the level shift
+    private static final class Tile {
+
+        private final int[] mX0;
+        private final int[] mY0;
+        private final int[] mWidths;
+        private final int[] mHeights;
+        private final int[] mSampleSizes;
+        private final ByteBuffer[] mSamples;
+        private final long mSize;
+
+        Tile(final JP2TileDecoder tileDecoder, final JP2DecodeParam param, final boolean direct) throws JP2ParsingException {
+            JP2CodeStream codeStream = tileDecoder.getCodeStream();
+            int numberOfComponents = tileDecoder.getLayout().getNumberOfComponents();
+            mX0 = new int[numberOfComponents];
+            mY0 = new int[numberOfComponents];
+            mWidths = new int[numberOfComponents];
+            mHeights = new int[numberOfComponents];
+            mSampleSizes = new int[numberOfComponents];
+            mSamples = new ByteBuffer[numberOfComponents];
+            long size = 0;
+            for (int c = 0; c < numberOfComponents; ++c) {
+                if (!param.isComponentDecoded(c)) {
+                    continue;
+                }
+                mX0[c] = tileDecoder.getX0(c);
+                mY0[c] = tileDecoder.getY0(c);
+                mWidths[c] = tileDecoder.getWidth(c);
+                mHeights[c] = tileDecoder.getHeight(c);
+                mSampleSizes[c] = getSampleSize(codeStream.getComponentBitDepth(c));
+                long bufferSize = (long) mWidths[c] * mHeights[c] * mSampleSizes[c];
+                if (bufferSize > Integer.MAX_VALUE) {
+                    throw new JP2ParsingException("Component " + c + " of the tile is too large to cache: " + bufferSize + " bytes");
+                }
+                int length = mWidths[c] * mHeights[c];
+                ByteBuffer buffer = direct ? ByteBuffer.allocateDirect((int) bufferSize) : ByteBuffer.allocate((int) bufferSize);
+                int[] samples = tileDecoder.getSamples(c);
+                for (int i = 0; i < length; ++i) {
+                    if (mSampleSizes[c] == 1) {
+                        buffer.put((byte) samples[i]);
+                    } else if (mSampleSizes[c] == 2) {
+                        buffer.putShort((short) samples[i]);
+                    } else {
+                        buffer.putInt(samples[i]);
+                    }
+                }
+                mSamples[c] = buffer;
+                size += buffer.capacity();
+            }
+            mSize = size;
+        }
+
+        long getSize() {
+            return mSize;
+        }
+
+        // Write the part of the tile that is in the region
+        void write(final JP2CodeStream codeStream, final JP2DecodeParam param, final JP2SampleWriter writer) throws JP2ParsingException {
+            int[] row = new int[0];
+            for (int c = 0; c < mSamples.length; ++c) {
+                if (mSamples[c] == null) {
+                    continue;
+                }
+                int[] bounds = param.getComponentBounds(codeStream, c);
+                int x0 = Math.max(mX0[c], bounds[0]);
+                int x1 = Math.min(mX0[c] + mWidths[c], bounds[2]);
+                int y0 = Math.max(mY0[c], bounds[1]);
+                int y1 = Math.min(mY0[c] + mHeights[c], bounds[3]);
+                if (x0 >= x1 || y0 >= y1) {
+                    continue;
+                }
+                int width = x1 - x0;
+                if (row.length < width) {
+                    row = new int[width];
+                }
+                boolean signed = codeStream.isComponentSigned(c);
+                int narrowing = Math.max(0, codeStream.getComponentBitDepth(c) - writer.getBitDepth(c));
+                ByteBuffer samples = mSamples[c];
+                int sampleSize = mSampleSizes[c];
+                for (int y = y0; y < y1; ++y) {
+                    int position = ((y - mY0[c]) * mWidths[c] + x0 - mX0[c]) * sampleSize;
+                    if (sampleSize == 1) {
+                        for (int x = 0; x < width; ++x, ++position) {
+                            row[x] = (signed ? samples.get(position) : samples.get(position) & 0xFF) >> narrowing;
+                        }
+                    } else if (sampleSize == 2) {
+                        for (int x = 0; x < width; ++x, position += 2) {
+                            row[x] = (signed ? samples.getShort(position) : samples.getShort(position) & 0xFFFF) >> narrowing;
+                        }
+                    } else {
+                        for (int x = 0; x < width; ++x, position += 4) {
+                            row[x] = samples.getInt(position) >> narrowing;
+                        }
+                    }
+                    writer.writeRow(c, x0, y, row, width);
+                }
+            }
+        }
+    }
+}
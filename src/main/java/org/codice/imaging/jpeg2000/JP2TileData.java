@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The bitstream of a tile, read from the tile-parts as it is needed.
+ *
+ * The data is the concatenation of the tile-part bitstreams, in tile-part
+ * order. It is read in fixed size chunks, only when part of a chunk is
+ * asked for, so packets that are skipped over (for example, for
+ * resolutions that are not being decoded) need not be read at all. Only
+ * the chunks that have been read are held, so a reduced resolution or
+ * small region of a very large tile costs memory for what is decoded,
+ * rather than for the whole tile.
+ *
+ * Chunks are read by one thread (the packet decoder). Once that has
+ * finished, the data can be read from any number of threads.
+ */
+final class JP2TileData {
+
+    static final int CHUNK_SHIFT = 12;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    // The most chunks to read in one go, so that a single read stays small
+    private static final int MAXIMUM_CHUNKS_PER_READ = 256;
+
+    private final List<JP2Tile> mTileParts;
+    private final long[] mTilePartStarts;
+    private final long mLength;
+    private final Map<Long, byte[]> mChunks = new HashMap<>();
+    private long mBytesLoaded = 0;
+
+    /**
+     * Constructor.
+     *
+     * No data is read until load() is called.
+     *
+     * @param tileParts the tile-parts of the tile, in tile-part order
+     */
+    JP2TileData(final List<JP2Tile> tileParts) {
+        mTileParts = tileParts;
+        mTilePartStarts = new long[tileParts.size() + 1];
+        long totalLength = 0;
+        for (int i = 0; i < tileParts.size(); ++i) {
+            totalLength += tileParts.get(i).getDataLength();
+            mTilePartStarts[i + 1] = totalLength;
+        }
+        mLength = totalLength;
+    }
+
+    long getLength() {
+        return mLength;
+    }
+
+    /**
+     * Get the number of bytes read from the tile-parts so far.
+     *
+     * @return the number of bytes loaded
+     */
+    long getBytesLoaded() {
+        return mBytesLoaded;
+    }
+
+    /**
+     * Get the chunk that holds a byte.
+     *
+     * The byte at position is at (position &amp; (CHUNK_SIZE - 1)) in the chunk.
+     *
+     * @param position the offset of a byte that has been loaded
+     * @return the chunk
+     * @throws JP2ParsingException if the chunk has not been loaded
+     */
+    byte[] getChunk(final long position) throws JP2ParsingException {
+        byte[] chunk = mChunks.get(position >> CHUNK_SHIFT);
+        if (chunk == null) {
+            throw new JP2ParsingException("Tile data at offset " + position + " has not been read");
+        }
+        return chunk;
+    }
+
+    /**
+     * Get a byte that has been loaded.
+     *
+     * @param position the offset of the byte
+     * @return the byte
+     * @throws JP2ParsingException if the byte has not been loaded
+     */
+    byte get(final long position) throws JP2ParsingException {
+        return getChunk(position)[(int) (position & (CHUNK_SIZE - 1))];
+    }
+
+    /**
+     * Copy a range that has been loaded into an array.
+     *
+     * @param position the offset of the first byte
+     * @param destination the array to copy to
+     * @param destinationOffset where to put the first byte in the array
+     * @param length the number of bytes
+     * @throws JP2ParsingException if the range has not all been loaded
+     */
+    void copy(final long position, final byte[] destination, final int destinationOffset, final int length) throws JP2ParsingException {
+        long current = position;
+        int copied = 0;
+        while (copied < length) {
+            int offsetInChunk = (int) (current & (CHUNK_SIZE - 1));
+            int count = Math.min(length - copied, CHUNK_SIZE - offsetInChunk);
+            System.arraycopy(getChunk(current), offsetInChunk, destination, destinationOffset + copied, count);
+            copied += count;
+            current += count;
+        }
+    }
+
+    /**
+     * Make sure that a range of the data has been read.
+     *
+     * @param start the offset of the first byte
+     * @param end the offset after the last byte, which is clipped to the length of the data
+     * @throws JP2ParsingException if the data could not be read
+     */
+    void load(final long start, final long end) throws JP2ParsingException {
+        if (start >= end) {
+            return;
+        }
+        long endChunk = (Math.min(end, mLength) + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+        long chunk = start >> CHUNK_SHIFT;
+        while (chunk < endChunk) {
+            if (mChunks.containsKey(chunk)) {
+                chunk++;
+                continue;
+            }
+            // Read a run of missing chunks together
+            long firstChunk = chunk;
+            while (chunk < endChunk && chunk - firstChunk < MAXIMUM_CHUNKS_PER_READ && !mChunks.containsKey(chunk)) {
+                chunk++;
+            }
+            loadChunks(firstChunk, chunk);
+        }
+    }
+
+    // Chunks are only kept once the whole run has been read
+    private void loadChunks(final long firstChunk, final long endChunk) throws JP2ParsingException {
+        long start = firstChunk << CHUNK_SHIFT;
+        long end = Math.min(endChunk << CHUNK_SHIFT, mLength);
+        byte[] data = new byte[(int) (end - start)];
+        for (int i = 0; i < mTileParts.size(); ++i) {
+            long overlapStart = Math.max(start, mTilePartStarts[i]);
+            long overlapEnd = Math.min(end, mTilePartStarts[i + 1]);
+            if (overlapStart < overlapEnd) {
+                ByteBuffer buffer = mTileParts.get(i).getDataBuffer(overlapStart - mTilePartStarts[i], (int) (overlapEnd - overlapStart));
+                buffer.get(data, (int) (overlapStart - start), (int) (overlapEnd - overlapStart));
+            }
+        }
+        for (long chunk = firstChunk; chunk < endChunk; ++chunk) {
+            int offset = (int) ((chunk - firstChunk) << CHUNK_SHIFT);
+            byte[] chunkData = new byte[CHUNK_SIZE];
+            System.arraycopy(data, offset, chunkData, 0, Math.min(CHUNK_SIZE, data.length - offset));
+            mChunks.put(chunk, chunkData);
+        }
+        mBytesLoaded += data.length;
+    }
+}
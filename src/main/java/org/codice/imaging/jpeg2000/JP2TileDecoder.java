@@ -0,0 +1,782 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Decodes tiles into component samples.
+ *
+ * This runs the whole decoding chain for a tile: packet headers (tier-2),
+ * code-blocks (tier-1), dequantization, the inverse wavelet transform, the
+ * inverse multiple component transformation and the DC level shift. See
+ * Annex G for the last two.
+ *
+ * If the decoder is given a fork/join pool, the work within a tile is split
+ * up as well: code-blocks are decoded in jobs for each sub-band, and the
+ * rows and column strips of each wavelet level are filtered in parallel.
+ * This lets a large single-tile image use more than one processor.
+ *
+ * The sample arrays, and the state of each stage, are kept between tiles,
+ * so a decoder should be reused for many tiles. A decoder must not be used
+ * by more than one thread at a time.
+ */
+public class JP2TileDecoder {
+
+    private static final int REVERSIBLE_TRANSFORMATION = 1;
+    private static final int MANTISSA_SCALE = 1 << 11;
+    private static final int NUMBER_OF_TRANSFORMED_COMPONENTS = 3;
+
+    // Multiple component transformation constants. See Equation G-6.
+    private static final float CR_TO_RED = 1.402f;
+    private static final float CB_TO_GREEN = 0.34413f;
+    private static final float CR_TO_GREEN = 0.71414f;
+    private static final float CB_TO_BLUE = 1.772f;
+
+    // Smallest amount of work worth handing to another thread.
+    private static final int CODE_BLOCKS_PER_TASK = 4;
+    private static final int SAMPLES_PER_TASK = 1 << 15;
+
+    private final JP2CodeStream mCodeStream;
+    private final JP2PacketDecoder mPacketDecoder;
+    private final ForkJoinPool mPool;
+    private final Queue<Worker> mWorkers = new ConcurrentLinkedQueue<>();
+
+    private JP2TileLayout mLayout = null;
+    private JP2CodeBlockIndex mIndex = null;
+    private JP2TileWindow mWindow = null;
+    private boolean mComponentTransformation = false;
+    private JP2DecodeParam mDecodeParam = null;
+    private int[][] mSamples = new int[0][];
+    private float[][] mFloatSamples = new float[0][];
+    private float[] mBandScales = new float[0];
+    private int[] mBandCodeBlocks = new int[0];
+    private int[] mFirstBandCodeBlock = new int[0];
+
+    /**
+     * Constructor.
+     *
+     * The decoder uses only the calling thread.
+     *
+     * @param codeStream the code stream to decode tiles from
+     */
+    public JP2TileDecoder(final JP2CodeStream codeStream) {
+        this(codeStream, null);
+    }
+
+    /**
+     * Constructor, for a decoder that splits each tile up between threads.
+     *
+     * @param codeStream the code stream to decode tiles from
+     * @param pool the pool to run the parts of a tile on, or null to use only the calling thread
+     */
+    public JP2TileDecoder(final JP2CodeStream codeStream, final ForkJoinPool pool) {
+        mCodeStream = codeStream;
+        mPacketDecoder = new JP2PacketDecoder(codeStream);
+        mPool = pool;
+    }
+
+    /**
+     * Decode a tile.
+     *
+     * The samples for each component are then available from getSamples().
+     *
+     * @param tileIndex the tile index, in raster order
+     * @throws JP2ParsingException if the tile could not be read, or is not valid
+     */
+    public void decodeTile(final int tileIndex) throws JP2ParsingException {
+        decodeTile(tileIndex, new JP2DecodeParam());
+    }
+
+    /**
+     * Decode part of a tile.
+     *
+     * The samples for each component are then available from getSamples(),
+     * at the resolution asked for, and covering just the part of the tile
+     * in the region, if there is one.
+     *
+     * @param tileIndex the tile index, in raster order
+     * @param param the part of the image to decode
+     * @throws JP2ParsingException if the tile could not be read, or is not valid
+     */
+    public void decodeTile(final int tileIndex, final JP2DecodeParam param) throws JP2ParsingException {
+        decodeComponents(tileIndex, param);
+        // Moves the window to the start of each array, which only works in order
+        boolean sequential = false;
+        for (int c = 0; c < mLayout.getNumberOfComponents(); ++c) {
+            if (isReversible(c) && (getFirstSample(c) != 0 || getStride(c) != getWidth(c))) {
+                sequential = true;
+            }
+        }
+        writeSamples(new PlaneWriter(), sequential);
+    }
+
+    /**
+     * Decode a tile into its place in a raster.
+     *
+     * The last stage of decoding writes straight into the raster, so the
+     * samples are not also available from getSamples(). The tile is decoded
+     * with the options that the raster was created for.
+     *
+     * @param tileIndex the tile index, in raster order
+     * @param raster the raster to write the samples into
+     * @throws JP2ParsingException if the tile could not be read, or is not valid
+     */
+    public void decodeTile(final int tileIndex, final JP2Raster raster) throws JP2ParsingException {
+        decodeTile(tileIndex, raster.getDecodeParam(), raster.getWriter());
+    }
+
+    /**
+     * Decode a tile into its place in a byte or short raster.
+     *
+     * As for a JP2Raster, the samples are not also available from
+     * getSamples(), and the tile is decoded with the options that the raster
+     * was created for.
+     *
+     * @param tileIndex the tile index, in raster order
+     * @param raster the raster to write the samples into
+     * @throws JP2ParsingException if the tile could not be read, or is not valid
+     */
+    public void decodeTile(final int tileIndex, final JP2PixelRaster raster) throws JP2ParsingException {
+        decodeTile(tileIndex, raster.getDecodeParam(), raster.getWriter());
+    }
+
+    /**
+     * Decode a tile into its place in storage supplied by the caller.
+     *
+     * As for a JP2Raster, the samples are not also available from
+     * getSamples(), and the tile is decoded with the options that the output
+     * was created for.
+     *
+     * @param tileIndex the tile index, in raster order
+     * @param output the storage to write the samples into
+     * @throws JP2ParsingException if the tile could not be read, or is not valid
+     */
+    public void decodeTile(final int tileIndex, final JP2RasterOutput output) throws JP2ParsingException {
+        decodeTile(tileIndex, output.getDecodeParam(), output.getWriter());
+    }
+
+    void decodeTile(final int tileIndex, final JP2DecodeParam param, final JP2SampleWriter writer) throws JP2ParsingException {
+        decodeComponents(tileIndex, param);
+        writeSamples(writer, false);
+    }
+
+    // Everything up to the inverse multiple component transformation
+    private void decodeComponents(final int tileIndex, final JP2DecodeParam param) throws JP2ParsingException {
+        mDecodeParam = param;
+        mIndex = mPacketDecoder.decodeTile(tileIndex, param);
+        mLayout = mIndex.getLayout();
+        mWindow = mIndex.getWindow();
+        int numberOfComponents = mLayout.getNumberOfComponents();
+        allocateSamples(numberOfComponents);
+        computeBandScales();
+        sortCodeBlocksByBand();
+        decodeCodeBlocks();
+        // The index holds on to the tile data
+        mIndex = null;
+        forRange(new RangeJob() {
+            @Override
+            public void run(final Worker worker, final int begin, final int end) throws JP2ParsingException {
+                for (int c = begin; c < end; ++c) {
+                    inverseWaveletTransform(c);
+                }
+            }
+        }, 0, numberOfComponents, 1);
+        mComponentTransformation = usesComponentTransformation(tileIndex);
+    }
+
+    JP2CodeStream getCodeStream() {
+        return mCodeStream;
+    }
+
+    /**
+     * Get the layout of the tile that was last decoded.
+     *
+     * @return the tile layout
+     */
+    public JP2TileLayout getLayout() {
+        return mLayout;
+    }
+
+    /**
+     * Get the decoded samples of a component.
+     *
+     * The samples are in raster order, covering the tile-component bounds
+     * from the layout, or the bounds of the lower resolution level if the
+     * resolution was reduced, clipped to the region if there is one. The
+     * array is reused by the next call to decodeTile(), and may be longer
+     * than the samples. Components that were not picked are not written.
+     *
+     * @param componentIndex the component (zero based)
+     * @return the samples
+     */
+    public int[] getSamples(final int componentIndex) {
+        return mSamples[componentIndex];
+    }
+
+    /**
+     * Get the width of a decoded component, which is also the row stride of the samples.
+     *
+     * @param componentIndex the component (zero based)
+     * @return the width in samples
+     */
+    public int getWidth(final int componentIndex) {
+        int res = getDecodedResolution(componentIndex);
+        return mWindow.getNeededEnd(res, JP2TileWindow.X) - mWindow.getNeededStart(res, JP2TileWindow.X);
+    }
+
+    /**
+     * Get the height of a decoded component.
+     *
+     * @param componentIndex the component (zero based)
+     * @return the height in samples
+     */
+    public int getHeight(final int componentIndex) {
+        int res = getDecodedResolution(componentIndex);
+        return mWindow.getNeededEnd(res, JP2TileWindow.Y) - mWindow.getNeededStart(res, JP2TileWindow.Y);
+    }
+
+    /**
+     * Get the horizontal position of the first decoded sample of a component.
+     *
+     * @param componentIndex the component (zero based)
+     * @return the x coordinate, in the coordinate system of the decoded resolution
+     */
+    public int getX0(final int componentIndex) {
+        int res = getDecodedResolution(componentIndex);
+        return mLayout.getResolutionX0(res) + mWindow.getNeededStart(res, JP2TileWindow.X);
+    }
+
+    /**
+     * Get the vertical position of the first decoded sample of a component.
+     *
+     * @param componentIndex the component (zero based)
+     * @return the y coordinate, in the coordinate system of the decoded resolution
+     */
+    public int getY0(final int componentIndex) {
+        int res = getDecodedResolution(componentIndex);
+        return mLayout.getResolutionY0(res) + mWindow.getNeededStart(res, JP2TileWindow.Y);
+    }
+
+    private int getDecodedResolution(final int componentIndex) {
+        return mLayout.getResolution(componentIndex, mWindow.getNumberOfResolutionLevels(componentIndex) - 1);
+    }
+
+    // The buffer is laid out as the window of the whole tile-component
+    private int getStride(final int componentIndex) {
+        return mWindow.getBufferSize(componentIndex, JP2TileWindow.X);
+    }
+
+    // Position in the buffer of the first decoded sample
+    private int getFirstSample(final int componentIndex) {
+        int res = getDecodedResolution(componentIndex);
+        int x = mWindow.getNeededStart(res, JP2TileWindow.X) - mWindow.getStoredStart(res, JP2TileWindow.X);
+        int y = mWindow.getNeededStart(res, JP2TileWindow.Y) - mWindow.getStoredStart(res, JP2TileWindow.Y);
+        return y * getStride(componentIndex) + x;
+    }
+
+    private boolean isReversible(final int componentIndex) {
+        return mLayout.getComponentCodingStyle(componentIndex).getTransformation() == REVERSIBLE_TRANSFORMATION;
+    }
+
+    private static int getRowsPerTask(final int width) {
+        return Math.max(1, SAMPLES_PER_TASK / Math.max(1, width));
+    }
+
+    private void allocateSamples(final int numberOfComponents) throws JP2ParsingException {
+        if (mSamples.length < numberOfComponents) {
+            mSamples = new int[numberOfComponents][];
+            mFloatSamples = new float[numberOfComponents][];
+        }
+        for (int c = 0; c < numberOfComponents; ++c) {
+            long samples = (long) getStride(c) * mWindow.getBufferSize(c, JP2TileWindow.Y);
+            if (samples > Integer.MAX_VALUE) {
+                throw new JP2ParsingException("Tile component " + c + " too large to decode at once: " + samples
+                        + " samples. Decode a smaller region, or at a lower resolution.");
+            }
+            int length = (int) samples;
+            if (mSamples[c] == null || mSamples[c].length < length) {
+                mSamples[c] = new int[length];
+            }
+            if (!isReversible(c) && (mFloatSamples[c] == null || mFloatSamples[c].length < length)) {
+                mFloatSamples[c] = new float[length];
+            }
+        }
+    }
+
+    // Work out the dequantization factor for each sub-band. See Equation E-3.
+    private void computeBandScales() throws JP2ParsingException {
+        int numberOfBands = mLayout.getNumberOfBands();
+        if (mBandScales.length < numberOfBands) {
+            mBandScales = new float[numberOfBands];
+        }
+        for (int band = 0; band < numberOfBands; ++band) {
+            int res = mLayout.getBandResolution(band);
+            int c = mLayout.getResolutionComponent(res);
+            int r = mLayout.getResolutionLevel(res);
+            int orientation = mLayout.getBandOrientation(band);
+            JP2Quantization quantization = mLayout.getComponentQuantization(c);
+            if (quantization.getQuantizationStyle() == JP2Quantization.NO_QUANTIZATION) {
+                mBandScales[band] = 1.0f;
+            } else {
+                int bandIndex = (r == 0) ? 0 : orientation - 1;
+                // The nominal dynamic range gains by one bit for each high pass filtering
+                int dynamicRange = mCodeStream.getComponentBitDepth(c) + Integer.bitCount(orientation);
+                double stepSize = Math.pow(2, dynamicRange - quantization.getBandExponent(r, bandIndex)) * (1.0 + (double) quantization.getBandMantissa(r, bandIndex) / MANTISSA_SCALE);
+                mBandScales[band] = (float) stepSize;
+            }
+        }
+    }
+
+    // Code-blocks are numbered by precinct, so gather up the code-blocks of each sub-band.
+    private void sortCodeBlocksByBand() {
+        int numberOfBands = mLayout.getNumberOfBands();
+        int numberOfCodeBlocks = mLayout.getNumberOfCodeBlocks();
+        if (mFirstBandCodeBlock.length < numberOfBands + 1) {
+            mFirstBandCodeBlock = new int[numberOfBands + 1];
+        }
+        if (mBandCodeBlocks.length < numberOfCodeBlocks) {
+            mBandCodeBlocks = new int[numberOfCodeBlocks];
+        }
+        for (int band = 0; band <= numberOfBands; ++band) {
+            mFirstBandCodeBlock[band] = 0;
+        }
+        for (int codeBlock = 0; codeBlock < numberOfCodeBlocks; ++codeBlock) {
+            mFirstBandCodeBlock[mLayout.getCodeBlockBand(codeBlock) + 1]++;
+        }
+        for (int band = 0; band < numberOfBands; ++band) {
+            mFirstBandCodeBlock[band + 1] += mFirstBandCodeBlock[band];
+        }
+        // Use the start of each band as a running position, which leaves it at the start of the next band
+        for (int codeBlock = 0; codeBlock < numberOfCodeBlocks; ++codeBlock) {
+            int band = mLayout.getCodeBlockBand(codeBlock);
+            mBandCodeBlocks[mFirstBandCodeBlock[band]++] = codeBlock;
+        }
+        for (int band = numberOfBands; band > 0; --band) {
+            mFirstBandCodeBlock[band] = mFirstBandCodeBlock[band - 1];
+        }
+        mFirstBandCodeBlock[0] = 0;
+    }
+
+    private void decodeCodeBlocks() throws JP2ParsingException {
+        forRange(new RangeJob() {
+            @Override
+            public void run(final Worker worker, final int begin, final int end) throws JP2ParsingException {
+                for (int band = begin; band < end; ++band) {
+                    decodeBand(band);
+                }
+            }
+        }, 0, mLayout.getNumberOfBands(), 1);
+    }
+
+    private void decodeBand(final int band) throws JP2ParsingException {
+        if (!mWindow.isResolutionNeeded(mLayout.getBandResolution(band))) {
+            return;
+        }
+        forRange(new RangeJob() {
+            @Override
+            public void run(final Worker worker, final int begin, final int end) throws JP2ParsingException {
+                for (int i = begin; i < end; ++i) {
+                    if (mWindow.isCodeBlockNeeded(mBandCodeBlocks[i])) {
+                        decodeCodeBlock(worker, band, mBandCodeBlocks[i]);
+                    }
+                }
+            }
+        }, mFirstBandCodeBlock[band], mFirstBandCodeBlock[band + 1], CODE_BLOCKS_PER_TASK);
+    }
+
+    // Decode a code-block, and copy the part of it in the window of its sub-band into the buffer
+    private void decodeCodeBlock(final Worker worker, final int band, final int codeBlock) throws JP2ParsingException {
+        int c = mLayout.getResolutionComponent(mLayout.getBandResolution(band));
+        int x0 = mLayout.getCodeBlockX0(codeBlock) - mLayout.getBandX0(band);
+        int y0 = mLayout.getCodeBlockY0(codeBlock) - mLayout.getBandY0(band);
+        int width = mLayout.getCodeBlockX1(codeBlock) - mLayout.getCodeBlockX0(codeBlock);
+        int height = mLayout.getCodeBlockY1(codeBlock) - mLayout.getCodeBlockY0(codeBlock);
+        int[] codeBlockSamples = worker.getCodeBlockSamples(width * height);
+        worker.mCodeBlockDecoder.decode(mIndex, codeBlock, codeBlockSamples, 0, width);
+        int firstColumn = Math.max(x0, mWindow.getBandStart(band, JP2TileWindow.X));
+        int endColumn = Math.min(x0 + width, mWindow.getBandEnd(band, JP2TileWindow.X));
+        int firstRow = Math.max(y0, mWindow.getBandStart(band, JP2TileWindow.Y));
+        int endRow = Math.min(y0 + height, mWindow.getBandEnd(band, JP2TileWindow.Y));
+        int stride = getStride(c);
+        int destination = (mWindow.getBandOrigin(band, JP2TileWindow.Y) + firstRow) * stride + mWindow.getBandOrigin(band, JP2TileWindow.X) + firstColumn;
+        int source = (firstRow - y0) * width + firstColumn - x0;
+        int columns = endColumn - firstColumn;
+        if (isReversible(c)) {
+            int[] samples = mSamples[c];
+            for (int row = firstRow; row < endRow; ++row, source += width, destination += stride) {
+                // Drop the extra bit of precision from tier-1
+                for (int i = 0; i < columns; ++i) {
+                    samples[destination + i] = codeBlockSamples[source + i] / 2;
+                }
+            }
+        } else {
+            float[] samples = mFloatSamples[c];
+            float scale = mBandScales[band] / 2;
+            for (int row = firstRow; row < endRow; ++row, source += width, destination += stride) {
+                for (int i = 0; i < columns; ++i) {
+                    samples[destination + i] = codeBlockSamples[source + i] * scale;
+                }
+            }
+        }
+    }
+
+    // One level at a time, with all the rows of the level filtered before any of the columns.
+    private void inverseWaveletTransform(final int componentIndex) throws JP2ParsingException {
+        final int stride = getStride(componentIndex);
+        final boolean reversible = isReversible(componentIndex);
+        for (int r = 1; r < mWindow.getNumberOfResolutionLevels(componentIndex); ++r) {
+            final int res = mLayout.getResolution(componentIndex, r);
+            if (!mWindow.isResolutionNeeded(res)) {
+                continue;
+            }
+            int width = mWindow.getStoredEnd(res, JP2TileWindow.X) - mWindow.getStoredStart(res, JP2TileWindow.X);
+            int height = mWindow.getStoredEnd(res, JP2TileWindow.Y) - mWindow.getStoredStart(res, JP2TileWindow.Y);
+            forRange(new RangeJob() {
+                @Override
+                public void run(final Worker worker, final int begin, final int end) {
+                    if (reversible) {
+                        worker.mWaveletTransform.inverseReversibleRows(mWindow, res, mSamples[componentIndex], 0, stride, begin, end);
+                    } else {
+                        worker.mWaveletTransform.inverseIrreversibleRows(mWindow, res, mFloatSamples[componentIndex], 0, stride, begin, end);
+                    }
+                }
+            }, 0, JP2InverseWaveletTransform.getNumberOfRows(mWindow, res), getRowsPerTask(width));
+            forRange(new RangeJob() {
+                @Override
+                public void run(final Worker worker, final int begin, final int end) {
+                    if (reversible) {
+                        worker.mWaveletTransform.inverseReversibleColumns(mWindow, res, mSamples[componentIndex], 0, stride, begin, end);
+                    } else {
+                        worker.mWaveletTransform.inverseIrreversibleColumns(mWindow, res, mFloatSamples[componentIndex], 0, stride, begin, end);
+                    }
+                }
+            }, 0, JP2InverseWaveletTransform.getNumberOfStrips(mWindow, res), Math.max(1, SAMPLES_PER_TASK / (JP2InverseWaveletTransform.STRIP_WIDTH * height)));
+        }
+    }
+
+    private boolean usesComponentTransformation(final int tileIndex) throws JP2ParsingException {
+        if (mCodeStream.getTileCodingStyle(tileIndex).getMultipleComponentTransformation() == 0) {
+            return false;
+        }
+        if (mLayout.getNumberOfComponents() < NUMBER_OF_TRANSFORMED_COMPONENTS) {
+            throw new JP2ParsingException("Multiple component transformation needs at least three components");
+        }
+        for (int c = 1; c < NUMBER_OF_TRANSFORMED_COMPONENTS; ++c) {
+            if (getWidth(c) != getWidth(0) || getHeight(c) != getHeight(0) || isReversible(c) != isReversible(0)) {
+                throw new JP2ParsingException("Multiple component transformation needs matching components");
+            }
+        }
+        return true;
+    }
+
+    /*
+     * The last stage runs over the rows of the tile in a single pass: the
+     * inverse multiple component transformation (Annex G), the DC level
+     * shift, clipping to the component bit depth, and narrowing to the bit
+     * depth of the output. Each row is built up in worker storage and handed
+     * to the writer, so the samples are only read and written once.
+     */
+
+    private void writeSamples(final JP2SampleWriter writer, final boolean sequential) throws JP2ParsingException {
+        int numberOfComponents = mLayout.getNumberOfComponents();
+        final SampleRange[] ranges = new SampleRange[numberOfComponents];
+        for (int c = 0; c < numberOfComponents; ++c) {
+            ranges[c] = new SampleRange(c, writer.getBitDepth(c));
+        }
+        final int firstComponent = mComponentTransformation ? NUMBER_OF_TRANSFORMED_COMPONENTS : 0;
+        if (mComponentTransformation) {
+            final boolean reversible = isReversible(0);
+            writeRows(new RangeJob() {
+                @Override
+                public void run(final Worker worker, final int begin, final int end) {
+                    if (reversible) {
+                        writeReversibleComponentTransformation(worker, writer, ranges, begin, end);
+                    } else {
+                        writeIrreversibleComponentTransformation(worker, writer, ranges, begin, end);
+                    }
+                }
+            }, getHeight(0), getWidth(0), sequential);
+        }
+        for (int c = firstComponent; c < numberOfComponents; ++c) {
+            if (!mDecodeParam.isComponentDecoded(c)) {
+                continue;
+            }
+            final int componentIndex = c;
+            writeRows(new RangeJob() {
+                @Override
+                public void run(final Worker worker, final int begin, final int end) {
+                    writeComponent(worker, writer, ranges[componentIndex], begin, end);
+                }
+            }, getHeight(c), getWidth(c), sequential);
+        }
+    }
+
+    private void writeRows(final RangeJob job, final int height, final int width, final boolean sequential) throws JP2ParsingException {
+        if (sequential) {
+            runJob(job, 0, height);
+        } else {
+            forRange(job, 0, height, getRowsPerTask(width));
+        }
+    }
+
+    private void writeComponent(final Worker worker, final JP2SampleWriter writer, final SampleRange range, final int firstRow, final int endRow) {
+        int c = range.mComponentIndex;
+        int width = getWidth(c);
+        int x0 = getX0(c);
+        int y0 = getY0(c);
+        int stride = getStride(c);
+        int[] row = worker.getRow(0, width);
+        for (int y = firstRow; y < endRow; ++y) {
+            int i = getFirstSample(c) + y * stride;
+            if (isReversible(c)) {
+                int[] samples = mSamples[c];
+                for (int x = 0; x < width; ++x, ++i) {
+                    row[x] = range.fit(samples[i]);
+                }
+            } else {
+                float[] samples = mFloatSamples[c];
+                for (int x = 0; x < width; ++x, ++i) {
+                    row[x] = range.fit(Math.round(samples[i]));
+                }
+            }
+            writer.writeRow(c, x0, y0 + y, row, width);
+        }
+    }
+
+    // See Equation G-7.
+    private void writeReversibleComponentTransformation(final Worker worker, final JP2SampleWriter writer, final SampleRange[] ranges, final int firstRow, final int endRow) {
+        int[] y0 = mSamples[0];
+        int[] y1 = mSamples[1];
+        int[] y2 = mSamples[2];
+        int width = getWidth(0);
+        int[] red = worker.getRow(0, width);
+        int[] green = worker.getRow(1, width);
+        int[] blue = worker.getRow(2, width);
+        for (int y = firstRow; y < endRow; ++y) {
+            int i0 = getFirstSample(0) + y * getStride(0);
+            int i1 = getFirstSample(1) + y * getStride(1);
+            int i2 = getFirstSample(2) + y * getStride(2);
+            for (int x = 0; x < width; ++x, ++i0, ++i1, ++i2) {
+                int g = y0[i0] - ((y1[i1] + y2[i2]) >> 2);
+                red[x] = ranges[0].fit(y2[i2] + g);
+                green[x] = ranges[1].fit(g);
+                blue[x] = ranges[2].fit(y1[i1] + g);
+            }
+            writeTransformedRow(writer, y, red, green, blue, width);
+        }
+    }
+
+    // See Equation G-6.
+    private void writeIrreversibleComponentTransformation(final Worker worker, final JP2SampleWriter writer, final SampleRange[] ranges, final int firstRow, final int endRow) {
+        float[] y0 = mFloatSamples[0];
+        float[] y1 = mFloatSamples[1];
+        float[] y2 = mFloatSamples[2];
+        int width = getWidth(0);
+        int[] red = worker.getRow(0, width);
+        int[] green = worker.getRow(1, width);
+        int[] blue = worker.getRow(2, width);
+        for (int y = firstRow; y < endRow; ++y) {
+            int i0 = getFirstSample(0) + y * getStride(0);
+            int i1 = getFirstSample(1) + y * getStride(1);
+            int i2 = getFirstSample(2) + y * getStride(2);
+            for (int x = 0; x < width; ++x, ++i0, ++i1, ++i2) {
+                float luminance = y0[i0];
+                float cb = y1[i1];
+                float cr = y2[i2];
+                red[x] = ranges[0].fit(Math.round(luminance + CR_TO_RED * cr));
+                green[x] = ranges[1].fit(Math.round(luminance - CB_TO_GREEN * cb - CR_TO_GREEN * cr));
+                blue[x] = ranges[2].fit(Math.round(luminance + CB_TO_BLUE * cb));
+            }
+            writeTransformedRow(writer, y, red, green, blue, width);
+        }
+    }
+
+    // Components that were not picked are still transformed, but not written
+    private void writeTransformedRow(final JP2SampleWriter writer, final int y, final int[] red, final int[] green, final int[] blue, final int width) {
+        if (mDecodeParam.isComponentDecoded(0)) {
+            writer.writeRow(0, getX0(0), getY0(0) + y, red, width);
+        }
+        if (mDecodeParam.isComponentDecoded(1)) {
+            writer.writeRow(1, getX0(1), getY0(1) + y, green, width);
+        }
+        if (mDecodeParam.isComponentDecoded(2)) {
+            writer.writeRow(2, getX0(2), getY0(2) + y, blue, width);
+        }
+    }
+
+    // Undoes the DC level shift, and clips to the component bit depth. See Section G.1.
+    private final class SampleRange {
+
+        private final int mComponentIndex;
+        private final int mShift;
+        private final int mMinimum;
+        private final int mMaximum;
+        private final int mNarrowing;
+
+        SampleRange(final int componentIndex, final int outputBitDepth) throws JP2ParsingException {
+            int bitDepth = mCodeStream.getComponentBitDepth(componentIndex);
+            mComponentIndex = componentIndex;
+            if (mCodeStream.isComponentSigned(componentIndex)) {
+                mShift = 0;
+                mMinimum = -(1 << (bitDepth - 1));
+                mMaximum = (1 << (bitDepth - 1)) - 1;
+            } else {
+                mShift = 1 << (bitDepth - 1);
+                mMinimum = 0;
+                mMaximum = (1 << bitDepth) - 1;
+            }
+            mNarrowing = Math.max(0, bitDepth - outputBitDepth);
+        }
+
+        int fit(final int sample) {
+            return Math.max(mMinimum, Math.min(mMaximum, sample + mShift)) >> mNarrowing;
+        }
+    }
+
+    // Writes the decoded samples back to the start of the decoder's own arrays
+    private final class PlaneWriter implements JP2SampleWriter {
+
+        @Override
+        public int getBitDepth(final int componentIndex) {
+            return Integer.SIZE;
+        }
+
+        @Override
+        public void writeRow(final int componentIndex, final int x, final int y, final int[] samples, final int length) {
+            int offset = (y - getY0(componentIndex)) * getWidth(componentIndex) + x - getX0(componentIndex);
+            System.arraycopy(samples, 0, mSamples[componentIndex], offset, length);
+        }
+    }
+
+    /*
+     * Each part of a tile is written as a job over a range of independent
+     * items (sub-bands, code-blocks, rows or strips). Without a pool the job
+     * just runs over the whole range. With a pool the range is split in half
+     * until it is no bigger than the grain, and the pieces are run as
+     * fork/join tasks. If this is already running in the pool (for example
+     * a tile task), the split up job runs as part of the current task.
+     */
+
+    private interface RangeJob {
+
+        void run(Worker worker, int begin, int end) throws JP2ParsingException;
+    }
+
+    private void forRange(final RangeJob job, final int begin, final int end, final int grain) throws JP2ParsingException {
+        if (mPool == null || end - begin <= grain) {
+            runJob(job, begin, end);
+            return;
+        }
+        AtomicReference<JP2ParsingException> error = new AtomicReference<>();
+        RangeTask task = new RangeTask(job, begin, end, grain, error);
+        if (ForkJoinTask.getPool() == mPool) {
+            task.invoke();
+        } else {
+            mPool.invoke(task);
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    private void runJob(final RangeJob job, final int begin, final int end) throws JP2ParsingException {
+        if (begin >= end) {
+            return;
+        }
+        Worker worker = mWorkers.poll();
+        if (worker == null) {
+            worker = new Worker();
+        }
+        try {
+            job.run(worker, begin, end);
+        } finally {
+            mWorkers.add(worker);
+        }
+    }
+
+    private final class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RangeJob mJob;
+        private final int mBegin;
+        private final int mEnd;
+        private final int mGrain;
+        private final AtomicReference<JP2ParsingException> mError;
+
+        RangeTask(final RangeJob job, final int begin, final int end, final int grain, final AtomicReference<JP2ParsingException> error) {
+            mJob = job;
+            mBegin = begin;
+            mEnd = end;
+            mGrain = grain;
+            mError = error;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mBegin > mGrain) {
+                int middle = (mBegin + mEnd) >>> 1;
+                invokeAll(new RangeTask(mJob, mBegin, middle, mGrain, mError), new RangeTask(mJob, middle, mEnd, mGrain, mError));
+                return;
+            }
+            if (mError.get() != null) {
+                return;
+            }
+            try {
+                runJob(mJob, mBegin, mEnd);
+            } catch (JP2ParsingException e) {
+                mError.compareAndSet(null, e);
+            }
+        }
+    }
+
+    // Working storage for one thread.
+    private static final class Worker {
+
+        private final JP2CodeBlockDecoder mCodeBlockDecoder = new JP2CodeBlockDecoder();
+        private final JP2InverseWaveletTransform mWaveletTransform = new JP2InverseWaveletTransform();
+        private int[] mCodeBlockSamples = new int[0];
+        private final int[][] mRows = new int[NUMBER_OF_TRANSFORMED_COMPONENTS][0];
+
+        int[] getCodeBlockSamples(final int length) {
+            if (mCodeBlockSamples.length < length) {
+                mCodeBlockSamples = new int[length];
+            }
+            return mCodeBlockSamples;
+        }
+
+        int[] getRow(final int index, final int length) {
+            if (mRows[index].length < length) {
+                mRows[index] = new int[length];
+            }
+            return mRows[index];
+        }
+    }
+}
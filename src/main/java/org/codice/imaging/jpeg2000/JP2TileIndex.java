@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.util.Arrays;
+
+/**
+ * Index of the tile-part locations within a code stream.
+ *
+ * Tile-parts are numbered in code stream order. The index is held in
+ * primitive arrays, and also groups tile-parts by tile, so the tile-parts
+ * for any tile can be found without walking the code stream.
+ */
+public class JP2TileIndex {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int mNumberOfTileParts = 0;
+    private int[] mTileIndices = new int[INITIAL_CAPACITY];
+    private long[] mOffsets = new long[INITIAL_CAPACITY];
+    private long[] mLengths = new long[INITIAL_CAPACITY];
+
+    // Tile-part numbers grouped by tile, and where each tile's group starts.
+    private int[] mTilePartsByTile = new int[0];
+    private int[] mFirstEntryForTile = new int[1];
+
+    void addTilePart(final int tileIndex, final long offset, final long length) {
+        if (mNumberOfTileParts == mTileIndices.length) {
+            int newCapacity = mTileIndices.length * 2;
+            mTileIndices = Arrays.copyOf(mTileIndices, newCapacity);
+            mOffsets = Arrays.copyOf(mOffsets, newCapacity);
+            mLengths = Arrays.copyOf(mLengths, newCapacity);
+        }
+        mTileIndices[mNumberOfTileParts] = tileIndex;
+        mOffsets[mNumberOfTileParts] = offset;
+        mLengths[mNumberOfTileParts] = length;
+        mNumberOfTileParts++;
+    }
+
+    /**
+     * Build the per-tile lookup, once all tile-parts have been added.
+     *
+     * @param numberOfTiles the number of tiles in the image
+     * @throws JP2ParsingException if a tile-part refers to a tile outside the image
+     */
+    void buildTileLookup(final int numberOfTiles) throws JP2ParsingException {
+        mFirstEntryForTile = new int[numberOfTiles + 1];
+        for (int i = 0; i < mNumberOfTileParts; ++i) {
+            if (mTileIndices[i] < 0 || mTileIndices[i] >= numberOfTiles) {
+                throw new JP2ParsingException("Tile index " + mTileIndices[i] + " out of range, image has " + numberOfTiles + " tiles");
+            }
+            mFirstEntryForTile[mTileIndices[i] + 1]++;
+        }
+        for (int t = 0; t < numberOfTiles; ++t) {
+            mFirstEntryForTile[t + 1] += mFirstEntryForTile[t];
+        }
+        int[] nextEntry = Arrays.copyOf(mFirstEntryForTile, numberOfTiles);
+        mTilePartsByTile = new int[mNumberOfTileParts];
+        for (int i = 0; i < mNumberOfTileParts; ++i) {
+            mTilePartsByTile[nextEntry[mTileIndices[i]]++] = i;
+        }
+    }
+
+    /**
+     * Get the total number of tile-parts in the code stream.
+     *
+     * @return number of tile-parts
+     */
+    public int getNumberOfTileParts() {
+        return mNumberOfTileParts;
+    }
+
+    /**
+     * Get the tile that a tile-part belongs to.
+     *
+     * @param tilePartNumber the tile-part, in code stream order
+     * @return the tile index (Isot)
+     */
+    public int getTileIndex(final int tilePartNumber) {
+        return mTileIndices[tilePartNumber];
+    }
+
+    /**
+     * Get the offset of a tile-part's SOT marker.
+     *
+     * @param tilePartNumber the tile-part, in code stream order
+     * @return offset of the SOT marker within the reader
+     */
+    public long getOffset(final int tilePartNumber) {
+        return mOffsets[tilePartNumber];
+    }
+
+    /**
+     * Get the length of a tile-part, including the SOT marker segment.
+     *
+     * @param tilePartNumber the tile-part, in code stream order
+     * @return length in bytes (Psot)
+     */
+    public long getLength(final int tilePartNumber) {
+        return mLengths[tilePartNumber];
+    }
+
+    /**
+     * Get the number of tiles covered by the lookup.
+     *
+     * @return number of tiles in the image
+     */
+    public int getNumberOfTiles() {
+        return mFirstEntryForTile.length - 1;
+    }
+
+    /**
+     * Get the number of tile-parts present for a tile.
+     *
+     * @param tileIndex the tile
+     * @return number of tile-parts, which may be zero
+     */
+    public int getNumberOfTilePartsForTile(final int tileIndex) {
+        return mFirstEntryForTile[tileIndex + 1] - mFirstEntryForTile[tileIndex];
+    }
+
+    /**
+     * Get a tile-part of a tile.
+     *
+     * @param tileIndex the tile
+     * @param n which of the tile's tile-parts, in code stream order
+     * @return the tile-part number, in code stream order
+     */
+    public int getTilePartForTile(final int tileIndex, final int n) {
+        return mTilePartsByTile[mFirstEntryForTile[tileIndex] + n];
+    }
+}
@@ -0,0 +1,665 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+/**
+ * Geometry of the components, resolution levels, sub-bands, precincts and
+ * code-blocks of a tile.
+ *
+ * Everything is held in flat primitive arrays, with each level of the
+ * hierarchy numbered across the whole tile:
+ * <ul>
+ * <li>resolutions, in component order and then resolution level order;</li>
+ * <li>sub-bands, in resolution order and then LL or HL, LH, HH order;</li>
+ * <li>precincts, in resolution order and then raster order;</li>
+ * <li>precinct-bands (the part of a sub-band inside a precinct), in
+ * precinct order and then sub-band order;</li>
+ * <li>code-blocks, in precinct-band order and then raster order within the
+ * precinct-band.</li>
+ * </ul>
+ * So the code-blocks of a precinct (which make up a packet) are contiguous,
+ * and are in the order that they appear in the packet header. Bounds are
+ * half open, and in the coordinate system of the component, resolution
+ * level or sub-band as appropriate. See Annex B.
+ */
+public class JP2TileLayout {
+
+    public static final int BAND_LL = 0;
+    public static final int BAND_HL = 1;
+    public static final int BAND_LH = 2;
+    public static final int BAND_HH = 3;
+
+    private static final int X0 = 0;
+    private static final int Y0 = 1;
+    private static final int X1 = 2;
+    private static final int Y1 = 3;
+    private static final int BOUNDS_LENGTH = 4;
+
+    private final int mTileIndex;
+    private final int[] mTileBounds = new int[BOUNDS_LENGTH];
+    private final int mNumberOfComponents;
+    private final JP2CodingStyle[] mComponentCodingStyles;
+    private final JP2Quantization[] mComponentQuantizations;
+    private final int[] mComponentHorizontalSeparations;
+    private final int[] mComponentVerticalSeparations;
+    private final int[] mComponentBounds;
+    private final int[] mFirstResolution;
+
+    private final int[] mResolutionComponent;
+    private final int[] mResolutionLevel;
+    private final int[] mResolutionBounds;
+    private final int[] mPrecinctWidthExponents;
+    private final int[] mPrecinctHeightExponents;
+    private final int[] mPrecinctsWide;
+    private final int[] mPrecinctsHigh;
+    private final int[] mFirstPrecinct;
+    private final int[] mFirstBand;
+
+    private final int[] mBandResolution;
+    private final int[] mBandOrientation;
+    private final int[] mBandDecompositionLevel;
+    private final int[] mBandBounds;
+    private final int[] mBandCodeBlockWidthExponents;
+    private final int[] mBandCodeBlockHeightExponents;
+    private final int[] mBandMagnitudeBitPlanes;
+
+    private final int[] mFirstPrecinctBand;
+    private final int[] mPrecinctBandBand;
+    private final int[] mPrecinctBandBounds;
+    private final int[] mCodeBlocksWide;
+    private final int[] mCodeBlocksHigh;
+    private final int[] mFirstCodeBlock;
+
+    private final int[] mCodeBlockBand;
+    private final int[] mCodeBlockBounds;
+
+    /**
+     * Work out the layout of a tile.
+     *
+     * @param codeStream the code stream that the tile is part of
+     * @param tileIndex the tile index, in raster order
+     * @throws JP2ParsingException if the coding style or quantization for the tile could not be read
+     */
+    public JP2TileLayout(final JP2CodeStream codeStream, final int tileIndex) throws JP2ParsingException {
+        mTileIndex = tileIndex;
+        int tileColumn = tileIndex % codeStream.getNumberOfTilesX();
+        int tileRow = tileIndex / codeStream.getNumberOfTilesX();
+        long tileX0 = (long) codeStream.getHorizontalOffsetOfReferenceTile() + (long) tileColumn * codeStream.getWidthOfReferenceTile();
+        long tileY0 = (long) codeStream.getVerticalOffsetOfReferenceTile() + (long) tileRow * codeStream.getHeightOfReferenceTile();
+        mTileBounds[X0] = (int) Math.max(tileX0, codeStream.getHorizontalOffset());
+        mTileBounds[Y0] = (int) Math.max(tileY0, codeStream.getVerticalOffset());
+        mTileBounds[X1] = (int) Math.min(tileX0 + codeStream.getWidthOfReferenceTile(), codeStream.getXSize());
+        mTileBounds[Y1] = (int) Math.min(tileY0 + codeStream.getHeightOfReferenceTile(), codeStream.getYSize());
+
+        mNumberOfComponents = codeStream.getNumberOfComponentsInImage();
+        mComponentCodingStyles = new JP2CodingStyle[mNumberOfComponents];
+        mComponentQuantizations = new JP2Quantization[mNumberOfComponents];
+        mComponentHorizontalSeparations = new int[mNumberOfComponents];
+        mComponentVerticalSeparations = new int[mNumberOfComponents];
+        mComponentBounds = new int[mNumberOfComponents * BOUNDS_LENGTH];
+        mFirstResolution = new int[mNumberOfComponents + 1];
+        for (int c = 0; c < mNumberOfComponents; ++c) {
+            mComponentCodingStyles[c] = codeStream.getTileComponentCodingStyle(tileIndex, c);
+            mComponentQuantizations[c] = codeStream.getTileComponentQuantization(tileIndex, c);
+            mComponentHorizontalSeparations[c] = codeStream.getComponentHorizontalSeparation(c);
+            mComponentVerticalSeparations[c] = codeStream.getComponentVerticalSeparation(c);
+            mComponentBounds[c * BOUNDS_LENGTH + X0] = ceilingDivide(mTileBounds[X0], mComponentHorizontalSeparations[c]);
+            mComponentBounds[c * BOUNDS_LENGTH + Y0] = ceilingDivide(mTileBounds[Y0], mComponentVerticalSeparations[c]);
+            mComponentBounds[c * BOUNDS_LENGTH + X1] = ceilingDivide(mTileBounds[X1], mComponentHorizontalSeparations[c]);
+            mComponentBounds[c * BOUNDS_LENGTH + Y1] = ceilingDivide(mTileBounds[Y1], mComponentVerticalSeparations[c]);
+            mFirstResolution[c + 1] = mFirstResolution[c] + mComponentCodingStyles[c].getNumberOfDecompositionLevels() + 1;
+        }
+
+        int numberOfResolutions = mFirstResolution[mNumberOfComponents];
+        mResolutionComponent = new int[numberOfResolutions];
+        mResolutionLevel = new int[numberOfResolutions];
+        mResolutionBounds = new int[numberOfResolutions * BOUNDS_LENGTH];
+        mPrecinctWidthExponents = new int[numberOfResolutions];
+        mPrecinctHeightExponents = new int[numberOfResolutions];
+        mPrecinctsWide = new int[numberOfResolutions];
+        mPrecinctsHigh = new int[numberOfResolutions];
+        mFirstPrecinct = new int[numberOfResolutions + 1];
+        mFirstBand = new int[numberOfResolutions + 1];
+        long numberOfPrecinctBands = 0;
+        for (int c = 0; c < mNumberOfComponents; ++c) {
+            JP2CodingStyle codingStyle = mComponentCodingStyles[c];
+            int numberOfDecompositionLevels = codingStyle.getNumberOfDecompositionLevels();
+            for (int r = 0; r <= numberOfDecompositionLevels; ++r) {
+                int res = mFirstResolution[c] + r;
+                int scale = numberOfDecompositionLevels - r;
+                mResolutionComponent[res] = c;
+                mResolutionLevel[res] = r;
+                for (int i = 0; i < BOUNDS_LENGTH; ++i) {
+                    mResolutionBounds[res * BOUNDS_LENGTH + i] = ceilingDividePowerOfTwo(mComponentBounds[c * BOUNDS_LENGTH + i], scale);
+                }
+                mPrecinctWidthExponents[res] = codingStyle.getPrecinctWidthExponent(r);
+                mPrecinctHeightExponents[res] = codingStyle.getPrecinctHeightExponent(r);
+                mPrecinctsWide[res] = numberOfPrecincts(mResolutionBounds[res * BOUNDS_LENGTH + X0], mResolutionBounds[res * BOUNDS_LENGTH + X1], mPrecinctWidthExponents[res]);
+                mPrecinctsHigh[res] = numberOfPrecincts(mResolutionBounds[res * BOUNDS_LENGTH + Y0], mResolutionBounds[res * BOUNDS_LENGTH + Y1], mPrecinctHeightExponents[res]);
+                long numberOfPrecincts = (long) mPrecinctsWide[res] * mPrecinctsHigh[res];
+                int numberOfBands = (r == 0) ? 1 : 3;
+                mFirstPrecinct[res + 1] = checkedCount(mFirstPrecinct[res] + numberOfPrecincts, "precincts");
+                mFirstBand[res + 1] = mFirstBand[res] + numberOfBands;
+                numberOfPrecinctBands += numberOfPrecincts * numberOfBands;
+            }
+        }
+
+        int numberOfBands = mFirstBand[numberOfResolutions];
+        mBandResolution = new int[numberOfBands];
+        mBandOrientation = new int[numberOfBands];
+        mBandDecompositionLevel = new int[numberOfBands];
+        mBandBounds = new int[numberOfBands * BOUNDS_LENGTH];
+        mBandCodeBlockWidthExponents = new int[numberOfBands];
+        mBandCodeBlockHeightExponents = new int[numberOfBands];
+        mBandMagnitudeBitPlanes = new int[numberOfBands];
+        for (int res = 0; res < numberOfResolutions; ++res) {
+            int c = mResolutionComponent[res];
+            int r = mResolutionLevel[res];
+            JP2CodingStyle codingStyle = mComponentCodingStyles[c];
+            int numberOfDecompositionLevels = codingStyle.getNumberOfDecompositionLevels();
+            // Precincts in a sub-band are half the size of those in the resolution level, except for the LL band
+            int bandPrecinctWidthExponent = (r == 0) ? mPrecinctWidthExponents[res] : mPrecinctWidthExponents[res] - 1;
+            int bandPrecinctHeightExponent = (r == 0) ? mPrecinctHeightExponents[res] : mPrecinctHeightExponents[res] - 1;
+            for (int band = mFirstBand[res]; band < mFirstBand[res + 1]; ++band) {
+                mBandResolution[band] = res;
+                mBandOrientation[band] = (r == 0) ? BAND_LL : BAND_HL + band - mFirstBand[res];
+                mBandDecompositionLevel[band] = (r == 0) ? numberOfDecompositionLevels : numberOfDecompositionLevels - r + 1;
+                int xOffset = mBandOrientation[band] & BAND_HL;
+                int yOffset = (mBandOrientation[band] & BAND_LH) >> 1;
+                int levelScale = mBandDecompositionLevel[band];
+                // See Equation B-15
+                mBandBounds[band * BOUNDS_LENGTH + X0] = bandCoordinate(mComponentBounds[c * BOUNDS_LENGTH + X0], xOffset, levelScale);
+                mBandBounds[band * BOUNDS_LENGTH + Y0] = bandCoordinate(mComponentBounds[c * BOUNDS_LENGTH + Y0], yOffset, levelScale);
+                mBandBounds[band * BOUNDS_LENGTH + X1] = bandCoordinate(mComponentBounds[c * BOUNDS_LENGTH + X1], xOffset, levelScale);
+                mBandBounds[band * BOUNDS_LENGTH + Y1] = bandCoordinate(mComponentBounds[c * BOUNDS_LENGTH + Y1], yOffset, levelScale);
+                mBandCodeBlockWidthExponents[band] = Math.min(codingStyle.getCodeBlockWidthExponent(), bandPrecinctWidthExponent);
+                mBandCodeBlockHeightExponents[band] = Math.min(codingStyle.getCodeBlockHeightExponent(), bandPrecinctHeightExponent);
+                mBandMagnitudeBitPlanes[band] = mComponentQuantizations[c].getMagnitudeBitPlanes(r, band - mFirstBand[res]);
+            }
+        }
+
+        int numberOfPrecincts = mFirstPrecinct[numberOfResolutions];
+        int precinctBands = checkedCount(numberOfPrecinctBands, "precinct-bands");
+        mFirstPrecinctBand = new int[numberOfPrecincts + 1];
+        mPrecinctBandBand = new int[precinctBands];
+        mPrecinctBandBounds = new int[precinctBands * BOUNDS_LENGTH];
+        mCodeBlocksWide = new int[precinctBands];
+        mCodeBlocksHigh = new int[precinctBands];
+        mFirstCodeBlock = new int[precinctBands + 1];
+        long numberOfCodeBlocks = 0;
+        for (int res = 0; res < numberOfResolutions; ++res) {
+            int r = mResolutionLevel[res];
+            int bandPrecinctWidthExponent = (r == 0) ? mPrecinctWidthExponents[res] : mPrecinctWidthExponents[res] - 1;
+            int bandPrecinctHeightExponent = (r == 0) ? mPrecinctHeightExponents[res] : mPrecinctHeightExponents[res] - 1;
+            // Precincts are anchored at the origin of the resolution level's coordinate system
+            long firstPrecinctX = ((long) mResolutionBounds[res * BOUNDS_LENGTH + X0] >> mPrecinctWidthExponents[res]) << bandPrecinctWidthExponent;
+            long firstPrecinctY = ((long) mResolutionBounds[res * BOUNDS_LENGTH + Y0] >> mPrecinctHeightExponents[res]) << bandPrecinctHeightExponent;
+            for (int precinct = mFirstPrecinct[res]; precinct < mFirstPrecinct[res + 1]; ++precinct) {
+                int precinctInResolution = precinct - mFirstPrecinct[res];
+                long precinctX = firstPrecinctX + ((long) (precinctInResolution % mPrecinctsWide[res]) << bandPrecinctWidthExponent);
+                long precinctY = firstPrecinctY + ((long) (precinctInResolution / mPrecinctsWide[res]) << bandPrecinctHeightExponent);
+                mFirstPrecinctBand[precinct + 1] = mFirstPrecinctBand[precinct] + mFirstBand[res + 1] - mFirstBand[res];
+                for (int band = mFirstBand[res]; band < mFirstBand[res + 1]; ++band) {
+                    int precinctBand = mFirstPrecinctBand[precinct] + band - mFirstBand[res];
+                    int offset = precinctBand * BOUNDS_LENGTH;
+                    mPrecinctBandBand[precinctBand] = band;
+                    mPrecinctBandBounds[offset + X0] = (int) Math.max(precinctX, mBandBounds[band * BOUNDS_LENGTH + X0]);
+                    mPrecinctBandBounds[offset + Y0] = (int) Math.max(precinctY, mBandBounds[band * BOUNDS_LENGTH + Y0]);
+                    mPrecinctBandBounds[offset + X1] = (int) Math.min(precinctX + (1L << bandPrecinctWidthExponent), mBandBounds[band * BOUNDS_LENGTH + X1]);
+                    mPrecinctBandBounds[offset + Y1] = (int) Math.min(precinctY + (1L << bandPrecinctHeightExponent), mBandBounds[band * BOUNDS_LENGTH + Y1]);
+                    if ((mPrecinctBandBounds[offset + X1] > mPrecinctBandBounds[offset + X0]) && (mPrecinctBandBounds[offset + Y1] > mPrecinctBandBounds[offset + Y0])) {
+                        mCodeBlocksWide[precinctBand] = numberOfPrecincts(mPrecinctBandBounds[offset + X0], mPrecinctBandBounds[offset + X1], mBandCodeBlockWidthExponents[band]);
+                        mCodeBlocksHigh[precinctBand] = numberOfPrecincts(mPrecinctBandBounds[offset + Y0], mPrecinctBandBounds[offset + Y1], mBandCodeBlockHeightExponents[band]);
+                    }
+                    numberOfCodeBlocks += (long) mCodeBlocksWide[precinctBand] * mCodeBlocksHigh[precinctBand];
+                    mFirstCodeBlock[precinctBand + 1] = checkedCount(numberOfCodeBlocks, "code-blocks");
+                }
+            }
+        }
+
+        int codeBlocks = (int) numberOfCodeBlocks;
+        mCodeBlockBand = new int[codeBlocks];
+        mCodeBlockBounds = new int[codeBlocks * BOUNDS_LENGTH];
+        for (int precinctBand = 0; precinctBand < precinctBands; ++precinctBand) {
+            int band = mPrecinctBandBand[precinctBand];
+            int widthExponent = mBandCodeBlockWidthExponents[band];
+            int heightExponent = mBandCodeBlockHeightExponents[band];
+            int precinctOffset = precinctBand * BOUNDS_LENGTH;
+            // Code-blocks are anchored at the origin of the sub-band's coordinate system
+            int firstCodeBlockX = mPrecinctBandBounds[precinctOffset + X0] >> widthExponent;
+            int firstCodeBlockY = mPrecinctBandBounds[precinctOffset + Y0] >> heightExponent;
+            int codeBlock = mFirstCodeBlock[precinctBand];
+            for (int j = 0; j < mCodeBlocksHigh[precinctBand]; ++j) {
+                for (int i = 0; i < mCodeBlocksWide[precinctBand]; ++i) {
+                    int offset = codeBlock * BOUNDS_LENGTH;
+                    mCodeBlockBand[codeBlock] = band;
+                    mCodeBlockBounds[offset + X0] = Math.max((firstCodeBlockX + i) << widthExponent, mPrecinctBandBounds[precinctOffset + X0]);
+                    mCodeBlockBounds[offset + Y0] = Math.max((firstCodeBlockY + j) << heightExponent, mPrecinctBandBounds[precinctOffset + Y0]);
+                    mCodeBlockBounds[offset + X1] = Math.min((firstCodeBlockX + i + 1) << widthExponent, mPrecinctBandBounds[precinctOffset + X1]);
+                    mCodeBlockBounds[offset + Y1] = Math.min((firstCodeBlockY + j + 1) << heightExponent, mPrecinctBandBounds[precinctOffset + Y1]);
+                    codeBlock++;
+                }
+            }
+        }
+    }
+
+    private static int ceilingDivide(final int value, final int divisor) {
+        return (int) (((long) value + divisor - 1) / divisor);
+    }
+
+    private static int ceilingDividePowerOfTwo(final int value, final int exponent) {
+        return (int) (((long) value + (1L << exponent) - 1) >> exponent);
+    }
+
+    private static int bandCoordinate(final int componentCoordinate, final int bandOffset, final int decompositionLevel) {
+        if (decompositionLevel == 0) {
+            return componentCoordinate;
+        }
+        long offset = (long) bandOffset << (decompositionLevel - 1);
+        return (int) ((componentCoordinate - offset + (1L << decompositionLevel) - 1) >> decompositionLevel);
+    }
+
+    // Number of 2^exponent sized cells, anchored at zero, that cover [start, end). See Equation B-16.
+    private static int numberOfPrecincts(final int start, final int end, final int exponent) {
+        if (end <= start) {
+            return 0;
+        }
+        return (int) (ceilingDividePowerOfTwo(end, exponent) - ((long) start >> exponent));
+    }
+
+    private static int checkedCount(final long count, final String description) throws JP2ParsingException {
+        if (count > Integer.MAX_VALUE) {
+            throw new JP2ParsingException("Too many " + description + " in tile: " + count);
+        }
+        return (int) count;
+    }
+
+    public int getTileIndex() {
+        return mTileIndex;
+    }
+
+    /**
+     * Get the left edge of the tile on the reference grid.
+     *
+     * @return tx0
+     */
+    public int getTileX0() {
+        return mTileBounds[X0];
+    }
+
+    /**
+     * Get the top edge of the tile on the reference grid.
+     *
+     * @return ty0
+     */
+    public int getTileY0() {
+        return mTileBounds[Y0];
+    }
+
+    /**
+     * Get the right edge (exclusive) of the tile on the reference grid.
+     *
+     * @return tx1
+     */
+    public int getTileX1() {
+        return mTileBounds[X1];
+    }
+
+    /**
+     * Get the bottom edge (exclusive) of the tile on the reference grid.
+     *
+     * @return ty1
+     */
+    public int getTileY1() {
+        return mTileBounds[Y1];
+    }
+
+    public int getNumberOfComponents() {
+        return mNumberOfComponents;
+    }
+
+    /**
+     * Get the coding style that applies to a component of this tile.
+     *
+     * @param componentIndex the component (zero based)
+     * @return the coding style from the COD or COC that applies
+     */
+    public JP2CodingStyle getComponentCodingStyle(final int componentIndex) {
+        return mComponentCodingStyles[componentIndex];
+    }
+
+    /**
+     * Get the quantization that applies to a component of this tile.
+     *
+     * @param componentIndex the component (zero based)
+     * @return the quantization from the QCD or QCC that applies
+     */
+    public JP2Quantization getComponentQuantization(final int componentIndex) {
+        return mComponentQuantizations[componentIndex];
+    }
+
+    public int getComponentHorizontalSeparation(final int componentIndex) {
+        return mComponentHorizontalSeparations[componentIndex];
+    }
+
+    public int getComponentVerticalSeparation(final int componentIndex) {
+        return mComponentVerticalSeparations[componentIndex];
+    }
+
+    public int getComponentX0(final int componentIndex) {
+        return mComponentBounds[componentIndex * BOUNDS_LENGTH + X0];
+    }
+
+    public int getComponentY0(final int componentIndex) {
+        return mComponentBounds[componentIndex * BOUNDS_LENGTH + Y0];
+    }
+
+    public int getComponentX1(final int componentIndex) {
+        return mComponentBounds[componentIndex * BOUNDS_LENGTH + X1];
+    }
+
+    public int getComponentY1(final int componentIndex) {
+        return mComponentBounds[componentIndex * BOUNDS_LENGTH + Y1];
+    }
+
+    /**
+     * Get the number of resolution levels for a component.
+     *
+     * @param componentIndex the component (zero based)
+     * @return number of decomposition levels plus one
+     */
+    public int getNumberOfResolutionLevels(final int componentIndex) {
+        return mFirstResolution[componentIndex + 1] - mFirstResolution[componentIndex];
+    }
+
+    /**
+     * Get the number of resolutions across all components.
+     *
+     * @return total number of resolution levels in the tile
+     */
+    public int getNumberOfResolutions() {
+        return mResolutionComponent.length;
+    }
+
+    /**
+     * Get the resolution number for a resolution level of a component.
+     *
+     * @param componentIndex the component (zero based)
+     * @param resolutionLevel the resolution level, 0 being the lowest
+     * @return the resolution number within this layout
+     */
+    public int getResolution(final int componentIndex, final int resolutionLevel) {
+        return mFirstResolution[componentIndex] + resolutionLevel;
+    }
+
+    public int getResolutionComponent(final int resolution) {
+        return mResolutionComponent[resolution];
+    }
+
+    public int getResolutionLevel(final int resolution) {
+        return mResolutionLevel[resolution];
+    }
+
+    public int getResolutionX0(final int resolution) {
+        return mResolutionBounds[resolution * BOUNDS_LENGTH + X0];
+    }
+
+    public int getResolutionY0(final int resolution) {
+        return mResolutionBounds[resolution * BOUNDS_LENGTH + Y0];
+    }
+
+    public int getResolutionX1(final int resolution) {
+        return mResolutionBounds[resolution * BOUNDS_LENGTH + X1];
+    }
+
+    public int getResolutionY1(final int resolution) {
+        return mResolutionBounds[resolution * BOUNDS_LENGTH + Y1];
+    }
+
+    public int getPrecinctWidthExponent(final int resolution) {
+        return mPrecinctWidthExponents[resolution];
+    }
+
+    public int getPrecinctHeightExponent(final int resolution) {
+        return mPrecinctHeightExponents[resolution];
+    }
+
+    public int getNumberOfPrecinctsWide(final int resolution) {
+        return mPrecinctsWide[resolution];
+    }
+
+    public int getNumberOfPrecinctsHigh(final int resolution) {
+        return mPrecinctsHigh[resolution];
+    }
+
+    /**
+     * Get the number of precincts in a resolution.
+     *
+     * @param resolution the resolution number within this layout
+     * @return number of precincts, which may be zero for an empty resolution
+     */
+    public int getNumberOfPrecincts(final int resolution) {
+        return mFirstPrecinct[resolution + 1] - mFirstPrecinct[resolution];
+    }
+
+    /**
+     * Get the precinct number for a precinct of a resolution.
+     *
+     * @param resolution the resolution number within this layout
+     * @param precinctIndex the precinct index within the resolution, in raster order
+     * @return the precinct number within this layout
+     */
+    public int getPrecinct(final int resolution, final int precinctIndex) {
+        return mFirstPrecinct[resolution] + precinctIndex;
+    }
+
+    /**
+     * Get the total number of precincts in the tile.
+     *
+     * @return number of precincts across all resolutions
+     */
+    public int getNumberOfPrecincts() {
+        return mFirstPrecinct[mFirstPrecinct.length - 1];
+    }
+
+    /**
+     * Get the number of sub-bands in a resolution.
+     *
+     * @param resolution the resolution number within this layout
+     * @return 1 for the lowest resolution level, otherwise 3
+     */
+    public int getNumberOfBands(final int resolution) {
+        return mFirstBand[resolution + 1] - mFirstBand[resolution];
+    }
+
+    /**
+     * Get the band number for a sub-band of a resolution.
+     *
+     * @param resolution the resolution number within this layout
+     * @param bandIndex the sub-band within the resolution (0 for LL, or 0, 1, 2 for HL, LH, HH)
+     * @return the band number within this layout
+     */
+    public int getBand(final int resolution, final int bandIndex) {
+        return mFirstBand[resolution] + bandIndex;
+    }
+
+    public int getNumberOfBands() {
+        return mBandResolution.length;
+    }
+
+    public int getBandResolution(final int band) {
+        return mBandResolution[band];
+    }
+
+    /**
+     * Get the orientation of a sub-band.
+     *
+     * @param band the band number within this layout
+     * @return one of BAND_LL, BAND_HL, BAND_LH or BAND_HH
+     */
+    public int getBandOrientation(final int band) {
+        return mBandOrientation[band];
+    }
+
+    /**
+     * Get the decomposition level that produced a sub-band.
+     *
+     * @param band the band number within this layout
+     * @return nb, as used in Equation B-15 and E-5
+     */
+    public int getBandDecompositionLevel(final int band) {
+        return mBandDecompositionLevel[band];
+    }
+
+    public int getBandX0(final int band) {
+        return mBandBounds[band * BOUNDS_LENGTH + X0];
+    }
+
+    public int getBandY0(final int band) {
+        return mBandBounds[band * BOUNDS_LENGTH + Y0];
+    }
+
+    public int getBandX1(final int band) {
+        return mBandBounds[band * BOUNDS_LENGTH + X1];
+    }
+
+    public int getBandY1(final int band) {
+        return mBandBounds[band * BOUNDS_LENGTH + Y1];
+    }
+
+    /**
+     * Get the code-block width exponent for a sub-band, allowing for the precinct size.
+     *
+     * @param band the band number within this layout
+     * @return xcb' from Equation B-17
+     */
+    public int getBandCodeBlockWidthExponent(final int band) {
+        return mBandCodeBlockWidthExponents[band];
+    }
+
+    /**
+     * Get the code-block height exponent for a sub-band, allowing for the precinct size.
+     *
+     * @param band the band number within this layout
+     * @return ycb' from Equation B-18
+     */
+    public int getBandCodeBlockHeightExponent(final int band) {
+        return mBandCodeBlockHeightExponents[band];
+    }
+
+    /**
+     * Get the number of magnitude bit-planes for a sub-band.
+     *
+     * @param band the band number within this layout
+     * @return Mb from Equation E-2
+     */
+    public int getBandMagnitudeBitPlanes(final int band) {
+        return mBandMagnitudeBitPlanes[band];
+    }
+
+    /**
+     * Get the precinct-band number for a sub-band of a precinct.
+     *
+     * @param precinct the precinct number within this layout
+     * @param bandIndex the sub-band within the resolution
+     * @return the precinct-band number within this layout
+     */
+    public int getPrecinctBand(final int precinct, final int bandIndex) {
+        return mFirstPrecinctBand[precinct] + bandIndex;
+    }
+
+    public int getNumberOfPrecinctBands() {
+        return mPrecinctBandBand.length;
+    }
+
+    public int getPrecinctBandBand(final int precinctBand) {
+        return mPrecinctBandBand[precinctBand];
+    }
+
+    public int getPrecinctBandX0(final int precinctBand) {
+        return mPrecinctBandBounds[precinctBand * BOUNDS_LENGTH + X0];
+    }
+
+    public int getPrecinctBandY0(final int precinctBand) {
+        return mPrecinctBandBounds[precinctBand * BOUNDS_LENGTH + Y0];
+    }
+
+    public int getPrecinctBandX1(final int precinctBand) {
+        return mPrecinctBandBounds[precinctBand * BOUNDS_LENGTH + X1];
+    }
+
+    public int getPrecinctBandY1(final int precinctBand) {
+        return mPrecinctBandBounds[precinctBand * BOUNDS_LENGTH + Y1];
+    }
+
+    public int getNumberOfCodeBlocksWide(final int precinctBand) {
+        return mCodeBlocksWide[precinctBand];
+    }
+
+    public int getNumberOfCodeBlocksHigh(final int precinctBand) {
+        return mCodeBlocksHigh[precinctBand];
+    }
+
+    /**
+     * Get the first code-block of a precinct-band.
+     *
+     * The code-blocks of a precinct-band are numbered contiguously, in
+     * raster order.
+     *
+     * @param precinctBand the precinct-band number within this layout
+     * @return the code-block number within this layout
+     */
+    public int getFirstCodeBlock(final int precinctBand) {
+        return mFirstCodeBlock[precinctBand];
+    }
+
+    /**
+     * Get the total number of code-blocks in the tile.
+     *
+     * @return number of code-blocks
+     */
+    public int getNumberOfCodeBlocks() {
+        return mCodeBlockBand.length;
+    }
+
+    public int getCodeBlockBand(final int codeBlock) {
+        return mCodeBlockBand[codeBlock];
+    }
+
+    public int getCodeBlockX0(final int codeBlock) {
+        return mCodeBlockBounds[codeBlock * BOUNDS_LENGTH + X0];
+    }
+
+    public int getCodeBlockY0(final int codeBlock) {
+        return mCodeBlockBounds[codeBlock * BOUNDS_LENGTH + Y0];
+    }
+
+    public int getCodeBlockX1(final int codeBlock) {
+        return mCodeBlockBounds[codeBlock * BOUNDS_LENGTH + X1];
+    }
+
+    public int getCodeBlockY1(final int codeBlock) {
+        return mCodeBlockBounds[codeBlock * BOUNDS_LENGTH + Y1];
+    }
+}
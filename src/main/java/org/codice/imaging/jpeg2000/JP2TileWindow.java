@@ -0,0 +1,385 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+/**
+ * The part of each resolution level of a tile that has to be reconstructed.
+ *
+ * When only a region of the image is decoded, the inverse wavelet transform
+ * works on a window of each resolution level rather than the whole of it.
+ * Working down from the decoded resolution, each level needs the samples
+ * that cover the region, plus a margin for the extent of the synthesis
+ * filters: two samples for the 5-3 filter and four for the 9-7 filter. The
+ * filters run over the window with symmetric extension at its edges, which
+ * is only wrong within the margin. The low and high pass coefficients
+ * under the window give the window of the next lower resolution level, and
+ * the parts of the sub-bands that have to be decoded.
+ *
+ * The windows are held in a compact buffer for each component, laid out
+ * like a whole tile-component: the low pass window (with its margin) is at
+ * the top left, and the high pass coefficients follow it. Because of the
+ * margins, the coefficients of a lower level can reach past the stored
+ * window of that level, so the high pass coefficients of each level are
+ * placed after everything used by the levels below. Positions in the
+ * buffer are "stored" positions. A full window (no region) is the same as
+ * the usual layout of the whole tile-component.
+ *
+ * Ranges are half open and relative to the resolution level or sub-band
+ * origin. Positions are indexed by dimension, X or Y.
+ */
+final class JP2TileWindow {
+
+    static final int X = 0;
+    static final int Y = 1;
+    private static final int DIMENSIONS = 2;
+
+    private static final int REVERSIBLE_TRANSFORMATION = 1;
+    private static final int REVERSIBLE_MARGIN = 2;
+    private static final int TRANSFORMED_COMPONENTS = 3;
+    private static final int IRREVERSIBLE_MARGIN = 4;
+
+    private final JP2TileLayout mLayout;
+    private final int[] mResolutionLevels;
+    private final int[] mBufferSizes;
+    private final int[] mNeededStart;
+    private final int[] mNeededEnd;
+    private final int[] mStoredStart;
+    private final int[] mStoredEnd;
+    private final int[] mHighStart;
+    private final int[] mHighEnd;
+    private final int[] mHighOffset;
+
+    /**
+     * Work out the windows of a tile for part of an image.
+     *
+     * Components that are not picked have empty windows, unless the tile
+     * uses the multiple component transformation and they are needed for
+     * one that is.
+     *
+     * @param layout the layout of the tile
+     * @param param the part of the image to decode
+     * @param codeStream the code stream that the tile is part of
+     * @throws JP2ParsingException if the resolution reduction is too large, or the region is outside the image
+     */
+    JP2TileWindow(final JP2TileLayout layout, final JP2DecodeParam param, final JP2CodeStream codeStream) throws JP2ParsingException {
+        this(layout);
+        boolean transformed = false;
+        if (codeStream.getTileCodingStyle(layout.getTileIndex()).getMultipleComponentTransformation() != 0) {
+            for (int c = 0; c < Math.min(TRANSFORMED_COMPONENTS, layout.getNumberOfComponents()); ++c) {
+                transformed |= param.isComponentDecoded(c);
+            }
+        }
+        for (int c = 0; c < layout.getNumberOfComponents(); ++c) {
+            int[] bounds = param.getComponentBounds(codeStream, c);
+            int numberOfResolutionLevels = param.getNumberOfResolutionLevels(layout, c);
+            if (param.isComponentDecoded(c) || (transformed && c < TRANSFORMED_COMPONENTS)) {
+                computeWindows(c, numberOfResolutionLevels, bounds[0], bounds[1], bounds[2], bounds[3]);
+            } else {
+                // An empty window, so none of the component is decoded
+                computeWindows(c, numberOfResolutionLevels, bounds[0], bounds[1], bounds[0], bounds[1]);
+            }
+        }
+    }
+
+    /**
+     * Work out the windows for the whole of one tile-component.
+     *
+     * The other components are left empty.
+     *
+     * @param layout the layout of the tile
+     * @param componentIndex the component (zero based)
+     * @param numberOfResolutionLevels the number of resolution levels to reconstruct
+     */
+    JP2TileWindow(final JP2TileLayout layout, final int componentIndex, final int numberOfResolutionLevels) {
+        this(layout);
+        computeWindows(componentIndex, numberOfResolutionLevels, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    private JP2TileWindow(final JP2TileLayout layout) {
+        mLayout = layout;
+        int numberOfComponents = layout.getNumberOfComponents();
+        mResolutionLevels = new int[numberOfComponents];
+        mBufferSizes = new int[numberOfComponents * DIMENSIONS];
+        int length = layout.getNumberOfResolutions() * DIMENSIONS;
+        mNeededStart = new int[length];
+        mNeededEnd = new int[length];
+        mStoredStart = new int[length];
+        mStoredEnd = new int[length];
+        mHighStart = new int[length];
+        mHighEnd = new int[length];
+        mHighOffset = new int[length];
+    }
+
+    private void computeWindows(final int c, final int numberOfResolutionLevels, final int x0, final int y0, final int x1, final int y1) {
+        mResolutionLevels[c] = numberOfResolutionLevels;
+        int top = mLayout.getResolution(c, numberOfResolutionLevels - 1);
+        int margin = (mLayout.getComponentCodingStyle(c).getTransformation() == REVERSIBLE_TRANSFORMATION) ? REVERSIBLE_MARGIN : IRREVERSIBLE_MARGIN;
+        int[] regionStart = {x0, y0};
+        int[] regionEnd = {x1, y1};
+        boolean empty = false;
+        for (int d = 0; d < DIMENSIONS; ++d) {
+            int origin = getResolutionStart(top, d);
+            int size = getResolutionEnd(top, d) - origin;
+            int start = (int) Math.max(0, Math.min(size, (long) regionStart[d] - origin));
+            int end = (int) Math.max(0, Math.min(size, (long) regionEnd[d] - origin));
+            mNeededStart[top * DIMENSIONS + d] = start;
+            mNeededEnd[top * DIMENSIONS + d] = end;
+            empty |= (start >= end);
+        }
+        for (int d = 0; d < DIMENSIONS; ++d) {
+            if (empty) {
+                // Nothing of this component is in the region
+                for (int r = 0; r < numberOfResolutionLevels; ++r) {
+                    int i = mLayout.getResolution(c, r) * DIMENSIONS + d;
+                    mNeededStart[i] = 0;
+                    mNeededEnd[i] = 0;
+                    mStoredStart[i] = 0;
+                    mStoredEnd[i] = 0;
+                    mHighStart[i] = 0;
+                    mHighEnd[i] = 0;
+                    mHighOffset[i] = 0;
+                }
+                mBufferSizes[c * DIMENSIONS + d] = 0;
+                continue;
+            }
+            for (int r = numberOfResolutionLevels - 1; r > 0; --r) {
+                int i = mLayout.getResolution(c, r) * DIMENSIONS + d;
+                int size = getResolutionEnd(i / DIMENSIONS, d) - getResolutionStart(i / DIMENSIONS, d);
+                int start = Math.max(0, mNeededStart[i] - margin);
+                int end = Math.min(size, mNeededEnd[i] + margin);
+                mStoredStart[i] = start;
+                mStoredEnd[i] = end;
+                // Low pass samples are at even coordinates, so at positions of the same parity as the origin
+                int parity = getResolutionStart(i / DIMENSIONS, d) & 1;
+                mNeededStart[i - DIMENSIONS] = (start - parity + 1) >> 1;
+                mNeededEnd[i - DIMENSIONS] = (end - parity + 1) >> 1;
+                mHighStart[i] = (start + parity) >> 1;
+                mHighEnd[i] = (end + parity) >> 1;
+            }
+            int i = mLayout.getResolution(c, 0) * DIMENSIONS + d;
+            mStoredStart[i] = mNeededStart[i];
+            mStoredEnd[i] = mNeededEnd[i];
+            mHighStart[i] = 0;
+            mHighEnd[i] = 0;
+            mHighOffset[i] = 0;
+            int bufferSize = mStoredEnd[i] - mStoredStart[i];
+            for (int r = 1; r < numberOfResolutionLevels; ++r) {
+                int j = mLayout.getResolution(c, r) * DIMENSIONS + d;
+                mHighOffset[j] = bufferSize;
+                bufferSize += mHighEnd[j] - mHighStart[j];
+            }
+            mBufferSizes[c * DIMENSIONS + d] = bufferSize;
+        }
+    }
+
+    private int getResolutionStart(final int res, final int d) {
+        return (d == X) ? mLayout.getResolutionX0(res) : mLayout.getResolutionY0(res);
+    }
+
+    private int getResolutionEnd(final int res, final int d) {
+        return (d == X) ? mLayout.getResolutionX1(res) : mLayout.getResolutionY1(res);
+    }
+
+    JP2TileLayout getLayout() {
+        return mLayout;
+    }
+
+    int getNumberOfResolutionLevels(final int componentIndex) {
+        return mResolutionLevels[componentIndex];
+    }
+
+    /**
+     * Get the size of the buffer for a component.
+     *
+     * @param componentIndex the component (zero based)
+     * @param d the dimension
+     * @return the width or height of the buffer, which is 0 if the component is not in the region
+     */
+    int getBufferSize(final int componentIndex, final int d) {
+        return mBufferSizes[componentIndex * DIMENSIONS + d];
+    }
+
+    /**
+     * Get whether a resolution level is reconstructed.
+     *
+     * @param res the resolution number within the layout
+     * @return true if the resolution is decoded, and some of it is in the region
+     */
+    boolean isResolutionNeeded(final int res) {
+        int c = mLayout.getResolutionComponent(res);
+        return (mLayout.getResolutionLevel(res) < mResolutionLevels[c]) && (getBufferSize(c, X) > 0) && (getBufferSize(c, Y) > 0);
+    }
+
+    /**
+     * Get the start of the samples of a resolution level that have to be correct.
+     *
+     * For the decoded resolution this is the region. For lower resolutions
+     * it is everything under the stored window of the next higher level.
+     */
+    int getNeededStart(final int res, final int d) {
+        return mNeededStart[res * DIMENSIONS + d];
+    }
+
+    int getNeededEnd(final int res, final int d) {
+        return mNeededEnd[res * DIMENSIONS + d];
+    }
+
+    /**
+     * Get the start of the samples of a resolution level that are reconstructed.
+     *
+     * This is the needed window plus the filter margin, and is what is held
+     * in the buffer, from stored position 0.
+     */
+    int getStoredStart(final int res, final int d) {
+        return mStoredStart[res * DIMENSIONS + d];
+    }
+
+    int getStoredEnd(final int res, final int d) {
+        return mStoredEnd[res * DIMENSIONS + d];
+    }
+
+    /**
+     * Get the start of the high pass coefficients used to reconstruct a resolution level.
+     *
+     * @param res the resolution number within the layout, which must not be the lowest
+     * @param d the dimension
+     * @return the first coefficient, relative to the high pass sub-band origin
+     */
+    int getHighStart(final int res, final int d) {
+        return mHighStart[res * DIMENSIONS + d];
+    }
+
+    int getHighEnd(final int res, final int d) {
+        return mHighEnd[res * DIMENSIONS + d];
+    }
+
+    /**
+     * Get the stored position of the first high pass coefficient used to reconstruct a resolution level.
+     *
+     * @param res the resolution number within the layout, which must not be the lowest
+     * @param d the dimension
+     * @return the stored position of the coefficient at getHighStart()
+     */
+    int getHighOffset(final int res, final int d) {
+        return mHighOffset[res * DIMENSIONS + d];
+    }
+
+    /**
+     * Get the start of the coefficients of a sub-band that have to be decoded.
+     *
+     * @param band the sub-band number within the layout
+     * @param d the dimension
+     * @return the first coefficient, relative to the sub-band origin
+     */
+    int getBandStart(final int band, final int d) {
+        int res = mLayout.getBandResolution(band);
+        if (isHighPass(band, d)) {
+            return getHighStart(res, d);
+        }
+        return getNeededStart(getLowResolution(band), d);
+    }
+
+    int getBandEnd(final int band, final int d) {
+        int res = mLayout.getBandResolution(band);
+        if (!isResolutionNeeded(res)) {
+            return getBandStart(band, d);
+        }
+        if (isHighPass(band, d)) {
+            return getHighEnd(res, d);
+        }
+        return getNeededEnd(getLowResolution(band), d);
+    }
+
+    /**
+     * Get the stored position of the sub-band origin.
+     *
+     * A coefficient at position i relative to the sub-band origin is stored
+     * at this plus i. The result may be negative.
+     *
+     * @param band the sub-band number within the layout
+     * @param d the dimension
+     * @return the stored position of coefficient 0
+     */
+    int getBandOrigin(final int band, final int d) {
+        int res = mLayout.getBandResolution(band);
+        int lower = getLowResolution(band);
+        if (isHighPass(band, d)) {
+            return getHighOffset(res, d) - getHighStart(res, d);
+        }
+        return -getStoredStart(lower, d);
+    }
+
+    // The low pass side of a band is indexed like the next lower resolution level
+    private int getLowResolution(final int band) {
+        int res = mLayout.getBandResolution(band);
+        return (mLayout.getResolutionLevel(res) == 0) ? res : res - 1;
+    }
+
+    private boolean isHighPass(final int band, final int d) {
+        int orientation = mLayout.getBandOrientation(band);
+        return (orientation & ((d == X) ? JP2TileLayout.BAND_HL : JP2TileLayout.BAND_LH)) != 0;
+    }
+
+    /**
+     * Get whether any of a code-block has to be decoded.
+     *
+     * @param codeBlock the code-block number within the layout
+     * @return true if the code-block overlaps the window of its sub-band
+     */
+    boolean isCodeBlockNeeded(final int codeBlock) {
+        int band = mLayout.getCodeBlockBand(codeBlock);
+        int x = mLayout.getBandX0(band);
+        int y = mLayout.getBandY0(band);
+        return overlaps(band, X, mLayout.getCodeBlockX0(codeBlock) - x, mLayout.getCodeBlockX1(codeBlock) - x)
+                && overlaps(band, Y, mLayout.getCodeBlockY0(codeBlock) - y, mLayout.getCodeBlockY1(codeBlock) - y);
+    }
+
+    /**
+     * Get whether any of the code-blocks in a precinct have to be decoded.
+     *
+     * @param resolution the resolution number within the layout
+     * @param precinct the precinct number within the layout
+     * @return true if the precinct overlaps the window in any of its sub-bands
+     */
+    boolean isPrecinctNeeded(final int resolution, final int precinct) {
+        if (!isResolutionNeeded(resolution)) {
+            return false;
+        }
+        for (int bandIndex = 0; bandIndex < mLayout.getNumberOfBands(resolution); ++bandIndex) {
+            int precinctBand = mLayout.getPrecinctBand(precinct, bandIndex);
+            int band = mLayout.getPrecinctBandBand(precinctBand);
+            int x = mLayout.getBandX0(band);
+            int y = mLayout.getBandY0(band);
+            if (overlaps(band, X, mLayout.getPrecinctBandX0(precinctBand) - x, mLayout.getPrecinctBandX1(precinctBand) - x)
+                    && overlaps(band, Y, mLayout.getPrecinctBandY0(precinctBand) - y, mLayout.getPrecinctBandY1(precinctBand) - y)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean overlaps(final int band, final int d, final int start, final int end) {
+        return Math.max(start, getBandStart(band, d)) < Math.min(end, getBandEnd(band, d));
+    }
+}
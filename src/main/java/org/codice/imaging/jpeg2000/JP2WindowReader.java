@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reader over a byte range of another reader.
+ *
+ * Positions are relative to the start of the window, and reads are limited
+ * to the window. The window has its own read position, and seeks the
+ * underlying reader before each read, so several windows can share one
+ * underlying reader. No data is copied.
+ *
+ * This can be used to read JPEG 2000 data embedded in a container file,
+ * such as a NITF image segment, without extracting it first. Wrapping a
+ * JP2MappedFileReader or JP2PositionalFileReader gives a window onto a
+ * mapping or file channel respectively. Use JP2Parser.parseCodestream()
+ * if the window contains a bare code stream rather than a JP2 file.
+ */
+public class JP2WindowReader implements JP2Reader {
+
+    private final JP2Reader mReader;
+    private final long mStart;
+    private final long mLength;
+    private long mPosition = 0;
+
+    /**
+     * Constructor for a window onto another reader.
+     *
+     * @param reader the underlying reader
+     * @param start the offset of the first byte of the window within the underlying reader
+     * @param length the number of bytes in the window
+     * @throws JP2ParsingException if the window is not within the underlying reader
+     */
+    public JP2WindowReader(final JP2Reader reader, final long start, final long length) throws JP2ParsingException {
+        if (start < 0 || length < 0 || start + length > reader.getLength()) {
+            throw new JP2ParsingException("Window of " + length + " bytes at offset " + start + " is outside underlying reader of length " + reader.getLength());
+        }
+        mReader = reader;
+        mStart = start;
+        mLength = length;
+    }
+
+    @Override
+    public void skipBytes(final int numOfBytesToSkip) throws JP2ParsingException {
+        if (numOfBytesToSkip > 0) {
+            mPosition = Math.min(mPosition + numOfBytesToSkip, mLength);
+        }
+    }
+
+    @Override
+    public byte readUnsignedByte() throws JP2ParsingException {
+        prepareRead(PackageConstants.UNSIGNED_BYTE_LENGTH);
+        return mReader.readUnsignedByte();
+    }
+
+    @Override
+    public int readUnsignedShort() throws JP2ParsingException {
+        prepareRead(PackageConstants.UNSIGNED_SHORT_LENGTH);
+        return mReader.readUnsignedShort();
+    }
+
+    @Override
+    public int readUnsignedInt() throws JP2ParsingException {
+        prepareRead(PackageConstants.UNSIGNED_INT_LENGTH);
+        return mReader.readUnsignedInt();
+    }
+
+    @Override
+    public byte[] getBytes(final int byteArrayLength) throws JP2ParsingException {
+        prepareRead(byteArrayLength);
+        return mReader.getBytes(byteArrayLength);
+    }
+
+    @Override
+    public String getFixedLengthString(final int stringLength) throws JP2ParsingException {
+        prepareRead(stringLength);
+        return new String(mReader.getBytes(stringLength), StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public boolean hasDataRemaining() throws JP2ParsingException {
+        return mPosition < mLength;
+    }
+
+    @Override
+    public long getPosition() throws JP2ParsingException {
+        return mPosition;
+    }
+
+    @Override
+    public void seek(final long position) throws JP2ParsingException {
+        if (position < 0 || position > mLength) {
+            throw new JP2ParsingException("Unable to seek to " + position + ", window length is " + mLength);
+        }
+        mPosition = position;
+    }
+
+    @Override
+    public long getLength() throws JP2ParsingException {
+        return mLength;
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer(final long position, final int length) throws JP2ParsingException {
+        if (position < 0 || length < 0 || position + length > mLength) {
+            throw new JP2ParsingException("Unable to read " + length + " bytes at offset " + position + ", window length is " + mLength);
+        }
+        return mReader.getByteBuffer(mStart + position, length);
+    }
+
+    /**
+     * Get the offset of the window within the underlying reader.
+     *
+     * @return offset of the first byte of the window
+     */
+    public long getStart() {
+        return mStart;
+    }
+
+    private void prepareRead(final int numberOfBytes) throws JP2ParsingException {
+        if (numberOfBytes < 0 || mPosition + numberOfBytes > mLength) {
+            throw new JP2ParsingException("Could not read " + numberOfBytes + " bytes, only " + (mLength - mPosition) + " bytes remaining in window");
+        }
+        mReader.seek(mStart + mPosition);
+        mPosition += numberOfBytes;
+    }
+}
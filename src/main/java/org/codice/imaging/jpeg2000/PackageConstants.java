@@ -30,6 +30,11 @@ class PackageConstants {
     static final int UNSIGNED_BYTE_LENGTH = 1;
     static final int UNSIGNED_SHORT_LENGTH = 2;
     static final int UNSIGNED_INT_LENGTH = 4;
+    static final int UNSIGNED_LONG_LENGTH = 8;
     
     static final int BOX_SIGNATURE_LENGTH = 4;
+
+    // See Table I-1 and Section I.4
+    static final int BOX_LENGTH_TO_END_OF_FILE = 0;
+    static final int BOX_LENGTH_EXTENDED = 1;
 }
@@ -24,6 +24,8 @@
 package org.codice.imaging.jpeg2000;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -128,6 +130,8 @@ public class TestBasicJP2Parsing {
         assertEquals(0, tile.getTileIndex());
         assertEquals(0, tile.getTilePartIndex());
         assertEquals(649299, tile.getData().length);
+        assertEquals(649299, tile.getDataLength());
+        assertEquals(649299, tile.getDataBuffer().remaining());
     }
 
     @Test
@@ -177,4 +181,108 @@ public class TestBasicJP2Parsing {
         assertEquals(0, tile.getTilePartIndex());
         assertEquals(451785, tile.getData().length);
     }
+
+    @Test
+    public void testFile1HeaderOnly() throws JP2ParsingException {
+        final String testfilename = "/file1.jp2";
+        File testfile = new File(getClass().getResource(testfilename).getFile());
+
+        assertNotNull("Test file missing", testfile);
+
+        JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+        parseStrategy.setHeaderOnly(true);
+        JP2Reader reader = new JP2FileReader(testfile);
+        JP2Parser.parse(reader, parseStrategy);
+        assertFalse(reader.hasDataRemaining());
+        assertEquals(2, parseStrategy.getXmlList().size());
+        assertEquals(768, parseStrategy.getImageWidth());
+        assertEquals(512, parseStrategy.getImageHeight());
+        assertEquals(JP2ColourSpecificationBox.ENUM_COLOUR_SPACE_SRGB, parseStrategy.getColourSpecification().getColourSpace());
+
+        JP2CodeStream cs = parseStrategy.getCodeStream();
+        assertNotNull(cs);
+        assertEquals(768, cs.getXSize());
+        assertEquals(512, cs.getYSize());
+        assertEquals(3, cs.getNumberOfComponentsInImage());
+        for (int i = 0; i < cs.getNumberOfComponentsInImage(); ++i) {
+            assertEquals(8, cs.getComponentBitDepth(i));
+            assertFalse(cs.isComponentSigned(i));
+            assertEquals(1, cs.getComponentHorizontalSeparation(i));
+            assertEquals(1, cs.getComponentVerticalSeparation(i));
+        }
+        assertEquals(0, cs.getProgressionOrder());
+        assertEquals(1, cs.getNumberOfLayers());
+        assertEquals(1, cs.getMultipleComponentsTransformation());
+        assertEquals(5, cs.getNumberOfDecompositionLevels());
+        assertEquals(64, cs.getCodeBlockWidth());
+        assertEquals(64, cs.getCodeBlockHeight());
+        assertEquals(1, cs.getTransformation());
+        assertEquals(0, cs.getQuantizationStyle());
+        assertEquals(1, cs.getNumberOfGuardBits());
+        assertEquals(16, cs.getQuantizationExponents().size());
+        assertEquals(0, cs.getTiles().size());
+    }
+
+    @Test
+    public void testTilePartLongerThanAnArray() throws JP2ParsingException {
+        JP2Tile tile = new JP2Tile();
+        tile.setDataLocation(new JP2ByteBufferReader(new byte[16]), 0, 3L << 30);
+        assertEquals(3L << 30, tile.getDataLength());
+        try {
+            tile.getData();
+            fail("Expected the tile-part to be too long for an array");
+        } catch (JP2ParsingException e) {
+            // expected
+        }
+        try {
+            tile.getDataBuffer((3L << 30) - 4, 8);
+            fail("Expected the range to run past the end of the tile-part");
+        } catch (JP2ParsingException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testZeroTileSize() throws IOException {
+        byte[] original = Files.readAllBytes(new File(getClass().getResource("/file3.j2k").getFile()).toPath());
+        // XTsiz, then YTsiz, in the SIZ marker segment
+        int[] tileSizeOffsets = {2 + 2 + 2 + 2 + 4 * 4, 2 + 2 + 2 + 2 + 5 * 4};
+        for (int tileSizeOffset : tileSizeOffsets) {
+            byte[] corrupt = original.clone();
+            for (int i = 0; i < 4; ++i) {
+                corrupt[tileSizeOffset + i] = 0;
+            }
+            try {
+                new JP2CodeStream(new JP2ByteBufferReader(corrupt), corrupt.length);
+                fail("Expected a zero tile size to be rejected");
+            } catch (JP2ParsingException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testPaddedCodingStyleDefault() throws IOException, JP2ParsingException {
+        byte[] original = Files.readAllBytes(new File(getClass().getResource("/file3.j2k").getFile()).toPath());
+        int codOffset = 2;
+        while ((original[codOffset] & 0xFF) != 0xFF || (original[codOffset + 1] & 0xFF) != 0x52) {
+            int segmentLength = ((original[codOffset + 2] & 0xFF) << 8) | (original[codOffset + 3] & 0xFF);
+            codOffset += 2 + segmentLength;
+        }
+        int codLength = ((original[codOffset + 2] & 0xFF) << 8) | (original[codOffset + 3] & 0xFF);
+        int codEnd = codOffset + 2 + codLength;
+        // Two bytes of padding at the end of the COD marker segment are skipped using its length
+        byte[] padded = new byte[original.length + 2];
+        System.arraycopy(original, 0, padded, 0, codEnd);
+        System.arraycopy(original, codEnd, padded, codEnd + 2, original.length - codEnd);
+        padded[codOffset + 2] = (byte) ((codLength + 2) >> 8);
+        padded[codOffset + 3] = (byte) (codLength + 2);
+
+        JP2CodeStream expected = new JP2CodeStream(new JP2ByteBufferReader(original), original.length);
+        JP2CodeStream cs = new JP2CodeStream(new JP2ByteBufferReader(padded), padded.length);
+        assertEquals(expected.getNumberOfLayers(), cs.getNumberOfLayers());
+        assertEquals(expected.getNumberOfDecompositionLevels(), cs.getNumberOfDecompositionLevels());
+        assertEquals(expected.getTiles().size(), cs.getTiles().size());
+        assertEquals(expected.getTiles().get(0).getDataLength(), cs.getTiles().get(0).getDataLength());
+    }
 }
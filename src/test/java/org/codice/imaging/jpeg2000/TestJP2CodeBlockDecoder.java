@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.io.File;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for tier-1 (code-block) decoding.
+ */
+public class TestJP2CodeBlockDecoder {
+
+    private JP2Reader getTestReader(final String testfilename) throws JP2ParsingException {
+        File testfile = new File(getClass().getResource(testfilename).getFile());
+        assertNotNull("Test file missing", testfile);
+        return new JP2FileReader(testfile);
+    }
+
+    private JP2CodeStream getCodeStream(final String testfilename) throws JP2ParsingException {
+        JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(getTestReader(testfilename), parseStrategy);
+        return parseStrategy.getCodeStream();
+    }
+
+    @Test
+    public void testLosslessFile1() throws JP2ParsingException {
+        JP2CodeStream cs = getCodeStream("/file1.jp2");
+        JP2CodeBlockIndex index = new JP2PacketDecoder(cs).decodeTile(0);
+        JP2TileLayout layout = index.getLayout();
+        // 5-3 reversible, so no quantization, and one guard bit
+        JP2Quantization quantization = layout.getComponentQuantization(0);
+        assertEquals(JP2Quantization.NO_QUANTIZATION, quantization.getQuantizationStyle());
+        assertEquals(1, quantization.getNumberOfGuardBits());
+        assertEquals(16, quantization.getNumberOfStepSizes());
+        assertEquals(10, layout.getBandMagnitudeBitPlanes(layout.getBand(layout.getResolution(0, 0), 0)));
+        assertEquals(12, layout.getBandMagnitudeBitPlanes(layout.getBand(layout.getResolution(0, 5), 2)));
+
+        JP2CodeBlockDecoder decoder = new JP2CodeBlockDecoder();
+        int[] coefficients = new int[64 * 64];
+        long sumOfLowestResolution = 0;
+        for (int codeBlock = 0; codeBlock < index.getNumberOfCodeBlocks(); ++codeBlock) {
+            decoder.decode(index, codeBlock, coefficients, 0, 64);
+            int width = layout.getCodeBlockX1(codeBlock) - layout.getCodeBlockX0(codeBlock);
+            int height = layout.getCodeBlockY1(codeBlock) - layout.getCodeBlockY0(codeBlock);
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    int value = coefficients[y * 64 + x];
+                    // All bit-planes are decoded, so the reconstruction point is always half of the extra bit
+                    assertTrue(value == 0 || (value & 1) == 1);
+                    if (layout.getCodeBlockBand(codeBlock) == 0) {
+                        sumOfLowestResolution += value / 2;
+                    }
+                }
+            }
+        }
+        assertEquals(index.getNumberOfCodeBlocks(), decoder.getNumberOfCodeBlocksDecoded());
+        assertEquals(-4769, sumOfLowestResolution);
+        assertEquals(4998, decoder.getNumberOfPassesDecoded());
+    }
+
+    @Test
+    public void testCodeBlockStyles() throws JP2ParsingException {
+        // Irreversible, with bypass, reset, terminate all, vertically causal and segmentation symbols
+        JP2CodeStream cs = JP2Parser.parseCodestream(getTestReader("/file3.j2k"), false);
+        JP2PacketDecoder packetDecoder = new JP2PacketDecoder(cs);
+        JP2CodeBlockDecoder decoder = new JP2CodeBlockDecoder();
+        int[] coefficients = new int[16 * 16];
+        long sum = 0;
+        for (int tileIndex = 0; tileIndex < cs.getNumberOfTiles(); ++tileIndex) {
+            JP2CodeBlockIndex index = packetDecoder.decodeTile(tileIndex);
+            JP2TileLayout layout = index.getLayout();
+            assertEquals(0x2F, layout.getComponentCodingStyle(0).getCodeBlockStyle());
+            assertEquals(JP2Quantization.SCALAR_EXPOUNDED, layout.getComponentQuantization(0).getQuantizationStyle());
+            for (int codeBlock = 0; codeBlock < index.getNumberOfCodeBlocks(); ++codeBlock) {
+                decoder.decode(index, codeBlock, coefficients, 0, 16);
+                int width = layout.getCodeBlockX1(codeBlock) - layout.getCodeBlockX0(codeBlock);
+                int height = layout.getCodeBlockY1(codeBlock) - layout.getCodeBlockY0(codeBlock);
+                for (int y = 0; y < height; ++y) {
+                    for (int x = 0; x < width; ++x) {
+                        sum += Math.abs(coefficients[y * 16 + x]);
+                    }
+                }
+            }
+        }
+        assertEquals(196, decoder.getNumberOfCodeBlocksDecoded());
+        assertEquals(1114, decoder.getNumberOfPassesDecoded());
+        assertEquals(553620, sum);
+    }
+}
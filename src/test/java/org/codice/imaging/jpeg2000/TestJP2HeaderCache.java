@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the parsed header cache.
+ */
+public class TestJP2HeaderCache {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File copyTestFile(final String testfilename) throws IOException {
+        File testfile = new File(getClass().getResource(testfilename).getFile());
+        assertNotNull("Test file missing", testfile);
+        File copy = mTemporaryFolder.newFile(testfile.getName());
+        Files.copy(testfile.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return copy;
+    }
+
+    @Test
+    public void testSameFile() throws IOException, JP2ParsingException {
+        File file = copyTestFile("/file1.jp2");
+        JP2HeaderCache cache = new JP2HeaderCache(4);
+        JP2ParseStrategy parseStrategy = cache.getParseStrategy(file);
+        assertEquals(768, parseStrategy.getImageWidth());
+        assertEquals(1, parseStrategy.getCodeStream().getTileIndex().getNumberOfTileParts());
+        // The same results through another path to the file
+        assertSame(parseStrategy, cache.getParseStrategy(new File(file.getParentFile(), "./" + file.getName())));
+        assertSame(parseStrategy.getCodeStream(), cache.getCodeStream(file));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+
+        // Tiles can be decoded from the cached code stream
+        assertEquals(768 * 512, new JP2ImageDecoder(cache.getCodeStream(file)).decode().getSamples(0).length);
+    }
+
+    @Test
+    public void testSharedResultsAreReadOnly() throws IOException, JP2ParsingException {
+        File file = copyTestFile("/file1.jp2");
+        JP2HeaderCache cache = new JP2HeaderCache(4);
+        JP2ParseStrategy parseStrategy = cache.getParseStrategy(file);
+        JP2CodeStream codeStream = cache.getCodeStream(file);
+        try {
+            codeStream.getTiles().set(0, null);
+            fail("Expected the tile-parts to be read-only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            codeStream.getQuantizationExponents().clear();
+            fail("Expected the quantization exponents to be read-only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            parseStrategy.getXmlList().clear();
+            fail("Expected the XML boxes to be read-only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            parseStrategy.parse(new JP2MappedFileReader(file));
+            fail("Expected the parse results to not be replaced");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(1, cache.getCodeStream(file).getTiles().size());
+        assertEquals(768, cache.getParseStrategy(file).getImageWidth());
+    }
+
+    @Test
+    public void testChangedFile() throws IOException, JP2ParsingException {
+        File file = copyTestFile("/file1.jp2");
+        JP2HeaderCache cache = new JP2HeaderCache(4);
+        JP2CodeStream codeStream = cache.getCodeStream(file);
+        assertTrue(file.setLastModified(file.lastModified() - 60000));
+        assertNotSame(codeStream, cache.getCodeStream(file));
+
+        // A different file under the same name
+        Files.copy(new File(getClass().getResource("/file3.j2k").getFile()).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        assertEquals(200, cache.getCodeStream(file).getXSize());
+        assertEquals(3, cache.getMissCount());
+        assertEquals(1, cache.getNumberOfEntries());
+    }
+
+    @Test
+    public void testEviction() throws IOException, JP2ParsingException {
+        File file1 = copyTestFile("/file1.jp2");
+        File file2 = copyTestFile("/file2.jp2");
+        File file3 = copyTestFile("/file3.j2k");
+        JP2HeaderCache cache = new JP2HeaderCache(2);
+        cache.getCodeStream(file1);
+        cache.getCodeStream(file2);
+        cache.getCodeStream(file1);
+        // file2 is the least recently used
+        cache.getCodeStream(file3);
+        assertEquals(2, cache.getNumberOfEntries());
+        cache.getCodeStream(file1);
+        assertEquals(2, cache.getHitCount());
+        cache.getCodeStream(file2);
+        assertEquals(4, cache.getMissCount());
+    }
+
+    @Test(expected = JP2ParsingException.class)
+    public void testBareCodeStreamIsNotJP2() throws IOException, JP2ParsingException {
+        new JP2HeaderCache(2).getParseStrategy(copyTestFile("/file3.j2k"));
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for whole image decoding.
+ */
+public class TestJP2ImageDecoder {
+
+    private JP2Reader getTestReader(final String testfilename) throws JP2ParsingException {
+        File testfile = new File(getClass().getResource(testfilename).getFile());
+        assertNotNull("Test file missing", testfile);
+        return new JP2FileReader(testfile);
+    }
+
+    private long sumSamples(final JP2Raster raster, final int componentIndex) {
+        long sum = 0;
+        for (int sample : raster.getSamples(componentIndex)) {
+            sum += sample;
+        }
+        return sum;
+    }
+
+    @Test
+    public void testParallelTiles() throws JP2ParsingException {
+        JP2CodeStream cs = JP2Parser.parseCodestream(getTestReader("/file3.j2k"), false);
+        assertEquals(4, cs.getNumberOfTiles());
+        JP2ImageDecoder decoder = new JP2ImageDecoder(cs, new ForkJoinPool(4));
+        JP2Raster raster = decoder.decode();
+        assertEquals(3, raster.getNumberOfComponents());
+        assertEquals(200, raster.getWidth(0));
+        assertEquals(150, raster.getHeight(0));
+        // Same as decoding the tiles one at a time
+        assertEquals(3828575, sumSamples(raster, 0));
+        assertEquals(3946486, sumSamples(raster, 1));
+        assertEquals(3661095, sumSamples(raster, 2));
+        assertEquals(214, raster.getSamples(0)[20 * 200 + 10]);
+
+        // Decoders are reused, and the raster is completely overwritten
+        Arrays.fill(raster.getSamples(1), -1);
+        decoder.decode(raster);
+        assertEquals(3946486, sumSamples(raster, 1));
+    }
+
+    @Test
+    public void testIdleTileDecodersAreCapped() throws Exception {
+        File testfile = new File(getClass().getResource("/file3.j2k").getFile());
+        JP2CodeStream cs = JP2Parser.parseCodestream(new JP2MappedFileReader(testfile), false);
+        final JP2ImageDecoder decoder = new JP2ImageDecoder(cs, new ForkJoinPool(1));
+        // Decodes started from other threads run on those threads, so each needs its own tile decoder
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        decoder.decode();
+                    } catch (JP2ParsingException e) {
+                        error.set(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get());
+        assertTrue(decoder.getNumberOfIdleTileDecoders() <= 1);
+        assertEquals(3828575, sumSamples(decoder.decode(), 0));
+    }
+
+    @Test
+    public void testSharedPool() throws JP2ParsingException {
+        JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(getTestReader("/file1.jp2"), parseStrategy);
+        JP2Raster raster = new JP2ImageDecoder(parseStrategy.getCodeStream()).decode();
+        assertEquals(768, raster.getWidth(2));
+        assertEquals(105, raster.getSamples(0)[200 * 768 + 100]);
+        assertEquals(29056181, sumSamples(raster, 0));
+        assertEquals(46697956, sumSamples(raster, 1));
+        assertEquals(52827351, sumSamples(raster, 2));
+    }
+
+    @Test
+    public void testReducedResolution() throws JP2ParsingException {
+        JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(getTestReader("/file1.jp2"), parseStrategy);
+        JP2CodeStream cs = parseStrategy.getCodeStream();
+        JP2DecodeParam param = new JP2DecodeParam();
+        param.setResolutionReduction(2);
+        JP2Raster raster = new JP2ImageDecoder(cs, new ForkJoinPool(2)).decode(param);
+        assertEquals(192, raster.getWidth(0));
+        assertEquals(128, raster.getHeight(0));
+        assertEquals(126, raster.getSamples(0)[50 * 192 + 60]);
+        assertEquals(86, raster.getSamples(1)[50 * 192 + 60]);
+        assertEquals(64, raster.getSamples(2)[50 * 192 + 60]);
+        assertEquals(1852346, sumSamples(raster, 0));
+        assertEquals(2925189, sumSamples(raster, 1));
+        assertEquals(3332092, sumSamples(raster, 2));
+
+        // The packet bodies for the two highest resolutions are never read
+        JP2CodeBlockIndex index = new JP2PacketDecoder(cs).decodeTile(0, param);
+        assertEquals(649299, index.getDataLength());
+        assertEquals(69632, index.getBytesLoaded());
+    }
+
+    @Test
+    public void testRegion() throws JP2ParsingException {
+        JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(getTestReader("/file1.jp2"), parseStrategy);
+        JP2CodeStream cs = parseStrategy.getCodeStream();
+        JP2ImageDecoder decoder = new JP2ImageDecoder(cs, new ForkJoinPool(2));
+        JP2Raster full = decoder.decode();
+        JP2DecodeParam param = new JP2DecodeParam();
+        param.setRegion(10, 10, 40, 30);
+        JP2Raster region = decoder.decode(param);
+        assertEquals(10, region.getX0(0));
+        assertEquals(10, region.getY0(0));
+        assertEquals(40, region.getWidth(0));
+        assertEquals(30, region.getHeight(0));
+        for (int c = 0; c < 3; ++c) {
+            for (int y = 0; y < 30; ++y) {
+                for (int x = 0; x < 40; ++x) {
+                    assertEquals(full.getSamples(c)[(10 + y) * 768 + 10 + x], region.getSamples(c)[y * 40 + x]);
+                }
+            }
+        }
+
+        // Only the code-blocks around the region are decoded
+        JP2CodeBlockIndex index = new JP2PacketDecoder(cs).decodeTile(0, param);
+        int codeBlocksNeeded = 0;
+        for (int codeBlock = 0; codeBlock < index.getNumberOfCodeBlocks(); ++codeBlock) {
+            if (index.getWindow().isCodeBlockNeeded(codeBlock)) {
+                codeBlocksNeeded++;
+            }
+        }
+        assertEquals(309, index.getNumberOfCodeBlocks());
+        assertEquals(48, codeBlocksNeeded);
+    }
+
+    @Test
+    public void testRegionOfTiles() throws JP2ParsingException {
+        // Irreversible, and the region is in two of the four tiles, at half resolution
+        JP2CodeStream cs = JP2Parser.parseCodestream(getTestReader("/file3.j2k"), false);
+        JP2DecodeParam param = new JP2DecodeParam();
+        param.setResolutionReduction(1);
+        JP2Raster full = new JP2ImageDecoder(cs).decode(param);
+        param.setRegion(37, 11, 140, 33);
+        JP2Raster region = new JP2ImageDecoder(cs).decode(param);
+        assertEquals(19, region.getX0(0));
+        assertEquals(6, region.getY0(0));
+        assertEquals(70, region.getWidth(0));
+        assertEquals(16, region.getHeight(0));
+        JP2TileDecoder tileDecoder = new JP2TileDecoder(cs);
+        tileDecoder.decodeTile(1, param);
+        for (int c = 0; c < 3; ++c) {
+            for (int y = 0; y < 16; ++y) {
+                for (int x = 0; x < 70; ++x) {
+                    assertEquals(full.getSamples(c)[(6 + y) * 100 + 19 + x], region.getSamples(c)[y * 70 + x]);
+                }
+            }
+            // The samples from a tile decoder are moved to the start of the array
+            int x = tileDecoder.getX0(c) - region.getX0(c);
+            int y = tileDecoder.getY0(c) - region.getY0(c);
+            assertEquals(region.getSamples(c)[(y + 3) * 70 + x + 5], tileDecoder.getSamples(c)[3 * tileDecoder.getWidth(c) + 5]);
+        }
+    }
+
+    @Test
+    public void testQualityLayers() throws JP2ParsingException {
+        JP2CodeStream cs = JP2Parser.parseCodestream(getTestReader("/file3.j2k"), false);
+        assertEquals(4, cs.getTileCodingStyle(0).getNumberOfLayers());
+        JP2ImageDecoder decoder = new JP2ImageDecoder(cs);
+        JP2Raster full = decoder.decode();
+        JP2DecodeParam param = new JP2DecodeParam();
+        long previousError = Long.MAX_VALUE;
+        for (int layers = 1; layers <= 4; ++layers) {
+            param.setNumberOfLayers(layers);
+            JP2Raster raster = decoder.decode(param);
+            long error = 0;
+            for (int c = 0; c < 3; ++c) {
+                for (int i = 0; i < 200 * 150; ++i) {
+                    int difference = raster.getSamples(c)[i] - full.getSamples(c)[i];
+                    error += difference * difference;
+                }
+            }
+            // Each layer refines the image
+            assertTrue(error < previousError);
+            previousError = error;
+        }
+        assertEquals(0, previousError);
+
+        // Only the coding passes in the first layer are decoded
+        param.setNumberOfLayers(1);
+        JP2PacketDecoder packetDecoder = new JP2PacketDecoder(cs);
+        JP2CodeBlockDecoder codeBlockDecoder = new JP2CodeBlockDecoder();
+        int[] coefficients = new int[16 * 16];
+        for (int tileIndex = 0; tileIndex < cs.getNumberOfTiles(); ++tileIndex) {
+            JP2CodeBlockIndex index = packetDecoder.decodeTile(tileIndex, param);
+            assertEquals(1, index.getNumberOfLayersToDecode());
+            for (int codeBlock = 0; codeBlock < index.getNumberOfCodeBlocks(); ++codeBlock) {
+                codeBlockDecoder.decode(index, codeBlock, coefficients, 0, 16);
+            }
+        }
+        assertEquals(141, codeBlockDecoder.getNumberOfPassesDecoded());
+    }
+
+    @Test
+    public void testPixelRaster() throws JP2ParsingException {
+        // Reversible colour, interleaved bytes
+        JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(getTestReader("/file1.jp2"), parseStrategy);
+        JP2CodeStream cs = parseStrategy.getCodeStream();
+        assertEquals(8, cs.getComponentBitDepth(0));
+        JP2ImageDecoder decoder = new JP2ImageDecoder(cs);
+        JP2Raster full = decoder.decode();
+        JP2PixelRaster bytes = new JP2PixelRaster(cs, new JP2DecodeParam(), JP2PixelRaster.TYPE_BYTE, true);
+        decoder.decode(bytes);
+        assertNull(bytes.getShortData());
+        assertEquals(3, bytes.getPixelStride());
+        assertEquals(768 * 3, bytes.getLineStride(0));
+        for (int c = 0; c < 3; ++c) {
+            for (int i = 0; i < 768 * 512; ++i) {
+                assertEquals(full.getSamples(c)[i], bytes.getByteData()[i * 3 + c] & 0xFF);
+            }
+        }
+
+        // Irreversible colour over several tiles, a short plane per component
+        cs = JP2Parser.parseCodestream(getTestReader("/file3.j2k"), false);
+        decoder = new JP2ImageDecoder(cs);
+        JP2DecodeParam param = new JP2DecodeParam();
+        param.setRegion(37, 11, 140, 33);
+        full = decoder.decode(param);
+        JP2PixelRaster shorts = new JP2PixelRaster(cs, param, JP2PixelRaster.TYPE_SHORT, false);
+        decoder.decode(shorts);
+        assertEquals(1, shorts.getPixelStride());
+        assertEquals(140 * 33, shorts.getBandOffset(1));
+        for (int c = 0; c < 3; ++c) {
+            for (int i = 0; i < 140 * 33; ++i) {
+                assertEquals(full.getSamples(c)[i], shorts.getShortData()[shorts.getBandOffset(c) + i]);
+            }
+        }
+    }
+
+    @Test
+    public void testComponents() throws JP2ParsingException {
+        // No component transformation, so the other components are skipped
+        JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(getTestReader("/file2.jp2"), parseStrategy);
+        JP2CodeStream cs = parseStrategy.getCodeStream();
+        assertEquals(0, cs.getTileCodingStyle(0).getMultipleComponentTransformation());
+        JP2ImageDecoder decoder = new JP2ImageDecoder(cs);
+        JP2Raster full = decoder.decode();
+        JP2DecodeParam param = new JP2DecodeParam();
+        param.setComponents(2);
+        JP2Raster raster = decoder.decode(param);
+        assertEquals(0, raster.getSamples(0).length);
+        assertEquals(0, raster.getWidth(1));
+        assertArrayEquals(full.getSamples(2), raster.getSamples(2));
+
+        JP2CodeBlockIndex index = new JP2PacketDecoder(cs).decodeTile(0, param);
+        JP2TileLayout layout = index.getLayout();
+        for (int codeBlock = 0; codeBlock < index.getNumberOfCodeBlocks(); ++codeBlock) {
+            int c = layout.getResolutionComponent(layout.getBandResolution(layout.getCodeBlockBand(codeBlock)));
+            assertEquals(c == 2, index.getWindow().isCodeBlockNeeded(codeBlock));
+        }
+
+        // With the component transformation, the first three components are all decoded
+        parseStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(getTestReader("/file1.jp2"), parseStrategy);
+        cs = parseStrategy.getCodeStream();
+        decoder = new JP2ImageDecoder(cs);
+        full = decoder.decode();
+        param.setComponents(2, 0);
+        JP2PixelRaster bytes = new JP2PixelRaster(cs, param, JP2PixelRaster.TYPE_BYTE, true);
+        decoder.decode(bytes);
+        assertEquals(2, bytes.getPixelStride());
+        assertEquals(0, bytes.getBandOffset(2));
+        assertEquals(1, bytes.getBandOffset(0));
+        assertEquals(0, bytes.getWidth(1));
+        for (int i = 0; i < 768 * 512; ++i) {
+            assertEquals(full.getSamples(2)[i], bytes.getByteData()[i * 2] & 0xFF);
+            assertEquals(full.getSamples(0)[i], bytes.getByteData()[i * 2 + 1] & 0xFF);
+        }
+    }
+
+    @Test(expected = JP2ParsingException.class)
+    public void testComponentNotInImage() throws JP2ParsingException {
+        JP2CodeStream cs = JP2Parser.parseCodestream(getTestReader("/file3.j2k"), false);
+        JP2DecodeParam param = new JP2DecodeParam();
+        param.setComponents(3);
+        new JP2ImageDecoder(cs).decode(param);
+    }
+
+    @Test(expected = JP2ParsingException.class)
+    public void testResolutionReductionTooLarge() throws JP2ParsingException {
+        JP2CodeStream cs = JP2Parser.parseCodestream(getTestReader("/file3.j2k"), false);
+        JP2DecodeParam param = new JP2DecodeParam();
+        param.setResolutionReduction(cs.getNumberOfDecompositionLevels() + 1);
+        new JP2ImageDecoder(cs).decode(param);
+    }
+}
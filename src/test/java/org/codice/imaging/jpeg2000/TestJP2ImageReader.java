@@ -0,0 +1,282 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the image I/O reader plugin.
+ */
+public class TestJP2ImageReader {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File getTestFile(final String testfilename) {
+        File testfile = new File(getClass().getResource(testfilename).getFile());
+        assertNotNull("Test file missing", testfile);
+        return testfile;
+    }
+
+    private JP2CodeStream getCodeStream(final String testfilename) throws JP2ParsingException {
+        return JP2Parser.parseCodestream(new JP2FileReader(getTestFile(testfilename)), false);
+    }
+
+    private ImageReader getReader(final String suffix) {
+        Iterator<ImageReader> readers = ImageIO.getImageReadersBySuffix(suffix);
+        assertTrue(readers.hasNext());
+        ImageReader reader = readers.next();
+        assertTrue(reader instanceof JP2ImageReader);
+        return reader;
+    }
+
+    @Test
+    public void testRead() throws IOException, JP2ParsingException {
+        File file = getTestFile("/file1.jp2");
+        BufferedImage image = ImageIO.read(file);
+        assertNotNull(image);
+        assertEquals(768, image.getWidth());
+        assertEquals(512, image.getHeight());
+        assertEquals(3, image.getRaster().getNumBands());
+
+        JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(new JP2FileReader(file), parseStrategy);
+        JP2Raster raster = new JP2ImageDecoder(parseStrategy.getCodeStream()).decode();
+        for (int c = 0; c < 3; ++c) {
+            assertArrayEquals(raster.getSamples(c), image.getRaster().getSamples(0, 0, 768, 512, c, (int[]) null));
+        }
+    }
+
+    @Test
+    public void testRegionAndSubsampling() throws IOException, JP2ParsingException {
+        ImageReader reader = getReader("j2k");
+        reader.setInput(getTestFile("/file3.j2k"));
+        assertEquals(200, reader.getWidth(0));
+        assertEquals(150, reader.getHeight(0));
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(40, 30, 120, 90));
+        param.setSourceSubsampling(2, 2, 0, 0);
+        Raster image = reader.read(0, param).getRaster();
+        assertEquals(60, image.getWidth());
+        assertEquals(45, image.getHeight());
+
+        // Subsampling by 2 is the same as decoding one resolution level lower
+        JP2DecodeParam decodeParam = new JP2DecodeParam();
+        decodeParam.setResolutionReduction(1);
+        JP2Raster raster = new JP2ImageDecoder(getCodeStream("/file3.j2k")).decode(decodeParam);
+        for (int c = 0; c < 3; ++c) {
+            for (int y = 0; y < 45; ++y) {
+                for (int x = 0; x < 60; ++x) {
+                    assertEquals(raster.getSamples(c)[(y + 15) * raster.getWidth(c) + x + 20], image.getSample(x, y, c));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSourceBands() throws IOException, JP2ParsingException {
+        ImageReader reader = getReader("j2k");
+        reader.setInput(getTestFile("/file3.j2k"));
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceBands(new int[]{2});
+        BufferedImage image = reader.read(0, param);
+        assertEquals(1, image.getRaster().getNumBands());
+
+        JP2Raster raster = new JP2ImageDecoder(getCodeStream("/file3.j2k")).decode();
+        assertArrayEquals(raster.getSamples(2), image.getRaster().getSamples(0, 0, 200, 150, 0, (int[]) null));
+    }
+
+    @Test
+    public void testStreamInput() throws IOException, JP2ParsingException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(getTestFile("/file3.j2k"))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            assertTrue(readers.hasNext());
+            ImageReader reader = readers.next();
+            reader.setInput(stream);
+            BufferedImage image = reader.read(0);
+            assertEquals(200, image.getWidth());
+
+            JP2Raster raster = new JP2ImageDecoder(getCodeStream("/file3.j2k")).decode();
+            assertArrayEquals(raster.getSamples(1), image.getRaster().getSamples(0, 0, 200, 150, 1, (int[]) null));
+        }
+    }
+
+    @Test
+    public void testAlpha() throws IOException {
+        // No channel definition, so the last of two or four bands is taken to be alpha
+        ImageReader reader = getReader("j2k");
+        reader.setInput(getTestFile("/file3.j2k"));
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceBands(new int[]{0, 1});
+        assertTrue(reader.read(0, param).getColorModel().hasAlpha());
+
+        // The channel definition says all three channels are colours
+        reader.setInput(getTestFile("/file2.jp2"));
+        assertFalse(reader.read(0, param).getColorModel().hasAlpha());
+
+        // Made into an opacity channel
+        File file = mTemporaryFolder.newFile("alpha.jp2");
+        byte[] contents = Files.readAllBytes(getTestFile("/file2.jp2").toPath());
+        int cdef = new String(contents, StandardCharsets.ISO_8859_1).indexOf("cdef");
+        // Box type, number of entries, then channel 2 is the third entry of index, type and association
+        int typeOffset = cdef + 4 + 2 + 2 * 6 + 2;
+        assertEquals(2, contents[typeOffset - 1]);
+        contents[typeOffset + 1] = JP2ChannelDefinitionEntry.OPACITY_CHANNEL;
+        Files.write(file.toPath(), contents);
+        reader.setInput(file);
+        ColorModel colorModel = reader.read(0).getColorModel();
+        assertTrue(colorModel.hasAlpha());
+        assertFalse(colorModel.isAlphaPremultiplied());
+        assertEquals(2, colorModel.getColorSpace().getNumComponents());
+    }
+
+    @Test
+    public void testYCCColourSpace() throws IOException {
+        // sYCC, with the channel definition giving components 2, 1 and 0 as Y, Cb and Cr
+        ImageReader reader = getReader("jp2");
+        reader.setInput(getTestFile("/file2.jp2"));
+        BufferedImage image = reader.read(0);
+        assertEquals(ColorSpace.getInstance(ColorSpace.CS_sRGB), image.getColorModel().getColorSpace());
+        assertArrayEquals(new int[]{157, 168, 186}, image.getRaster().getPixel(0, 0, (int[]) null));
+        assertArrayEquals(new int[]{119, 120, 138}, image.getRaster().getPixel(240, 320, (int[]) null));
+
+        // The same colours when the bands are picked in colour order
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceBands(new int[]{2, 1, 0});
+        assertArrayEquals(new int[]{157, 168, 186}, reader.read(0, param).getRaster().getPixel(0, 0, (int[]) null));
+
+        // Out of colour order, the components are not given a colour interpretation
+        param.setSourceBands(new int[]{0, 1, 2});
+        image = reader.read(0, param);
+        assertFalse(image.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_RGB);
+        assertArrayEquals(new int[]{121, 139, 167}, image.getRaster().getPixel(0, 0, (int[]) null));
+    }
+
+    @Test
+    public void testStreamReadsAreBuffered() throws IOException {
+        File file = getTestFile("/file1.jp2");
+        final int[] reads = new int[1];
+        try (ImageInputStream stream = new FileImageInputStream(file) {
+            @Override
+            public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+                reads[0]++;
+                return super.read(bytes, offset, length);
+            }
+        }) {
+            ImageReader reader = getReader("jp2");
+            reader.setInput(stream);
+            assertEquals(768, reader.getWidth(0));
+            // The headers are parsed field by field, but only a few blocks are read
+            assertTrue("Stream reads: " + reads[0], reads[0] < 10);
+        }
+    }
+
+    @Test
+    public void testProgressAndAbort() throws IOException {
+        ImageReader reader = getReader("j2k");
+        reader.setInput(getTestFile("/file3.j2k"));
+        ProgressListener listener = new ProgressListener();
+        reader.addIIOReadProgressListener(listener);
+        // Decoded in place, with progress for each of the four tiles
+        reader.read(0);
+        assertEquals(Arrays.asList(25.0f, 50.0f, 75.0f, 100.0f), listener.mProgress);
+        assertFalse(listener.mAborted);
+
+        // Aborted after the first tile
+        listener.mProgress.clear();
+        listener.mAbortOnProgress = true;
+        reader.read(0);
+        assertEquals(Arrays.asList(25.0f), listener.mProgress);
+        assertTrue(listener.mAborted);
+    }
+
+    private static class ProgressListener implements IIOReadProgressListener {
+        private final List<Float> mProgress = new ArrayList<>();
+        private boolean mAbortOnProgress = false;
+        private boolean mAborted = false;
+
+        @Override
+        public void imageProgress(final ImageReader source, final float percentageDone) {
+            mProgress.add(percentageDone);
+            if (mAbortOnProgress) {
+                source.abort();
+            }
+        }
+
+        @Override
+        public void readAborted(final ImageReader source) {
+            mAborted = true;
+        }
+
+        @Override
+        public void sequenceStarted(final ImageReader source, final int minIndex) {
+        }
+
+        @Override
+        public void sequenceComplete(final ImageReader source) {
+        }
+
+        @Override
+        public void imageStarted(final ImageReader source, final int imageIndex) {
+        }
+
+        @Override
+        public void imageComplete(final ImageReader source) {
+        }
+
+        @Override
+        public void thumbnailStarted(final ImageReader source, final int imageIndex, final int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(final ImageReader source, final float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(final ImageReader source) {
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the incremental parser, trickling in the test files.
+ */
+public class TestJP2IncrementalParser {
+
+    private static class RecordingListener extends JP2ParseAdapter {
+        private final List<String> mEvents = new ArrayList<>();
+
+        @Override
+        public boolean boxStart(final String boxType, final long offset, final JP2Reader contents) {
+            mEvents.add("start " + boxType + " at " + offset);
+            return true;
+        }
+
+        @Override
+        public boolean boxEnd(final String boxType) {
+            mEvents.add("end " + boxType);
+            return true;
+        }
+
+        @Override
+        public boolean markerSegment(final int markerCode, final long offset, final JP2Reader contents) throws JP2ParsingException {
+            mEvents.add(String.format("marker 0x%04x at %d length %d", markerCode, offset, contents.getLength()));
+            return true;
+        }
+
+        @Override
+        public boolean tilePart(final int tileIndex, final int tilePartIndex, final int numberOfTileParts, final JP2Reader data) throws JP2ParsingException {
+            mEvents.add("tile " + tileIndex + " part " + tilePartIndex + " length " + data.getLength() + " last byte " + data.getByteBuffer(data.getLength() - 1, 1).get());
+            return true;
+        }
+    }
+
+    private byte[] getTestFileContents(final String testfilename) throws IOException {
+        File testfile = new File(getClass().getResource(testfilename).getFile());
+        assertNotNull("Test file missing", testfile);
+        return Files.readAllBytes(testfile.toPath());
+    }
+
+    @Test
+    public void testTrickleMatchesStreamingParse() throws Exception {
+        byte[] contents = getTestFileContents("/file1.jp2");
+        RecordingListener expected = new RecordingListener();
+        JP2StreamingParser.parse(new JP2ByteBufferReader(contents), expected);
+
+        RecordingListener actual = new RecordingListener();
+        JP2IncrementalParser parser = new JP2IncrementalParser(actual);
+        final int chunkSize = 997;
+        for (int offset = 0; offset < contents.length; offset += chunkSize) {
+            assertTrue(parser.feed(contents, offset, Math.min(chunkSize, contents.length - offset)));
+            if (offset > 2000) {
+                assertTrue(parser.isMainHeaderComplete());
+            }
+        }
+        assertTrue(parser.endOfData());
+        assertTrue(parser.isCodestreamComplete());
+        assertEquals(1, parser.getNumberOfCompleteTileParts());
+        assertEquals(expected.mEvents, actual.mEvents);
+
+        JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(parser.getReader(), parseStrategy);
+        assertEquals(768, parseStrategy.getImageWidth());
+    }
+
+    @Test
+    public void testTruncatedData() throws Exception {
+        byte[] contents = getTestFileContents("/file2.jp2");
+        RecordingListener listener = new RecordingListener();
+        JP2IncrementalParser parser = new JP2IncrementalParser(listener);
+        assertTrue(parser.feed(contents, 0, 100));
+        assertFalse(parser.isMainHeaderComplete());
+        assertTrue(parser.feed(contents, 100, contents.length / 2 - 100));
+        assertTrue(parser.isMainHeaderComplete());
+        assertEquals(0, parser.getNumberOfCompleteTileParts());
+        assertFalse(parser.endOfData());
+        assertTrue(listener.mEvents.contains("end jp2h"));
+        assertFalse(listener.mEvents.contains("end jp2c"));
+    }
+
+    @Test
+    public void testBareCodestream() throws Exception {
+        byte[] contents = getTestFileContents("/file2.jp2");
+        final int codestreamOffset = 117;
+        RecordingListener listener = new RecordingListener();
+        JP2IncrementalParser parser = new JP2IncrementalParser(listener, true);
+        for (int offset = codestreamOffset; offset < contents.length; offset += 4096) {
+            parser.feed(contents, offset, Math.min(4096, contents.length - offset));
+        }
+        assertTrue(parser.endOfData());
+        assertEquals(1, parser.getNumberOfCompleteTileParts());
+        assertEquals(480, JP2Parser.parseCodestream(parser.getReader(), true).getXSize());
+    }
+
+    @Test
+    public void testMaximumSize() throws Exception {
+        byte[] contents = getTestFileContents("/file1.jp2");
+        RecordingListener listener = new RecordingListener();
+        JP2IncrementalParser parser = new JP2IncrementalParser(listener, false, 100 * 1024);
+        assertTrue(parser.feed(contents, 0, 100 * 1024));
+        try {
+            parser.feed(contents, 100 * 1024, 1);
+            fail("Expected the data to be refused once over the maximum size");
+        } catch (JP2ParsingException e) {
+            // expected
+        }
+        assertEquals(100 * 1024, parser.getNumberOfBytesReceived());
+        assertTrue(parser.isMainHeaderComplete());
+    }
+}
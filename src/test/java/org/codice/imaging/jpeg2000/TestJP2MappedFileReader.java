@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.io.File;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the memory mapped reader.
+ */
+public class TestJP2MappedFileReader {
+
+    private File getTestFile(final String testfilename) {
+        File testfile = new File(getClass().getResource(testfilename).getFile());
+        assertNotNull("Test file missing", testfile);
+        return testfile;
+    }
+
+    @Test
+    public void testFile1() throws JP2ParsingException {
+        JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(new JP2MappedFileReader(getTestFile("/file1.jp2")), parseStrategy);
+        assertEquals("jp2 ", parseStrategy.getFileTypeBox().getBranding());
+        assertEquals(2, parseStrategy.getXmlList().size());
+        assertEquals(768, parseStrategy.getImageWidth());
+        assertEquals(512, parseStrategy.getImageHeight());
+        assertEquals(1, parseStrategy.getCodeStream().getTiles().size());
+        assertEquals(649299, parseStrategy.getCodeStream().getTiles().get(0).getData().length);
+    }
+
+    @Test
+    public void testReadsAcrossWindowBoundaries() throws JP2ParsingException {
+        File testfile = getTestFile("/file2.jp2");
+        JP2ParseStrategy fileStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(new JP2FileReader(testfile), fileStrategy);
+        // An odd window size forces shorts, ints and strings to straddle mappings.
+        JP2ParseStrategy mappedStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(new JP2MappedFileReader(testfile, 7), mappedStrategy);
+
+        assertEquals(fileStrategy.getImageWidth(), mappedStrategy.getImageWidth());
+        assertEquals(fileStrategy.getImageHeight(), mappedStrategy.getImageHeight());
+        assertEquals(3, mappedStrategy.getChannelDefinitionBox().getNumberOfEntries());
+        assertEquals(480, mappedStrategy.getCodeStream().getXSize());
+        assertEquals(640, mappedStrategy.getCodeStream().getYSize());
+        assertTrue(Arrays.equals(fileStrategy.getCodeStream().getTiles().get(0).getData(),
+                mappedStrategy.getCodeStream().getTiles().get(0).getData()));
+    }
+
+    @Test(expected = JP2ParsingException.class)
+    public void testReadPastEnd() throws JP2ParsingException {
+        JP2Reader reader = new JP2MappedFileReader(getTestFile("/file2.jp2"));
+        reader.skipBytes(Integer.MAX_VALUE);
+        assertFalse(reader.hasDataRemaining());
+        reader.readUnsignedShort();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.io.File;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for tier-2 (packet header) decoding.
+ */
+public class TestJP2PacketDecoder {
+
+    private JP2Reader getTestReader(final String testfilename) throws JP2ParsingException {
+        File testfile = new File(getClass().getResource(testfilename).getFile());
+        assertNotNull("Test file missing", testfile);
+        return new JP2FileReader(testfile);
+    }
+
+    @Test
+    public void testFile1() throws JP2ParsingException {
+        JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(getTestReader("/file1.jp2"), parseStrategy);
+        JP2CodeStream cs = parseStrategy.getCodeStream();
+        JP2CodeBlockIndex index = new JP2PacketDecoder(cs).decodeTile(0);
+        // One layer, six resolution levels, three components, one precinct each
+        assertEquals(18, index.getNumberOfPackets());
+        assertEquals(649299, index.getDataLength());
+        assertEquals(index.getDataLength(), index.getPacketDataLength());
+        JP2TileLayout layout = index.getLayout();
+        assertEquals(3 * 6, layout.getNumberOfResolutions());
+        assertEquals(768, layout.getResolutionX1(layout.getResolution(0, 5)));
+        assertEquals(24, layout.getResolutionX1(layout.getResolution(0, 0)));
+        assertEquals(16, layout.getResolutionY1(layout.getResolution(0, 0)));
+        long totalPieceLength = 0;
+        for (int codeBlock = 0; codeBlock < index.getNumberOfCodeBlocks(); ++codeBlock) {
+            assertEquals(0, index.getInclusionLayer(codeBlock));
+            int piece = index.getFirstPiece(codeBlock);
+            assertEquals(codeBlock, index.getPieceCodeBlock(piece));
+            assertEquals(0, index.getPieceFirstPass(piece));
+            assertEquals(index.getNumberOfPasses(codeBlock), index.getPiecePasses(piece));
+            assertTrue(index.isPieceSegmentStart(piece));
+            assertEquals(JP2CodeBlockIndex.NONE, index.getNextPiece(piece));
+            totalPieceLength += index.getPieceLength(piece);
+        }
+        assertTrue(totalPieceLength < index.getDataLength());
+    }
+
+    @Test
+    public void testTilesPrecinctsAndLayers() throws JP2ParsingException {
+        JP2CodeStream cs = JP2Parser.parseCodestream(getTestReader("/file3.j2k"), false);
+        assertEquals(4, cs.getNumberOfTiles());
+        JP2CodingStyle codingStyle = cs.getTileCodingStyle(3);
+        assertEquals(JP2CodingStyle.PROGRESSION_RPCL, codingStyle.getProgressionOrder());
+        assertEquals(4, codingStyle.getNumberOfLayers());
+        assertTrue(codingStyle.usesStartOfPacketMarkers());
+        assertTrue(codingStyle.usesEndOfPacketHeaderMarkers());
+        assertEquals(5, codingStyle.getPrecinctWidthExponent(0));
+        assertEquals(6, codingStyle.getPrecinctHeightExponent(3));
+        assertEquals(4, codingStyle.getCodeBlockWidthExponent());
+        JP2PacketDecoder decoder = new JP2PacketDecoder(cs);
+        int[] expectedPackets = new int[] {120, 120, 72, 72};
+        int[] expectedCodeBlocks = new int[] {192, 0, 0, 57};
+        for (int t = 0; t < cs.getNumberOfTiles(); ++t) {
+            JP2CodeBlockIndex index = decoder.decodeTile(t);
+            assertEquals(expectedPackets[t], index.getNumberOfPackets());
+            assertEquals(index.getDataLength(), index.getPacketDataLength());
+            if (expectedCodeBlocks[t] > 0) {
+                assertEquals(expectedCodeBlocks[t], index.getNumberOfCodeBlocks());
+            }
+            for (int codeBlock = 0; codeBlock < index.getNumberOfCodeBlocks(); ++codeBlock) {
+                // Every coding pass is in its own segment, for termination on each pass
+                int passes = 0;
+                for (int piece = index.getFirstPiece(codeBlock); piece != JP2CodeBlockIndex.NONE; piece = index.getNextPiece(piece)) {
+                    assertEquals(1, index.getPiecePasses(piece));
+                    assertEquals(passes, index.getPieceFirstPass(piece));
+                    assertTrue(index.isPieceSegmentStart(piece));
+                    passes++;
+                }
+                assertEquals(index.getNumberOfPasses(codeBlock), passes);
+            }
+        }
+        JP2TileLayout layout = decoder.decodeTile(3).getLayout();
+        assertEquals(128, layout.getTileX0());
+        assertEquals(200, layout.getTileX1());
+        assertEquals(150, layout.getTileY1());
+        int resolution = layout.getResolution(1, 3);
+        assertEquals(2, layout.getNumberOfPrecinctsWide(resolution));
+        assertEquals(1, layout.getNumberOfPrecinctsHigh(resolution));
+        int band = layout.getBand(resolution, 0);
+        assertEquals(JP2TileLayout.BAND_HL, layout.getBandOrientation(band));
+        assertEquals(64, layout.getBandX0(band));
+        assertEquals(100, layout.getBandX1(band));
+    }
+
+    @Test
+    public void testCodewordSegments() {
+        int bypass = JP2CodingStyle.CODE_BLOCK_BYPASS;
+        assertEquals(Integer.MAX_VALUE, JP2PacketDecoder.getSegmentEnd(12, 0));
+        assertEquals(10, JP2PacketDecoder.getSegmentEnd(0, bypass));
+        assertEquals(12, JP2PacketDecoder.getSegmentEnd(10, bypass));
+        assertEquals(13, JP2PacketDecoder.getSegmentEnd(12, bypass));
+        assertEquals(15, JP2PacketDecoder.getSegmentEnd(14, bypass));
+        assertTrue(JP2PacketDecoder.isSegmentStart(13, bypass));
+        assertFalse(JP2PacketDecoder.isSegmentStart(14, bypass));
+        assertTrue(JP2PacketDecoder.isRawPass(14, bypass));
+        assertFalse(JP2PacketDecoder.isRawPass(15, bypass));
+        assertEquals(8, JP2PacketDecoder.getSegmentEnd(7, bypass | JP2CodingStyle.CODE_BLOCK_TERMINATE_ALL));
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for decoding into storage supplied by the caller.
+ */
+public class TestJP2RasterOutput {
+
+    private JP2Reader getTestReader(final String testfilename) throws JP2ParsingException {
+        File testfile = new File(getClass().getResource(testfilename).getFile());
+        assertNotNull("Test file missing", testfile);
+        return new JP2FileReader(testfile);
+    }
+
+    private JP2ParseStrategy getParseStrategy(final String testfilename) throws JP2ParsingException {
+        JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(getTestReader(testfilename), parseStrategy);
+        return parseStrategy;
+    }
+
+    @Test
+    public void testCreateRaster() throws JP2ParsingException {
+        JP2ParseStrategy parseStrategy = getParseStrategy("/file1.jp2");
+        JP2CodeStream cs = parseStrategy.getCodeStream();
+        JP2DecodeParam param = new JP2DecodeParam();
+        param.setRegion(100, 200, 300, 50);
+        // Three 8 bit components are interleaved bytes, ready for a BufferedImage
+        WritableRaster raster = JP2RasterOutput.createRaster(parseStrategy, param);
+        assertTrue(raster.getSampleModel() instanceof PixelInterleavedSampleModel);
+        assertEquals(DataBuffer.TYPE_BYTE, raster.getDataBuffer().getDataType());
+        assertEquals(3, raster.getNumBands());
+        assertEquals(300, raster.getWidth());
+        assertEquals(50, raster.getHeight());
+        new JP2ImageDecoder(cs).decode(new JP2RasterOutput(cs, param, raster));
+
+        JP2Raster expected = new JP2ImageDecoder(cs).decode(param);
+        for (int c = 0; c < 3; ++c) {
+            assertArrayEquals(expected.getSamples(c), raster.getSamples(0, 0, 300, 50, c, (int[]) null));
+        }
+    }
+
+    @Test
+    public void testDataBuffer() throws JP2ParsingException {
+        JP2CodeStream cs = JP2Parser.parseCodestream(getTestReader("/file3.j2k"), false);
+        JP2DecodeParam param = new JP2DecodeParam();
+        param.setComponents(2, 0);
+        // Two planes of 16 bit samples, one after the other, with padding at the start and end of each row
+        int lineStride = 210;
+        int plane = lineStride * 150;
+        DataBufferUShort buffer = new DataBufferUShort(7 + 2 * plane);
+        JP2RasterOutput output = new JP2RasterOutput(cs, param, buffer, null, new int[]{7 + plane + 5, 7 + 5}, 1, lineStride);
+        new JP2ImageDecoder(cs).decode(output);
+
+        JP2Raster expected = new JP2ImageDecoder(cs).decode();
+        short[] data = buffer.getData();
+        for (int y = 0; y < 150; ++y) {
+            for (int x = 0; x < 200; ++x) {
+                assertEquals(expected.getSamples(0)[y * 200 + x], data[7 + 5 + y * lineStride + x]);
+                assertEquals(expected.getSamples(2)[y * 200 + x], data[7 + plane + 5 + y * lineStride + x]);
+            }
+        }
+        assertEquals(0, data[7 + 4]);
+        assertEquals(0, data[7 + 5 + 200]);
+
+        try {
+            new JP2RasterOutput(cs, param, buffer, null, new int[]{7 + plane + 11, 7 + 5}, 1, lineStride);
+            fail("Component should not fit");
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().contains("does not fit"));
+        }
+    }
+
+    @Test
+    public void testDataBufferOffset() throws JP2ParsingException {
+        JP2CodeStream cs = JP2Parser.parseCodestream(getTestReader("/file3.j2k"), false);
+        JP2DecodeParam param = new JP2DecodeParam();
+        param.setComponents(1);
+        // The data buffer starts part way into its array, and band offsets are from there
+        int bankOffset = 100;
+        DataBufferByte buffer = new DataBufferByte(new byte[bankOffset + 200 * 150], 200 * 150, bankOffset);
+        new JP2ImageDecoder(cs).decode(new JP2RasterOutput(cs, param, buffer, null, new int[]{0}, 1, 200));
+
+        JP2Raster expected = new JP2ImageDecoder(cs).decode();
+        byte[] data = buffer.getData();
+        for (int i = 0; i < 200 * 150; ++i) {
+            assertEquals(expected.getSamples(1)[i], data[bankOffset + i] & 0xFF);
+        }
+        assertEquals(0, data[bankOffset - 1]);
+
+        try {
+            new JP2RasterOutput(cs, param, buffer, null, new int[]{1}, 1, 200);
+            fail("Component should not fit");
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().contains("does not fit"));
+        }
+    }
+
+    @Test
+    public void testDirectByteBuffer() throws JP2ParsingException {
+        JP2CodeStream cs = JP2Parser.parseCodestream(getTestReader("/file3.j2k"), false);
+        JP2DecodeParam param = new JP2DecodeParam();
+        param.setResolutionReduction(1);
+        // Interleaved RGB with a spare byte for each pixel
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4 * 100 * 75);
+        new JP2ImageDecoder(cs).decode(new JP2RasterOutput(cs, param, buffer, 8, new int[]{0, 1, 2}, 4, 4 * 100));
+        assertEquals(0, buffer.position());
+
+        JP2Raster expected = new JP2ImageDecoder(cs).decode(param);
+        for (int c = 0; c < 3; ++c) {
+            for (int i = 0; i < 100 * 75; ++i) {
+                assertEquals(expected.getSamples(c)[i], buffer.get(4 * i + c) & 0xFF);
+            }
+        }
+        assertEquals(0, buffer.get(3));
+    }
+
+    @Test
+    public void testPartOfRaster() throws JP2ParsingException {
+        JP2ParseStrategy parseStrategy = getParseStrategy("/file1.jp2");
+        JP2CodeStream cs = parseStrategy.getCodeStream();
+        JP2DecodeParam param = new JP2DecodeParam();
+        param.setRegion(0, 0, 64, 64);
+        param.setComponents(1);
+        // Band 2 of a banded raster, starting at 10, 20, so the bottom right is clipped
+        WritableRaster raster = Raster.createWritableRaster(new BandedSampleModel(DataBuffer.TYPE_BYTE, 50, 40, 3), null);
+        new JP2ImageDecoder(cs).decode(new JP2RasterOutput(cs, param, raster, 10, 20, new int[]{2}));
+
+        JP2Raster expected = new JP2ImageDecoder(cs).decode(param);
+        for (int y = 0; y < 40; ++y) {
+            for (int x = 0; x < 50; ++x) {
+                int sample = raster.getSample(x, y, 2);
+                if (x < 10 || y < 20) {
+                    assertEquals(0, sample);
+                } else {
+                    assertEquals(expected.getSamples(1)[(y - 20) * 64 + x - 10], sample);
+                }
+                assertEquals(0, raster.getSample(x, y, 1));
+            }
+        }
+    }
+}
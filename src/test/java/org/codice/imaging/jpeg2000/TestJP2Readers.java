@@ -0,0 +1,207 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the alternative JP2Reader implementations.
+ */
+public class TestJP2Readers {
+
+    private File getTestFile(final String testfilename) {
+        File testfile = new File(getClass().getResource(testfilename).getFile());
+        assertNotNull("Test file missing", testfile);
+        return testfile;
+    }
+
+    private JP2ParseStrategy parse(final JP2Reader reader) throws JP2ParsingException {
+        JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(reader, parseStrategy);
+        return parseStrategy;
+    }
+
+    @Test
+    public void testPositionalReaderConcurrentReads() throws Exception {
+        File testfile = getTestFile("/file1.jp2");
+        final byte[] expected = parse(new JP2FileReader(testfile)).getCodeStream().getTiles().get(0).getData();
+
+        try (JP2PositionalFileReader reader = new JP2PositionalFileReader(testfile)) {
+            final JP2Tile tile = parse(reader).getCodeStream().getTiles().get(0);
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 64; ++i) {
+                final int chunk = i;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws JP2ParsingException {
+                        int chunkLength = expected.length / 64;
+                        ByteBuffer buffer = tile.getDataBuffer();
+                        for (int j = chunk * chunkLength; j < (chunk + 1) * chunkLength; ++j) {
+                            if (buffer.get(j) != expected[j]) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPositionalReaderCursorsAreIndependent() throws Exception {
+        try (JP2PositionalFileReader reader = new JP2PositionalFileReader(getTestFile("/file2.jp2"))) {
+            JP2PositionalFileReader otherCursor = reader.newCursor();
+            reader.skipBytes(100);
+            assertEquals(0, otherCursor.getPosition());
+            assertEquals(480, parse(otherCursor).getImageWidth());
+            assertEquals(100, reader.getPosition());
+        }
+    }
+
+    @Test
+    public void testPositionalReaderInterrupted() throws Exception {
+        File testfile = getTestFile("/file2.jp2");
+        final byte[] expected = Files.readAllBytes(testfile.toPath());
+        try (final JP2PositionalFileReader reader = new JP2PositionalFileReader(testfile)) {
+            final JP2PositionalFileReader otherCursor = reader.newCursor();
+            final JP2ParsingException[] failure = new JP2ParsingException[1];
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // The channel sees the interrupt as soon as the read starts, and closes itself
+                    Thread.currentThread().interrupt();
+                    try {
+                        otherCursor.getByteBuffer(0, 100);
+                    } catch (JP2ParsingException ex) {
+                        failure[0] = ex;
+                    }
+                }
+            });
+            thread.start();
+            thread.join();
+            assertNotNull(failure[0]);
+
+            // The other cursors carry on
+            ByteBuffer buffer = reader.getByteBuffer(200, 100);
+            assertArrayEquals(Arrays.copyOfRange(expected, 200, 300), buffer.array());
+            assertEquals(480, parse(reader.newCursor()).getImageWidth());
+        }
+    }
+
+    @Test
+    public void testBufferedReader() throws JP2ParsingException {
+        File testfile = getTestFile("/file1.jp2");
+        JP2BufferedReader reader = new JP2BufferedReader(new JP2FileReader(testfile), 512, 2, 8);
+        JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+        parseStrategy.setHeaderOnly(true);
+        JP2Parser.parse(reader, parseStrategy);
+        assertEquals(2, parseStrategy.getXmlList().size());
+        assertEquals(768, parseStrategy.getCodeStream().getXSize());
+        assertEquals(64, parseStrategy.getCodeStream().getCodeBlockWidth());
+
+        // Headers are in the first 1400 bytes, so read-ahead fetches them all on the first miss
+        assertEquals(1, reader.getCacheMisses());
+        assertTrue(reader.getHitRate() > 0.9);
+        assertEquals(3 * 512, reader.getBytesRead());
+
+        JP2ParseStrategy fullParse = parse(new JP2BufferedReader(new JP2FileReader(testfile)));
+        assertTrue(Arrays.equals(parse(new JP2FileReader(testfile)).getCodeStream().getTiles().get(0).getData(),
+                fullParse.getCodeStream().getTiles().get(0).getData()));
+    }
+
+    @Test
+    public void testByteBufferReader() throws Exception {
+        File testfile = getTestFile("/file2.jp2");
+        byte[] fileContents = Files.readAllBytes(testfile.toPath());
+        byte[] expected = parse(new JP2FileReader(testfile)).getCodeStream().getTiles().get(0).getData();
+
+        JP2ParseStrategy fromArray = parse(new JP2ByteBufferReader(fileContents));
+        assertEquals(480, fromArray.getImageWidth());
+        assertEquals(3, fromArray.getChannelDefinitionBox().getNumberOfEntries());
+        assertTrue(Arrays.equals(expected, fromArray.getCodeStream().getTiles().get(0).getData()));
+
+        // Direct buffer, with unrelated bytes either side of the JP2 data
+        ByteBuffer direct = ByteBuffer.allocateDirect(fileContents.length + 20);
+        direct.position(10);
+        direct.put(fileContents);
+        direct.position(10);
+        direct.limit(10 + fileContents.length);
+        JP2ParseStrategy fromDirect = parse(new JP2ByteBufferReader(direct));
+        assertEquals(10, direct.position());
+        JP2Tile tile = fromDirect.getCodeStream().getTiles().get(0);
+        assertTrue(tile.getDataBuffer().isDirect());
+        assertTrue(tile.getDataBuffer().isReadOnly());
+        assertTrue(Arrays.equals(expected, tile.getData()));
+    }
+
+    @Test
+    public void testWindowOverEmbeddedData() throws Exception {
+        File testfile = getTestFile("/file2.jp2");
+        byte[] fileContents = Files.readAllBytes(testfile.toPath());
+        byte[] expected = parse(new JP2FileReader(testfile)).getCodeStream().getTiles().get(0).getData();
+        // Code stream starts after the jp2c box header, and runs to the end of file2.jp2
+        final int codestreamOffset = 117;
+        final int containerHeaderLength = 1000;
+
+        byte[] container = new byte[containerHeaderLength + fileContents.length + 500];
+        Arrays.fill(container, (byte) 0xFF);
+        System.arraycopy(fileContents, 0, container, containerHeaderLength, fileContents.length);
+        JP2Reader containerReader = new JP2ByteBufferReader(container);
+
+        JP2WindowReader fileWindow = new JP2WindowReader(containerReader, containerHeaderLength, fileContents.length);
+        JP2ParseStrategy parseStrategy = parse(fileWindow);
+        assertEquals(480, parseStrategy.getImageWidth());
+        assertFalse(fileWindow.hasDataRemaining());
+        assertTrue(Arrays.equals(expected, parseStrategy.getCodeStream().getTiles().get(0).getData()));
+
+        JP2WindowReader codestreamWindow = new JP2WindowReader(containerReader,
+                containerHeaderLength + codestreamOffset, fileContents.length - codestreamOffset);
+        JP2CodeStream codestream = JP2Parser.parseCodestream(codestreamWindow, false);
+        assertEquals(480, codestream.getXSize());
+        assertEquals(640, codestream.getYSize());
+        assertTrue(Arrays.equals(expected, codestream.getTiles().get(0).getData()));
+    }
+
+    @Test(expected = JP2ParsingException.class)
+    public void testWindowOutsideReader() throws JP2ParsingException {
+        new JP2WindowReader(new JP2ByteBufferReader(new byte[100]), 50, 51);
+    }
+}
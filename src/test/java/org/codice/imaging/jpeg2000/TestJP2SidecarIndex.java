@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the sidecar index.
+ */
+public class TestJP2SidecarIndex {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File copyTestFile(final String testfilename) throws IOException {
+        File testfile = new File(getClass().getResource(testfilename).getFile());
+        assertNotNull("Test file missing", testfile);
+        File copy = mTemporaryFolder.newFile(testfile.getName());
+        Files.copy(testfile.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return copy;
+    }
+
+    @Test
+    public void testCodestream() throws IOException, JP2ParsingException {
+        File image = copyTestFile("/file3.j2k");
+        assertNull(JP2SidecarIndex.read(image));
+        // Only written when asked for
+        JP2SidecarIndex.parseCodestream(image);
+        assertFalse(JP2SidecarIndex.getIndexFile(image).exists());
+        JP2CodeStream parsed = JP2SidecarIndex.parseCodestream(image, true);
+        assertTrue(JP2SidecarIndex.getIndexFile(image).isFile());
+        assertEquals(image.getPath() + ".idx", JP2SidecarIndex.getIndexFile(image).getPath());
+
+        JP2SidecarIndex index = JP2SidecarIndex.read(image);
+        assertNotNull(index);
+        assertEquals(0, index.getNumberOfBoxes());
+        assertEquals(0, index.getCodestreamOffset());
+        assertEquals(image.length(), index.getCodestreamLength());
+        JP2TileIndex tileIndex = parsed.getTileIndex();
+        assertEquals(tileIndex.getNumberOfTileParts(), index.getTileIndex().getNumberOfTileParts());
+        for (int i = 0; i < tileIndex.getNumberOfTileParts(); ++i) {
+            assertEquals(tileIndex.getTileIndex(i), index.getTileIndex().getTileIndex(i));
+            assertEquals(tileIndex.getOffset(i), index.getTileIndex().getOffset(i));
+            assertEquals(tileIndex.getLength(i), index.getTileIndex().getLength(i));
+        }
+
+        // Reopened from the sidecar, and decodes the same
+        JP2CodeStream reopened = JP2SidecarIndex.parseCodestream(image);
+        assertEquals(4, reopened.getTileIndex().getNumberOfTiles());
+        JP2Raster expected = new JP2ImageDecoder(parsed).decode();
+        JP2Raster actual = new JP2ImageDecoder(reopened).decode();
+        for (int c = 0; c < 3; ++c) {
+            assertArrayEquals(expected.getSamples(c), actual.getSamples(c));
+        }
+    }
+
+    @Test
+    public void testBoxDirectory() throws IOException, JP2ParsingException {
+        File image = copyTestFile("/file1.jp2");
+        JP2ParseStrategy parsed = JP2SidecarIndex.parse(image, true);
+        JP2SidecarIndex index = JP2SidecarIndex.read(image);
+        assertNotNull(index);
+        assertEquals("ftyp", index.getBoxType(0));
+        assertEquals(12, index.getBoxOffset(0));
+        int last = index.getNumberOfBoxes() - 1;
+        assertEquals("jp2c", index.getBoxType(last));
+        // The code stream follows the box header
+        assertEquals(index.getBoxOffset(last) + 8, index.getCodestreamOffset());
+        assertEquals(index.getBoxLength(last) - 8, index.getCodestreamLength());
+
+        JP2ParseStrategy reopened = JP2SidecarIndex.parse(image);
+        assertEquals(parsed.getImageWidth(), reopened.getImageWidth());
+        assertEquals(parsed.getColourSpecification().getColourSpace(), reopened.getColourSpecification().getColourSpace());
+        assertEquals(1, reopened.getCodeStream().getTiles().size());
+    }
+
+    @Test
+    public void testStaleIndex() throws IOException, JP2ParsingException {
+        File image = copyTestFile("/file3.j2k");
+        JP2SidecarIndex.parseCodestream(image, true);
+        long lastModified = image.lastModified();
+        assertTrue(image.setLastModified(lastModified - 60000));
+        assertNull(JP2SidecarIndex.read(image));
+        // Indexed again
+        JP2SidecarIndex.parseCodestream(image, true);
+        assertNotNull(JP2SidecarIndex.read(image));
+
+        // Changing the main header, with the same size and time, invalidates the index
+        lastModified = image.lastModified();
+        try (RandomAccessFile file = new RandomAccessFile(image, "rw")) {
+            // Low byte of Xsiz in the SIZ marker segment
+            file.seek(2 + 4 + 2 + 3);
+            int value = file.read();
+            file.seek(2 + 4 + 2 + 3);
+            file.write(value ^ 1);
+        }
+        assertTrue(image.setLastModified(lastModified));
+        assertNull(JP2SidecarIndex.read(image));
+    }
+
+    @Test
+    public void testCorruptIndex() throws IOException, JP2ParsingException {
+        File image = copyTestFile("/file3.j2k");
+        JP2SidecarIndex.parseCodestream(image, true);
+        File indexFile = JP2SidecarIndex.getIndexFile(image);
+        byte[] original = Files.readAllBytes(indexFile.toPath());
+
+        // A huge number of boxes, then a huge number of tile-parts, is refused rather than allocated
+        int[] countOffsets = {4 + 4 + 6 * 8, 4 + 4 + 6 * 8 + 4};
+        for (int countOffset : countOffsets) {
+            byte[] corrupt = original.clone();
+            corrupt[countOffset] = (byte) 0x7F;
+            Files.write(indexFile.toPath(), corrupt);
+            assertNull(JP2SidecarIndex.read(image));
+        }
+
+        // Truncated
+        Files.write(indexFile.toPath(), Arrays.copyOf(original, original.length - 3));
+        assertNull(JP2SidecarIndex.read(image));
+
+        // Rebuilt when parsed
+        assertEquals(4, JP2SidecarIndex.parseCodestream(image, true).getNumberOfTiles());
+        assertNotNull(JP2SidecarIndex.read(image));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the streaming (event driven) parser.
+ */
+public class TestJP2StreamingParser {
+
+    private JP2Reader getTestReader(final String testfilename) throws JP2ParsingException {
+        File testfile = new File(getClass().getResource(testfilename).getFile());
+        assertNotNull("Test file missing", testfile);
+        return new JP2FileReader(testfile);
+    }
+
+    @Test
+    public void testFile1Events() throws JP2ParsingException {
+        final List<String> boxes = new ArrayList<>();
+        final List<Integer> markers = new ArrayList<>();
+        final List<Long> tilePartLengths = new ArrayList<>();
+        final int[] imageSize = new int[2];
+        boolean completed = JP2StreamingParser.parse(getTestReader("/file1.jp2"), new JP2ParseAdapter() {
+            @Override
+            public boolean boxStart(final String boxType, final long offset, final JP2Reader contents) {
+                boxes.add(boxType);
+                return true;
+            }
+
+            @Override
+            public boolean markerSegment(final int markerCode, final long offset, final JP2Reader contents) throws JP2ParsingException {
+                markers.add(markerCode);
+                if (markerCode == JP2CodeStream.SIZ_MARKER_CODE) {
+                    contents.skipBytes(PackageConstants.UNSIGNED_SHORT_LENGTH);
+                    imageSize[0] = contents.readUnsignedInt();
+                    imageSize[1] = contents.readUnsignedInt();
+                }
+                return true;
+            }
+
+            @Override
+            public boolean tilePart(final int tileIndex, final int tilePartIndex, final int numberOfTileParts, final JP2Reader data) throws JP2ParsingException {
+                tilePartLengths.add(data.getLength());
+                return true;
+            }
+        });
+        assertTrue(completed);
+        assertEquals(8, boxes.size());
+        assertEquals("jP  ", boxes.get(0));
+        assertEquals("ftyp", boxes.get(1));
+        assertEquals("xml ", boxes.get(2));
+        assertEquals("jp2h", boxes.get(3));
+        assertEquals("ihdr", boxes.get(4));
+        assertEquals("colr", boxes.get(5));
+        assertEquals("xml ", boxes.get(6));
+        assertEquals("jp2c", boxes.get(7));
+        assertEquals(Integer.valueOf(JP2CodeStream.SIZ_MARKER_CODE), markers.get(0));
+        assertEquals(Integer.valueOf(JP2CodeStream.SOT_MARKER_CODE), markers.get(markers.size() - 1));
+        assertEquals(768, imageSize[0]);
+        assertEquals(512, imageSize[1]);
+        assertEquals(1, tilePartLengths.size());
+        assertEquals(Long.valueOf(649299), tilePartLengths.get(0));
+    }
+
+    @Test
+    public void testStopEarly() throws JP2ParsingException {
+        final List<String> boxes = new ArrayList<>();
+        boolean completed = JP2StreamingParser.parse(getTestReader("/file2.jp2"), new JP2ParseAdapter() {
+            @Override
+            public boolean boxStart(final String boxType, final long offset, final JP2Reader contents) {
+                boxes.add(boxType);
+                return true;
+            }
+
+            @Override
+            public boolean boxEnd(final String boxType) {
+                return !"jp2h".equals(boxType);
+            }
+
+            @Override
+            public boolean tilePart(final int tileIndex, final int tilePartIndex, final int numberOfTileParts, final JP2Reader data) {
+                fail("Should have stopped before the code stream");
+                return false;
+            }
+        });
+        assertFalse(completed);
+        assertFalse(boxes.contains("jp2c"));
+        assertTrue(boxes.contains("cdef"));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the decoded tile cache.
+ */
+public class TestJP2TileCache {
+
+    // The tiles of file3.j2k are 128x128, 72x128, 128x22 and 72x22, with three 8 bit components
+    private static final int FILE3_TILE0_SIZE = 128 * 128 * 3;
+    private static final int FILE3_TILE1_SIZE = 72 * 128 * 3;
+
+    private JP2CodeStream getCodeStream(final String testfilename) throws JP2ParsingException {
+        File testfile = new File(getClass().getResource(testfilename).getFile());
+        assertNotNull("Test file missing", testfile);
+        return JP2Parser.parseCodestream(new JP2FileReader(testfile), false);
+    }
+
+    private void assertSameSamples(final JP2Raster expected, final JP2Raster actual) {
+        for (int c = 0; c < expected.getNumberOfComponents(); ++c) {
+            assertArrayEquals(expected.getSamples(c), actual.getSamples(c));
+        }
+    }
+
+    @Test
+    public void testHitsAndMisses() throws JP2ParsingException {
+        JP2CodeStream cs = getCodeStream("/file3.j2k");
+        JP2ImageDecoder decoder = new JP2ImageDecoder(cs);
+        JP2DecodeParam param = new JP2DecodeParam();
+        param.setRegion(90, 10, 40, 30);
+        JP2Raster expected = decoder.decode(param);
+
+        JP2TileCache cache = new JP2TileCache(1 << 20);
+        decoder.setTileCache(cache);
+        // The region is across the top two tiles, which are decoded whole
+        assertSameSamples(expected, decoder.decode(param));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(FILE3_TILE0_SIZE + FILE3_TILE1_SIZE, cache.getSize());
+
+        // Panning within those tiles does not decode them again
+        param.setRegion(60, 20, 80, 40);
+        JP2Raster panned = decoder.decode(param);
+        decoder.setTileCache(null);
+        assertSameSamples(decoder.decode(param), panned);
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        // Other options are other entries
+        decoder.setTileCache(cache);
+        param.setNumberOfLayers(2);
+        decoder.decode(param);
+        assertEquals(4, cache.getMissCount());
+        assertEquals(4, cache.getNumberOfTiles());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testEviction() throws JP2ParsingException {
+        JP2CodeStream cs = getCodeStream("/file3.j2k");
+        // One thread, so the tiles are decoded in order
+        JP2ImageDecoder decoder = new JP2ImageDecoder(cs, new ForkJoinPool(1));
+        JP2Raster expected = decoder.decode();
+        JP2TileCache cache = new JP2TileCache(FILE3_TILE0_SIZE, true);
+        decoder.setTileCache(cache);
+        assertSameSamples(expected, decoder.decode());
+        // The first tile fills the cache, so it is dropped for the second
+        assertEquals(4, cache.getMissCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, cache.getNumberOfTiles());
+        assertTrue(cache.getSize() <= cache.getMaximumSize());
+
+        // The bottom two tiles are still cached
+        JP2DecodeParam param = new JP2DecodeParam();
+        param.setRegion(0, 130, 200, 20);
+        JP2PixelRaster bytes = new JP2PixelRaster(cs, param, JP2PixelRaster.TYPE_BYTE, false);
+        decoder.decode(bytes);
+        assertEquals(2, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+        for (int c = 0; c < 3; ++c) {
+            for (int i = 0; i < 200 * 20; ++i) {
+                assertEquals(expected.getSamples(c)[130 * 200 + i], bytes.getByteData()[bytes.getBandOffset(c) + i] & 0xFF);
+            }
+        }
+
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getNumberOfTiles());
+    }
+
+    @Test
+    public void testTileTooLarge() throws JP2ParsingException {
+        JP2CodeStream cs = getCodeStream("/file3.j2k");
+        JP2ImageDecoder decoder = new JP2ImageDecoder(cs);
+        JP2DecodeParam param = new JP2DecodeParam();
+        param.setRegion(90, 10, 40, 30);
+        JP2Raster expected = decoder.decode(param);
+
+        // The first tile can never fit, so it is decoded for just the region, and not kept
+        JP2TileCache cache = new JP2TileCache(FILE3_TILE1_SIZE);
+        decoder.setTileCache(cache);
+        assertSameSamples(expected, decoder.decode(param));
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getNumberOfTiles());
+        assertEquals(FILE3_TILE1_SIZE, cache.getSize());
+
+        assertSameSamples(expected, decoder.decode(param));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        assertEquals(0, cache.getEvictionCount());
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for tile decoding, through to component samples.
+ */
+public class TestJP2TileDecoder {
+
+    private JP2Reader getTestReader(final String testfilename) throws JP2ParsingException {
+        File testfile = new File(getClass().getResource(testfilename).getFile());
+        assertNotNull("Test file missing", testfile);
+        return new JP2FileReader(testfile);
+    }
+
+    private JP2CodeStream getCodeStream(final String testfilename) throws JP2ParsingException {
+        JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(getTestReader(testfilename), parseStrategy);
+        return parseStrategy.getCodeStream();
+    }
+
+    private int getSample(final JP2TileDecoder decoder, final int componentIndex, final int x, final int y) {
+        return decoder.getSamples(componentIndex)[y * decoder.getWidth(componentIndex) + x];
+    }
+
+    private long sumSamples(final JP2TileDecoder decoder, final int componentIndex) {
+        long sum = 0;
+        int[] samples = decoder.getSamples(componentIndex);
+        for (int i = 0; i < decoder.getWidth(componentIndex) * decoder.getHeight(componentIndex); ++i) {
+            sum += samples[i];
+        }
+        return sum;
+    }
+
+    @Test
+    public void testLosslessFile1() throws JP2ParsingException {
+        // 5-3 reversible with the reversible component transformation, so this has to be exact
+        JP2CodeStream cs = getCodeStream("/file1.jp2");
+        JP2TileDecoder decoder = new JP2TileDecoder(cs);
+        decoder.decodeTile(0);
+        assertEquals(768, decoder.getWidth(0));
+        assertEquals(512, decoder.getHeight(0));
+        assertEquals(0, getSample(decoder, 0, 0, 0));
+        assertEquals(255, getSample(decoder, 2, 767, 511));
+        assertEquals(105, getSample(decoder, 0, 100, 200));
+        assertEquals(76, getSample(decoder, 1, 100, 200));
+        assertEquals(56, getSample(decoder, 2, 100, 200));
+        assertEquals(29056181, sumSamples(decoder, 0));
+        assertEquals(46697956, sumSamples(decoder, 1));
+        assertEquals(52827351, sumSamples(decoder, 2));
+    }
+
+    @Test
+    public void testIrreversibleTiles() throws JP2ParsingException {
+        // 9-7 irreversible with the irreversible component transformation, over four tiles
+        JP2CodeStream cs = JP2Parser.parseCodestream(getTestReader("/file3.j2k"), false);
+        JP2TileDecoder decoder = new JP2TileDecoder(cs);
+        long[] sums = new long[3];
+        int numberOfSamples = 0;
+        for (int tileIndex = 0; tileIndex < cs.getNumberOfTiles(); ++tileIndex) {
+            decoder.decodeTile(tileIndex);
+            JP2TileLayout layout = decoder.getLayout();
+            if (tileIndex == 0) {
+                assertEquals(0, layout.getComponentX0(0));
+                assertEquals(0, layout.getComponentY0(0));
+                assertEquals(214, getSample(decoder, 0, 10, 20));
+                assertEquals(204, getSample(decoder, 1, 10, 20));
+                assertEquals(170, getSample(decoder, 2, 10, 20));
+            }
+            for (int c = 0; c < sums.length; ++c) {
+                sums[c] += sumSamples(decoder, c);
+            }
+            numberOfSamples += decoder.getWidth(0) * decoder.getHeight(0);
+        }
+        assertEquals(200 * 150, numberOfSamples);
+        assertEquals(3828575, sums[0]);
+        assertEquals(3946486, sums[1]);
+        assertEquals(3661095, sums[2]);
+    }
+
+    @Test
+    public void testSplitTiles() throws JP2ParsingException {
+        // Splitting the work within a tile across threads has to give exactly the same samples
+        ForkJoinPool pool = new ForkJoinPool(4);
+        for (JP2CodeStream cs : new JP2CodeStream[]{getCodeStream("/file1.jp2"), JP2Parser.parseCodestream(getTestReader("/file3.j2k"), false)}) {
+            JP2TileDecoder decoder = new JP2TileDecoder(cs);
+            JP2TileDecoder splitDecoder = new JP2TileDecoder(cs, pool);
+            for (int tileIndex = 0; tileIndex < cs.getNumberOfTiles(); ++tileIndex) {
+                decoder.decodeTile(tileIndex);
+                splitDecoder.decodeTile(tileIndex);
+                for (int c = 0; c < cs.getNumberOfComponentsInImage(); ++c) {
+                    int length = decoder.getWidth(c) * decoder.getHeight(c);
+                    assertArrayEquals(Arrays.copyOf(decoder.getSamples(c), length), Arrays.copyOf(splitDecoder.getSamples(c), length));
+                }
+            }
+        }
+    }
+}
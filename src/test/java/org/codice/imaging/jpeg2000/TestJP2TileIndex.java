@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Codice
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.codice.imaging.jpeg2000;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for tile-part indexing, with and without TLM markers.
+ */
+public class TestJP2TileIndex {
+
+    // Offset of the jp2c box header, and of the SOT marker, in file2.jp2
+    private static final int FILE2_CODESTREAM_BOX_OFFSET = 109;
+    private static final int FILE2_FIRST_SOT_OFFSET = 117 + 2 + 49 + 14 + 21;
+    private static final int TLM_SEGMENT_LENGTH = 2 + 9;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File getTestFile(final String testfilename) {
+        File testfile = new File(getClass().getResource(testfilename).getFile());
+        assertNotNull("Test file missing", testfile);
+        return testfile;
+    }
+
+    @Test
+    public void testScanWithoutTileLengthMarkers() throws JP2ParsingException {
+        JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(new JP2FileReader(getTestFile("/file2.jp2")), parseStrategy);
+        JP2CodeStream cs = parseStrategy.getCodeStream();
+        assertFalse(cs.hasTileLengthMarkers());
+        assertEquals(1, cs.getNumberOfTiles());
+        JP2TileIndex index = cs.getTileIndex();
+        assertEquals(1, index.getNumberOfTileParts());
+        assertEquals(1, index.getNumberOfTilePartsForTile(0));
+        assertEquals(0, index.getTileIndex(0));
+        assertEquals(FILE2_FIRST_SOT_OFFSET, index.getOffset(0));
+        assertEquals(451785 + 14, index.getLength(0));
+        assertEquals(451785, cs.getTileParts(0).get(0).getDataLength());
+    }
+
+    @Test
+    public void testTileLengthMarkers() throws JP2ParsingException, IOException {
+        File original = getTestFile("/file2.jp2");
+        File withTileLengths = mTemporaryFolder.newFile("tlm.jp2");
+        Files.write(withTileLengths.toPath(), insertTileLengthMarker(Files.readAllBytes(original.toPath())));
+
+        JP2ParseStrategy parseStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(new JP2FileReader(withTileLengths), parseStrategy);
+        JP2CodeStream cs = parseStrategy.getCodeStream();
+        assertTrue(cs.hasTileLengthMarkers());
+        JP2TileIndex index = cs.getTileIndex();
+        assertEquals(1, index.getNumberOfTileParts());
+        assertEquals(FILE2_FIRST_SOT_OFFSET + TLM_SEGMENT_LENGTH, index.getOffset(0));
+        assertEquals(451785 + 14, index.getLength(0));
+
+        JP2ParseStrategy originalStrategy = new JP2ParseStrategy();
+        JP2Parser.parse(new JP2FileReader(original), originalStrategy);
+        assertTrue(Arrays.equals(originalStrategy.getCodeStream().getTileParts(0).get(0).getData(),
+                cs.getTileParts(0).get(0).getData()));
+    }
+
+    private byte[] insertTileLengthMarker(final byte[] original) {
+        ByteBuffer buffer = ByteBuffer.allocate(original.length + TLM_SEGMENT_LENGTH);
+        buffer.put(original, 0, FILE2_FIRST_SOT_OFFSET);
+        buffer.putShort((short) 0xFF55);
+        buffer.putShort((short) 9);
+        buffer.put((byte) 0); // Ztlm
+        buffer.put((byte) 0x50); // Stlm: 8 bit tile index, 32 bit length
+        buffer.put((byte) 0);
+        buffer.putInt(451785 + 14);
+        buffer.put(original, FILE2_FIRST_SOT_OFFSET, original.length - FILE2_FIRST_SOT_OFFSET);
+        int codestreamBoxLength = buffer.getInt(FILE2_CODESTREAM_BOX_OFFSET);
+        if (codestreamBoxLength != 0) {
+            buffer.putInt(FILE2_CODESTREAM_BOX_OFFSET, codestreamBoxLength + TLM_SEGMENT_LENGTH);
+        }
+        return buffer.array();
+    }
+}